@@ -0,0 +1,784 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * BatchGeoParser.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.novetta.clavin.extractor.ApacheExtractor;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.gazetteer.query.LuceneGazetteer;
+import com.novetta.clavin.metrics.InMemoryMetrics;
+import com.novetta.clavin.metrics.InMemoryMetrics.Histogram;
+import com.novetta.clavin.metrics.Metric;
+import com.novetta.clavin.resolver.ClavinLocationResolver;
+import com.novetta.clavin.resolver.ResolutionResult;
+import com.novetta.clavin.resolver.ResolvedLocation;
+import com.novetta.clavin.util.Deadline;
+
+/**
+ * Geoparses a batch of documents with a pool of worker threads, writing the
+ * results as newline-delimited JSON.
+ *
+ * Documents are read either from a directory of UTF-8 text files or from a
+ * stream of JSON objects, one per line, holding an id and the text of each
+ * document.  Input is read lazily into a small bounded queue, so batches of
+ * any size can be processed in constant memory; text files larger than
+ * {@link #DEFAULT_STREAMING_THRESHOLD} bytes are parsed as streams rather than
+ * read into memory whole.
+ *
+ * Each worker has its own {@link GeoParser}, so extractors that are not
+ * thread-safe are never shared, while the parsers usually share a single
+ * gazetteer.  Results are written in the order documents complete, one
+ * object per line:
+ *
+ * <pre>
+ * {"id":"doc-1","locations":[{"text":"Boston","offset":12,"geonameId":4930956,"name":"Boston",
+ *   "countryCode":"US","latitude":42.35843,"longitude":-71.05977,"confidence":1.0,"fuzzy":false}]}
+ * </pre>
+ *
+ * Documents that fail are written with an <code>error</code> field instead of
+ * locations, and documents cut short by the per-document deadline are marked
+ * <code>"truncated":true</code>.  Throughput and stage timings are reported
+ * periodically while the batch runs.
+ */
+public class BatchGeoParser {
+    /**
+     * Text files larger than this many bytes are parsed as streams.
+     */
+    public static final long DEFAULT_STREAMING_THRESHOLD = 16L * 1024L * 1024L;
+
+    /**
+     * The default interval between progress reports, in seconds.
+     */
+    public static final long DEFAULT_REPORT_INTERVAL_SECONDS = 10L;
+
+    /**
+     * The default NDJSON field holding the id of each document.
+     */
+    public static final String DEFAULT_ID_FIELD = "id";
+
+    /**
+     * The default NDJSON field holding the text of each document.
+     */
+    public static final String DEFAULT_TEXT_FIELD = "text";
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchGeoParser.class);
+
+    private static final String HELP_OPTION = "help";
+    private static final String INPUT_OPTION = "input";
+    private static final String OUTPUT_OPTION = "output";
+    private static final String INDEX_OPTION = "index";
+    private static final String THREADS_OPTION = "threads";
+    private static final String ID_FIELD_OPTION = "id-field";
+    private static final String TEXT_FIELD_OPTION = "text-field";
+    private static final String MAX_HIT_DEPTH_OPTION = "max-hit-depth";
+    private static final String MAX_CONTEXT_WINDOW_OPTION = "max-context-window";
+    private static final String FUZZY_OPTION = "fuzzy";
+    private static final String DEADLINE_OPTION = "deadline";
+    private static final String REPORT_INTERVAL_OPTION = "report-interval";
+    private static final String DEFAULT_INDEX_DIRECTORY = "./IndexDirectory";
+    private static final String STDIN = "-";
+
+    /**
+     * Tells a worker that no more documents will be queued.
+     */
+    private static final Document END = new Document(null, null, null, null);
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final Supplier<GeoParser> parsers;
+    private final int workers;
+    private final InMemoryMetrics metrics = new InMemoryMetrics();
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder mentions = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private long deadlineMillis = 0L;
+    private long streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+    private long reportIntervalSeconds = DEFAULT_REPORT_INTERVAL_SECONDS;
+    private PrintStream progress;
+
+    /**
+     * Create a new BatchGeoParser.
+     * @param parsers creates the parser used by each worker; called once per worker
+     * @param workers the number of worker threads
+     */
+    public BatchGeoParser(final Supplier<GeoParser> parsers, final int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        this.parsers = parsers;
+        this.workers = workers;
+    }
+
+    /**
+     * Limits the time spent resolving each document; documents that run out of
+     * time are written with the best locations found and marked as truncated.
+     * Streamed documents are not limited.
+     * @param millis the time budget for each document, in milliseconds; zero for no limit
+     */
+    public void setDeadlineMillis(final long millis) {
+        this.deadlineMillis = millis;
+    }
+
+    /**
+     * Sets the size above which text files are parsed as streams.
+     * @param bytes the size, in bytes
+     */
+    public void setStreamingThreshold(final long bytes) {
+        this.streamingThreshold = bytes;
+    }
+
+    /**
+     * Configures periodic progress reports.
+     * @param out where progress is reported; <code>null</code> to disable reports
+     * @param intervalSeconds the interval between reports, in seconds
+     */
+    public void setProgress(final PrintStream out, final long intervalSeconds) {
+        if (intervalSeconds < 1) {
+            throw new IllegalArgumentException("intervalSeconds must be positive: " + intervalSeconds);
+        }
+        this.progress = out;
+        this.reportIntervalSeconds = intervalSeconds;
+    }
+
+    /**
+     * Get the stage timings recorded by the workers' parsers.
+     * @return the metrics
+     */
+    public InMemoryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Parses every document, writing one line of JSON for each to the output.
+     * @param input the documents to parse; read on the calling thread
+     * @param output receives the results; flushed, but not closed
+     * @return the totals for the batch
+     * @throws IOException if an error occurs writing the results
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public Summary run(final Iterator<Document> input, final Writer output) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        BlockingQueue<Document> queue = new ArrayBlockingQueue<>(workers * 4);
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "clavin-batch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService reporter = null;
+        if (progress != null) {
+            reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "clavin-batch-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            Progress report = new Progress(start, queue);
+            reporter.scheduleAtFixedRate(report, reportIntervalSeconds, reportIntervalSeconds, TimeUnit.SECONDS);
+        }
+        List<Future<?>> running = new ArrayList<>(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                GeoParser parser = parsers.get();
+                parser.setMetrics(metrics);
+                running.add(pool.submit(() -> {
+                    work(parser, queue, output);
+                    return null;
+                }));
+            }
+            while (input.hasNext()) {
+                enqueue(queue, input.next(), running);
+            }
+            for (int i = 0; i < workers; i++) {
+                enqueue(queue, END, running);
+            }
+            for (Future<?> worker : running) {
+                worker.get();
+            }
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IllegalStateException("Batch worker failed.", cause);
+        } finally {
+            pool.shutdownNow();
+            if (reporter != null) {
+                reporter.shutdownNow();
+            }
+            synchronized (output) {
+                output.flush();
+            }
+        }
+        Summary summary = new Summary(documents.sum(), mentions.sum(), failures.sum(), System.nanoTime() - start);
+        if (progress != null) {
+            progress.println(summary + "; " + stageTimings());
+        }
+        return summary;
+    }
+
+    /**
+     * Queues a document, giving up if a worker has failed rather than waiting for
+     * space that will never be freed.
+     */
+    private static void enqueue(final BlockingQueue<Document> queue, final Document document,
+            final List<Future<?>> running) throws InterruptedException, ExecutionException {
+        while (!queue.offer(document, 100L, TimeUnit.MILLISECONDS)) {
+            for (Future<?> worker : running) {
+                if (worker.isDone()) {
+                    worker.get();
+                }
+            }
+        }
+    }
+
+    private void work(final GeoParser parser, final BlockingQueue<Document> queue, final Writer output)
+            throws IOException, InterruptedException {
+        for (Document document = queue.take(); document != END; document = queue.take()) {
+            String line = JSON.writeValueAsString(process(parser, document));
+            synchronized (output) {
+                output.write(line);
+                output.write('\n');
+            }
+            documents.increment();
+        }
+    }
+
+    /**
+     * Parses a document, returning its result record.
+     */
+    private ObjectNode process(final GeoParser parser, final Document document) {
+        ObjectNode record = JSON.createObjectNode();
+        record.put("id", document.id);
+        if (document.error != null) {
+            LOG.warn("Skipping document {}: {}", document.id, document.error);
+            record.put("error", document.error);
+            failures.increment();
+            return record;
+        }
+        try {
+            ResolutionResult result = parse(parser, document);
+            ArrayNode locations = record.putArray("locations");
+            for (ResolvedLocation location : result.getLocations()) {
+                locations.add(toJson(location));
+            }
+            if (result.isTruncated()) {
+                record.put("truncated", true);
+            }
+            mentions.add(result.getLocations().size());
+        } catch (Exception e) {
+            LOG.warn("Failed to parse document {}", document.id, e);
+            record.remove("locations");
+            record.put("error", String.valueOf(e.getMessage()));
+            failures.increment();
+        }
+        return record;
+    }
+
+    private ResolutionResult parse(final GeoParser parser, final Document document) throws Exception {
+        if (document.path == null) {
+            return parser.parse(document.text, deadline());
+        }
+        if (Files.size(document.path) <= streamingThreshold) {
+            String text = new String(Files.readAllBytes(document.path), StandardCharsets.UTF_8);
+            return parser.parse(text, deadline());
+        }
+        List<ResolvedLocation> locations = new ArrayList<>();
+        try (Reader reader = Files.newBufferedReader(document.path, StandardCharsets.UTF_8)) {
+            parser.parse(reader, locations::add);
+        }
+        return new ResolutionResult(locations, false);
+    }
+
+    private Deadline deadline() {
+        return deadlineMillis > 0 ? Deadline.afterMillis(deadlineMillis) : Deadline.NONE;
+    }
+
+    private static ObjectNode toJson(final ResolvedLocation location) {
+        GeoName geoname = location.getGeoname();
+        ObjectNode node = JSON.createObjectNode();
+        node.put("text", location.getLocation().getText());
+        node.put("offset", location.getLocation().getPosition());
+        node.put("geonameId", geoname.getGeonameID());
+        node.put("name", geoname.getName());
+        node.put("countryCode", geoname.getPrimaryCountryCode() != null ? geoname.getPrimaryCountryCode().name() : null);
+        node.put("latitude", geoname.getLatitude());
+        node.put("longitude", geoname.getLongitude());
+        node.put("confidence", location.getConfidence());
+        node.put("fuzzy", location.isFuzzy());
+        return node;
+    }
+
+    private String stageTimings() {
+        return String.format("parse %s, extraction %s, resolution %s", timing(Metric.PARSE),
+                timing(Metric.EXTRACTION), timing(Metric.RESOLUTION));
+    }
+
+    private String timing(final Metric metric) {
+        Histogram histogram = metrics.getHistogram(metric);
+        return String.format("mean %.1f ms p95 %.1f ms", histogram.getMean() / 1e6, histogram.getPercentile(0.95) / 1e6);
+    }
+
+    /**
+     * Reports throughput since the batch started and since the previous report.
+     */
+    private final class Progress implements Runnable {
+        private final long start;
+        private final BlockingQueue<Document> queue;
+        private long lastNanos;
+        private long lastDocuments = 0L;
+        private long lastMentions = 0L;
+
+        private Progress(final long start, final BlockingQueue<Document> queue) {
+            this.start = start;
+            this.queue = queue;
+            this.lastNanos = start;
+        }
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            long docs = documents.sum();
+            long found = mentions.sum();
+            double interval = (now - lastNanos) / 1e9;
+            progress.println(String.format("%s (last %.0f s: %.1f docs/sec, %.1f mentions/sec); queued %d; %s",
+                    new Summary(docs, found, failures.sum(), now - start), interval,
+                    (docs - lastDocuments) / interval, (found - lastMentions) / interval, queue.size(), stageTimings()));
+            lastNanos = now;
+            lastDocuments = docs;
+            lastMentions = found;
+        }
+    }
+
+    /**
+     * A document to parse: either its text or the file holding it.
+     */
+    public static final class Document {
+        private final String id;
+        private final String text;
+        private final Path path;
+        private final String error;
+
+        private Document(final String id, final String text, final Path path, final String error) {
+            this.id = id;
+            this.text = text;
+            this.path = path;
+            this.error = error;
+        }
+
+        /**
+         * Create a document from its text.
+         * @param id identifies the document in the results
+         * @param text the text
+         * @return the document
+         */
+        public static Document of(final String id, final String text) {
+            return new Document(id, text, null, null);
+        }
+
+        /**
+         * Create a document read from a UTF-8 text file when it is parsed.
+         * @param path the file; its path identifies the document in the results
+         * @return the document
+         */
+        public static Document of(final Path path) {
+            return new Document(path.toString(), null, path, null);
+        }
+
+        /**
+         * Get the id of the document.
+         * @return the id
+         */
+        public String getId() {
+            return id;
+        }
+    }
+
+    /**
+     * Lazily lists the regular files in a directory tree as documents.
+     * @param directory the directory
+     * @return the documents, in no particular order; the listing is closed once exhausted
+     * @throws IOException if the directory cannot be read
+     */
+    public static Iterator<Document> fromDirectory(final Path directory) throws IOException {
+        Stream<Path> files = Files.walk(directory).filter(Files::isRegularFile);
+        Iterator<Path> paths = files.iterator();
+        return new Iterator<Document>() {
+            @Override
+            public boolean hasNext() {
+                if (paths.hasNext()) {
+                    return true;
+                }
+                files.close();
+                return false;
+            }
+
+            @Override
+            public Document next() {
+                return Document.of(paths.next());
+            }
+        };
+    }
+
+    /**
+     * Lazily reads documents from newline-delimited JSON, one object per line.
+     * Blank lines are skipped; lines that are not objects holding a text field
+     * become documents that fail with an explanation.
+     * @param reader the JSON; read line by line, not closed
+     * @param idField the field holding the id of each document; the line number is used when it is missing
+     * @param textField the field holding the text of each document
+     * @return the documents, in input order
+     */
+    public static Iterator<Document> fromNdjson(final Reader reader, final String idField, final String textField) {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        return new Iterator<Document>() {
+            private long lineNumber = 0L;
+            private Document next;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    String line;
+                    while (next == null && (line = lines.readLine()) != null) {
+                        lineNumber++;
+                        if (!line.trim().isEmpty()) {
+                            next = parseLine(line, lineNumber, idField, textField);
+                        }
+                    }
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+                return next != null;
+            }
+
+            @Override
+            public Document next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Document document = next;
+                next = null;
+                return document;
+            }
+        };
+    }
+
+    private static Document parseLine(final String line, final long lineNumber, final String idField,
+            final String textField) {
+        String fallbackId = "line " + lineNumber;
+        JsonNode node;
+        try {
+            node = JSON.readTree(line);
+        } catch (JsonProcessingException jpe) {
+            return new Document(fallbackId, null, null, "Malformed JSON: " + jpe.getOriginalMessage());
+        }
+        if (!node.isObject()) {
+            return new Document(fallbackId, null, null, "Expected a JSON object");
+        }
+        JsonNode id = node.get(idField);
+        String documentId = id != null && !id.isNull() ? id.asText() : fallbackId;
+        JsonNode text = node.get(textField);
+        if (text == null || !text.isTextual()) {
+            return new Document(documentId, null, null, String.format("Missing text field '%s'", textField));
+        }
+        return Document.of(documentId, text.asText());
+    }
+
+    /**
+     * The totals for a batch.
+     */
+    public static final class Summary {
+        private final long documents;
+        private final long mentions;
+        private final long failures;
+        private final long elapsedNanos;
+
+        private Summary(final long documents, final long mentions, final long failures, final long elapsedNanos) {
+            this.documents = documents;
+            this.mentions = mentions;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Get the number of documents processed, including failures.
+         * @return the number of documents
+         */
+        public long getDocuments() {
+            return documents;
+        }
+
+        /**
+         * Get the number of locations resolved.
+         * @return the number of locations
+         */
+        public long getMentions() {
+            return mentions;
+        }
+
+        /**
+         * Get the number of documents that could not be parsed.
+         * @return the number of failures
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * Get the time taken by the batch.
+         * @return the elapsed time, in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(elapsedNanos, 1L) / 1e9;
+            return String.format("%d documents, %d mentions, %d failures in %.1f s: %.1f docs/sec, %.1f mentions/sec",
+                    documents, mentions, failures, seconds, documents / seconds, mentions / seconds);
+        }
+    }
+
+    /**
+     * Geoparses a batch of documents from the command line.  Run with
+     * <code>--help</code> for the available options.
+     *
+     * @param args              the command line options
+     * @throws Exception        if the batch cannot be run
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = getOptions();
+        CommandLine cmd = null;
+        CommandLineParser parser = new DefaultParser();
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException pe) {
+            LOG.error(pe.getMessage());
+            printHelp(options);
+            System.exit(-1);
+        }
+
+        if (cmd.hasOption(HELP_OPTION)) {
+            printHelp(options);
+            System.exit(0);
+        }
+
+        String inputPath = cmd.getOptionValue(INPUT_OPTION);
+        String outputPath = cmd.getOptionValue(OUTPUT_OPTION);
+        if (inputPath == null || outputPath == null) {
+            LOG.error("Both an input and an output must be provided.");
+            printHelp(options);
+            System.exit(-1);
+        }
+        int threads = intOption(cmd, THREADS_OPTION, Runtime.getRuntime().availableProcessors(), 1);
+        int maxHitDepth = intOption(cmd, MAX_HIT_DEPTH_OPTION, ClavinLocationResolver.DEFAULT_MAX_HIT_DEPTH, 1);
+        int maxContextWindow = intOption(cmd, MAX_CONTEXT_WINDOW_OPTION, ClavinLocationResolver.DEFAULT_MAX_CONTEXT_WINDOW, 1);
+        int deadline = intOption(cmd, DEADLINE_OPTION, 0, 0);
+        int reportInterval = intOption(cmd, REPORT_INTERVAL_OPTION, (int) DEFAULT_REPORT_INTERVAL_SECONDS, 1);
+        boolean fuzzy = cmd.hasOption(FUZZY_OPTION);
+
+        File input = new File(inputPath);
+        if (!STDIN.equals(inputPath) && !input.canRead()) {
+            LOG.error("Unable to read input: {}", input.getAbsolutePath());
+            System.exit(-1);
+        }
+
+        try (LuceneGazetteer gazetteer = new LuceneGazetteer(new File(cmd.getOptionValue(INDEX_OPTION, DEFAULT_INDEX_DIRECTORY)));
+                Reader ndjson = input.isDirectory() ? null : new InputStreamReader(
+                        STDIN.equals(inputPath) ? System.in : Files.newInputStream(input.toPath()), StandardCharsets.UTF_8);
+                Writer output = new BufferedWriter(new OutputStreamWriter(
+                        Files.newOutputStream(new File(outputPath).toPath()), StandardCharsets.UTF_8))) {
+            BatchGeoParser batch = new BatchGeoParser(() -> {
+                try {
+                    // extractors are not thread-safe, so each worker gets its own
+                    return new GeoParser(new ApacheExtractor(), gazetteer, maxHitDepth, maxContextWindow, fuzzy);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException("Unable to load extractor models", ioe);
+                }
+            }, threads);
+            gazetteer.setMetrics(batch.getMetrics());
+            batch.setDeadlineMillis(deadline);
+            batch.setProgress(System.err, reportInterval);
+            Iterator<Document> documents = ndjson == null ? fromDirectory(input.toPath()) :
+                    fromNdjson(ndjson, cmd.getOptionValue(ID_FIELD_OPTION, DEFAULT_ID_FIELD),
+                            cmd.getOptionValue(TEXT_FIELD_OPTION, DEFAULT_TEXT_FIELD));
+            Summary summary = batch.run(documents, output);
+            if (summary.getFailures() > 0) {
+                LOG.warn("{} documents could not be parsed.", summary.getFailures());
+            }
+        }
+    }
+
+    private static int intOption(final CommandLine cmd, final String option, final int defaultValue, final int minimum) {
+        String value = cmd.getOptionValue(option);
+        if (value == null) {
+            return defaultValue;
+        }
+        int parsed = minimum - 1;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+            // reported below
+        }
+        if (parsed < minimum) {
+            LOG.error("Invalid value for {}: {} (must be an integer of at least {})", option, value, minimum);
+            printHelp(getOptions());
+            System.exit(-1);
+        }
+        return parsed;
+    }
+
+    private static Options getOptions() {
+        Options options = new Options();
+
+        options.addOption(Option.builder("?")
+                .longOpt(HELP_OPTION)
+                .desc("Print help")
+                .build());
+
+        options.addOption(Option.builder("i")
+                .longOpt(INPUT_OPTION)
+                .desc(String.format("A directory of UTF-8 text files, or a file of newline-delimited JSON documents; "
+                        + "'%s' reads newline-delimited JSON from standard input.", STDIN))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder("o")
+                .longOpt(OUTPUT_OPTION)
+                .desc("The file to write newline-delimited JSON results to.")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(INDEX_OPTION)
+                .desc(String.format("The path to the gazetteer index directory. Default: %s", DEFAULT_INDEX_DIRECTORY))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder("t")
+                .longOpt(THREADS_OPTION)
+                .desc("The number of parsing workers. Default: the number of processors")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(ID_FIELD_OPTION)
+                .desc(String.format("The JSON field holding the id of each document. Default: %s", DEFAULT_ID_FIELD))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(TEXT_FIELD_OPTION)
+                .desc(String.format("The JSON field holding the text of each document. Default: %s", DEFAULT_TEXT_FIELD))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(MAX_HIT_DEPTH_OPTION)
+                .desc(String.format("The number of candidate matches to consider for each location name. Default: %d",
+                        ClavinLocationResolver.DEFAULT_MAX_HIT_DEPTH))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(MAX_CONTEXT_WINDOW_OPTION)
+                .desc(String.format("The number of location names resolved together. Default: %d",
+                        ClavinLocationResolver.DEFAULT_MAX_CONTEXT_WINDOW))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(FUZZY_OPTION)
+                .desc("Use fuzzy matching.")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(DEADLINE_OPTION)
+                .desc("When provided, the time budget for resolving each document, in milliseconds. Documents that "
+                        + "run out of time are marked as truncated.")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(REPORT_INTERVAL_OPTION)
+                .desc(String.format("The interval between progress reports on standard error, in seconds. Default: %d",
+                        DEFAULT_REPORT_INTERVAL_SECONDS))
+                .hasArg()
+                .build());
+
+        return options;
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("run", options, true);
+    }
+}
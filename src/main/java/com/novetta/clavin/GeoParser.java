@@ -1,13 +1,27 @@
 package com.novetta.clavin;
 
+import com.novetta.clavin.cache.DocumentCache;
 import com.novetta.clavin.extractor.LocationExtractor;
 import com.novetta.clavin.extractor.LocationOccurrence;
 import com.novetta.clavin.gazetteer.query.AncestryMode;
 import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.metrics.ClavinMetrics;
+import com.novetta.clavin.metrics.Metric;
+import com.novetta.clavin.metrics.RequestTrace;
+import com.novetta.clavin.metrics.RequestTracer;
 import com.novetta.clavin.resolver.ClavinLocationResolver;
+import com.novetta.clavin.resolver.ResolutionResult;
 import com.novetta.clavin.resolver.ResolvedLocation;
+import com.novetta.clavin.util.Deadline;
+import com.novetta.clavin.util.SentenceBlockReader;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,7 +62,7 @@ import org.slf4j.LoggerFactory;
  * call the {@link GeoParser#parse} method on your text string.
  *
  */
-public class GeoParser {
+public class GeoParser implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(GeoParser.class);
 
@@ -67,6 +81,21 @@ public class GeoParser {
     // switch controlling use of fuzzy matching
     private final boolean fuzzy;
 
+    // cache of whole-document results; null if caching is disabled
+    private final DocumentCache documentCache;
+
+    // receives stage timings and cache counters
+    private volatile ClavinMetrics metrics = ClavinMetrics.NOOP;
+
+    // reports slow documents; null if tracing is disabled
+    private volatile RequestTracer tracer;
+
+    // lowers resolution quality under pressure; null to always resolve at full quality
+    private volatile LoadShedder loadShedder;
+
+    // releases shared resources when this parser is closed; null if it holds none
+    private final AtomicReference<Closeable> resources = new AtomicReference<>();
+
     /**
      * Default constructor.
      *
@@ -77,11 +106,130 @@ public class GeoParser {
      * @param fuzzy               switch to turn on/off fuzzy matching
      */
     public GeoParser(LocationExtractor extractor, Gazetteer gazetteer, int maxHitDepth, int maxContextWindow, boolean fuzzy) {
+        this(extractor, gazetteer, maxHitDepth, maxContextWindow, fuzzy, null);
+    }
+
+    /**
+     * Builds a GeoParser that caches the results of whole documents, so
+     * that repeated copies of a document are only parsed once.
+     *
+     * @param extractor           extracts location names from text
+     * @param gazetteer           resolves location names to gazetteer
+     * @param maxHitDepth         the maximum hit depth
+     * @param maxContextWindow    the maximum context window
+     * @param fuzzy               switch to turn on/off fuzzy matching
+     * @param documentCache       caches whole-document results; <code>null</code> to disable caching
+     */
+    public GeoParser(LocationExtractor extractor, Gazetteer gazetteer, int maxHitDepth, int maxContextWindow, boolean fuzzy,
+            DocumentCache documentCache) {
         this.extractor = extractor;
         this.resolver = new ClavinLocationResolver(gazetteer);
         this.maxHitDepth = maxHitDepth;
         this.maxContextWindow = maxContextWindow;
         this.fuzzy = fuzzy;
+        this.documentCache = documentCache;
+    }
+
+    /**
+     * Registers the resources to release when this parser is closed; used by
+     * {@link GeoParserFactory} for references to shared resources.
+     *
+     * @param release       releases the resources
+     */
+    void releaseOnClose(final Closeable release) {
+        resources.set(release);
+    }
+
+    /**
+     * Releases the resources held by this parser.  Parsers created by
+     * {@link GeoParserFactory} release their references to the shared gazetteer
+     * and extraction models, which are closed once no parser uses them.  For
+     * parsers created with a constructor this does nothing; the extractor and
+     * gazetteer remain the caller's to close.  Closing a parser more than once
+     * has no further effect.
+     *
+     * @throws IOException  if an error occurs closing a shared resource
+     */
+    @Override
+    public void close() throws IOException {
+        Closeable release = resources.getAndSet(null);
+        if (release != null) {
+            release.close();
+        }
+    }
+
+    /**
+     * Get the cache of whole-document results.
+     *
+     * @return              the document cache, or <code>null</code> if caching is disabled
+     */
+    public DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    /**
+     * Configures where this parser, and the resolver it uses, record their
+     * stage timings and cache counters.  Gazetteer metrics are configured
+     * on the gazetteer itself.
+     *
+     * @param metrics       the metrics to record to; <code>null</code> to discard them
+     */
+    public void setMetrics(ClavinMetrics metrics) {
+        this.metrics = ClavinMetrics.orNoop(metrics);
+        resolver.setMetrics(metrics);
+    }
+
+    /**
+     * Get the metrics this parser records to.
+     *
+     * @return              the configured metrics; never <code>null</code>
+     */
+    public ClavinMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Configures tracing of slow documents.  The trace of each document
+     * records every gazetteer query made while resolving it and every
+     * combination search performed, and is reported by the tracer only
+     * if the document takes at least the tracer's threshold to parse.
+     *
+     * @param tracer        the tracer that reports slow documents; <code>null</code> to disable tracing
+     */
+    public void setTracer(RequestTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Get the tracer that reports slow documents.
+     *
+     * @return              the tracer, or <code>null</code> if tracing is disabled
+     */
+    public RequestTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Configures adaptive load shedding.  While the shedder reports pressure,
+     * documents are resolved with fewer candidates, a smaller context window
+     * and no fuzzy matching, or by population alone, and the configured
+     * settings are restored as the pressure drops.  The level each document,
+     * or each window of a streamed document, is resolved at is recorded as
+     * {@link Metric#RESOLUTION_LEVEL}.
+     *
+     * @param loadShedder   decides the resolution level; <code>null</code> to always use the configured settings
+     */
+    public void setLoadShedder(LoadShedder loadShedder) {
+        this.loadShedder = loadShedder;
+    }
+
+    /**
+     * Get the load shedder that decides the resolution level.
+     *
+     * @return              the load shedder, or <code>null</code> if load shedding is disabled
+     */
+    public LoadShedder getLoadShedder() {
+        return loadShedder;
     }
 
     /**
@@ -110,27 +258,214 @@ public class GeoParser {
      * @throws Exception	throws exception on parsing input text
      */
     public List<ResolvedLocation> parse(String inputText, AncestryMode ancestryMode) throws Exception {
+        return parse(inputText, ancestryMode, Deadline.NONE).getLocations();
+    }
+
+    /**
+     * Takes an unstructured text document (as a String), extracts the
+     * location names contained therein, and resolves them into
+     * geographic entities representing the best match for those
+     * location names, returning early with the best answer found so far
+     * if the deadline passes.
+     *
+     * Extraction runs to completion; the deadline bounds the gazetteer
+     * queries and the search for the best combination of candidates.
+     * Truncated results are not added to the document cache.
+     *
+     * @param inputText     unstructured text to be processed
+     * @param deadline      the deadline; <code>null</code> or {@link Deadline#NONE} to parse completely
+     * @return              geo entities resolved from text and whether the deadline cut resolution short
+     * @throws Exception	throws exception on parsing input text
+     */
+    public ResolutionResult parse(String inputText, Deadline deadline) throws Exception {
+        return parse(inputText, ClavinLocationResolver.DEFAULT_ANCESTRY_MODE, deadline);
+    }
+
+    /**
+     * Takes an unstructured text document (as a String), extracts the
+     * location names contained therein, and resolves them into
+     * geographic entities representing the best match for those
+     * location names, returning early with the best answer found so far
+     * if the deadline passes.
+     *
+     * @param inputText     unstructured text to be processed
+     * @param ancestryMode  the ancestry load mode
+     * @param deadline      the deadline; <code>null</code> or {@link Deadline#NONE} to parse completely
+     * @return              geo entities resolved from text and whether the deadline cut resolution short
+     * @throws Exception	throws exception on parsing input text
+     * @see #parse(String, Deadline)
+     */
+    public ResolutionResult parse(String inputText, AncestryMode ancestryMode, Deadline deadline) throws Exception {
+        RequestTracer requestTracer = tracer;
+        RequestTrace trace = requestTracer != null ?
+                requestTracer.begin("parse", String.format("%d characters", inputText == null ? 0 : inputText.length())) : null;
+        LoadShedder shedder = loadShedder;
+        long start = System.nanoTime();
+        try {
+            return parseDocument(inputText, ancestryMode, Deadline.orNone(deadline), currentLevel(shedder));
+        } finally {
+            if (shedder != null) {
+                shedder.recordLatency(System.nanoTime() - start);
+            }
+            if (requestTracer != null) {
+                requestTracer.end(trace);
+            }
+        }
+    }
 
+    /**
+     * Evaluates the load shedder, recording the level chosen.
+     */
+    private LoadShedder.Level currentLevel(LoadShedder shedder) {
+        if (shedder == null) {
+            return LoadShedder.Level.FULL;
+        }
+        LoadShedder.Level level = shedder.currentLevel();
+        metrics.record(Metric.RESOLUTION_LEVEL, level.ordinal());
+        return level;
+    }
+
+    private ResolutionResult parseDocument(String inputText, AncestryMode ancestryMode, Deadline deadline,
+            LoadShedder.Level level) throws Exception {
         logger.trace("input: {}", inputText);
+        ClavinMetrics stageMetrics = metrics;
+        long parseStart = System.nanoTime();
+        int hitDepth = level.maxHitDepth(maxHitDepth);
+        int contextWindow = level.maxContextWindow(maxContextWindow);
+        boolean useFuzzy = level.fuzzy(fuzzy);
+
+        String cacheKey = null;
+        if (documentCache != null) {
+            // degraded results are cached under their own settings
+            cacheKey = DocumentCache.key(inputText, hitDepth, contextWindow, useFuzzy, ancestryMode,
+                    extractor.getClass().getName());
+            List<ResolvedLocation> cached = documentCache.get(cacheKey);
+            if (cached != null) {
+                logger.trace("cached: {}", cached);
+                stageMetrics.increment(Metric.DOCUMENT_CACHE_HIT);
+                stageMetrics.recordSince(Metric.PARSE, parseStart);
+                return new ResolutionResult(cached, false);
+            }
+            stageMetrics.increment(Metric.DOCUMENT_CACHE_MISS);
+        }
 
-        long extractStart = System.currentTimeMillis();
+        long extractStart = System.nanoTime();
         // first, extract location names from the text
         List<LocationOccurrence> locationNames = extractor.extractLocationNames(inputText);
-        long extractEnd = System.currentTimeMillis();
+        long extractEnd = System.nanoTime();
+        stageMetrics.record(Metric.EXTRACTION, extractEnd - extractStart);
 
         logger.trace("extracted: {}", locationNames);
 
-        long resolveStart = System.currentTimeMillis();
+        long resolveStart = System.nanoTime();
         // then, resolve the extracted location names against a
         // gazetteer to produce geographic entities representing the
         // locations mentioned in the original text
-        List<ResolvedLocation> resolvedLocations = resolver.resolveLocations(locationNames, maxHitDepth, maxContextWindow, fuzzy, ancestryMode);
-        long resolveEnd = System.currentTimeMillis();
+        ResolutionResult result = resolver.resolveLocations(locationNames, hitDepth, contextWindow, useFuzzy,
+                ancestryMode, null, null, deadline);
+        List<ResolvedLocation> resolvedLocations = result.getLocations();
+        long resolveEnd = System.nanoTime();
 
         logger.trace("resolved: {}", resolvedLocations);
-        logger.debug("Extractor Time: {} ms, Resolver Time: {} ms", extractEnd - extractStart, resolveEnd - resolveStart);
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Extractor Time: %.3f ms, Resolver Time: %.3f ms",
+                    (extractEnd - extractStart) / 1e6, (resolveEnd - resolveStart) / 1e6));
+        }
+
+        // don't cache extractor failures or answers cut short by the deadline
+        if (cacheKey != null && locationNames != null && !result.isTruncated()) {
+            documentCache.put(cacheKey, ancestryMode, resolvedLocations);
+        }
+
+        stageMetrics.recordSince(Metric.PARSE, parseStart);
+        return result;
+    }
 
-        return resolvedLocations;
+    /**
+     * Geoparses a character stream, passing each resolved location to a
+     * callback as soon as it is available, without holding the whole
+     * document in memory.
+     *
+     * The document is read in blocks of whole sentences, and extracted
+     * location names are resolved in windows of <code>maxContextWindow</code>
+     * occurrences as each window fills up, so memory use is bounded by the
+     * block size and context window rather than the document length.
+     * Because context heuristics only consider the occurrences within each
+     * window, results may differ slightly from {@link #parse(String)} near
+     * window boundaries.
+     *
+     * @param reader        unstructured text to be processed; not closed
+     * @param consumer      receives the geo entities resolved from text, in document order
+     * @throws IOException      if an error occurs reading the text
+     * @throws ClavinException  if an error occurs resolving location names
+     */
+    public void parse(Reader reader, Consumer<ResolvedLocation> consumer) throws IOException, ClavinException {
+        parse(reader, ClavinLocationResolver.DEFAULT_ANCESTRY_MODE, consumer);
     }
 
+    /**
+     * Geoparses a character stream, passing each resolved location to a
+     * callback as soon as it is available, without holding the whole
+     * document in memory.
+     *
+     * @param reader        unstructured text to be processed; not closed
+     * @param ancestryMode  the ancestry load mode
+     * @param consumer      receives the geo entities resolved from text, in document order
+     * @throws IOException      if an error occurs reading the text
+     * @throws ClavinException  if an error occurs resolving location names
+     * @see #parse(Reader, Consumer)
+     */
+    public void parse(Reader reader, AncestryMode ancestryMode, Consumer<ResolvedLocation> consumer)
+            throws IOException, ClavinException {
+        final List<LocationOccurrence> window = new ArrayList<>();
+        try {
+            extractor.extractLocationNames(reader, SentenceBlockReader.DEFAULT_MAX_BLOCK_SIZE, occurrence -> {
+                window.add(occurrence);
+                if (window.size() >= maxContextWindow) {
+                    resolveWindow(window, ancestryMode, consumer);
+                }
+            });
+            resolveWindow(window, ancestryMode, consumer);
+        } catch (ResolutionFailure failure) {
+            throw failure.getCause();
+        }
+    }
+
+    /**
+     * Resolves a window of location names, passes the results on and empties the window.
+     */
+    private void resolveWindow(List<LocationOccurrence> window, AncestryMode ancestryMode,
+            Consumer<ResolvedLocation> consumer) {
+        if (window.isEmpty()) {
+            return;
+        }
+        logger.trace("extracted: {}", window);
+        LoadShedder.Level level = currentLevel(loadShedder);
+        List<ResolvedLocation> resolvedLocations;
+        try {
+            resolvedLocations = resolver.resolveLocations(window, level.maxHitDepth(maxHitDepth),
+                    level.maxContextWindow(maxContextWindow), level.fuzzy(fuzzy), ancestryMode);
+        } catch (ClavinException e) {
+            throw new ResolutionFailure(e);
+        }
+        logger.trace("resolved: {}", resolvedLocations);
+        window.clear();
+        resolvedLocations.forEach(consumer);
+    }
+
+    /**
+     * Carries a resolution error out of the extraction callback.
+     */
+    private static final class ResolutionFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ResolutionFailure(ClavinException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized ClavinException getCause() {
+            return (ClavinException) super.getCause();
+        }
+    }
 }
@@ -2,11 +2,16 @@ package com.novetta.clavin;
 
 import com.novetta.clavin.extractor.ApacheExtractor;
 import com.novetta.clavin.extractor.LocationExtractor;
-import com.novetta.clavin.gazetteer.query.Gazetteer;
 import com.novetta.clavin.gazetteer.query.LuceneGazetteer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /*#####################################################################
  *
@@ -40,9 +45,29 @@ import java.io.IOException;
  * Simple Factory for the creation of GeoParser instances.  The 'default'
  * instance being Apache OpenNLP as the Extractor and a local Lucene index
  * as the LocationResolver.
+ *
+ * The expensive parts of a parser are shared: all parsers for the same
+ * index path use one {@link LuceneGazetteer}, and all parsers using the
+ * default extractor use one set of OpenNLP models, so creating parsers
+ * with different settings costs little more than the parser itself.
+ * Shared resources are reference counted; close each parser with
+ * {@link GeoParser#close()} when it is no longer needed, and the gazetteer
+ * and models are released once the last parser using them is closed.
  */
 public class GeoParserFactory {
 
+    /**
+     * Gazetteers shared by parsers, by canonical index path; guarded by GeoParserFactory.class.
+     * Gazetteers are opened outside the lock, so an entry may still be opening.
+     */
+    private static final Map<String, Shared<LuceneGazetteer>> GAZETTEERS = new HashMap<>();
+
+    /**
+     * Extraction models shared by parsers using the default extractor; guarded by
+     * GeoParserFactory.class.  <code>null</code> when no parser is using them.
+     */
+    private static Shared<ApacheExtractor.Models> models;
+
     /**
      * Get the default GeoParser, with maxHitDepth and maxContentWindow
      * both set to 1, and fuzzy matching turned off.
@@ -94,12 +119,14 @@ public class GeoParserFactory {
      */
     public static GeoParser getDefault(String pathToLuceneIndex, int maxHitDepth, int maxContentWindow, boolean fuzzy)
                     throws ClavinException {
+        // instantiate default LocationExtractor over the shared models
+        Shared<ApacheExtractor.Models> sharedModels = acquireModels();
         try {
-            // instantiate default LocationExtractor
-            LocationExtractor extractor = new ApacheExtractor();
-            return getDefault(pathToLuceneIndex, extractor, maxHitDepth, maxContentWindow, fuzzy);
-        } catch (IOException ioe) {
-            throw new ClavinException("Error creating ApacheExtractor", ioe);
+            return create(pathToLuceneIndex, new ApacheExtractor(sharedModels.await()), sharedModels,
+                    maxHitDepth, maxContentWindow, fuzzy);
+        } catch (ClavinException | RuntimeException e) {
+            releaseModels(sharedModels);
+            throw e;
         }
     }
 
@@ -118,8 +145,207 @@ public class GeoParserFactory {
      */
     public static GeoParser getDefault(String pathToLuceneIndex, LocationExtractor extractor, int maxHitDepth,
             int maxContentWindow, boolean fuzzy) throws ClavinException {
-        // instantiate new LuceneGazetteer
-        Gazetteer gazetteer = new LuceneGazetteer(new File(pathToLuceneIndex));
-        return new GeoParser(extractor, gazetteer, maxHitDepth, maxContentWindow, fuzzy);
+        return create(pathToLuceneIndex, extractor, null, maxHitDepth, maxContentWindow, fuzzy);
+    }
+
+    /**
+     * Closes all shared gazetteers and releases the shared extraction models,
+     * whether or not parsers are still using them; for use when shutting down.
+     * Parsers created before this call fail once their gazetteer is closed, and
+     * closing them afterwards has no effect.
+     *
+     * @throws IOException          If an error occurs closing a gazetteer.
+     */
+    public static void closeShared() throws IOException {
+        List<Shared<LuceneGazetteer>> gazetteers;
+        synchronized (GeoParserFactory.class) {
+            gazetteers = new ArrayList<>(GAZETTEERS.values());
+            GAZETTEERS.clear();
+            models = null;
+        }
+        IOException failure = null;
+        for (Shared<LuceneGazetteer> shared : gazetteers) {
+            try {
+                // waits for gazetteers that are still opening; those that failed have nothing to close
+                LuceneGazetteer gazetteer = shared.resource.handle((opened, error) -> opened).join();
+                if (gazetteer != null) {
+                    gazetteer.close();
+                }
+            } catch (IOException ioe) {
+                if (failure == null) {
+                    failure = ioe;
+                } else {
+                    failure.addSuppressed(ioe);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Get the number of open parsers using the shared gazetteer for an index.
+     *
+     * @param pathToLuceneIndex     Path to the local Lucene index.
+     * @return                      the number of parsers; 0 if the gazetteer is not open
+     */
+    static synchronized int getReferenceCount(String pathToLuceneIndex) {
+        Shared<LuceneGazetteer> shared = GAZETTEERS.get(indexKey(pathToLuceneIndex));
+        return shared == null ? 0 : shared.references;
+    }
+
+    /**
+     * Get the number of open parsers using the shared extraction models.
+     *
+     * @return                      the number of parsers; 0 if the models are not loaded
+     */
+    static synchronized int getModelReferenceCount() {
+        return models == null ? 0 : models.references;
+    }
+
+    /**
+     * Creates a parser over the shared gazetteer for an index, which it
+     * releases when it is closed along with the shared models, if it uses them.
+     */
+    private static GeoParser create(String pathToLuceneIndex, LocationExtractor extractor,
+            Shared<ApacheExtractor.Models> sharedModels, int maxHitDepth, int maxContentWindow, boolean fuzzy)
+            throws ClavinException {
+        String key = indexKey(pathToLuceneIndex);
+        Shared<LuceneGazetteer> gazetteer = acquireGazetteer(key);
+        GeoParser parser = new GeoParser(extractor, gazetteer.resource.join(), maxHitDepth, maxContentWindow, fuzzy);
+        parser.releaseOnClose(() -> {
+            try {
+                releaseGazetteer(key, gazetteer);
+            } finally {
+                if (sharedModels != null) {
+                    releaseModels(sharedModels);
+                }
+            }
+        });
+        return parser;
+    }
+
+    /**
+     * Identifies an index by its canonical path, so different paths to the
+     * same directory share a gazetteer.
+     */
+    private static String indexKey(String pathToLuceneIndex) {
+        File dir = new File(pathToLuceneIndex);
+        try {
+            return dir.getCanonicalPath();
+        } catch (IOException ioe) {
+            return dir.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Takes a reference to the shared gazetteer for an index, opening it if
+     * necessary.  The index is opened outside the factory lock; other callers
+     * for the same index wait for it, and those for other indexes do not.
+     */
+    private static Shared<LuceneGazetteer> acquireGazetteer(String key) throws ClavinException {
+        Shared<LuceneGazetteer> shared;
+        boolean open = false;
+        synchronized (GeoParserFactory.class) {
+            shared = GAZETTEERS.get(key);
+            if (shared == null) {
+                shared = new Shared<>();
+                GAZETTEERS.put(key, shared);
+                open = true;
+            } else {
+                shared.references++;
+            }
+        }
+        if (open) {
+            try {
+                shared.resource.complete(new LuceneGazetteer(new File(key)));
+            } catch (ClavinException | RuntimeException e) {
+                synchronized (GeoParserFactory.class) {
+                    GAZETTEERS.remove(key, shared);
+                }
+                shared.resource.completeExceptionally(e);
+                throw e;
+            }
+        }
+        shared.await();
+        return shared;
+    }
+
+    private static void releaseGazetteer(String key, Shared<LuceneGazetteer> shared) throws IOException {
+        synchronized (GeoParserFactory.class) {
+            // a gazetteer dropped by closeShared has already been closed
+            if (--shared.references > 0 || !GAZETTEERS.remove(key, shared)) {
+                return;
+            }
+        }
+        shared.resource.join().close();
+    }
+
+    /**
+     * Takes a reference to the shared extraction models, loading them outside
+     * the factory lock if necessary.
+     */
+    private static Shared<ApacheExtractor.Models> acquireModels() throws ClavinException {
+        Shared<ApacheExtractor.Models> shared;
+        boolean load = false;
+        synchronized (GeoParserFactory.class) {
+            if (models == null) {
+                models = new Shared<>();
+                load = true;
+            } else {
+                models.references++;
+            }
+            shared = models;
+        }
+        if (load) {
+            try {
+                shared.resource.complete(loadModels());
+            } catch (ClavinException | RuntimeException e) {
+                synchronized (GeoParserFactory.class) {
+                    if (models == shared) {
+                        models = null;
+                    }
+                }
+                shared.resource.completeExceptionally(e);
+                throw e;
+            }
+        }
+        shared.await();
+        return shared;
+    }
+
+    private static ApacheExtractor.Models loadModels() throws ClavinException {
+        try {
+            return ApacheExtractor.Models.load();
+        } catch (IOException ioe) {
+            throw new ClavinException("Error creating ApacheExtractor", ioe);
+        }
+    }
+
+    private static synchronized void releaseModels(Shared<ApacheExtractor.Models> shared) {
+        if (--shared.references == 0 && models == shared) {
+            models = null;
+        }
+    }
+
+    /**
+     * A shared resource and the number of parsers using it.  The resource is
+     * completed by the caller that opens it, once it is open.
+     */
+    private static final class Shared<T> {
+        private final CompletableFuture<T> resource = new CompletableFuture<>();
+        private int references = 1;
+
+        /**
+         * Waits for the resource to be opened.
+         */
+        private T await() throws ClavinException {
+            try {
+                return resource.join();
+            } catch (CompletionException e) {
+                throw new ClavinException("Error opening shared resource", e.getCause());
+            }
+        }
     }
 }
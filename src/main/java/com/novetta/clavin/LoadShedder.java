@@ -0,0 +1,251 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * LoadShedder.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Trades resolution quality for throughput when a {@link GeoParser} is under
+ * pressure, and restores full quality automatically as the pressure drops.
+ *
+ * Pressure is measured either by a queue depth supplied by the caller, e.g. the
+ * size of an ingest backlog, or by the average time taken to parse recent
+ * documents.  Each threshold crossed raises the {@link Level} by one step; a
+ * level is only lowered once pressure falls well below the threshold that raised
+ * it, so the parser does not flap between levels while pressure hovers around a
+ * threshold.
+ *
+ * Queue depth is the better signal where one is available: degrading resolution
+ * shortens parse times, so a latency-driven shedder restores quality as soon as
+ * it has cleared the slow documents, whether or not the backlog has gone.
+ *
+ * Instances are thread-safe and may be shared by several parsers.
+ */
+public class LoadShedder {
+    /**
+     * How far resolution quality has been lowered.
+     */
+    public enum Level {
+        /**
+         * The parser's configured settings.
+         */
+        FULL,
+
+        /**
+         * Fewer candidates and a smaller context window are considered for each
+         * location name, and fuzzy matching is turned off.
+         */
+        REDUCED,
+
+        /**
+         * Each location name resolves to its most populous exact match, without
+         * context heuristics or fuzzy matching.
+         */
+        POPULATION_ONLY;
+
+        /**
+         * Get the number of candidate matches to consider at this level.
+         * @param configured the configured maximum hit depth
+         * @return the maximum hit depth to use
+         */
+        public int maxHitDepth(final int configured) {
+            switch (this) {
+                case REDUCED:
+                    return Math.min(configured, Math.max(2, (configured + 1) / 2));
+                case POPULATION_ONLY:
+                    return 1;
+                default:
+                    return configured;
+            }
+        }
+
+        /**
+         * Get the context window to consider at this level.
+         * @param configured the configured maximum context window
+         * @return the maximum context window to use
+         */
+        public int maxContextWindow(final int configured) {
+            return this == REDUCED ? Math.max(1, (configured + 1) / 2) : configured;
+        }
+
+        /**
+         * Should fuzzy matching be used at this level?
+         * @param configured the configured fuzzy matching switch
+         * @return <code>true</code> if fuzzy matching should be used
+         */
+        public boolean fuzzy(final boolean configured) {
+            return configured && this == FULL;
+        }
+    }
+
+    /**
+     * The default fraction of the threshold that raised a level that pressure
+     * must fall below before the level is lowered again.
+     */
+    public static final double DEFAULT_RESTORE_RATIO = 0.75;
+
+    /**
+     * Weight of the latest parse in the average latency.
+     */
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadShedder.class);
+
+    /**
+     * Supplies the current queue depth; <code>null</code> if pressure is measured by latency.
+     */
+    private final LongSupplier queueDepth;
+
+    /**
+     * Pressure at which each level is entered, indexed by level; the entry for FULL is unused.
+     */
+    private final long[] thresholds;
+
+    private final double restoreRatio;
+
+    /**
+     * Exponentially weighted average parse time, in nanoseconds; guarded by this.
+     */
+    private double averageLatencyNanos = 0.0;
+
+    /**
+     * The current level; guarded by this.
+     */
+    private Level level = Level.FULL;
+
+    private LoadShedder(final LongSupplier queueDepth, final long reducedAt, final long populationOnlyAt,
+            final double restoreRatio) {
+        if (reducedAt <= 0 || populationOnlyAt < reducedAt) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid thresholds [%d, %d]; must be positive and increasing", reducedAt, populationOnlyAt));
+        }
+        if (!(restoreRatio > 0.0 && restoreRatio <= 1.0)) {
+            throw new IllegalArgumentException(String.format("Invalid restore ratio [%f]; must be in (0, 1]", restoreRatio));
+        }
+        this.queueDepth = queueDepth;
+        this.thresholds = new long[] { 0L, reducedAt, populationOnlyAt };
+        this.restoreRatio = restoreRatio;
+    }
+
+    /**
+     * Create a LoadShedder driven by the depth of a queue of waiting documents.
+     * @param queueDepth supplies the number of documents waiting to be parsed
+     * @param reducedAt the queue depth at which resolution is {@link Level#REDUCED}
+     * @param populationOnlyAt the queue depth at which resolution is {@link Level#POPULATION_ONLY}
+     * @return the LoadShedder
+     * @throws IllegalArgumentException if the thresholds are not positive and increasing
+     */
+    public static LoadShedder forQueueDepth(final LongSupplier queueDepth, final long reducedAt,
+            final long populationOnlyAt) {
+        if (queueDepth == null) {
+            throw new IllegalArgumentException("queueDepth must not be null");
+        }
+        return new LoadShedder(queueDepth, reducedAt, populationOnlyAt, DEFAULT_RESTORE_RATIO);
+    }
+
+    /**
+     * Create a LoadShedder driven by the average time taken to parse recent documents.
+     * @param reducedAt the average parse time at which resolution is {@link Level#REDUCED}
+     * @param populationOnlyAt the average parse time at which resolution is {@link Level#POPULATION_ONLY}
+     * @param unit the unit of the thresholds
+     * @return the LoadShedder
+     * @throws IllegalArgumentException if the thresholds are not positive and increasing
+     */
+    public static LoadShedder forLatency(final long reducedAt, final long populationOnlyAt, final TimeUnit unit) {
+        return new LoadShedder(null, unit.toNanos(reducedAt), unit.toNanos(populationOnlyAt), DEFAULT_RESTORE_RATIO);
+    }
+
+    /**
+     * Get the current pressure.
+     * @return the queue depth, or the average parse time in nanoseconds
+     */
+    public long getPressure() {
+        if (queueDepth != null) {
+            return queueDepth.getAsLong();
+        }
+        synchronized (this) {
+            return (long) averageLatencyNanos;
+        }
+    }
+
+    /**
+     * Re-evaluates the pressure and returns the level at which the next document
+     * should be resolved.  Rising pressure may raise the level by several steps
+     * at once; falling pressure lowers it by one step per call.
+     * @return the current level
+     */
+    public synchronized Level currentLevel() {
+        long pressure = getPressure();
+        Level previous = level;
+        int target = 0;
+        while (target + 1 < thresholds.length && pressure >= thresholds[target + 1]) {
+            target++;
+        }
+        if (target > level.ordinal()) {
+            level = Level.values()[target];
+        } else if (target < level.ordinal() && pressure < thresholds[level.ordinal()] * restoreRatio) {
+            level = Level.values()[level.ordinal() - 1];
+        }
+        if (level != previous) {
+            LOG.info("Resolution level changed from {} to {} at pressure {}", previous, level, pressure);
+        }
+        return level;
+    }
+
+    /**
+     * Get the level chosen by the last call to {@link #currentLevel()}, without
+     * re-evaluating the pressure.
+     * @return the level
+     */
+    public synchronized Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Records the time taken to parse a document.  Ignored unless this shedder
+     * is driven by latency.
+     * @param elapsedNanos the parse time, in nanoseconds
+     */
+    public void recordLatency(final long elapsedNanos) {
+        if (queueDepth == null) {
+            synchronized (this) {
+                averageLatencyNanos += LATENCY_SMOOTHING * (elapsedNanos - averageLatencyNanos);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LoadShedder[level=%s, pressure=%d]", getLevel(), getPressure());
+    }
+}
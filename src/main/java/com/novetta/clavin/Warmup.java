@@ -0,0 +1,294 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * Warmup.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.novetta.clavin.extractor.LocationOccurrence;
+import com.novetta.clavin.gazetteer.query.FuzzyMode;
+import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.gazetteer.query.QueryBuilder;
+import com.novetta.clavin.resolver.ClavinLocationResolver;
+import com.novetta.clavin.util.Deadline;
+
+/**
+ * Warms up a gazetteer, and optionally a parser, before it serves traffic by
+ * replaying a corpus of location names and documents.  Each name is looked
+ * up with exact and fuzzy queries and the names are resolved together, which
+ * pages in the parts of the index real requests touch and gives the JIT
+ * compiler a chance to optimize the query and resolution code; documents are
+ * parsed to warm up the extractor as well.
+ *
+ * A warmup is run once, by calling {@link #call()}, typically on a background
+ * thread while {@link #isReady()} is polled by a readiness check.  It is
+ * marked ready once the corpus has been replayed, or its time limit has
+ * passed, even if some of the queries failed.
+ */
+public class Warmup implements Callable<Warmup> {
+    /**
+     * Location names replayed when no others are configured.
+     */
+    public static final List<String> DEFAULT_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "Reston", "Virginia", "United States", "Boston", "Massachusetts", "New York", "Washington",
+            "Springfield", "Chicago", "Los Angeles", "California", "Texas", "London", "Paris", "Berlin",
+            "Moscow", "Beijing", "Tokyo", "Delhi", "Mumbai", "Cairo", "Lagos", "Nairobi", "Johannesburg",
+            "Sao Paulo", "Rio de Janeiro", "Buenos Aires", "Mexico City", "Toronto", "Sydney", "Melbourne",
+            "Baghdad", "Kabul", "Tehran", "Jerusalem", "Istanbul", "Madrid", "Rome", "Kyiv", "Seoul"));
+
+    /**
+     * Default number of times the corpus is replayed.
+     */
+    public static final int DEFAULT_ITERATIONS = 1;
+
+    private static final Logger LOG = LoggerFactory.getLogger(Warmup.class);
+
+    private final Gazetteer gazetteer;
+    private final ClavinLocationResolver resolver;
+    private final GeoParser parser;
+
+    private List<String> names = DEFAULT_NAMES;
+    private List<String> documents = Collections.emptyList();
+    private int iterations = DEFAULT_ITERATIONS;
+    private long maxDurationNanos = 0L;
+
+    private volatile boolean started = false;
+    private volatile boolean ready = false;
+    private volatile long durationNanos = -1L;
+    private volatile long queries = 0L;
+    private volatile long parsed = 0L;
+    private volatile long failures = 0L;
+
+    /**
+     * Create a warmup that replays location names through the gazetteer.
+     * @param gazetteer the gazetteer
+     */
+    public Warmup(final Gazetteer gazetteer) {
+        this(gazetteer, null);
+    }
+
+    /**
+     * Create a warmup that replays location names through the gazetteer and
+     * documents through the parser.
+     * @param gazetteer the gazetteer
+     * @param parser    the parser, or <code>null</code> to replay names only
+     */
+    public Warmup(final Gazetteer gazetteer, final GeoParser parser) {
+        this.gazetteer = gazetteer;
+        this.resolver = new ClavinLocationResolver(gazetteer);
+        this.parser = parser;
+    }
+
+    /**
+     * Reads a warmup corpus from a UTF-8 file with one name or document per
+     * line.  Blank lines and lines starting with <code>#</code> are skipped.
+     * @param file          the corpus file
+     * @return              the entries of the corpus
+     * @throws IOException  if the file cannot be read
+     */
+    public static List<String> readCorpus(final Path file) throws IOException {
+        List<String> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                entries.add(line);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Set the location names looked up in the gazetteer.
+     * @param names the names; <code>null</code> for none
+     * @return      this warmup
+     */
+    public Warmup setNames(final List<String> names) {
+        this.names = names == null ? Collections.emptyList() : new ArrayList<>(names);
+        return this;
+    }
+
+    /**
+     * Set the documents parsed, if this warmup has a parser.
+     * @param documents the documents; <code>null</code> for none
+     * @return          this warmup
+     */
+    public Warmup setDocuments(final List<String> documents) {
+        this.documents = documents == null ? Collections.emptyList() : new ArrayList<>(documents);
+        return this;
+    }
+
+    /**
+     * Set the number of times the corpus is replayed.
+     * @param iterations    the number of iterations
+     * @return              this warmup
+     */
+    public Warmup setIterations(final int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive: " + iterations);
+        }
+        this.iterations = iterations;
+        return this;
+    }
+
+    /**
+     * Limit how long the warmup may take; it stops replaying the corpus once
+     * the limit has passed.
+     * @param duration  the maximum duration; 0 for no limit
+     * @param unit      the unit of the duration
+     * @return          this warmup
+     */
+    public Warmup setMaxDuration(final long duration, final TimeUnit unit) {
+        this.maxDurationNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Replays the corpus.
+     * @return this warmup, once it is ready
+     */
+    @Override
+    public Warmup call() {
+        synchronized (this) {
+            if (started) {
+                throw new IllegalStateException("The warmup has already been run");
+            }
+            started = true;
+        }
+        long start = System.nanoTime();
+        Deadline deadline = maxDurationNanos > 0 ? Deadline.after(maxDurationNanos, TimeUnit.NANOSECONDS) : Deadline.NONE;
+        List<LocationOccurrence> occurrences = new ArrayList<>(names.size());
+        for (String name : names) {
+            occurrences.add(new LocationOccurrence(name, 0));
+        }
+        QueryBuilder query = new QueryBuilder().deadline(deadline);
+        for (int i = 0; i < iterations && !deadline.isExpired(); i++) {
+            for (String name : names) {
+                query.location(name);
+                lookUp(query.fuzzyMode(FuzzyMode.OFF));
+                lookUp(query.fuzzyMode(FuzzyMode.NO_EXACT));
+                if (deadline.isExpired()) {
+                    break;
+                }
+            }
+            try {
+                resolver.resolveLocations(occurrences, ClavinLocationResolver.DEFAULT_MAX_HIT_DEPTH,
+                        ClavinLocationResolver.DEFAULT_MAX_CONTEXT_WINDOW, false,
+                        ClavinLocationResolver.DEFAULT_ANCESTRY_MODE, null, null, deadline);
+            } catch (ClavinException ce) {
+                fail("resolve warmup names", ce);
+            }
+            if (parser != null) {
+                for (String document : documents) {
+                    if (deadline.isExpired()) {
+                        break;
+                    }
+                    try {
+                        parser.parse(document, deadline);
+                        parsed++;
+                    } catch (Exception e) {
+                        fail("parse warmup document", e);
+                    }
+                }
+            }
+        }
+        durationNanos = System.nanoTime() - start;
+        ready = true;
+        LOG.info("Warmup finished in {} ms: {} queries, {} documents, {} failures{}",
+                TimeUnit.NANOSECONDS.toMillis(durationNanos), queries, parsed, failures,
+                deadline.isExpired() ? " (time limit reached)" : "");
+        return this;
+    }
+
+    private void lookUp(final QueryBuilder query) {
+        try {
+            gazetteer.getClosestLocations(query.build());
+            queries++;
+        } catch (ClavinException ce) {
+            fail("query warmup name " + query.location().getText(), ce);
+        }
+    }
+
+    private void fail(final String action, final Exception e) {
+        failures++;
+        LOG.debug("Unable to {}", action, e);
+    }
+
+    /**
+     * Has the warmup finished?
+     * @return <code>true</code> once the corpus has been replayed or the time limit has passed
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Get how long the warmup took.
+     * @param unit  the unit of the result
+     * @return      the duration, or -1 if the warmup has not finished
+     */
+    public long getDuration(final TimeUnit unit) {
+        long nanos = durationNanos;
+        return nanos < 0 ? -1L : unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the number of gazetteer queries run so far.
+     * @return the number of queries
+     */
+    public long getQueries() {
+        return queries;
+    }
+
+    /**
+     * Get the number of documents parsed so far.
+     * @return the number of documents
+     */
+    public long getDocuments() {
+        return parsed;
+    }
+
+    /**
+     * Get the number of queries, resolutions and documents that failed.
+     * @return the number of failures
+     */
+    public long getFailures() {
+        return failures;
+    }
+}
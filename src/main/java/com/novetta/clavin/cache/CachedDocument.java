@@ -0,0 +1,92 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * CachedDocument.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.cache;
+
+import com.novetta.clavin.gazetteer.query.AncestryMode;
+import com.novetta.clavin.resolver.ResolvedLocation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The locations resolved from a document, as held by a {@link DocumentCacheStore}.
+ */
+public final class CachedDocument {
+    /**
+     * The time the document was parsed, in milliseconds since the epoch.
+     */
+    private final long createdMillis;
+
+    /**
+     * The ancestry mode the locations were resolved with.
+     */
+    private final AncestryMode ancestryMode;
+
+    /**
+     * The resolved locations, in document order.
+     */
+    private final List<ResolvedLocation> locations;
+
+    /**
+     * Create a new CachedDocument.
+     * @param createdMillis the time the document was parsed, in milliseconds since the epoch
+     * @param ancestryMode the ancestry mode the locations were resolved with
+     * @param locations the resolved locations, in document order
+     */
+    public CachedDocument(final long createdMillis, final AncestryMode ancestryMode, final List<ResolvedLocation> locations) {
+        this.createdMillis = createdMillis;
+        this.ancestryMode = ancestryMode;
+        this.locations = Collections.unmodifiableList(new ArrayList<>(locations));
+    }
+
+    /**
+     * Get the time the document was parsed.
+     * @return the creation time, in milliseconds since the epoch
+     */
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * Get the ancestry mode the locations were resolved with.
+     * @return the ancestry mode
+     */
+    public AncestryMode getAncestryMode() {
+        return ancestryMode;
+    }
+
+    /**
+     * Get the resolved locations.
+     * @return an unmodifiable list of the resolved locations, in document order
+     */
+    public List<ResolvedLocation> getLocations() {
+        return locations;
+    }
+}
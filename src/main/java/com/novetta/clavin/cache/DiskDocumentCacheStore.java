@@ -0,0 +1,220 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DiskDocumentCacheStore.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.novetta.clavin.ClavinException;
+import com.novetta.clavin.extractor.LocationOccurrence;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.gazetteer.query.AncestryMode;
+import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.resolver.ResolvedLocation;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DocumentCacheStore} that keeps each document in a small JSON
+ * file in a local directory, so cached results survive restarts and can
+ * outgrow the heap.
+ *
+ * Only the location occurrences and the IDs of the matched gazetteer
+ * records are written; the records themselves are reloaded from the
+ * gazetteer when a document is read.  Once the store is full, the least
+ * recently read or written documents are deleted until it is 90% full.
+ */
+public class DiskDocumentCacheStore implements DocumentCacheStore {
+    private static final Logger LOG = LoggerFactory.getLogger(DiskDocumentCacheStore.class);
+
+    private static final String SUFFIX = ".json";
+
+    /**
+     * Keys are used as file names, so they are restricted to a safe alphabet.
+     */
+    private static final Pattern VALID_KEY = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final File directory;
+    private final int maxEntries;
+    private final Gazetteer gazetteer;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicInteger count;
+
+    /**
+     * Create a new DiskDocumentCacheStore, reusing any documents already in the directory.
+     * @param directory the directory holding the cached documents; created if it does not exist
+     * @param maxEntries the maximum number of documents to hold
+     * @param gazetteer the gazetteer cached locations are reloaded from
+     * @throws ClavinException if the directory cannot be created
+     */
+    public DiskDocumentCacheStore(final File directory, final int maxEntries, final Gazetteer gazetteer)
+            throws ClavinException {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new ClavinException(String.format("Unable to create cache directory [%s].", directory));
+        }
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+        this.gazetteer = gazetteer;
+        this.count = new AtomicInteger(listDocuments().length);
+    }
+
+    @Override
+    public CachedDocument get(final String key) {
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            JsonNode root = mapper.readTree(file);
+            AncestryMode ancestryMode = AncestryMode.valueOf(root.get("ancestryMode").asText());
+            List<ResolvedLocation> locations = new ArrayList<>();
+            for (JsonNode location : root.get("locations")) {
+                GeoName geoname = gazetteer.getGeoName(location.get("geonameId").asInt(), ancestryMode);
+                if (geoname == null) {
+                    // the gazetteer has changed since the document was cached
+                    remove(key);
+                    return null;
+                }
+                locations.add(new ResolvedLocation(
+                        new LocationOccurrence(location.get("text").asText(), location.get("position").asInt()),
+                        geoname, location.hasNonNull("matchedName") ? location.get("matchedName").asText() : null,
+                        location.get("fuzzy").asBoolean()));
+            }
+            // approximate least-recently-used eviction
+            file.setLastModified(System.currentTimeMillis());
+            return new CachedDocument(root.get("created").asLong(), ancestryMode, locations);
+        } catch (IOException | ClavinException | RuntimeException e) {
+            LOG.warn(String.format("Discarding unreadable cached document [%s].", file), e);
+            remove(key);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(final String key, final CachedDocument document) {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("created", document.getCreatedMillis());
+        root.put("ancestryMode", document.getAncestryMode().name());
+        ArrayNode locations = root.putArray("locations");
+        for (ResolvedLocation resolved : document.getLocations()) {
+            locations.addObject()
+                    .put("text", resolved.getLocation().getText())
+                    .put("position", resolved.getLocation().getPosition())
+                    .put("geonameId", resolved.getGeoname().getGeonameID())
+                    .put("matchedName", resolved.getMatchedName())
+                    .put("fuzzy", resolved.isFuzzy());
+        }
+        File file = fileFor(key);
+        File temp = null;
+        try {
+            // write to a temporary file first so readers never see a partial document
+            temp = File.createTempFile(key, ".tmp", directory);
+            mapper.writeValue(temp, root);
+            boolean replaced = file.exists();
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (!replaced && count.incrementAndGet() > maxEntries) {
+                evict();
+            }
+        } catch (IOException e) {
+            LOG.warn(String.format("Unable to cache document [%s].", file), e);
+            if (temp != null && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+    }
+
+    @Override
+    public void remove(final String key) {
+        if (fileFor(key).delete()) {
+            count.decrementAndGet();
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (File file : listDocuments()) {
+            if (!file.delete()) {
+                LOG.warn("Unable to delete cached document [{}].", file);
+            }
+        }
+        count.set(listDocuments().length);
+    }
+
+    @Override
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * Deletes the least recently used documents until the store is 90% full.
+     */
+    private synchronized void evict() {
+        File[] files = listDocuments();
+        if (files.length <= maxEntries) {
+            count.set(files.length);
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        int target = Math.max(1, maxEntries - maxEntries / 10);
+        int remaining = files.length;
+        for (int i = 0; i < files.length && remaining > target; i++) {
+            if (files[i].delete()) {
+                remaining--;
+            }
+        }
+        count.set(remaining);
+    }
+
+    private File[] listDocuments() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        return files != null ? files : new File[0];
+    }
+
+    private File fileFor(final String key) {
+        if (key == null || !VALID_KEY.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid cache key: " + key);
+        }
+        return new File(directory, key + SUFFIX);
+    }
+}
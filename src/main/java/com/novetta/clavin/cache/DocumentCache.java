@@ -0,0 +1,233 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DocumentCache.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.cache;
+
+import com.novetta.clavin.gazetteer.query.AncestryMode;
+import com.novetta.clavin.resolver.ResolvedLocation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the locations resolved from whole documents, so that repeated
+ * copies of a document (e.g., syndicated news stories) are only parsed
+ * once.
+ *
+ * Documents are keyed by a 128-bit hash of their exact text and the
+ * parameters they were parsed with.  The text is not normalized, because
+ * cached locations carry the matched text and character offsets of the
+ * document they were resolved from, and must match the document they are
+ * returned for.  The hash is fast rather than cryptographic, so a cache should not be
+ * shared with untrusted parties who could craft colliding documents.
+ *
+ * Cached locations are only valid for the gazetteer and extractor they
+ * were produced with; clear the cache (or use a new disk directory) when
+ * either changes.
+ */
+public class DocumentCache {
+    /**
+     * The default time to live of a cached document: one day.
+     */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final DocumentCacheStore store;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * Create a new DocumentCache.
+     * @param store the storage for cached documents
+     * @param ttlMillis how long, in milliseconds, a document remains valid after it is parsed
+     */
+    public DocumentCache(final DocumentCacheStore store, final long ttlMillis) {
+        this(store, ttlMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * Create a new DocumentCache with a custom clock.
+     * @param store the storage for cached documents
+     * @param ttlMillis how long, in milliseconds, a document remains valid after it is parsed
+     * @param clock the source of the current time, in milliseconds
+     */
+    DocumentCache(final DocumentCacheStore store, final long ttlMillis, final LongSupplier clock) {
+        if (store == null) {
+            throw new IllegalArgumentException("store must not be null");
+        }
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive: " + ttlMillis);
+        }
+        this.store = store;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Create a DocumentCache that holds documents in memory.
+     * @param maxEntries the maximum number of documents to hold
+     * @param ttlMillis how long, in milliseconds, a document remains valid after it is parsed
+     * @return the new cache
+     */
+    public static DocumentCache inMemory(final int maxEntries, final long ttlMillis) {
+        return new DocumentCache(new InMemoryDocumentCacheStore(maxEntries), ttlMillis);
+    }
+
+    /**
+     * Computes the cache key for a document and the parameters it is parsed with.
+     * @param text the document text
+     * @param maxHitDepth the maximum hit depth
+     * @param maxContextWindow the maximum context window
+     * @param fuzzy is fuzzy matching enabled?
+     * @param ancestryMode the ancestry load mode
+     * @param extractor identifies the location extractor, e.g. its class name
+     * @return a 32 character hexadecimal key
+     */
+    public static String key(final CharSequence text, final int maxHitDepth, final int maxContextWindow,
+            final boolean fuzzy, final AncestryMode ancestryMode, final String extractor) {
+        long h1 = 0x9E3779B97F4A7C15L;
+        long h2 = 0xC2B2AE3D27D4EB4FL;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            h1 = (h1 ^ c) * 0x100000001B3L;
+            h2 = Long.rotateLeft(h2 + c * 0x87C37B91114253D5L, 27) * 0x4CF5AD432745937FL;
+        }
+        String params = maxHitDepth + "|" + maxContextWindow + "|" + fuzzy + "|" + ancestryMode + "|" + extractor;
+        for (int i = 0; i < params.length(); i++) {
+            h1 = (h1 ^ params.charAt(i)) * 0x100000001B3L;
+            h2 = Long.rotateLeft(h2 + params.charAt(i) * 0x87C37B91114253D5L, 27) * 0x4CF5AD432745937FL;
+        }
+        h1 = mix(h1 ^ text.length());
+        h2 = mix(h2 ^ h1);
+        return String.format("%016x%016x", h1, h2);
+    }
+
+    /**
+     * The MurmurHash3 64-bit finalizer.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Retrieves the locations cached for a document.
+     * @param key the document key, from {@link #key}
+     * @return a copy of the cached locations, or <code>null</code> if the document is
+     *         not cached or has expired
+     */
+    public List<ResolvedLocation> get(final String key) {
+        CachedDocument document = store.get(key);
+        if (document != null && clock.getAsLong() - document.getCreatedMillis() >= ttlMillis) {
+            store.remove(key);
+            expirations.incrementAndGet();
+            document = null;
+        }
+        if (document == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new ArrayList<>(document.getLocations());
+    }
+
+    /**
+     * Caches the locations resolved from a document.
+     * @param key the document key, from {@link #key}
+     * @param ancestryMode the ancestry mode the locations were resolved with
+     * @param locations the resolved locations
+     */
+    public void put(final String key, final AncestryMode ancestryMode, final List<ResolvedLocation> locations) {
+        store.put(key, new CachedDocument(clock.getAsLong(), ancestryMode, locations));
+    }
+
+    /**
+     * Removes all cached documents.  Statistics are not reset.
+     */
+    public void clear() {
+        store.clear();
+    }
+
+    /**
+     * Get the number of cached documents.
+     * @return the number of documents held by the store
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * Get the number of lookups that found a valid cached document.
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups that did not find a valid cached document.
+     * @return the miss count, including expired documents
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of cached documents found to have expired.
+     * @return the expiration count
+     */
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    /**
+     * Get the fraction of lookups that found a valid cached document.
+     * @return the hit rate, between 0 and 1; 0 if there have been no lookups
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0.0d : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DocumentCache[size=%d, hits=%d, misses=%d, hitRate=%.3f]", size(), getHitCount(),
+                getMissCount(), getHitRate());
+    }
+}
@@ -0,0 +1,68 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DocumentCacheStore.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.cache;
+
+/**
+ * Storage for a {@link DocumentCache}.  Stores are responsible for
+ * bounding their own size; the cache handles expiry.  Implementations
+ * must be thread-safe.
+ */
+public interface DocumentCacheStore {
+    /**
+     * Retrieves a cached document.
+     * @param key the document key
+     * @return the cached document, or <code>null</code> if it is not stored
+     */
+    CachedDocument get(String key);
+
+    /**
+     * Stores a document, replacing any document stored with the same key.
+     * @param key the document key
+     * @param document the document to store
+     */
+    void put(String key, CachedDocument document);
+
+    /**
+     * Removes a document, if it is stored.
+     * @param key the document key
+     */
+    void remove(String key);
+
+    /**
+     * Removes all stored documents.
+     */
+    void clear();
+
+    /**
+     * Get the number of stored documents.
+     * @return the number of stored documents
+     */
+    int size();
+}
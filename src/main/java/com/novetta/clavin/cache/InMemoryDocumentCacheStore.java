@@ -0,0 +1,82 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * InMemoryDocumentCacheStore.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link DocumentCacheStore} that holds documents in memory, evicting
+ * the least recently used document once it is full.
+ */
+public class InMemoryDocumentCacheStore implements DocumentCacheStore {
+    private final Map<String, CachedDocument> documents;
+
+    /**
+     * Create a new InMemoryDocumentCacheStore.
+     * @param maxEntries the maximum number of documents to hold
+     */
+    public InMemoryDocumentCacheStore(final int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        documents = new LinkedHashMap<String, CachedDocument>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedDocument> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public synchronized CachedDocument get(final String key) {
+        return documents.get(key);
+    }
+
+    @Override
+    public synchronized void put(final String key, final CachedDocument document) {
+        documents.put(key, document);
+    }
+
+    @Override
+    public synchronized void remove(final String key) {
+        documents.remove(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        documents.clear();
+    }
+
+    @Override
+    public synchronized int size() {
+        return documents.size();
+    }
+}
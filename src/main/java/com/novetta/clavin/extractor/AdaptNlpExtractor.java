@@ -1,114 +1,301 @@
 package com.novetta.clavin.extractor;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.lang.Math;
 
-import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.json.JsonWriteFeature;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 
 import opennlp.tools.sentdetect.SentenceDetectorME;
 import opennlp.tools.sentdetect.SentenceModel;
 import opennlp.tools.util.Span;
 
 
-public class AdaptNlpExtractor implements LocationExtractor {
-	private String host;
-	private int port;
-	private ObjectMapper jsonMapper = new ObjectMapper();
-	private SentenceDetectorME sentenceDetector;
+/**
+ * Extracts location names by sending text to an AdaptNLP token tagger service.
+ *
+ * Documents are split into chunks of whole sentences and each chunk is posted to the
+ * service separately; the offsets of the entities it returns are translated back to
+ * positions in the original document.  When more than one concurrent request is
+ * allowed, chunks are posted in parallel over a pool of keep-alive connections sized
+ * to match, and the results are reassembled in document order.
+ *
+ * Instances are thread-safe and should be closed when no longer needed to release
+ * their connections and worker threads.
+ */
+public class AdaptNlpExtractor implements LocationExtractor, Closeable {
+	private final String host;
+	private final int port;
+	private final int chunkSize;
+	private final int maxRetries;
+	private final ObjectMapper jsonMapper = new ObjectMapper();
+	private final SentenceModel sentenceModel;
+	private final CloseableHttpClient client;
+
+	/**
+	 * Posts chunks concurrently; <code>null</code> when only one request may be in flight at a time
+	 */
+	private final ExecutorService executor;
+
 	private static final String ENDPOINT = "/api/token_tagger";
-	private static final CloseableHttpClient client = HttpClients.createDefault();
 	private static final String PATH_TO_SENTENCE_DETECTOR_MODEL = "/en-sent.bin";
 	private static final Logger LOG = LoggerFactory.getLogger(AdaptNlpExtractor.class);
-	
+
 	/**
-	 * Number of sentences to parse at a time. If you are getting 400 bad request errors when calling AdaptNLP, it's probably
+	 * Default number of sentences to parse at a time. If you are getting 400 bad request errors when calling AdaptNLP, it's probably
 	 * because the request is too large; you can fix it by making this number smaller in exchange for a small performance penalty
 	 */
-	private static final int CHUNK_SIZE = 10;
-	
-	
+	public static final int DEFAULT_CHUNK_SIZE = 10;
+
+	/**
+	 * Default connect, connection pool and socket timeout, in milliseconds
+	 */
+	public static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * Default number of times a chunk is re-sent after a connection failure or server error
+	 */
+	public static final int DEFAULT_MAX_RETRIES = 2;
+
+	/**
+	 * Delay before the first retry of a chunk; doubled for each subsequent retry
+	 */
+	private static final long RETRY_BACKOFF_MILLIS = 100L;
+
+
 	/**
 	 *  Default with connection to locally hosted AdaptNLP
-	 *  
+	 *
      * @throws IOException	throws exception on error processing text
 	 */
 	public AdaptNlpExtractor() throws IOException {
-		host = "http://localhost";
-		port = 5000;
-		jsonMapper.getFactory().configure(JsonWriteFeature.ESCAPE_NON_ASCII.mappedFeature(), true);
-		sentenceDetector = new SentenceDetectorME(
-				new SentenceModel(ApacheExtractor.class.getResourceAsStream(PATH_TO_SENTENCE_DETECTOR_MODEL)));
+		this("http://localhost", 5000);
 	}
-	
+
+	/**
+	 * Connects to AdaptNLP at the given host and port, sending one chunk at a time.
+	 *
+	 * @param host	scheme and host name of the service, e.g. <code>http://localhost</code>
+	 * @param port	port of the service
+	 */
 	public AdaptNlpExtractor(String host, int port) {
+		this(host, port, DEFAULT_CHUNK_SIZE, 1, DEFAULT_TIMEOUT_MILLIS, DEFAULT_MAX_RETRIES);
+	}
+
+	/**
+	 * Connects to AdaptNLP at the given host and port.
+	 *
+	 * @param host					scheme and host name of the service, e.g. <code>http://localhost</code>
+	 * @param port					port of the service
+	 * @param chunkSize				number of sentences sent in each request
+	 * @param maxConcurrentRequests	number of requests kept in flight at once for a single document
+	 * @param timeoutMillis			connect, connection pool and socket timeout, in milliseconds
+	 * @param maxRetries			number of times a chunk is re-sent after a connection failure or server error
+	 */
+	public AdaptNlpExtractor(String host, int port, int chunkSize, int maxConcurrentRequests, int timeoutMillis,
+			int maxRetries) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+		}
+		if (maxConcurrentRequests < 1) {
+			throw new IllegalArgumentException("maxConcurrentRequests must be positive: " + maxConcurrentRequests);
+		}
+		if (timeoutMillis < 0 || maxRetries < 0) {
+			throw new IllegalArgumentException("timeoutMillis and maxRetries must not be negative");
+		}
 		this.host = host;
 		this.port = port;
+		this.chunkSize = chunkSize;
+		this.maxRetries = maxRetries;
+		jsonMapper.getFactory().configure(JsonWriteFeature.ESCAPE_NON_ASCII.mappedFeature(), true);
+		try (InputStream modelStream = ApacheExtractor.class.getResourceAsStream(PATH_TO_SENTENCE_DETECTOR_MODEL)) {
+			sentenceModel = new SentenceModel(modelStream);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to load sentence detector model", e);
+		}
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxConcurrentRequests);
+		connectionManager.setDefaultMaxPerRoute(maxConcurrentRequests);
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(timeoutMillis)
+				.setConnectionRequestTimeout(timeoutMillis)
+				.setSocketTimeout(timeoutMillis)
+				.build();
+		client = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.disableAutomaticRetries()
+				.build();
+
+		executor = maxConcurrentRequests == 1 ? null : Executors.newFixedThreadPool(maxConcurrentRequests, runnable -> {
+			Thread thread = new Thread(runnable, "clavin-adaptnlp-request");
+			thread.setDaemon(true);
+			return thread;
+		});
 	}
 
 	@Override
 	public List<LocationOccurrence> extractLocationNames(String plainText) {
-		String errorCopy = null;
+		// SentenceDetectorME is not thread-safe, but is cheap to create from the shared model
+		Span[] sentenceSpans = new SentenceDetectorME(sentenceModel).sentPosDetect(plainText);
+		List<Future<List<LocationOccurrence>>> pending = new ArrayList<>();
 		try {
-			
-			// parse ten sentences at a time
 			List<LocationOccurrence> locations = new ArrayList<>();
-			Span[] sentenceSpans = sentenceDetector.sentPosDetect(plainText);
-			for (int i=0; i<sentenceSpans.length / CHUNK_SIZE; ++i) {
+			for (int startIndex = 0; startIndex < sentenceSpans.length; startIndex += chunkSize) {
 				// get the sentences we're actually performing NER on right now
-				int startIndex = i * CHUNK_SIZE;
-				int stopIndex = Math.min(startIndex + CHUNK_SIZE, sentenceSpans.length);
-				TextBody textBody = new TextBody(plainText.substring(
-						sentenceSpans[startIndex].getStart(),
-						sentenceSpans[stopIndex].getEnd()
-				));
-
-				// make call
-				HttpPost request = new HttpPost(host + ":" + port + ENDPOINT);
-				request.addHeader("Content-Type", "application/json");
-				String body = jsonMapper.writeValueAsString(textBody);
-				request.setEntity(new StringEntity(body));
-				CloseableHttpResponse response = client.execute(request);
-				HttpEntity responseEntity = response.getEntity();
-				
-				// parse JSON response
-				String responseString = EntityUtils.toString(responseEntity);
-				JsonNode responseJson = jsonMapper.readTree(responseString);
-				if (responseJson.has("detail")) {
-					LOG.warn("Failed to parse entities from \"" + textBody.getText() + "\"");
+				int stopIndex = Math.min(startIndex + chunkSize, sentenceSpans.length) - 1;
+				int offset = sentenceSpans[startIndex].getStart();
+				String chunk = plainText.substring(offset, sentenceSpans[stopIndex].getEnd());
+				if (executor == null) {
+					locations.addAll(tagChunk(chunk, offset));
+				} else {
+					pending.add(executor.submit(() -> tagChunk(chunk, offset)));
 				}
-				else {
-					errorCopy = responseJson.toString();
-					ArrayNode entitiesJson = (ArrayNode)responseJson.get(0).get("entities");
-					for (JsonNode entityJson : entitiesJson) {
-						String entityString = entityJson.toString();
-						Entity entity = jsonMapper.readValue(entityString, Entity.class);
-						
-						// GPE = geo-political entity; i.e. a city/state/country, etc. 
-						if (entity.getType().equals("GPE")) {
-							locations.add(new LocationOccurrence(entity.getText(), entity.getStartPos()));
+			}
+			// collect in submission order so occurrences stay in document order
+			for (Future<List<LocationOccurrence>> future : pending) {
+				locations.addAll(future.get());
+			}
+			return locations;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.error("Interrupted while extracting locations", e);
+		} catch (ExecutionException e) {
+			LOG.error("Failed to extract locations", e.getCause());
+		} catch (IOException e) {
+			LOG.error("Failed to extract locations", e);
+		} finally {
+			for (Future<List<LocationOccurrence>> future : pending) {
+				future.cancel(true);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Posts a chunk of text to AdaptNLP, retrying connection failures and server errors.
+	 *
+	 * @param text		the chunk of text
+	 * @param offset	position of the chunk in the document
+	 * @return			locations found in the chunk, positioned relative to the document
+	 * @throws IOException	if the chunk could not be tagged
+	 */
+	private List<LocationOccurrence> tagChunk(String text, int offset) throws IOException {
+		byte[] body = jsonMapper.writeValueAsBytes(new TextBody(text));
+		for (int attempt = 0; ; ++attempt) {
+			HttpPost request = new HttpPost(host + ":" + port + ENDPOINT);
+			request.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+			try (CloseableHttpResponse response = client.execute(request)) {
+				int status = response.getStatusLine().getStatusCode();
+				if (status >= 500) {
+					EntityUtils.consumeQuietly(response.getEntity());
+					if (attempt < maxRetries) {
+						backOff(attempt);
+						continue;
+					}
+					throw new IOException("AdaptNLP returned HTTP " + status);
+				}
+				if (status >= 400) {
+					EntityUtils.consumeQuietly(response.getEntity());
+					LOG.warn("Failed to parse entities from \"" + text + "\" (HTTP " + status + ")");
+					return Collections.emptyList();
+				}
+				return parseEntities(response.getEntity().getContent(), text, offset);
+			} catch (JsonProcessingException e) {
+				// a malformed response will not improve by asking again
+				throw e;
+			} catch (IOException e) {
+				if (attempt >= maxRetries) {
+					throw e;
+				}
+				LOG.debug("Retrying AdaptNLP request after failure", e);
+				backOff(attempt);
+			}
+		}
+	}
+
+	/**
+	 * Reads GPE entities from a token tagger response without building a tree of the whole response.
+	 *
+	 * @param in		the response body
+	 * @param text		the chunk of text that was tagged
+	 * @param offset	position of the chunk in the document
+	 * @return			locations found in the chunk, positioned relative to the document
+	 * @throws IOException	if the response cannot be read
+	 */
+	List<LocationOccurrence> parseEntities(InputStream in, String text, int offset) throws IOException {
+		List<LocationOccurrence> locations = new ArrayList<>();
+		try (JsonParser parser = jsonMapper.getFactory().createParser(in)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				// errors are reported as an object with a "detail" field
+				LOG.warn("Failed to parse entities from \"" + text + "\"");
+				return locations;
+			}
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String field = parser.getCurrentName();
+					if (parser.nextToken() == JsonToken.START_ARRAY && "entities".equals(field)) {
+						while (parser.nextToken() == JsonToken.START_OBJECT) {
+							Entity entity = jsonMapper.readValue(parser, Entity.class);
+
+							// GPE = geo-political entity; i.e. a city/state/country, etc.
+							if ("GPE".equals(entity.getType())) {
+								locations.add(new LocationOccurrence(entity.getText(), offset + entity.getStartPos()));
+							}
 						}
+					} else {
+						parser.skipChildren();
 					}
 				}
 			}
-			return locations;
-		} catch (Exception e) {
-			LOG.error("Failed to parse " + errorCopy);
-			return null;
 		}
+		return locations;
+	}
+
+	private static void backOff(int attempt) throws InterruptedIOException {
+		try {
+			Thread.sleep(RETRY_BACKOFF_MILLIS << Math.min(attempt, 10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry AdaptNLP request");
+		}
+	}
+
+	/**
+	 * Releases pooled connections and request threads.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		client.close();
 	}
 }
@@ -1,8 +1,16 @@
 package com.novetta.clavin.extractor;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import opennlp.tools.namefind.NameFinderME;
 import opennlp.tools.namefind.TokenNameFinderModel;
@@ -55,12 +63,62 @@ public class ApacheExtractor implements LocationExtractor {
 
     // used to split the input into sentences before finding names
     private SentenceDetectorME sentenceDetector;
+
+    // pool used to find names in batches of sentences concurrently; null for sequential extraction
+    private ForkJoinPool pool;
+
+    // number of sentences in each concurrently processed batch
+    private int batchSize;
+
+    // models used to create the tokenizers and name finders for batch processing
+    private TokenizerModel tokenizerModel;
+    private TokenNameFinderModel nameFinderModel;
+
+    // idle tokenizers and name finders for batch processing, since neither is thread-safe; each
+    // batch borrows a pair rather than keeping one per pool thread, so none outlive this extractor
+    private Queue<BatchWorker> idleWorkers;
     
     // resource files used by Apache OpenNLP Name Finder
     private static final String PATH_TO_NER_MODEL = "/en-ner-location.bin";
     private static final String PATH_TO_TOKENIZER_MODEL = "/en-token.bin";
     private static final String PATH_TO_SENTENCE_DETECTOR_MODEL = "/en-sent.bin";
 
+    /**
+     * The OpenNLP models used by {@link ApacheExtractor}.  Loading them
+     * takes most of the time and memory needed to create an extractor;
+     * since models are immutable and thread-safe, one set can be shared
+     * by any number of extractors, each of which only adds its own name
+     * finder, tokenizer and sentence detector.
+     */
+    public static final class Models {
+        private final TokenNameFinderModel nameFinderModel;
+        private final TokenizerModel tokenizerModel;
+        private final SentenceModel sentenceModel;
+
+        private Models(final TokenNameFinderModel nameFinderModel, final TokenizerModel tokenizerModel,
+                final SentenceModel sentenceModel) {
+            this.nameFinderModel = nameFinderModel;
+            this.tokenizerModel = tokenizerModel;
+            this.sentenceModel = sentenceModel;
+        }
+
+        /**
+         * Loads the location name finder, tokenizer and sentence detector
+         * models from the classpath.
+         *
+         * @return              the models
+         * @throws IOException  if a model cannot be read
+         */
+        public static Models load() throws IOException {
+            try (InputStream nerStream = ApacheExtractor.class.getResourceAsStream(PATH_TO_NER_MODEL);
+                    InputStream tokenizerStream = ApacheExtractor.class.getResourceAsStream(PATH_TO_TOKENIZER_MODEL);
+                    InputStream sentenceStream = ApacheExtractor.class.getResourceAsStream(PATH_TO_SENTENCE_DETECTOR_MODEL)) {
+                return new Models(new TokenNameFinderModel(nerStream), new TokenizerModel(tokenizerStream),
+                        new SentenceModel(sentenceStream));
+            }
+        }
+    }
+
     
     /**
      * Builds an {@link ApacheExtractor} by instantiating the OpenNLP
@@ -69,9 +127,66 @@ public class ApacheExtractor implements LocationExtractor {
      * @throws IOException		throws exception when instantiating OpenNLP extractor
      */
     public ApacheExtractor() throws IOException {
-        nameFinder = new NameFinderME(new TokenNameFinderModel(ApacheExtractor.class.getResourceAsStream(PATH_TO_NER_MODEL)));
-        tokenizer = new TokenizerME(new TokenizerModel(ApacheExtractor.class.getResourceAsStream(PATH_TO_TOKENIZER_MODEL)));
-        sentenceDetector = new SentenceDetectorME(new SentenceModel(ApacheExtractor.class.getResourceAsStream(PATH_TO_SENTENCE_DETECTOR_MODEL)));
+        this(null, 0);
+    }
+
+    /**
+     * Builds an {@link ApacheExtractor} that splits each document into
+     * batches of sentences and finds the names in each batch
+     * concurrently, reducing the latency of long documents.
+     *
+     * Each concurrent batch uses its own Tokenizer and Name Finder over
+     * the shared models, reused by later batches of this extractor.
+     * Adaptive data is cleared after each batch, so results depend
+     * only on the batch size and not on
+     * scheduling; they may differ slightly from sequential extraction,
+     * which keeps adaptive data across the whole document.
+     *
+     * @param pool          the pool on which batches are processed; <code>null</code>
+     *                      to process sentences sequentially on the calling thread
+     * @param batchSize     the number of sentences in each batch
+     * @throws IOException		throws exception when instantiating OpenNLP extractor
+     */
+    public ApacheExtractor(final ForkJoinPool pool, final int batchSize) throws IOException {
+        this(Models.load(), pool, batchSize);
+    }
+
+    /**
+     * Builds an {@link ApacheExtractor} over models that have already been
+     * loaded, which is much cheaper than loading them again.
+     *
+     * @param models        the OpenNLP models, which may be shared with other extractors
+     */
+    public ApacheExtractor(final Models models) {
+        this(models, null, 0);
+    }
+
+    /**
+     * Builds an {@link ApacheExtractor} over models that have already been
+     * loaded, processing batches of sentences concurrently as described in
+     * {@link #ApacheExtractor(ForkJoinPool, int)}.
+     *
+     * @param models        the OpenNLP models, which may be shared with other extractors
+     * @param pool          the pool on which batches are processed; <code>null</code>
+     *                      to process sentences sequentially on the calling thread
+     * @param batchSize     the number of sentences in each batch
+     */
+    public ApacheExtractor(final Models models, final ForkJoinPool pool, final int batchSize) {
+        if (pool != null && batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        TokenNameFinderModel nameFinderModel = models.nameFinderModel;
+        TokenizerModel tokenizerModel = models.tokenizerModel;
+        nameFinder = new NameFinderME(nameFinderModel);
+        tokenizer = new TokenizerME(tokenizerModel);
+        sentenceDetector = new SentenceDetectorME(models.sentenceModel);
+        if (pool != null) {
+            this.pool = pool;
+            this.batchSize = batchSize;
+            this.tokenizerModel = tokenizerModel;
+            this.nameFinderModel = nameFinderModel;
+            idleWorkers = new ConcurrentLinkedQueue<>();
+        }
     }
     
     /**
@@ -87,39 +202,163 @@ public class ApacheExtractor implements LocationExtractor {
             throw new IllegalArgumentException("plaintext input to extractLocationNames should not be null");
         }
 
-        List<LocationOccurrence> nerResults = new ArrayList<>();
-
         // The values used in these Spans are string character offsets
         Span[] sentenceSpans = sentenceDetector.sentPosDetect(plainText);
 
+        if (pool != null) {
+            return extractInBatches(plainText, sentenceSpans);
+        }
+
+        List<LocationOccurrence> nerResults = findNames(plainText, sentenceSpans, 0, sentenceSpans.length, tokenizer, nameFinder);
+
+        // this is necessary to maintain consistent results across
+        // multiple runs on the same data, which is what we want
+        nameFinder.clearAdaptiveData();
+
+        return nerResults;
+    }
+
+    /**
+     * Finds names in batches of sentences on the pool, merging the
+     * results back into document order.
+     *
+     * @param plainText     Contents of text document
+     * @param sentenceSpans positions of the sentences in the document
+     * @return List of location names and positions
+     */
+    private List<LocationOccurrence> extractInBatches(final String plainText, final Span[] sentenceSpans) {
+        List<Callable<List<LocationOccurrence>>> batches = new ArrayList<>();
+        for (int start = 0; start < sentenceSpans.length; start += batchSize) {
+            final int from = start;
+            final int to = Math.min(start + batchSize, sentenceSpans.length);
+            batches.add(() -> {
+                BatchWorker worker = idleWorkers.poll();
+                if (worker == null) {
+                    worker = new BatchWorker(new TokenizerME(tokenizerModel), new NameFinderME(nameFinderModel));
+                }
+                try {
+                    return findNames(plainText, sentenceSpans, from, to, worker.tokenizer, worker.nameFinder);
+                } finally {
+                    worker.nameFinder.clearAdaptiveData();
+                    idleWorkers.add(worker);
+                }
+            });
+        }
+
+        List<LocationOccurrence> nerResults = new ArrayList<>();
+        try {
+            // invokeAll returns the batches in the order they were submitted
+            for (Future<List<LocationOccurrence>> batch : pool.invokeAll(batches)) {
+                nerResults.addAll(batch.get());
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while extracting location names", ie);
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException("Error extracting location names", ee.getCause());
+        }
+        return nerResults;
+    }
+
+    /**
+     * A tokenizer and name finder used by one batch at a time.
+     */
+    private static final class BatchWorker {
+        private final TokenizerME tokenizer;
+        private final NameFinderME nameFinder;
+
+        private BatchWorker(final TokenizerME tokenizer, final NameFinderME nameFinder) {
+            this.tokenizer = tokenizer;
+            this.nameFinder = nameFinder;
+        }
+    }
+
+    /**
+     * Finds location names in a range of sentences.
+     *
+     * The range is tokenized once, producing token spans that are then
+     * assigned to each sentence; token strings are only materialized
+     * for the Name Finder, and all offsets refer to the original text,
+     * so sentences are never copied.  The Tokenizer treats each
+     * whitespace-delimited piece of text independently, so this gives
+     * the same tokens as tokenizing sentence by sentence, except where a
+     * sentence boundary falls inside a piece; those sentences are
+     * tokenized on their own.
+     *
+     * @param plainText     Contents of text document
+     * @param sentenceSpans positions of the sentences in the document
+     * @param from          index of the first sentence to process
+     * @param to            index after the last sentence to process
+     * @param tokenizer     tokenizer used by the calling thread
+     * @param nameFinder    name finder used by the calling thread
+     * @return List of location names and positions
+     */
+    private static List<LocationOccurrence> findNames(final String plainText, final Span[] sentenceSpans, final int from,
+            final int to, final TokenizerME tokenizer, final NameFinderME nameFinder) {
+        List<LocationOccurrence> nerResults = new ArrayList<>();
+        if (from >= to) {
+            return nerResults;
+        }
+
+        // tokenize the whole range in a single pass; a batch of sentences is
+        // copied once, but the whole document is tokenized in place
+        boolean wholeDocument = from == 0 && to == sentenceSpans.length;
+        int rangeStart = wholeDocument ? 0 : sentenceSpans[from].getStart();
+        String range = wholeDocument ? plainText : plainText.substring(rangeStart, sentenceSpans[to - 1].getEnd());
+        Span[] tokenSpans = tokenizer.tokenizePos(range);
+
+        int firstToken = 0;
         // Each sentence gets processed on its own
-        for (Span sentenceSpan : sentenceSpans) {
+        for (int i = from; i < to; i++) {
+            // find the start and end position of this sentence in the tokenized range
+            int sentenceStart = sentenceSpans[i].getStart() - rangeStart;
+            int sentenceEnd = sentenceSpans[i].getEnd() - rangeStart;
 
-            // find the start and end position of this sentence in the document
-            String sentence = plainText.substring(sentenceSpan.getStart(), sentenceSpan.getEnd());
+            // skip tokens falling between sentences, then gather the tokens starting in this one
+            boolean splitPiece = false;
+            while (firstToken < tokenSpans.length && tokenSpans[firstToken].getStart() < sentenceStart) {
+                splitPiece |= tokenSpans[firstToken].getEnd() > sentenceStart;
+                firstToken++;
+            }
+            int endToken = firstToken;
+            while (endToken < tokenSpans.length && tokenSpans[endToken].getStart() < sentenceEnd) {
+                endToken++;
+            }
+            boolean splitAtEnd = endToken > firstToken && tokenSpans[endToken - 1].getEnd() > sentenceEnd;
+            splitPiece |= splitAtEnd;
 
-            // tokenize the text into the required OpenNLP format
-            String[] tokens = tokenizer.tokenize(sentence);
+            Span[] sentenceTokens;
+            int tokenOffset;
+            if (splitPiece) {
+                // the sentence boundary falls within a whitespace-delimited piece
+                sentenceTokens = tokenizer.tokenizePos(range.substring(sentenceStart, sentenceEnd));
+                tokenOffset = rangeStart + sentenceStart;
+            } else {
+                sentenceTokens = Arrays.copyOfRange(tokenSpans, firstToken, endToken);
+                tokenOffset = rangeStart;
+            }
+            // a piece split at the end of this sentence also starts the next one
+            firstToken = splitAtEnd ? endToken - 1 : endToken;
+            if (sentenceTokens.length == 0) {
+                continue;
+            }
 
-            //the values used in these Spans are string character offsets of each token from the sentence beginning
-            Span[] tokenPositionsWithinSentence = tokenizer.tokenizePos(sentence);
+            // the Name Finder is the only consumer of the token strings
+            String[] tokens = new String[sentenceTokens.length];
+            for (int t = 0; t < tokens.length; t++) {
+                tokens[t] = plainText.substring(tokenOffset + sentenceTokens[t].getStart(),
+                        tokenOffset + sentenceTokens[t].getEnd());
+            }
 
             // find the location names in the tokenized text
             // the values used in these Spans are NOT string character offsets, they are indices into the 'tokens' array
             Span[] names = nameFinder.find(tokens);
 
-
             //for each name that got found, create our corresponding occurrence
             for (Span name : names) {
-
-                //find offsets relative to the start of the sentence
-                int beginningOfFirstWord = tokenPositionsWithinSentence[name.getStart()].getStart();
                 // -1 because the high end of a Span is noninclusive
-                int endOfLastWord = tokenPositionsWithinSentence[name.getEnd() - 1].getEnd();
-
-                //to get offsets relative to the document as a whole, just add the offset for the sentence itself
-                int startOffsetInDoc = sentenceSpan.getStart() + beginningOfFirstWord;
-                int endOffsetInDoc = sentenceSpan.getStart() + endOfLastWord;
+                int startOffsetInDoc = tokenOffset + sentenceTokens[name.getStart()].getStart();
+                int endOffsetInDoc = tokenOffset + sentenceTokens[name.getEnd() - 1].getEnd();
 
                 //look back into the original input string to figure out what the text is that I got a hit on
                 String nameInDocument = plainText.substring(startOffsetInDoc, endOffsetInDoc);
@@ -127,13 +366,8 @@ public class ApacheExtractor implements LocationExtractor {
                 // add to List of results to return
                 nerResults.add(new LocationOccurrence(nameInDocument, startOffsetInDoc));
             }
-
         }
 
-        // this is necessary to maintain consistent results across
-        // multiple runs on the same data, which is what we want
-        nameFinder.clearAdaptiveData();
-
         return nerResults;
     }
 
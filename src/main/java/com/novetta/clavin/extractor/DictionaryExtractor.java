@@ -0,0 +1,542 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DictionaryExtractor.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.extractor;
+
+import com.novetta.clavin.ClavinException;
+import com.novetta.clavin.gazetteer.FeatureCode;
+import com.novetta.clavin.index.IndexDirectoryBuilder;
+import com.novetta.clavin.index.NameSuggester;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.NoOutputs;
+import org.apache.lucene.util.fst.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extracts location names from unstructured text by matching it against
+ * a dictionary of gazetteer names, rather than with a statistical named
+ * entity recognizer.
+ *
+ * The dictionary is compiled into a finite state automaton (FST) from the
+ * names stored in the name suggester of a gazetteer index, keeping only
+ * names of locations whose population-based weight meets a threshold or
+ * whose feature code is always included (countries, first-order
+ * administrative divisions, etc.).  Text is scanned in a single pass:
+ * from each word boundary the automaton is followed for as long as the
+ * text matches a name, case-insensitively and with any run of whitespace
+ * matching a single space, and the longest name ending on a word boundary
+ * is reported.  Matches must be capitalized, and names shorter than
+ * {@link #MIN_NAME_LENGTH} characters must appear in upper case, so
+ * ordinary words that happen to be place names are not reported.
+ *
+ * A dictionary finds every known name, but cannot find names it does not
+ * contain and cannot tell when a known name refers to a person or an
+ * organization.  When a fallback extractor is provided, sentences that
+ * contain capitalized words not explained by the dictionary are also sent
+ * to the fallback, so an expensive named entity recognizer is only run on
+ * the sentences that need it.
+ *
+ * The dictionary itself is thread-safe; an instance is only as thread-safe
+ * as its fallback extractor.
+ */
+public class DictionaryExtractor implements LocationExtractor {
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(DictionaryExtractor.class);
+
+    /**
+     * The default minimum weight of the locations whose names are matched.  Weights are the
+     * boosted population used to sort search results, so this includes cities and countries
+     * with at least 10,000 inhabitants and other locations with at least 110,000.
+     */
+    public static final long DEFAULT_MIN_WEIGHT = 110000L;
+
+    /**
+     * The feature codes of locations whose names are matched regardless of their weight.
+     */
+    public static final Set<FeatureCode> DEFAULT_INCLUDED_CODES = Collections.unmodifiableSet(EnumSet.of(
+            FeatureCode.PCL, FeatureCode.PCLD, FeatureCode.PCLF, FeatureCode.PCLH, FeatureCode.PCLI, FeatureCode.PCLIX,
+            FeatureCode.PCLS, FeatureCode.TERR, FeatureCode.ADM1, FeatureCode.CONT));
+
+    /**
+     * Names shorter than this (e.g. country codes) are only matched when they appear in upper case.
+     */
+    public static final int MIN_NAME_LENGTH = 3;
+
+    private static final NoOutputs OUTPUTS = NoOutputs.getSingleton();
+
+    /**
+     * The dictionary of normalized names; <code>null</code> if it is empty.
+     */
+    private final FST<Object> dictionary;
+
+    /**
+     * The number of names in the dictionary.
+     */
+    private final long nameCount;
+
+    /**
+     * The extractor used for ambiguous sentences; may be <code>null</code>.
+     */
+    private final LocationExtractor fallback;
+
+    /**
+     * Builds a DictionaryExtractor from the names in a gazetteer index, using the
+     * default thresholds and no fallback extractor.
+     * @param indexDir the index directory; either a single index or a sharded index
+     * @throws ClavinException if the index does not contain a name suggester or it cannot be read
+     */
+    public DictionaryExtractor(final File indexDir) throws ClavinException {
+        this(indexDir, DEFAULT_MIN_WEIGHT, DEFAULT_INCLUDED_CODES, null);
+    }
+
+    /**
+     * Builds a DictionaryExtractor from the names in a gazetteer index.
+     * @param indexDir the index directory; either a single index or a sharded index
+     * @param minWeight the minimum weight of the locations whose names are matched
+     * @param includedCodes the feature codes of locations whose names are matched regardless of weight
+     * @param fallback the extractor used for ambiguous sentences or <code>null</code> to use the dictionary alone
+     * @throws ClavinException if the index does not contain a name suggester or it cannot be read
+     */
+    public DictionaryExtractor(final File indexDir, final long minWeight, final Set<FeatureCode> includedCodes,
+            final LocationExtractor fallback) throws ClavinException {
+        List<BytesRef> names = new ArrayList<>();
+        try {
+            for (File dir : getIndexDirectories(indexDir)) {
+                NameSuggester suggester = NameSuggester.load(dir.toPath());
+                if (suggester == null) {
+                    throw new ClavinException(String.format("Index [%s] does not contain a name suggester; rebuild the "
+                            + "index to use the DictionaryExtractor.", dir.getAbsolutePath()));
+                }
+                for (Iterator<String> selected = selectNames(suggester.entries(), minWeight, includedCodes);
+                        selected.hasNext(); ) {
+                    String normalized = selected.next();
+                    if (!normalized.isEmpty()) {
+                        names.add(new BytesRef(normalized));
+                    }
+                }
+            }
+            long[] count = new long[1];
+            this.dictionary = compile(names, count);
+            this.nameCount = count[0];
+        } catch (IOException | UncheckedIOException e) {
+            throw new ClavinException("Error building location dictionary.", e);
+        }
+        this.fallback = fallback;
+        LOG.info("Compiled {} location names from {}", nameCount, indexDir.getAbsolutePath());
+    }
+
+    /**
+     * Builds a DictionaryExtractor matching the provided names.
+     * @param names the location names to match
+     * @param fallback the extractor used for ambiguous sentences or <code>null</code> to use the dictionary alone
+     */
+    public DictionaryExtractor(final Collection<String> names, final LocationExtractor fallback) {
+        List<BytesRef> normalizedNames = new ArrayList<>(names.size());
+        for (String name : names) {
+            String normalized = normalize(name);
+            if (!normalized.isEmpty()) {
+                normalizedNames.add(new BytesRef(normalized));
+            }
+        }
+        try {
+            long[] count = new long[1];
+            this.dictionary = compile(normalizedNames, count);
+            this.nameCount = count[0];
+        } catch (IOException ioe) {
+            // the automaton is built in memory
+            throw new UncheckedIOException(ioe);
+        }
+        this.fallback = fallback;
+    }
+
+    /**
+     * Get the number of names in the dictionary.
+     * @return the number of distinct normalized names matched by this extractor
+     */
+    public long getNameCount() {
+        return nameCount;
+    }
+
+    /**
+     * Extracts the location names found in the dictionary and, if a fallback
+     * extractor was configured, the names it finds in ambiguous sentences.
+     *
+     * @param plainText     source of location names to be extracted
+     * @return              list of location occurrences, ordered by position
+     */
+    @Override
+    public List<LocationOccurrence> extractLocationNames(final String plainText) {
+        if (plainText == null) {
+            throw new IllegalArgumentException("plaintext input to extractLocationNames should not be null");
+        }
+        List<LocationOccurrence> matches = new ArrayList<>();
+        try {
+            findNames(plainText, 0, plainText.length(), matches);
+        } catch (IOException ioe) {
+            // the automaton is held in memory
+            throw new UncheckedIOException(ioe);
+        }
+        if (fallback == null) {
+            return matches;
+        }
+
+        List<LocationOccurrence> results = new ArrayList<>(matches.size());
+        BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.ROOT);
+        sentences.setText(plainText);
+        int next = 0;
+        for (int start = sentences.first(), end = sentences.next(); end != BreakIterator.DONE;
+                start = end, end = sentences.next()) {
+            int first = next;
+            while (next < matches.size() && matches.get(next).getPosition() < end) {
+                next++;
+            }
+            List<LocationOccurrence> sentenceMatches = matches.subList(first, next);
+            if (!isAmbiguous(plainText, start, end, sentenceMatches)) {
+                results.addAll(sentenceMatches);
+                continue;
+            }
+            List<LocationOccurrence> extracted = new ArrayList<>();
+            for (LocationOccurrence occurrence : fallback.extractLocationNames(plainText.substring(start, end))) {
+                extracted.add(new LocationOccurrence(occurrence.getText(), start + occurrence.getPosition()));
+            }
+            // keep the dictionary matches the fallback extractor did not find
+            for (LocationOccurrence match : sentenceMatches) {
+                if (!overlapsAny(match, extracted)) {
+                    extracted.add(match);
+                }
+            }
+            extracted.sort((o1, o2) -> Integer.compare(o1.getPosition(), o2.getPosition()));
+            results.addAll(extracted);
+        }
+        return results;
+    }
+
+    /**
+     * Finds the longest dictionary name starting at each word boundary in the
+     * provided range of the text.
+     */
+    private void findNames(final String text, final int from, final int to, final List<LocationOccurrence> matches)
+            throws IOException {
+        if (dictionary == null) {
+            return;
+        }
+        FST.BytesReader reader = dictionary.getBytesReader();
+        FST.Arc<Object> arc = new FST.Arc<>();
+        byte[] utf8 = new byte[4];
+        int start = from;
+        while (start < to) {
+            int codePoint = text.codePointAt(start);
+            if (!Character.isLetterOrDigit(codePoint) || (start > 0 && isWordChar(text, start - 1))) {
+                start += Character.charCount(codePoint);
+                continue;
+            }
+            int end = longestMatch(text, start, to, reader, arc, utf8);
+            if (end > start && isAccepted(text, start, end)) {
+                matches.add(new LocationOccurrence(text.substring(start, end), start));
+                start = end;
+            } else {
+                // no name starts here; skip the rest of this word
+                while (start < to && isWordChar(text, start)) {
+                    start += Character.charCount(text.codePointAt(start));
+                }
+            }
+        }
+    }
+
+    /**
+     * Follows the dictionary from the provided position for as long as the
+     * text matches a name.
+     * @param utf8 scratch space for the UTF-8 encoding of a code point
+     * @return the end of the longest name that ends on a word boundary or -1 if none matched
+     */
+    private int longestMatch(final String text, final int start, final int to, final FST.BytesReader reader,
+            final FST.Arc<Object> arc, final byte[] utf8) throws IOException {
+        dictionary.getFirstArc(arc);
+        int matchEnd = -1;
+        boolean pendingSpace = false;
+        int pos = start;
+        while (pos < to) {
+            int codePoint = text.codePointAt(pos);
+            int nextPos = pos + Character.charCount(codePoint);
+            if (Character.isWhitespace(codePoint) || codePoint == 0) {
+                pendingSpace = true;
+                pos = nextPos;
+                continue;
+            }
+            if (pendingSpace) {
+                if (dictionary.findTargetArc(' ', arc, arc, reader) == null) {
+                    break;
+                }
+                pendingSpace = false;
+            }
+            int length = encodeUtf8(lowerCase(codePoint), utf8);
+            boolean matched = true;
+            for (int i = 0; i < length && matched; i++) {
+                matched = dictionary.findTargetArc(utf8[i] & 0xFF, arc, arc, reader) != null;
+            }
+            if (!matched) {
+                break;
+            }
+            pos = nextPos;
+            if (arc.isFinal() && (pos >= text.length() || !isWordChar(text, pos))) {
+                matchEnd = pos;
+            }
+        }
+        return matchEnd;
+    }
+
+    /**
+     * Applies the capitalization rules to a match.
+     */
+    private static boolean isAccepted(final String text, final int start, final int end) {
+        int letters = 0;
+        boolean allUpper = true;
+        for (int pos = start; pos < end; ) {
+            int codePoint = text.codePointAt(pos);
+            if (Character.isLetter(codePoint)) {
+                letters++;
+                allUpper &= Character.isUpperCase(codePoint) || Character.isTitleCase(codePoint);
+            }
+            pos += Character.charCount(codePoint);
+        }
+        if (end - start < MIN_NAME_LENGTH) {
+            return letters > 0 && allUpper;
+        }
+        // the first and last words must be capitalized (e.g. "Isle of Man")
+        int lastWord = end;
+        while (lastWord > start && !Character.isWhitespace(text.charAt(lastWord - 1))) {
+            lastWord--;
+        }
+        return isCapitalized(text, start) && isCapitalized(text, lastWord);
+    }
+
+    private static boolean isCapitalized(final String text, final int pos) {
+        int codePoint = text.codePointAt(pos);
+        return Character.isUpperCase(codePoint) || Character.isTitleCase(codePoint) || Character.isDigit(codePoint);
+    }
+
+    /**
+     * A sentence is ambiguous if it contains a capitalized word, other than its first
+     * word, that is not part of a dictionary match.  Such words may be location names
+     * the dictionary does not contain, or may indicate that a matched name actually
+     * names a person or organization.
+     */
+    private static boolean isAmbiguous(final String text, final int start, final int end,
+            final List<LocationOccurrence> matches) {
+        int matchIndex = 0;
+        boolean firstWord = true;
+        int pos = start;
+        while (pos < end) {
+            if (!isWordChar(text, pos)) {
+                pos += Character.charCount(text.codePointAt(pos));
+                continue;
+            }
+            int wordStart = pos;
+            while (pos < end && isWordChar(text, pos)) {
+                pos += Character.charCount(text.codePointAt(pos));
+            }
+            while (matchIndex < matches.size() && matchEnd(matches.get(matchIndex)) <= wordStart) {
+                matchIndex++;
+            }
+            boolean matched = matchIndex < matches.size() && matches.get(matchIndex).getPosition() <= wordStart;
+            if (!firstWord && !matched && Character.isUpperCase(text.codePointAt(wordStart))) {
+                return true;
+            }
+            firstWord = false;
+        }
+        return false;
+    }
+
+    private static boolean overlapsAny(final LocationOccurrence match, final List<LocationOccurrence> others) {
+        for (LocationOccurrence other : others) {
+            if (match.getPosition() < matchEnd(other) && other.getPosition() < matchEnd(match)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int matchEnd(final LocationOccurrence occurrence) {
+        return occurrence.getPosition() + occurrence.getText().length();
+    }
+
+    private static boolean isWordChar(final String text, final int pos) {
+        return Character.isLetterOrDigit(text.codePointAt(pos));
+    }
+
+    private static int lowerCase(final int codePoint) {
+        // fold exactly as the suggester folds the names the dictionary is built from
+        return NameSuggester.foldCase(codePoint);
+    }
+
+    private static int encodeUtf8(final int codePoint, final byte[] utf8) {
+        if (codePoint < 0x80) {
+            utf8[0] = (byte) codePoint;
+            return 1;
+        } else if (codePoint < 0x800) {
+            utf8[0] = (byte) (0xC0 | (codePoint >> 6));
+            utf8[1] = (byte) (0x80 | (codePoint & 0x3F));
+            return 2;
+        } else if (codePoint < 0x10000) {
+            utf8[0] = (byte) (0xE0 | (codePoint >> 12));
+            utf8[1] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            utf8[2] = (byte) (0x80 | (codePoint & 0x3F));
+            return 3;
+        }
+        utf8[0] = (byte) (0xF0 | (codePoint >> 18));
+        utf8[1] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        utf8[2] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        utf8[3] = (byte) (0x80 | (codePoint & 0x3F));
+        return 4;
+    }
+
+    /**
+     * Normalizes a name the same way the text is normalized while matching: lower-cased
+     * code point by code point, with each run of whitespace replaced by a single space.
+     */
+    static String normalize(final String name) {
+        StringBuilder builder = new StringBuilder(name.length());
+        boolean pendingSpace = false;
+        for (int pos = 0; pos < name.length(); ) {
+            int codePoint = name.codePointAt(pos);
+            pos += Character.charCount(codePoint);
+            if (Character.isWhitespace(codePoint) || codePoint == 0) {
+                pendingSpace = builder.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    builder.append(' ');
+                    pendingSpace = false;
+                }
+                builder.appendCodePoint(lowerCase(codePoint));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Lists the index directories holding the names of a single or sharded index.
+     */
+    private static List<File> getIndexDirectories(final File indexDir) throws IOException {
+        File manifest = new File(indexDir, IndexDirectoryBuilder.SHARD_MANIFEST_FILE);
+        if (!manifest.isFile()) {
+            return Collections.singletonList(indexDir);
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(manifest)) {
+            props.load(in);
+        }
+        List<File> dirs = new ArrayList<>();
+        for (String shard : new TreeSet<>(props.stringPropertyNames())) {
+            dirs.add(new File(indexDir, shard));
+        }
+        return dirs;
+    }
+
+    /**
+     * Selects the distinct names of sufficiently important locations from the
+     * entries of a suggester, preserving their order.
+     */
+    private static Iterator<String> selectNames(final Iterator<NameSuggester.Entry> entries, final long minWeight,
+            final Set<FeatureCode> includedCodes) {
+        return new Iterator<String>() {
+            private String lastName;
+            private String next = advance();
+
+            private String advance() {
+                while (entries.hasNext()) {
+                    NameSuggester.Entry entry = entries.next();
+                    // entries for the same name are consecutive; select each name once
+                    if (entry.getName().equals(lastName)) {
+                        continue;
+                    }
+                    if (entry.getWeight() >= minWeight || includedCodes.contains(entry.getFeatureCode())) {
+                        lastName = entry.getName();
+                        return normalize(lastName);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                String current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    /**
+     * Compiles normalized names into an automaton.  The names are sorted by their
+     * UTF-8 bytes first, since normalizing may reorder names or make them equal.
+     */
+    private static FST<Object> compile(final List<BytesRef> names, final long[] count) throws IOException {
+        Collections.sort(names);
+        Builder<Object> builder = new Builder<>(FST.INPUT_TYPE.BYTE1, OUTPUTS);
+        IntsRefBuilder scratch = new IntsRefBuilder();
+        BytesRef last = null;
+        for (BytesRef name : names) {
+            // the automaton requires strictly increasing keys
+            if (name.equals(last)) {
+                continue;
+            }
+            builder.add(Util.toIntsRef(name, scratch), OUTPUTS.getNoOutput());
+            last = name;
+            count[0]++;
+        }
+        return builder.finish();
+    }
+}
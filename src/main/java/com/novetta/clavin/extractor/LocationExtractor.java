@@ -1,6 +1,10 @@
 package com.novetta.clavin.extractor;
 
+import com.novetta.clavin.util.SentenceBlockReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.List;
+import java.util.function.Consumer;
 
 /*#####################################################################
  * 
@@ -44,4 +48,35 @@ public interface LocationExtractor {
      * @return              list of location occurrences
      */
     public List<LocationOccurrence> extractLocationNames(String plainText);
+
+    /**
+     * Extracts location names from a character stream, passing each
+     * occurrence to a callback as it is found, without reading the
+     * whole document into memory.
+     *
+     * The default implementation reads the document in blocks of whole
+     * sentences no larger than <code>maxBlockSize</code> characters,
+     * runs {@link #extractLocationNames(String)} on each block and
+     * translates the positions it reports into document offsets.
+     * Extractors that carry state from one sentence to the next (e.g.,
+     * adaptive data) only see one block at a time.
+     *
+     * @param reader        source of location names to be extracted; not closed
+     * @param maxBlockSize  the maximum number of characters held in memory at once
+     * @param consumer      receives the location occurrences, in document order
+     * @throws IOException  if an error occurs reading the document
+     */
+    public default void extractLocationNames(Reader reader, int maxBlockSize, Consumer<LocationOccurrence> consumer)
+            throws IOException {
+        SentenceBlockReader blocks = new SentenceBlockReader(reader, maxBlockSize);
+        while (blocks.next()) {
+            List<LocationOccurrence> occurrences = extractLocationNames(blocks.getText());
+            if (occurrences == null) {
+                throw new IOException("Location extraction failed for the block at offset " + blocks.getOffset());
+            }
+            for (LocationOccurrence occurrence : occurrences) {
+                consumer.accept(new LocationOccurrence(occurrence.getText(), blocks.getOffset() + occurrence.getPosition()));
+            }
+        }
+    }
 }
@@ -0,0 +1,146 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * PooledExtractor.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.extractor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Shares a bounded set of extractors that are not thread-safe, such as
+ * {@link ApacheExtractor}, between any number of threads.  Each call borrows
+ * an extractor for its duration, creating one if fewer than the maximum exist
+ * and otherwise waiting for one to be returned, so a single
+ * {@link com.novetta.clavin.GeoParser} can serve concurrent requests.
+ */
+public class PooledExtractor implements LocationExtractor {
+    /**
+     * Creates the pooled extractors.
+     */
+    @FunctionalInterface
+    public interface Factory {
+        /**
+         * Create a new extractor.
+         * @return the extractor
+         * @throws IOException if the extractor cannot be created
+         */
+        LocationExtractor create() throws IOException;
+    }
+
+    private final Factory factory;
+    private final int maxSize;
+    private final BlockingQueue<LocationExtractor> idle;
+
+    /**
+     * The number of extractors created; guarded by idle.
+     */
+    private int created = 0;
+
+    /**
+     * Create a new PooledExtractor.  Extractors are created as they are needed.
+     * @param maxSize the maximum number of extractors
+     * @param factory creates the extractors
+     */
+    public PooledExtractor(final int maxSize, final Factory factory) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.idle = new LinkedBlockingQueue<>(maxSize);
+    }
+
+    /**
+     * Get the number of extractors created so far.
+     * @return the number of extractors
+     */
+    public int getSize() {
+        synchronized (idle) {
+            return created;
+        }
+    }
+
+    @Override
+    public List<LocationOccurrence> extractLocationNames(final String plainText) {
+        LocationExtractor extractor = borrow();
+        try {
+            return extractor.extractLocationNames(plainText);
+        } finally {
+            idle.add(extractor);
+        }
+    }
+
+    @Override
+    public void extractLocationNames(final Reader reader, final int maxBlockSize,
+            final Consumer<LocationOccurrence> consumer) throws IOException {
+        LocationExtractor extractor = borrow();
+        try {
+            extractor.extractLocationNames(reader, maxBlockSize, consumer);
+        } finally {
+            idle.add(extractor);
+        }
+    }
+
+    private LocationExtractor borrow() {
+        LocationExtractor extractor = idle.poll();
+        if (extractor != null) {
+            return extractor;
+        }
+        boolean create;
+        synchronized (idle) {
+            create = created < maxSize;
+            if (create) {
+                created++;
+            }
+        }
+        if (create) {
+            try {
+                return factory.create();
+            } catch (IOException | RuntimeException e) {
+                synchronized (idle) {
+                    created--;
+                }
+                if (e instanceof IOException) {
+                    throw new UncheckedIOException("Unable to create extractor", (IOException) e);
+                }
+                throw (RuntimeException) e;
+            }
+        }
+        try {
+            return idle.take();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an extractor", ie);
+        }
+    }
+}
@@ -6,12 +6,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.EnumSet;
 import java.util.List;
-import java.util.Set;
 import java.util.TimeZone;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,47 +47,12 @@ import org.slf4j.LoggerFactory;
  *       records they reference
  *
  */
-public class BasicGeoName implements GeoName {
+public class BasicGeoName extends AbstractGeoName {
     /**
      * The logger.
      */
     private static final Logger LOG = LoggerFactory.getLogger(BasicGeoName.class);
 
-    /**
-     * The regex used to extract the administrative division level for A:ADM[1-4]H? records
-     */
-    private static final Pattern ADM_LEVEL_REGEX = Pattern.compile("^ADM(\\d)H?$");
-
-    /**
-     * The set of top-level feature codes.
-     */
-    private static final Set<FeatureCode> TOP_LEVEL_FEATURES = EnumSet.of(
-            FeatureCode.PCL,
-            FeatureCode.PCLD,
-            FeatureCode.PCLF,
-            FeatureCode.PCLI,
-            FeatureCode.PCLIX,
-            FeatureCode.PCLS,
-            FeatureCode.TERRI
-    );
-
-    /**
-     * The set of FeatureCodes that are valid administrative ancestors.
-     */
-    private static final Set<FeatureCode> VALID_ADMIN_ANCESTORS = EnumSet.of(
-            FeatureCode.ADM1,
-            FeatureCode.ADM2,
-            FeatureCode.ADM3,
-            FeatureCode.ADM4,
-            FeatureCode.PCL,
-            FeatureCode.PCLD,
-            FeatureCode.PCLF,
-            FeatureCode.PCLI,
-            FeatureCode.PCLIX,
-            FeatureCode.PCLS,
-            FeatureCode.TERRI
-    );
-
     // id of record in geonames database
     private final int geonameID;
 
@@ -123,12 +84,6 @@ public class BasicGeoName implements GeoName {
     // ISO-3166 2-letter country code
     private final CountryCode primaryCountryCode;
 
-    // associated name with country code
-    @Override
-    public String getPrimaryCountryName(){
-        return  primaryCountryCode.name;
-    }
-
     // list of alternate ISO-3166 2-letter country codes
     private final List<CountryCode> alternateCountryCodes;
 
@@ -168,9 +123,6 @@ public class BasicGeoName implements GeoName {
     // date of last modification in GeoNames database
     private final Date modificationDate;
 
-    // the parent of this GeoName
-    private GeoName parent;
-
     // the gazetteer record this GeoName was parsed from
     private String gazetteerRecord;
 
@@ -425,219 +377,6 @@ public class BasicGeoName implements GeoName {
                 modificationDate, inputLine);
     }
 
-    private static int getAdminLevel(final FeatureClass fClass, final FeatureCode fCode) {
-        return getAdminLevel(fClass, fCode, null, null, null);
-    }
-
-    private static int getAdminLevel(final FeatureClass fClass, final FeatureCode fCode, final String geoname, final List<String> altNames, final String countryName) {
-        int admLevel = Integer.MAX_VALUE;
-        if (fClass == FeatureClass.A) {
-            if (fCode == null) {
-                admLevel = -1;
-            } else if (fCode == FeatureCode.TERR) {
-                admLevel = 1;
-            } else if (fCode == FeatureCode.PRSH) {
-                admLevel = 1;
-            } else if (TOP_LEVEL_FEATURES.contains(fCode)) {
-                admLevel = 0;
-            } else {
-                Matcher matcher = ADM_LEVEL_REGEX.matcher(fCode.name());
-                if (matcher.matches()) {
-                    admLevel = Integer.parseInt(matcher.group(1));
-                }
-            }
-        }
-        return admLevel;
-    }
-
-    /**
-     * For pretty-printing.
-     *
-     */
-    @Override
-    public String toString() {
-        return getPreferredName() + " (" + getPrimaryCountryName() + ", " + admin1Code + ")" + " [pop: " + population + "] <" + geonameID + ">";
-    }
-
-    @Override
-    public String getParentAncestryKey() {
-        String key = buildAncestryKey(FeatureCode.ADM4, false);
-        // return null if the key is empty; that means we are a top-level administrative component
-        return !key.isEmpty() ? key : null;
-    }
-
-    @Override
-    public String getAncestryKey() {
-        boolean hasKey = featureClass == FeatureClass.A && VALID_ADMIN_ANCESTORS.contains(featureCode);
-        if (hasKey) {
-            String myCode;
-            switch (featureCode) {
-                case ADM1:
-                    myCode = admin1Code;
-                    break;
-                case ADM2:
-                    myCode = admin2Code;
-                    break;
-                case ADM3:
-                    myCode = admin3Code;
-                    break;
-                case ADM4:
-                    myCode = admin4Code;
-                    break;
-                case PCL:
-                case PCLD:
-                case PCLF:
-                case PCLI:
-                case PCLIX:
-                case PCLS:
-                case TERRI:
-                    myCode = primaryCountryCode != null ? primaryCountryCode.name() : null;
-                    break;
-                default:
-                    myCode = null;
-                    break;
-            }
-            hasKey = myCode != null && !myCode.trim().isEmpty();
-        }
-        String key = (hasKey ? buildAncestryKey(FeatureCode.ADM4, true) : "").trim();
-        return !key.isEmpty() ? key : null;
-    }
-
-    @Override
-    public boolean isTopLevelAdminDivision() {
-        return TOP_LEVEL_FEATURES.contains(featureCode);
-    }
-
-    @Override
-    public boolean isTopLevelTerritory() {
-        return featureCode == FeatureCode.TERRI;
-    }
-
-    /**
-     * Recursively builds the ancestry key for this GeoName, optionally including the
-     * key for this GeoName's administrative division if requested and applicable. See
-     * {@link BasicGeoName#getAncestryKey()} for a description of the ancestry key. Only
-     * divisions that have a non-empty code set in this GeoName will be included in the
-     * key.
-     * @param level the administrative division at the end of the key (e.g. ADM2 to build
-     *              the key COUNTRY.ADM1.ADM2)
-     * @param includeSelf <code>true</code> to include this GeoName's code in the key
-     * @return the generated ancestry key
-     */
-    private String buildAncestryKey(final FeatureCode level, final boolean includeSelf) {
-        // if we have reached the root level, stop
-        if (level == null) {
-            return "";
-        }
-
-        String keyPart;
-        FeatureCode nextLevel;
-        switch (level) {
-            case ADM4:
-                keyPart = admin4Code;
-                nextLevel = FeatureCode.ADM3;
-                break;
-            case ADM3:
-                keyPart = admin3Code;
-                nextLevel = FeatureCode.ADM2;
-                break;
-            case ADM2:
-                keyPart = admin2Code;
-                nextLevel = FeatureCode.ADM1;
-                break;
-            case ADM1:
-                // territories will be considered level 1 if they have the same country code as their
-                // parent but cannot contain descendants so there should be no keypart for this level;
-                // all parishes are considered to be direct descendants of their containing country with
-                // no descendants; they should not have a key part at this level
-                keyPart = featureCode != FeatureCode.TERR && featureCode != FeatureCode.PRSH ? admin1Code : "";
-                nextLevel = FeatureCode.PCL;
-                break;
-            case PCL:
-                keyPart = primaryCountryCode != null && primaryCountryCode != CountryCode.NULL ? primaryCountryCode.name() : "";
-                nextLevel = null;
-                break;
-            default:
-                throw new IllegalArgumentException("Level must be one of [PCL, ADM1, ADM2, ADM3, ADM4]");
-        }
-        keyPart = keyPart.trim();
-        if (nextLevel != null && !keyPart.isEmpty()) {
-            keyPart = String.format(".%s", keyPart);
-        }
-        int keyLevel = getAdminLevel(FeatureClass.A, level);
-        int nameLevel = getAdminLevel(featureClass, featureCode, name, alternateNames, primaryCountryCode.name);
-
-        // if the requested key part is a larger administrative division than the level of the
-        // geoname or, if we are including the geoname's key part and it is the requested part,
-        // include it in the ancestry key (if not blank); otherwise, move to the next level
-        String qualifiedKey = (nameLevel > keyLevel || (includeSelf && keyLevel == nameLevel)) && !keyPart.isEmpty() ?
-                String.format("%s%s", buildAncestryKey(nextLevel, includeSelf), keyPart) :
-                buildAncestryKey(nextLevel, includeSelf);
-        // if any part of the key is missing once a lower-level component has been specified, we cannot
-        // resolve the ancestry path and an empty string should be returned.
-        if (qualifiedKey.startsWith(".") || qualifiedKey.contains("..") || qualifiedKey.endsWith(".")) {
-            qualifiedKey = "";
-        }
-        return qualifiedKey;
-    }
-
-    @Override
-    public boolean isDescendantOf(final GeoName geoname) {
-        boolean descended = false;
-        if (geoname != null) {
-            GeoName test;
-            // empty for loop exits when parent is found or top level is reached
-            for (test = this; test != null && !test.equals(geoname); test = test.getParent());
-            descended = test != null;
-        }
-        return descended;
-    }
-
-    @Override
-    public boolean isAncestorOf(final GeoName geoname) {
-        return geoname != null && geoname.isDescendantOf(this);
-    }
-
-    @Override
-    public GeoName getParent() {
-        return parent;
-    }
-
-    @Override
-    public boolean setParent(final GeoName prnt) {
-        String myParentKey = this.getParentAncestryKey();
-        String parentKey = prnt != null ? prnt.getAncestryKey() : null;
-        boolean parentSet = false;
-        if (prnt != null) {
-            if (prnt.getFeatureClass() != FeatureClass.A || !VALID_ADMIN_ANCESTORS.contains(prnt.getFeatureCode())) {
-                LOG.error(String.format("Invalid administrative parent type [%s:%s] specified for GeoName [%s]; Parent [%s]",
-                        prnt.getFeatureClass(), prnt.getFeatureCode(), this, prnt));
-            } else if (myParentKey != null && parentKey != null && !myParentKey.startsWith(parentKey)) {
-                LOG.error(String.format("Parent ancestry key [%s] does not match the expected key [%s] for GeoName [%s]; Parent [%s]",
-                        parentKey, myParentKey, this, prnt));
-            } else if (this.equals(prnt)) {
-                LOG.warn("Attempted to set parent to self: {}", prnt);
-            } else {
-                this.parent = prnt;
-                parentSet = true;
-            }
-        }
-        return parentSet;
-    }
-
-    @Override
-    public Integer getParentId() {
-        return parent != null ? parent.getGeonameID() : null;
-    }
-
-    @Override
-    public boolean isAncestryResolved() {
-        // this GeoName is considered resolved if it is a top level administrative division,
-        // it is unresolvable, or all parents up to a top-level element have been configured
-        return getAdminLevel(featureClass, featureCode, name, alternateNames, primaryCountryCode.name) <= 0 ||
-                getParentAncestryKey() == null || (parent != null && parent.isAncestryResolved());
-    }
-
     @Override
     public int getGeonameID() {
         return geonameID;
@@ -745,11 +484,6 @@ public class BasicGeoName implements GeoName {
         return gazetteerRecord;
     }
 
-    @Override
-    public String getGazetteerRecordWithAncestry() {
-        return parent != null ? String.format("%s\n%s", gazetteerRecord, parent.getGazetteerRecordWithAncestry()) : gazetteerRecord;
-    }
-
     @Override
     public int hashCode() {
         int hash = 3;
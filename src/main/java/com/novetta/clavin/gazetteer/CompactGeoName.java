@@ -0,0 +1,443 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * CompactGeoName.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.gazetteer;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A memory-efficient {@link GeoName} for applications that hold large numbers of
+ * GeoNames in memory, such as caches of resolved locations.
+ *
+ * Fields are stored as primitives where possible.  Administrative codes and time
+ * zones are shared between the instances created with the same {@link SharedValues},
+ * alternate names are kept as a single UTF-8 encoded byte array that is only decoded
+ * when requested and the gazetteer record is discarded unless it is explicitly retained.
+ * If the record was discarded, {@link #getGazetteerRecord()} rebuilds an equivalent
+ * record from the stored fields.
+ *
+ * Compact instances are typically a fraction of the size of a {@link BasicGeoName},
+ * most of all for places with many alternate names; GeoNameFootprintBenchmark in the
+ * test sources measures the difference for a given gazetteer.
+ */
+public class CompactGeoName extends AbstractGeoName {
+    /**
+     * Separates alternate names in the encoded name bytes; UTF-8 never produces a zero byte
+     * for any character other than NUL.
+     */
+    private static final byte NAME_SEPARATOR = 0;
+
+    /**
+     * Marks a missing modification date.
+     */
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    /**
+     * The administrative codes and time zones shared between CompactGeoNames,
+     * typically those created by a single gazetteer.  Each gazetteer only has a
+     * limited number of distinct values, and they are released along with it.
+     */
+    public static final class SharedValues {
+        private final ConcurrentMap<String, String> codes = new ConcurrentHashMap<>();
+
+        // by ID; the shared instances are never modified and only copies are handed out
+        private final ConcurrentMap<String, TimeZone> timezones = new ConcurrentHashMap<>();
+
+        private String share(final String code) {
+            if (code == null) {
+                return null;
+            }
+            String shared = codes.putIfAbsent(code, code);
+            return shared != null ? shared : code;
+        }
+
+        private TimeZone share(final TimeZone zone) {
+            if (zone == null) {
+                return null;
+            }
+            return timezones.computeIfAbsent(zone.getID(), id -> (TimeZone) zone.clone());
+        }
+    }
+
+    private final int geonameID;
+    private final String name;
+
+    // null if the same as name
+    private final String asciiName;
+
+    // null if the same as name
+    private final String preferredName;
+
+    // alternate names, UTF-8 encoded and separated by NAME_SEPARATOR; null if there are none
+    private final byte[] alternateNames;
+
+    private final double latitude;
+    private final double longitude;
+    private final FeatureClass featureClass;
+    private final FeatureCode featureCode;
+    private final CountryCode primaryCountryCode;
+
+    // null if there are no alternate country codes
+    private final CountryCode[] alternateCountryCodes;
+
+    private final String admin1Code;
+    private final String admin2Code;
+    private final String admin3Code;
+    private final String admin4Code;
+    private final long population;
+    private final int elevation;
+    private final int digitalElevationModel;
+
+    // shared; never exposed without copying
+    private final TimeZone timezone;
+
+    // milliseconds since the epoch or NO_DATE
+    private final long modificationDate;
+
+    // null unless the record was retained
+    private final String gazetteerRecord;
+
+    private CompactGeoName(final GeoName source, final boolean retainRecord, final SharedValues shared) {
+        geonameID = source.getGeonameID();
+        name = source.getName();
+        asciiName = name != null && name.equals(source.getAsciiName()) ? null : source.getAsciiName();
+        String preferred = source.getPreferredName();
+        preferredName = preferred != null && preferred.equals(name) ? null : preferred;
+        alternateNames = encodeNames(source.getAlternateNames());
+        latitude = source.getLatitude();
+        longitude = source.getLongitude();
+        featureClass = source.getFeatureClass();
+        featureCode = source.getFeatureCode();
+        primaryCountryCode = source.getPrimaryCountryCode();
+        List<CountryCode> altCodes = source.getAlternateCountryCodes();
+        alternateCountryCodes = altCodes == null || altCodes.isEmpty() ? null : altCodes.toArray(new CountryCode[0]);
+        admin1Code = shared.share(source.getAdmin1Code());
+        admin2Code = shared.share(source.getAdmin2Code());
+        admin3Code = shared.share(source.getAdmin3Code());
+        admin4Code = shared.share(source.getAdmin4Code());
+        population = source.getPopulation();
+        elevation = source.getElevation();
+        digitalElevationModel = source.getDigitalElevationModel();
+        timezone = shared.share(source.getTimezone());
+        Date modified = source.getModificationDate();
+        modificationDate = modified != null ? modified.getTime() : NO_DATE;
+        gazetteerRecord = retainRecord ? source.getGazetteerRecord() : null;
+    }
+
+    /**
+     * Creates a CompactGeoName with the same values and ancestry as the provided GeoName.
+     * Any ancestry already attached to the source is converted as well.  Reading the
+     * ancestry of a {@link LazyAncestryGeoName} may load it from its gazetteer; use
+     * {@link LazyAncestryGeoName#compact(boolean)} to keep it lazy.  Values are only
+     * shared within the new GeoName and its ancestry.
+     *
+     * @param source        the GeoName to copy
+     * @param retainRecord  <code>true</code> to keep the gazetteer record of the source in memory
+     * @return              the compact GeoName; the source itself if it is already compact
+     *                      and has nothing to discard
+     */
+    public static CompactGeoName from(final GeoName source, final boolean retainRecord) {
+        return from(source, retainRecord, new SharedValues());
+    }
+
+    /**
+     * Creates a CompactGeoName with the same values and ancestry as the provided GeoName,
+     * sharing administrative codes and time zones with other instances created with the
+     * same {@link SharedValues}.
+     *
+     * @param source        the GeoName to copy
+     * @param retainRecord  <code>true</code> to keep the gazetteer record of the source in memory
+     * @param shared        the values shared between instances
+     * @return              the compact GeoName; the source itself if it is already compact
+     *                      and has nothing to discard
+     * @see #from(GeoName, boolean)
+     */
+    public static CompactGeoName from(final GeoName source, final boolean retainRecord, final SharedValues shared) {
+        if (source instanceof CompactGeoName &&
+                (retainRecord || ((CompactGeoName) source).gazetteerRecord == null)) {
+            return (CompactGeoName) source;
+        }
+        CompactGeoName compact = new CompactGeoName(source, retainRecord, shared);
+        GeoName parent = source.getParent();
+        if (parent != null) {
+            compact.setParent(from(parent, retainRecord, shared));
+        }
+        return compact;
+    }
+
+    /**
+     * Builds a {@link CompactGeoName} from a single gazetteer record, and any ancestry
+     * records that follow it, in the GeoNames geographical database.
+     *
+     * @param inputLine     single line of tab-delimited text representing one record from the GeoNames gazetteer
+     * @param preferredName the preferred name of this GeoName as indicated by the GeoNames alternate names table
+     * @param retainRecord  <code>true</code> to keep the gazetteer record in memory
+     * @return              new GeoName object
+     */
+    public static CompactGeoName parseFromGeoNamesRecord(final String inputLine, final String preferredName,
+            final boolean retainRecord) {
+        return from(BasicGeoName.parseFromGeoNamesRecord(inputLine, preferredName), retainRecord);
+    }
+
+    /**
+     * Builds a {@link CompactGeoName} from a single gazetteer record, and any ancestry
+     * records that follow it, sharing administrative codes and time zones with other
+     * instances created with the same {@link SharedValues}.
+     *
+     * @param inputLine     single line of tab-delimited text representing one record from the GeoNames gazetteer
+     * @param preferredName the preferred name of this GeoName as indicated by the GeoNames alternate names table
+     * @param retainRecord  <code>true</code> to keep the gazetteer record in memory
+     * @param shared        the values shared between instances
+     * @return              new GeoName object
+     */
+    public static CompactGeoName parseFromGeoNamesRecord(final String inputLine, final String preferredName,
+            final boolean retainRecord, final SharedValues shared) {
+        return from(BasicGeoName.parseFromGeoNamesRecord(inputLine, preferredName), retainRecord, shared);
+    }
+
+    private static byte[] encodeNames(final List<String> names) {
+        if (names == null || names.isEmpty()) {
+            return null;
+        }
+        StringBuilder joined = new StringBuilder();
+        for (String altName : names) {
+            if (joined.length() > 0) {
+                joined.append((char) NAME_SEPARATOR);
+            }
+            joined.append(altName);
+        }
+        // a single empty name encodes to an empty array, which is distinct from no names
+        return joined.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Is the gazetteer record of the source GeoName held in memory?
+     * @return <code>true</code> if the record was retained when this GeoName was created
+     */
+    public boolean isGazetteerRecordRetained() {
+        return gazetteerRecord != null;
+    }
+
+    @Override
+    public int getGeonameID() {
+        return geonameID;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getAsciiName() {
+        return asciiName != null ? asciiName : name;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The names are decoded each time they are requested.
+     */
+    @Override
+    public List<String> getAlternateNames() {
+        if (alternateNames == null) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>();
+        int start = 0;
+        for (int idx = 0; idx <= alternateNames.length; idx++) {
+            if (idx == alternateNames.length || alternateNames[idx] == NAME_SEPARATOR) {
+                names.add(new String(alternateNames, start, idx - start, StandardCharsets.UTF_8));
+                start = idx + 1;
+            }
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    @Override
+    public String getPreferredName() {
+        return preferredName != null ? preferredName : name;
+    }
+
+    @Override
+    public double getLatitude() {
+        return latitude;
+    }
+
+    @Override
+    public double getLongitude() {
+        return longitude;
+    }
+
+    @Override
+    public FeatureClass getFeatureClass() {
+        return featureClass;
+    }
+
+    @Override
+    public FeatureCode getFeatureCode() {
+        return featureCode;
+    }
+
+    @Override
+    public CountryCode getPrimaryCountryCode() {
+        return primaryCountryCode;
+    }
+
+    @Override
+    public List<CountryCode> getAlternateCountryCodes() {
+        return alternateCountryCodes != null ?
+                Collections.unmodifiableList(Arrays.asList(alternateCountryCodes)) : Collections.emptyList();
+    }
+
+    @Override
+    public String getAdmin1Code() {
+        return admin1Code;
+    }
+
+    @Override
+    public String getAdmin2Code() {
+        return admin2Code;
+    }
+
+    @Override
+    public String getAdmin3Code() {
+        return admin3Code;
+    }
+
+    @Override
+    public String getAdmin4Code() {
+        return admin4Code;
+    }
+
+    @Override
+    public long getPopulation() {
+        return population;
+    }
+
+    @Override
+    public int getElevation() {
+        return elevation;
+    }
+
+    @Override
+    public int getDigitalElevationModel() {
+        return digitalElevationModel;
+    }
+
+    @Override
+    public TimeZone getTimezone() {
+        // defensive copy
+        return timezone != null ? (TimeZone) timezone.clone() : null;
+    }
+
+    @Override
+    public Date getModificationDate() {
+        return modificationDate != NO_DATE ? new Date(modificationDate) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If the record was not retained, an equivalent record is rebuilt from the fields of
+     * this GeoName; it parses to the same values, though numbers may be formatted differently.
+     */
+    @Override
+    public String getGazetteerRecord() {
+        return gazetteerRecord != null ? gazetteerRecord : buildGazetteerRecord();
+    }
+
+    private String buildGazetteerRecord() {
+        StringBuilder record = new StringBuilder();
+        record.append(geonameID).append('\t')
+                .append(nullToEmpty(name)).append('\t')
+                .append(nullToEmpty(getAsciiName())).append('\t')
+                .append(String.join(",", getAlternateNames())).append('\t')
+                .append(latitude).append('\t')
+                .append(longitude).append('\t')
+                .append(featureClass != null && featureClass != FeatureClass.NULL ? featureClass.name() : "").append('\t');
+        if (featureCode == FeatureCode.TERRI) {
+            // top-level territories are identified when the record is parsed
+            record.append(FeatureCode.TERR.name());
+        } else if (featureCode != null && featureCode != FeatureCode.NULL) {
+            record.append(featureCode.name());
+        }
+        record.append('\t')
+                .append(primaryCountryCode != null && primaryCountryCode != CountryCode.NULL ? primaryCountryCode.name() : "")
+                .append('\t');
+        if (alternateCountryCodes != null) {
+            for (int idx = 0; idx < alternateCountryCodes.length; idx++) {
+                record.append(idx > 0 ? "," : "").append(alternateCountryCodes[idx].name());
+            }
+        }
+        record.append('\t').append(nullToEmpty(admin1Code))
+                .append('\t').append(nullToEmpty(admin2Code));
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        record.append('\t').append(nullToEmpty(admin3Code))
+                .append('\t').append(nullToEmpty(admin4Code))
+                .append('\t').append(population)
+                .append('\t').append(elevation)
+                .append('\t').append(digitalElevationModel)
+                // records parsed without a time zone were truncated; the empty trailing columns keep them that way
+                .append('\t').append(timezone != null ? timezone.getID() : "")
+                .append('\t').append(timezone != null && modificationDate != NO_DATE ? dateFormat.format(new Date(modificationDate)) : "");
+        return record.toString();
+    }
+
+    private static String nullToEmpty(final String value) {
+        return value != null ? value : "";
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 3;
+        hash = 83 * hash + this.geonameID;
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final CompactGeoName other = (CompactGeoName) obj;
+        return this.geonameID == other.geonameID;
+    }
+}
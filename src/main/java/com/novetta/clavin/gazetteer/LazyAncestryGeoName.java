@@ -46,6 +46,17 @@ public class LazyAncestryGeoName implements GeoName {
         this.gazetteer = gazetteer;
     }
 
+    /**
+     * Creates a LazyAncestryGeoName that wraps a {@link CompactGeoName} copy of the
+     * wrapped GeoName.  Ancestry that has not been loaded yet is not loaded by the
+     * copy; it will be loaded from the same Gazetteer when first requested.
+     * @param retainRecord <code>true</code> to keep the gazetteer record in memory
+     * @return the compact LazyAncestryGeoName
+     */
+    public LazyAncestryGeoName compact(final boolean retainRecord) {
+        return new LazyAncestryGeoName(CompactGeoName.from(geoName, retainRecord), parentId, gazetteer);
+    }
+
     @Override
     public Integer getParentId() {
         return parentId;
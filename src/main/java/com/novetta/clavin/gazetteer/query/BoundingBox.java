@@ -0,0 +1,177 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * BoundingBox.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.gazetteer.query;
+
+/**
+ * A latitude/longitude rectangle used to restrict gazetteer searches
+ * to locations found within a geographic region.  Boxes that cross
+ * the dateline may be specified by providing a minimum longitude that
+ * is greater than the maximum longitude.
+ */
+public class BoundingBox {
+    /**
+     * The southern edge of the box in decimal degrees.
+     */
+    private final double minLatitude;
+
+    /**
+     * The northern edge of the box in decimal degrees.
+     */
+    private final double maxLatitude;
+
+    /**
+     * The western edge of the box in decimal degrees.
+     */
+    private final double minLongitude;
+
+    /**
+     * The eastern edge of the box in decimal degrees.
+     */
+    private final double maxLongitude;
+
+    /**
+     * Create a new BoundingBox.
+     * @param minLatitude the southern edge of the box, in the range [-90, 90]
+     * @param maxLatitude the northern edge of the box, in the range [-90, 90]
+     * @param minLongitude the western edge of the box, in the range [-180, 180]
+     * @param maxLongitude the eastern edge of the box, in the range [-180, 180]
+     * @throws IllegalArgumentException if any coordinate is out of range or minLatitude &gt; maxLatitude
+     */
+    public BoundingBox(final double minLatitude, final double maxLatitude, final double minLongitude,
+            final double maxLongitude) {
+        checkLatitude(minLatitude);
+        checkLatitude(maxLatitude);
+        checkLongitude(minLongitude);
+        checkLongitude(maxLongitude);
+        if (minLatitude > maxLatitude) {
+            throw new IllegalArgumentException(String.format("minLatitude [%f] must not be greater than maxLatitude [%f]",
+                    minLatitude, maxLatitude));
+        }
+        this.minLatitude = minLatitude;
+        this.maxLatitude = maxLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLongitude = maxLongitude;
+    }
+
+    /**
+     * Get the southern edge of the box.
+     * @return the minimum latitude in decimal degrees
+     */
+    public double getMinLatitude() {
+        return minLatitude;
+    }
+
+    /**
+     * Get the northern edge of the box.
+     * @return the maximum latitude in decimal degrees
+     */
+    public double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    /**
+     * Get the western edge of the box.
+     * @return the minimum longitude in decimal degrees
+     */
+    public double getMinLongitude() {
+        return minLongitude;
+    }
+
+    /**
+     * Get the eastern edge of the box.
+     * @return the maximum longitude in decimal degrees
+     */
+    public double getMaxLongitude() {
+        return maxLongitude;
+    }
+
+    /**
+     * Does this box cross the dateline?
+     * @return <code>true</code> if the western edge of the box is east of its eastern edge
+     */
+    public boolean crossesDateline() {
+        return minLongitude > maxLongitude;
+    }
+
+    /**
+     * Does this box contain the provided point?
+     * @param latitude the latitude of the point
+     * @param longitude the longitude of the point
+     * @return <code>true</code> if the point falls within this box
+     */
+    public boolean contains(final double latitude, final double longitude) {
+        if (latitude < minLatitude || latitude > maxLatitude) {
+            return false;
+        }
+        return crossesDateline() ? longitude >= minLongitude || longitude <= maxLongitude :
+                longitude >= minLongitude && longitude <= maxLongitude;
+    }
+
+    static void checkLatitude(final double latitude) {
+        if (Double.isNaN(latitude) || latitude < -90.0d || latitude > 90.0d) {
+            throw new IllegalArgumentException(String.format("Invalid latitude [%f]; must be in the range [-90, 90]", latitude));
+        }
+    }
+
+    static void checkLongitude(final double longitude) {
+        if (Double.isNaN(longitude) || longitude < -180.0d || longitude > 180.0d) {
+            throw new IllegalArgumentException(String.format("Invalid longitude [%f]; must be in the range [-180, 180]", longitude));
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 31 * hash + Double.hashCode(minLatitude);
+        hash = 31 * hash + Double.hashCode(maxLatitude);
+        hash = 31 * hash + Double.hashCode(minLongitude);
+        hash = 31 * hash + Double.hashCode(maxLongitude);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final BoundingBox other = (BoundingBox) obj;
+        return Double.compare(minLatitude, other.minLatitude) == 0 &&
+                Double.compare(maxLatitude, other.maxLatitude) == 0 &&
+                Double.compare(minLongitude, other.minLongitude) == 0 &&
+                Double.compare(maxLongitude, other.maxLongitude) == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%f, %f] x [%f, %f]", minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+}
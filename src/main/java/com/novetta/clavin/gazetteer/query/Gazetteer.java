@@ -29,11 +29,14 @@
 package com.novetta.clavin.gazetteer.query;
 
 import com.novetta.clavin.ClavinException;
+import com.novetta.clavin.gazetteer.FeatureCode;
 import com.novetta.clavin.gazetteer.GeoName;
 import com.novetta.clavin.resolver.ResolvedLocation;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A Gazetteer provides lookup methods for retrieving details about known
@@ -81,4 +84,22 @@ public interface Gazetteer {
      * @throws ClavinException    if an error occurs
      */
     void loadAncestry(final Collection<GeoName> geoNames) throws ClavinException;
+
+    /**
+     * Suggests locations whose names start with the provided prefix, for
+     * type-ahead completion.  Suggestions are ranked by the same population
+     * weighting used to sort query results, and each location is suggested
+     * at most once.  Gazetteers that do not support suggestions return no
+     * suggestions, which is the default.
+     * @param prefix              the prefix to complete, matched case-insensitively
+     * @param k                   the maximum number of suggestions to return
+     * @param featureCodes        if not <code>null</code> or empty, only locations with one of
+     *                            these feature codes are suggested
+     * @return                    the IDs of the suggested GeoNames, best suggestion first
+     * @throws ClavinException    if an error occurs
+     */
+    default List<Integer> suggest(final String prefix, final int k, final Set<FeatureCode> featureCodes)
+            throws ClavinException {
+        return Collections.emptyList();
+    }
 }
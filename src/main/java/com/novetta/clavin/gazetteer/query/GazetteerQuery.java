@@ -30,6 +30,7 @@ package com.novetta.clavin.gazetteer.query;
 
 import com.novetta.clavin.extractor.LocationOccurrence;
 import com.novetta.clavin.gazetteer.FeatureCode;
+import com.novetta.clavin.util.Deadline;
 
 import java.util.Collections;
 import java.util.EnumSet;
@@ -86,6 +87,23 @@ public class GazetteerQuery {
      */
     private final Set<FeatureCode> featureCodes;
 
+    /**
+     * Searches should be restricted to locations found within this
+     * region, if provided.
+     */
+    private final BoundingBox boundingBox;
+
+    /**
+     * Searches should be restricted to locations found within this
+     * distance of a point, if provided.
+     */
+    private final PointRadius radius;
+
+    /**
+     * The query should be abandoned once this deadline has passed.
+     */
+    private final Deadline deadline;
+
     /**
      * Create a new GazetteerQuery.
      * @param occurrence the location occurrence
@@ -100,6 +118,51 @@ public class GazetteerQuery {
     public GazetteerQuery(final LocationOccurrence occurrence, final int maxResults, final FuzzyMode fuzzyMode,
             final AncestryMode ancestryMode, final boolean includeHistorical, final boolean filterDupes,
             final Set<Integer> parentIds, final Set<FeatureCode> featureCodes) {
+        this(occurrence, maxResults, fuzzyMode, ancestryMode, includeHistorical, filterDupes, parentIds, featureCodes,
+                null, null);
+    }
+
+    /**
+     * Create a new GazetteerQuery.
+     * @param occurrence the location occurrence
+     * @param maxResults the maximum number of results
+     * @param fuzzyMode the fuzzy mode for this query
+     * @param ancestryMode the ancestry loading mode for this query
+     * @param includeHistorical <code>true</code> to include historical locations
+     * @param filterDupes <code>true</code> to return only the highest scoring match for each individual location
+     * @param parentIds the set of parent IDs to restrict the search to; these will be OR'ed
+     * @param featureCodes the set of feature codes to restrict the search to; these will be OR'ed
+     * @param boundingBox the region to restrict the search to or <code>null</code> for no restriction
+     * @param radius the circle to restrict the search to or <code>null</code> for no restriction; if
+     *               both a region and a circle are provided, locations must fall within both
+     */
+    public GazetteerQuery(final LocationOccurrence occurrence, final int maxResults, final FuzzyMode fuzzyMode,
+            final AncestryMode ancestryMode, final boolean includeHistorical, final boolean filterDupes,
+            final Set<Integer> parentIds, final Set<FeatureCode> featureCodes, final BoundingBox boundingBox,
+            final PointRadius radius) {
+        this(occurrence, maxResults, fuzzyMode, ancestryMode, includeHistorical, filterDupes, parentIds, featureCodes,
+                boundingBox, radius, Deadline.NONE);
+    }
+
+    /**
+     * Create a new GazetteerQuery.
+     * @param occurrence the location occurrence
+     * @param maxResults the maximum number of results
+     * @param fuzzyMode the fuzzy mode for this query
+     * @param ancestryMode the ancestry loading mode for this query
+     * @param includeHistorical <code>true</code> to include historical locations
+     * @param filterDupes <code>true</code> to return only the highest scoring match for each individual location
+     * @param parentIds the set of parent IDs to restrict the search to; these will be OR'ed
+     * @param featureCodes the set of feature codes to restrict the search to; these will be OR'ed
+     * @param boundingBox the region to restrict the search to or <code>null</code> for no restriction
+     * @param radius the circle to restrict the search to or <code>null</code> for no restriction; if
+     *               both a region and a circle are provided, locations must fall within both
+     * @param deadline the deadline after which the query is abandoned or <code>null</code> for no deadline
+     */
+    public GazetteerQuery(final LocationOccurrence occurrence, final int maxResults, final FuzzyMode fuzzyMode,
+            final AncestryMode ancestryMode, final boolean includeHistorical, final boolean filterDupes,
+            final Set<Integer> parentIds, final Set<FeatureCode> featureCodes, final BoundingBox boundingBox,
+            final PointRadius radius, final Deadline deadline) {
         this.occurrence = occurrence;
         this.maxResults = maxResults;
         this.fuzzyMode = fuzzyMode;
@@ -108,6 +171,9 @@ public class GazetteerQuery {
         this.filterDupes = filterDupes;
         this.parentIds = parentIds != null ? new HashSet<>(parentIds) : Collections.emptySet();
         this.featureCodes = featureCodes != null ? EnumSet.copyOf(featureCodes) : EnumSet.noneOf(FeatureCode.class);
+        this.boundingBox = boundingBox;
+        this.radius = radius;
+        this.deadline = Deadline.orNone(deadline);
     }
 
     /**
@@ -175,4 +241,29 @@ public class GazetteerQuery {
     public Set<FeatureCode> getFeatureCodes() {
         return Collections.unmodifiableSet(featureCodes);
     }
+
+    /**
+     * Get the region that should be used to restrict the search.
+     * @return the bounding box restricting the search or <code>null</code> if there is no restriction
+     */
+    public BoundingBox getBoundingBox() {
+        return boundingBox;
+    }
+
+    /**
+     * Get the circle that should be used to restrict the search.
+     * @return the point and radius restricting the search or <code>null</code> if there is no restriction
+     */
+    public PointRadius getRadius() {
+        return radius;
+    }
+
+    /**
+     * Get the deadline after which the query should be abandoned with a
+     * {@link QueryTimeoutException}.
+     * @return the deadline; {@link Deadline#NONE} if the query may run to completion
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
 }
@@ -31,6 +31,7 @@ package com.novetta.clavin.gazetteer.query;
 import static com.novetta.clavin.index.IndexField.*;
 import static org.apache.lucene.queryparser.classic.QueryParserBase.escape;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
@@ -44,46 +45,75 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LatLonPoint;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.ExitableDirectoryReader;
+import org.apache.lucene.index.ExitableDirectoryReader.ExitingReaderException;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BooleanQuery.Builder;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FileSwitchDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.novetta.clavin.ClavinException;
 import com.novetta.clavin.extractor.LocationOccurrence;
 import com.novetta.clavin.gazetteer.BasicGeoName;
+import com.novetta.clavin.gazetteer.CompactGeoName;
 import com.novetta.clavin.gazetteer.FeatureCode;
 import com.novetta.clavin.gazetteer.GeoName;
 import com.novetta.clavin.gazetteer.LazyAncestryGeoName;
 import com.novetta.clavin.index.BinarySimilarity;
 import com.novetta.clavin.index.IndexField;
+import com.novetta.clavin.index.NameSuggester;
+import com.novetta.clavin.index.NameSuggester.Suggestion;
+import com.novetta.clavin.metrics.ClavinMetrics;
+import com.novetta.clavin.metrics.Metric;
+import com.novetta.clavin.metrics.RequestTrace;
+import com.novetta.clavin.metrics.RequestTrace.QueryTrace;
+import com.novetta.clavin.metrics.RequestTracer;
 import com.novetta.clavin.resolver.ResolvedLocation;
+import com.novetta.clavin.util.Deadline;
 
 /**
  * An implementation of Gazetteer that uses Lucene to rapidly search
  * known locations.
+ *
+ * Searchers are managed by a {@link SearcherManager} and acquired and
+ * released for each request, so the underlying index can be refreshed
+ * or replaced with {@link #switchIndex(File)} while the gazetteer is in
+ * use.  In-flight requests complete against the index they started with;
+ * its resources are released once the last of them finishes.
  */
-public class LuceneGazetteer implements Gazetteer {
+public class LuceneGazetteer implements Gazetteer, Closeable {
     /**
      * The logger.
      */
@@ -117,13 +147,23 @@ public class LuceneGazetteer implements Gazetteer {
     /**
      * The default number of results to return.
      */
-    private static final int DEFAULT_MAX_RESULTS = 5;
+    static final int DEFAULT_MAX_RESULTS = 5;
 
     /**
      * The set of all FeatureCodes.
      */
     private static final Set<FeatureCode> ALL_CODES = Collections.unmodifiableSet(EnumSet.allOf(FeatureCode.class));
 
+    /**
+     * Index files worth preloading into memory: the term dictionaries, postings,
+     * positions, norms and doc values read by every query, and compound files,
+     * which hold all of these for small segments.  Stored fields, by far the
+     * largest files, are only read for the hits returned and are left to fault
+     * in on demand.
+     */
+    public static final Set<String> DEFAULT_PRELOAD_EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(
+            Arrays.asList("tip", "tim", "doc", "pos", "nvd", "nvm", "dvd", "dvm", "cfs")));
+
     /**
      * The format string for exact match queries.
      */
@@ -134,9 +174,46 @@ public class LuceneGazetteer implements Gazetteer {
      */
     private static final String FUZZY_FMT = "%s~";
 
+    /**
+     * Guards switching between indexes and closing the gazetteer.
+     */
+    private final Object indexLock = new Object();
+
+    /**
+     * Creates the searchers for this gazetteer.
+     */
+    private final SearcherFactory searcherFactory;
+
+    /**
+     * Extensions of the index files loaded into memory when the index is opened.
+     */
+    private final Set<String> preloadExtensions;
+
     // Lucene index built from GeoNames gazetteer
-    private final FSDirectory index;
-    private final IndexSearcher indexSearcher;
+    private volatile Directory index;
+    private volatile SearcherManager searcherManager;
+    private volatile NameSuggester suggester;
+    private volatile boolean closed = false;
+
+    /**
+     * Should GeoNames be returned as {@link CompactGeoName}s?
+     */
+    private volatile boolean compactGeoNames = false;
+
+    /**
+     * The administrative codes and time zones shared by the compact GeoNames of this gazetteer.
+     */
+    private final CompactGeoName.SharedValues compactValues = new CompactGeoName.SharedValues();
+
+    /**
+     * Receives query and ancestry resolution timings.
+     */
+    private volatile ClavinMetrics metrics = ClavinMetrics.NOOP;
+
+    /**
+     * Traces slow calls to {@link #getClosestLocations}; <code>null</code> if tracing is disabled.
+     */
+    private volatile RequestTracer tracer;
 
     /**
      * Builds a {@link LuceneGazetteer} by loading a pre-built Lucene
@@ -147,24 +224,401 @@ public class LuceneGazetteer implements Gazetteer {
      * @throws ClavinException      if an error occurs opening the index
      */
     public LuceneGazetteer(final File indexDir) throws ClavinException {
+        this(indexDir, null, null);
+    }
+
+    /**
+     * Builds a {@link LuceneGazetteer} that searches the segments of its index
+     * concurrently using the provided executor.  This lets a single expensive
+     * query, such as a fuzzy or multipart query, use idle cores when request
+     * concurrency is low; when all cores are already busy serving requests,
+     * the extra task hand-offs only add overhead.
+     *
+     * @param indexDir              Lucene index directory to be loaded
+     * @param executor              the executor used to search index slices concurrently; if
+     *                              <code>null</code>, segments are searched on the calling thread
+     * @param slicePolicy           the policy used to group segments into slices; if <code>null</code>,
+     *                              Lucene's default grouping is used.  Ignored if executor is <code>null</code>.
+     * @throws ClavinException      if an error occurs opening the index
+     */
+    public LuceneGazetteer(final File indexDir, final Executor executor, final SlicePolicy slicePolicy)
+            throws ClavinException {
+        this(indexDir, executor, slicePolicy, null);
+    }
+
+    /**
+     * Builds a {@link LuceneGazetteer} that memory maps its index and loads the
+     * files with the given extensions into memory as the index is opened, so the
+     * first requests don't wait for them to be paged in from disk.  The operating
+     * system may still evict preloaded pages under memory pressure.  Indexes loaded
+     * with {@link #switchIndex(File)} are preloaded the same way.
+     *
+     * @param indexDir              Lucene index directory to be loaded
+     * @param executor              the executor used to search index slices concurrently; if
+     *                              <code>null</code>, segments are searched on the calling thread
+     * @param slicePolicy           the policy used to group segments into slices; if <code>null</code>,
+     *                              Lucene's default grouping is used.  Ignored if executor is <code>null</code>.
+     * @param preloadExtensions     extensions of the index files to preload, such as
+     *                              {@link #DEFAULT_PRELOAD_EXTENSIONS}; <code>null</code> or empty to
+     *                              preload nothing
+     * @throws ClavinException      if an error occurs opening the index
+     */
+    public LuceneGazetteer(final File indexDir, final Executor executor, final SlicePolicy slicePolicy,
+            final Set<String> preloadExtensions) throws ClavinException {
+        searcherFactory = createSearcherFactory(executor, slicePolicy);
+        this.preloadExtensions = preloadExtensions == null ? Collections.emptySet() :
+                Collections.unmodifiableSet(new HashSet<>(preloadExtensions));
+        index = openIndex(indexDir, this.preloadExtensions);
+        suggester = openSuggester(indexDir);
+        searcherManager = openSearcherManager(index, searcherFactory);
+    }
+
+    /**
+     * Configures whether this gazetteer returns {@link CompactGeoName}s, which need much less
+     * memory than the default {@link BasicGeoName}s and do not keep their gazetteer records.
+     * Enable this when large numbers of resolved locations are held in memory, e.g. in caches.
+     *
+     * @param compact               <code>true</code> to return compact GeoNames
+     */
+    public void setCompactGeoNames(final boolean compact) {
+        this.compactGeoNames = compact;
+    }
+
+    /**
+     * Does this gazetteer return {@link CompactGeoName}s?
+     *
+     * @return                      <code>true</code> if compact GeoNames are returned
+     */
+    public boolean isCompactGeoNames() {
+        return compactGeoNames;
+    }
+
+    /**
+     * Configures where this gazetteer records the time taken by exact and fuzzy
+     * queries and ancestry resolution, and the number of re-queries needed to
+     * replace duplicate results.
+     *
+     * @param metrics               the metrics to record to; <code>null</code> to discard them
+     */
+    public void setMetrics(final ClavinMetrics metrics) {
+        this.metrics = ClavinMetrics.orNoop(metrics);
+    }
+
+    /**
+     * Get the metrics this gazetteer records to.
+     *
+     * @return                      the configured metrics; never <code>null</code>
+     */
+    public ClavinMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Configures tracing of slow {@link #getClosestLocations} calls.  Each traced call
+     * records the generated Lucene queries, their hit counts, the number of times each
+     * was executed to replace duplicates and the time taken; calls made while a
+     * {@link com.novetta.clavin.GeoParser} is tracing a document are recorded in the
+     * trace of the document instead.
+     *
+     * @param tracer                the tracer that reports slow calls; <code>null</code> to disable tracing
+     */
+    public void setTracer(final RequestTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Get the tracer that reports slow calls.
+     *
+     * @return                      the tracer, or <code>null</code> if tracing is disabled
+     */
+    public RequestTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Atomically replaces the index used by this gazetteer with the index found in
+     * the provided directory.  The new index is opened and primed before it is made
+     * available, so requests never observe a cold or partially opened index.  Requests
+     * already in progress complete against the previous index, which is closed once
+     * they have all released it.
+     *
+     * @param indexDir              the Lucene index directory to be loaded
+     * @throws ClavinException      if an error occurs opening the new index; the current
+     *                              index remains in use if this happens
+     */
+    public void switchIndex(final File indexDir) throws ClavinException {
+        Directory newIndex = openIndex(indexDir, preloadExtensions);
+        NameSuggester newSuggester;
+        SearcherManager newManager;
+        try {
+            newSuggester = openSuggester(indexDir);
+            newManager = openSearcherManager(newIndex, searcherFactory);
+        } catch (ClavinException ce) {
+            IOUtils.closeWhileHandlingException(newIndex);
+            throw ce;
+        }
+        Directory oldIndex;
+        SearcherManager oldManager;
+        synchronized (indexLock) {
+            if (closed) {
+                IOUtils.closeWhileHandlingException(newManager, newIndex);
+                throw new ClavinException("Unable to switch indexes; the gazetteer has been closed.");
+            }
+            oldIndex = index;
+            oldManager = searcherManager;
+            index = newIndex;
+            suggester = newSuggester;
+            searcherManager = newManager;
+        }
+        LOG.info("Switched gazetteer index to [{}]", indexDir);
+        try {
+            retire(oldManager, oldIndex);
+        } catch (IOException ioe) {
+            // the new index is already in use; failing to release the old one is not fatal
+            LOG.warn("Error closing previous gazetteer index.", ioe);
+        }
+    }
+
+    /**
+     * Refreshes the searcher if the current index directory has been modified
+     * in place since it was opened.  Requests in progress continue to use the
+     * searcher they acquired.
+     *
+     * @return                      <code>true</code> if the searcher is current after this call
+     * @throws ClavinException      if an error occurs reopening the index
+     */
+    public boolean refresh() throws ClavinException {
+        try {
+            SearcherManager manager = searcherManager;
+            manager.maybeRefresh();
+            return manager.isSearcherCurrent();
+        } catch (AlreadyClosedException | IOException e) {
+            throw new ClavinException("Error refreshing gazetteer index.", e);
+        }
+    }
+
+    /**
+     * Closes this gazetteer.  Requests in progress are allowed to complete; the
+     * index is released once they have finished.  Subsequent requests will fail.
+     * @throws IOException if an error occurs closing the index
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (indexLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        retire(searcherManager, index);
+    }
+
+    /**
+     * Opens the Lucene index directory found on disk.  Files with the preloaded
+     * extensions are read through a memory mapped directory that loads them into
+     * memory when they are opened, and all other files through one that does not.
+     * @param indexDir the index directory
+     * @param preloadExtensions the extensions of the files to preload
+     * @return the opened directory
+     * @throws ClavinException if an error occurs opening the directory
+     */
+    private static Directory openIndex(final File indexDir, final Set<String> preloadExtensions)
+            throws ClavinException {
+        try {
+            if (preloadExtensions.isEmpty()) {
+                return FSDirectory.open(indexDir.toPath());
+            }
+            MMapDirectory preloaded = new MMapDirectory(indexDir.toPath());
+            preloaded.setPreload(true);
+            return new FileSwitchDirectory(preloadExtensions, preloaded, new MMapDirectory(indexDir.toPath()), true);
+        } catch (IOException ioe) {
+            throw new ClavinException("Error opening gazetteer index.", ioe);
+        }
+    }
+
+    /**
+     * Loads the name suggester stored with the index, if there is one.
+     * @param indexDir the index directory
+     * @return the suggester or <code>null</code> if the index was built without one
+     * @throws ClavinException if an error occurs reading the suggester
+     */
+    private static NameSuggester openSuggester(final File indexDir) throws ClavinException {
+        try {
+            NameSuggester nameSuggester = NameSuggester.load(indexDir.toPath());
+            if (nameSuggester == null) {
+                LOG.warn("Gazetteer index [{}] has no name suggester; rebuild the index to enable suggestions.",
+                        indexDir);
+            }
+            return nameSuggester;
+        } catch (IOException ioe) {
+            throw new ClavinException("Error opening gazetteer name suggester.", ioe);
+        }
+    }
+
+    /**
+     * Creates the factory for searchers that ignore multiple appearances of a term when
+     * scoring and, if an executor is provided, search slices of the index concurrently.
+     * @param executor the executor, may be <code>null</code>
+     * @param slicePolicy the slice policy, may be <code>null</code>
+     * @return the SearcherFactory
+     */
+    private static SearcherFactory createSearcherFactory(final Executor executor, final SlicePolicy slicePolicy) {
+        return new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(final IndexReader reader, final IndexReader previousReader) throws IOException {
+                IndexSearcher searcher;
+                if (executor == null || slicePolicy == null) {
+                    searcher = new IndexSearcher(reader, executor);
+                } else {
+                    // slices are computed by the IndexSearcher constructor
+                    searcher = new IndexSearcher(reader, executor) {
+                        @Override
+                        protected LeafSlice[] slices(final List<LeafReaderContext> leaves) {
+                            return slicePolicy.slices(leaves);
+                        }
+                    };
+                }
+                // override default TF/IDF score to ignore multiple appearances
+                searcher.setSimilarity(new BinarySimilarity());
+                return searcher;
+            }
+        };
+    }
+
+    /**
+     * Opens a SearcherManager for the provided index and primes it.
+     * @param dir the index directory
+     * @param factory the factory used to create searchers
+     * @return the SearcherManager
+     * @throws ClavinException if an error occurs opening or priming the index
+     */
+    private static SearcherManager openSearcherManager(final Directory dir, final SearcherFactory factory)
+            throws ClavinException {
+        SearcherManager manager;
         try {
-	        // load the Lucene index directory from disk
-	        index = FSDirectory.open(indexDir.toPath());
-	        indexSearcher = new IndexSearcher(DirectoryReader.open(index));
-	
-	        // override default TF/IDF score to ignore multiple appearances
-	        indexSearcher.setSimilarity(new BinarySimilarity());
-	
-	        // run an initial throw-away query just to "prime the pump" for
-	        // the cache, so we can accurately measure performance speed
-	        // per: http://wiki.apache.org/lucene-java/ImproveSearchingSpeed
-	        indexSearcher.search(new QueryParser(INDEX_NAME.key(), INDEX_ANALYZER).parse("Reston"),
-	        		DEFAULT_MAX_RESULTS, POPULATION_SORT, true);		// double check that last arg...
+            manager = new SearcherManager(dir, factory);
+        } catch (IOException ioe) {
+            throw new ClavinException("Error opening gazetteer index.", ioe);
+        }
+        try {
+            IndexSearcher searcher = manager.acquire();
+            try {
+                // run an initial throw-away query just to "prime the pump" for
+                // the cache, so we can accurately measure performance speed
+                // per: http://wiki.apache.org/lucene-java/ImproveSearchingSpeed
+                searcher.search(new QueryParser(INDEX_NAME.key(), INDEX_ANALYZER).parse("Reston"),
+                        DEFAULT_MAX_RESULTS, POPULATION_SORT, true);		// double check that last arg...
+            } finally {
+                manager.release(searcher);
+            }
         } catch (ParseException pe) {
+            IOUtils.closeWhileHandlingException(manager);
             throw new ClavinException("Error executing priming query.", pe);
         } catch (IOException ioe) {
+            IOUtils.closeWhileHandlingException(manager);
             throw new ClavinException("Error opening gazetteer index.", ioe);
         }
+        return manager;
+    }
+
+    /**
+     * Closes a SearcherManager that is no longer in use, deferring the close of its
+     * directory until all outstanding searchers have been released.
+     * @param manager the SearcherManager to close
+     * @param dir the directory to close once the manager's reader has been closed
+     * @throws IOException if an error occurs closing the manager
+     */
+    private static void retire(final SearcherManager manager, final Directory dir) throws IOException {
+        IndexSearcher searcher = manager.acquire();
+        try {
+            IndexReader.CacheHelper helper = searcher.getIndexReader().getReaderCacheHelper();
+            if (helper != null) {
+                helper.addClosedListener(key -> IOUtils.closeWhileHandlingException(dir));
+            }
+        } finally {
+            manager.release(searcher);
+        }
+        manager.close();
+    }
+
+    /**
+     * Acquires the current searcher; callers must call {@link #release(IndexSearcher)}
+     * when they are done with it.
+     * @return the current searcher
+     * @throws IOException if the gazetteer has been closed or the searcher cannot be acquired
+     */
+    private IndexSearcher acquire() throws IOException {
+        while (true) {
+            SearcherManager manager = searcherManager;
+            try {
+                return manager.acquire();
+            } catch (AlreadyClosedException ace) {
+                // the index was switched between reading the manager and acquiring the
+                // searcher; try again with the new manager unless we have been closed
+                if (closed || manager == searcherManager) {
+                    throw new IOException("The gazetteer has been closed.", ace);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wraps an acquired searcher so that term enumeration, and so the rewriting and
+     * scoring of a query, stops with an {@link ExitingReaderException} once the provided
+     * deadline has passed.  The wrapper is created by the searcher factory, so it
+     * searches the same slices with the same similarity; the acquired searcher must
+     * still be released.
+     * @param searcher the acquired searcher
+     * @param deadline the deadline of the current query
+     * @return the searcher itself if the deadline is unbounded, otherwise a bounded searcher over the same reader
+     * @throws IOException if the wrapper cannot be created
+     */
+    private IndexSearcher bound(final IndexSearcher searcher, final Deadline deadline) throws IOException {
+        if (!deadline.isBounded()) {
+            return searcher;
+        }
+        DirectoryReader reader = (DirectoryReader) searcher.getIndexReader();
+        return searcherFactory.newSearcher(new ExitableDirectoryReader(reader, deadline::isExpired), null);
+    }
+
+    /**
+     * Was an exception caused by a bounded reader abandoning a search?  Searches run on
+     * an executor report the exception wrapped in another.
+     * @param e the exception
+     * @return <code>true</code> if the exception or one of its causes is an {@link ExitingReaderException}
+     */
+    private static boolean isExitingReader(final Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ExitingReaderException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases a searcher obtained from {@link #acquire()}.
+     * @param searcher the searcher to release
+     * @throws IOException if an error occurs releasing the searcher
+     */
+    private void release(final IndexSearcher searcher) throws IOException {
+        // releasing does not depend on the manager that issued the searcher, so this
+        // is safe even if the index was switched after the searcher was acquired
+        searcherManager.release(searcher);
+    }
+
+    /**
+     * Releases a searcher obtained from {@link #acquire()}, logging any errors.
+     * @param searcher the searcher to release; may be <code>null</code>
+     */
+    private void releaseQuietly(final IndexSearcher searcher) {
+        if (searcher != null) {
+            try {
+                release(searcher);
+            } catch (IOException ioe) {
+                LOG.warn("Error releasing index searcher.", ioe);
+            }
+        }
     }
 
     /**
@@ -187,13 +641,18 @@ public class LuceneGazetteer implements Gazetteer {
 
         LocationOccurrence location = query.getOccurrence();	//NOSONAR
         int maxResults = query.getMaxResults() > 0 ? query.getMaxResults() : DEFAULT_MAX_RESULTS;
-        List<ResolvedLocation> matches;
+        List<ScoredLocation> matches;
+        IndexSearcher indexSearcher = null;
+        RequestTracer requestTracer = tracer;
+        RequestTrace trace = requestTracer != null ? requestTracer.begin("getClosestLocations", sanitizedLocationName) : null;
         try {
+            indexSearcher = acquire();
+            IndexSearcher boundedSearcher = bound(indexSearcher, query.getDeadline());
             // attempt to find an exact match for the query
-            matches = executeQuery(
+            matches = executeQuery(boundedSearcher,
             		location, sanitizedLocationName, query, maxResults, false, null);
             if (LOG.isDebugEnabled()) {
-                for (ResolvedLocation loc : matches) {
+                for (ScoredLocation loc : matches) {
                     LOG.debug("{}", loc);
                 }
             }
@@ -201,10 +660,10 @@ public class LuceneGazetteer implements Gazetteer {
             if (query.getFuzzyMode().useFuzzyMatching(maxResults, matches.size())) {
                 // provide any exact matches if we are running a fuzzy query so they can be considered for deduplication
                 // and result count
-                matches = executeQuery(
+                matches = executeQuery(boundedSearcher,
                 		location, sanitizedLocationName, query, maxResults, true, matches);
                 if (LOG.isDebugEnabled()) {
-                    for (ResolvedLocation loc : matches) {
+                    for (ScoredLocation loc : matches) {
                         LOG.debug("{}[fuzzy]", loc);
                     }
                 }
@@ -216,13 +675,55 @@ public class LuceneGazetteer implements Gazetteer {
             throw new ClavinException(String.format("Error parsing query for: '%s'}", location.getText()), pe);
         } catch (IOException ioe) {
             throw new ClavinException(String.format("Error executing query for: '%s'}", location.getText()), ioe);
+        } finally {
+            releaseQuietly(indexSearcher);
+            if (requestTracer != null) {
+                requestTracer.end(trace);
+            }
+        }
+        return ScoredLocation.toResolvedLocations(matches);
+    }
+
+    /**
+     * Execute a single exact or fuzzy query against the Lucene gazetteer index, returning
+     * the top matches along with the values used to order them.  Unlike
+     * {@link #getClosestLocations(GazetteerQuery)}, the {@link FuzzyMode} of the query is
+     * ignored; this is used to merge results from multiple indexes.
+     *
+     * @param query              the configuration parameters for the query
+     * @param fuzzy              <code>true</code> to execute a fuzzy query, <code>false</code> for an exact query
+     * @param previousResults    matches already found, which are used for duplicate filtering and filled
+     *                           until maxResults is reached; may be <code>null</code>
+     * @return                   the list of scored matches, in result order, starting with any previous results
+     * @throws ClavinException   if an error occurs
+     */
+    List<ScoredLocation> getScoredLocations(final GazetteerQuery query, final boolean fuzzy,
+            final List<ScoredLocation> previousResults) throws ClavinException {
+        String sanitizedLocationName = sanitizeQueryText(query);
+        if ("".equals(sanitizedLocationName)) {
+            return Collections.emptyList();
+        }
+
+        LocationOccurrence location = query.getOccurrence();	//NOSONAR
+        int maxResults = query.getMaxResults() > 0 ? query.getMaxResults() : DEFAULT_MAX_RESULTS;
+        IndexSearcher indexSearcher = null;
+        try {
+            indexSearcher = acquire();
+            return executeQuery(bound(indexSearcher, query.getDeadline()), location, sanitizedLocationName, query,
+                    maxResults, fuzzy, previousResults);
+        } catch (ParseException pe) {
+            throw new ClavinException(String.format("Error parsing query for: '%s'}", location.getText()), pe);
+        } catch (IOException ioe) {
+            throw new ClavinException(String.format("Error executing query for: '%s'}", location.getText()), ioe);
+        } finally {
+            releaseQuietly(indexSearcher);
         }
-        return matches;
     }
 
     /**
      * Executes a query against the Lucene index, processing the results and returning
      * at most maxResults ResolvedLocations with ancestry resolved.
+     * @param indexSearcher the acquired searcher
      * @param location the location occurrence
      * @param sanitizedName the sanitized name of the search location
      * @param filterQuery base query for determining how to handle duplicates, ancestors, historical locations, and code restrictions 
@@ -232,13 +733,43 @@ public class LuceneGazetteer implements Gazetteer {
      * @param previousResults the results of a previous query that should be used for duplicate filtering and appended to until
      *                        no additional matches are found or maxResults has been reached; the input list will not be modified
      *                        and may be <code>null</code>
-     * @return the ResolvedLocations with ancestry resolved matching the query
+     * @return the scored ResolvedLocations with ancestry resolved matching the query
      * @throws ParseException if an error occurs generating the query
      * @throws IOException if an error occurs executing the query
+     * @throws QueryTimeoutException if the deadline of the query passes before it completes
      */
-    private List<ResolvedLocation> executeQuery(final LocationOccurrence location, final String sanitizedName,
+    private List<ScoredLocation> executeQuery(final IndexSearcher indexSearcher, final LocationOccurrence location, final String sanitizedName,
     		GazetteerQuery filterQuery, final int maxResults, final boolean fuzzy,
-            final List<ResolvedLocation> previousResults) throws ParseException, IOException {
+            final List<ScoredLocation> previousResults) throws ParseException, IOException, QueryTimeoutException {
+        // details are only collected when the current request is being traced
+        RequestTrace trace = RequestTrace.active();
+        QueryTrace queryTrace = trace != null ? new QueryTrace(sanitizedName, fuzzy) : null;
+        long start = System.nanoTime();
+        int resultCount = 0;
+        try {
+            List<ScoredLocation> matches = executeTimedQuery(indexSearcher, location, sanitizedName, filterQuery,
+                    maxResults, fuzzy, previousResults, queryTrace);
+            resultCount = matches.size();
+            return matches;
+        } catch (RuntimeException re) {
+            if (isExitingReader(re)) {
+                throw new QueryTimeoutException(String.format("Deadline passed while searching for: '%s'", location.getText()), re);
+            }
+            throw re;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.record(fuzzy ? Metric.FUZZY_QUERY : Metric.EXACT_QUERY, elapsed);
+            if (queryTrace != null) {
+                queryTrace.finish(resultCount, elapsed);
+                trace.addQuery(queryTrace);
+            }
+        }
+    }
+
+    private List<ScoredLocation> executeTimedQuery(final IndexSearcher indexSearcher, final LocationOccurrence location,
+            final String sanitizedName, final GazetteerQuery filterQuery, final int maxResults, final boolean fuzzy,
+            final List<ScoredLocation> previousResults, final QueryTrace queryTrace)
+            throws ParseException, IOException, QueryTimeoutException {
     	// combine filters with search term query
     	QueryParser queryParser = new QueryParser(INDEX_NAME.key(), INDEX_ANALYZER);
     	Query query = queryParser.parse(String.format(fuzzy ? FUZZY_FMT : EXACT_MATCH_FMT, sanitizedName));
@@ -256,8 +787,11 @@ public class LuceneGazetteer implements Gazetteer {
     	Builder builder = buildFilters(filterQuery);
     	builder.add(query, Occur.MUST);
     	query = builder.build();
+        if (queryTrace != null) {
+            queryTrace.setLuceneQuery(query.toString());
+        }
 
-        List<ResolvedLocation> matches = new ArrayList<>(maxResults);
+        List<ScoredLocation> matches = new ArrayList<>(maxResults);
         Map<Integer, Set<GeoName>> parentMap = new HashMap<>();
 
         // reuse GeoName instances so all ancestry is correctly resolved if multiple names for
@@ -267,8 +801,9 @@ public class LuceneGazetteer implements Gazetteer {
         // so they can be used for deduplication or re-used if additional matches are found
         if (previousResults != null) {
             matches.addAll(previousResults);
-            for (ResolvedLocation loc : previousResults) {
-                geonameMap.put(loc.getGeoname().getGeonameID(), loc.getGeoname());
+            for (ScoredLocation loc : previousResults) {
+                GeoName geoname = loc.getLocation().getGeoname();
+                geonameMap.put(geoname.getGeonameID(), geoname);
             }
         }
 
@@ -282,12 +817,22 @@ public class LuceneGazetteer implements Gazetteer {
         // track the last discovered hit so we can re-execute the query if we are
         // deduping and need to fill results
         ScoreDoc lastDoc = null;
+        // the number of times the query is executed
+        int executions = 0;
         do {
+            // term enumeration is interrupted by the bounded reader; stop between re-queries as well
+            if (filterQuery.getDeadline().isExpired()) {
+                throw new QueryTimeoutException(String.format("Deadline passed while searching for: '%s'", location.getText()));
+            }
+            executions++;
             // collect all the hits up to maxResults, and sort them based
             // on Lucene match score and population for the associated
             // GeoNames record
         	//TopDocs results = indexSearcher.
             TopDocs results = indexSearcher.searchAfter(lastDoc, query, maxResults, POPULATION_SORT, true);	// double check last arg
+            if (queryTrace != null) {
+                queryTrace.addIteration(results.totalHits.value);
+            }
             // set lastDoc to null so we don't infinite loop if results is empty
             lastDoc = null;
             // populate results if matches were discovered
@@ -299,7 +844,7 @@ public class LuceneGazetteer implements Gazetteer {
                 int geonameID = GEONAME_ID.getValue(doc);
                 GeoName geoname = geonameMap.get(geonameID);
                 if (geoname == null) {
-                    geoname = BasicGeoName.parseFromGeoNamesRecord((String) GEONAME.getValue(doc), (String) PREFERRED_NAME.getValue(doc));
+                    geoname = parseGeoName((String) GEONAME.getValue(doc), (String) PREFERRED_NAME.getValue(doc));
                     geonameMap.put(geonameID, geoname);
                 } else if (filterQuery.isFilterDupes()) {
                     // if we have already seen this GeoName and we are removing duplicates, skip to the next doc
@@ -328,17 +873,21 @@ public class LuceneGazetteer implements Gazetteer {
                         }
                     }
                 }
-                matches.add(new ResolvedLocation(location, geoname, matchedName, fuzzy));
+                // the sort values are the Lucene score and the sort population, per POPULATION_SORT
+                FieldDoc fieldDoc = (FieldDoc) scoreDoc;
+                matches.add(new ScoredLocation(new ResolvedLocation(location, geoname, matchedName, fuzzy),
+                        (Float) fieldDoc.fields[0], (Long) fieldDoc.fields[1]));
                 // stop processing results if we have reached maxResults matches
                 if (matches.size() >= maxResults) {
                     break;
                 }
             }
         } while (filterQuery.isFilterDupes() && lastDoc != null && matches.size() < maxResults);
+        metrics.record(Metric.DEDUPE_REQUERIES, executions - 1);
         // if any results need ancestry resolution, resolve parents
         // this map should only contain GeoNames if ancestryMode == ON_CREATE
         if (!parentMap.isEmpty()) {
-            resolveParents(parentMap);
+            resolveParents(indexSearcher, parentMap);
         }
         //Explanation explanation1 = indexSearcher.explain(query, 17254382);	// compare incorrect score
         //Explanation explanation2 = indexSearcher.explain(query, 20381356);	// compare correct score
@@ -395,6 +944,19 @@ public class LuceneGazetteer implements Gazetteer {
             queryParts.add(codeQuery.build());
         }
 
+        // create the spatial restrictions if we were provided a region and/or a radius;
+        // Lucene handles boxes that cross the dateline when minLon > maxLon
+        BoundingBox box = params.getBoundingBox();
+        if (box != null) {
+            queryParts.add(LatLonPoint.newBoxQuery(LOCATION.key(), box.getMinLatitude(), box.getMaxLatitude(),
+                    box.getMinLongitude(), box.getMaxLongitude()));
+        }
+        PointRadius radius = params.getRadius();
+        if (radius != null) {
+            queryParts.add(LatLonPoint.newDistanceQuery(LOCATION.key(), radius.getLatitude(), radius.getLongitude(),
+                    radius.getRadiusMeters()));
+        }
+
         // combine all query parts
         Builder builder = new BooleanQuery.Builder();
         for (Query part : queryParts) {
@@ -403,12 +965,40 @@ public class LuceneGazetteer implements Gazetteer {
         return builder;
     }
 
+    /**
+     * Builds a GeoName from its stored gazetteer record in the configured representation.
+     * @param record the stored gazetteer record, including any ancestry records
+     * @param preferredName the stored preferred name
+     * @return the GeoName
+     */
+    private GeoName parseGeoName(final String record, final String preferredName) {
+        return compactGeoNames ? CompactGeoName.parseFromGeoNamesRecord(record, preferredName, false, compactValues) :
+                BasicGeoName.parseFromGeoNamesRecord(record, preferredName);
+    }
+
     /**
      * Retrieves and sets the parents of the provided children.
      * @param childMap the map of parent geonameID to the set of children that belong to it
      * @throws IOException if an error occurs during parent resolution
      */
-    private void resolveParents(final Map<Integer, Set<GeoName>> childMap) throws IOException {
+    private void resolveParents(final IndexSearcher indexSearcher, final Map<Integer, Set<GeoName>> childMap)
+            throws IOException {
+        long start = System.nanoTime();
+        try {
+            resolveAncestors(indexSearcher, childMap);
+        } finally {
+            metrics.recordSince(Metric.ANCESTRY_RESOLUTION, start);
+        }
+    }
+
+    /**
+     * Retrieves and sets the parents of the provided children, then recursively
+     * resolves the ancestry of those parents.
+     * @param childMap the map of parent geonameID to the set of children that belong to it
+     * @throws IOException if an error occurs during parent resolution
+     */
+    private void resolveAncestors(final IndexSearcher indexSearcher, final Map<Integer, Set<GeoName>> childMap)
+            throws IOException {
         Map<Integer, GeoName> parentMap = new HashMap<>();
         Map<Integer, Set<GeoName>> grandParentMap = new HashMap<>();
         for (Integer parentId : childMap.keySet()) {
@@ -417,7 +1007,7 @@ public class LuceneGazetteer implements Gazetteer {
             TopDocs results = indexSearcher.search(q, 1, POPULATION_SORT, true);		// another mystery bool
             if (results.scoreDocs.length > 0) {
                 Document doc = indexSearcher.doc(results.scoreDocs[0].doc);
-                GeoName parent = BasicGeoName.parseFromGeoNamesRecord(doc.get(GEONAME.key()), doc.get(PREFERRED_NAME.key()));
+                GeoName parent = parseGeoName(doc.get(GEONAME.key()), doc.get(PREFERRED_NAME.key()));
                 parentMap.put(parent.getGeonameID(), parent);
                 if (!parent.isAncestryResolved()) {
                     Integer grandParentId = PARENT_ID.getValue(doc);
@@ -433,7 +1023,7 @@ public class LuceneGazetteer implements Gazetteer {
 
         // find all parents of the parents
         if (!grandParentMap.isEmpty()) {
-            resolveParents(grandParentMap);
+            resolveAncestors(indexSearcher, grandParentMap);
         }
 
         // set parents of children
@@ -451,6 +1041,39 @@ public class LuceneGazetteer implements Gazetteer {
         }
     }
 
+    @Override
+    public List<Integer> suggest(final String prefix, final int k, final Set<FeatureCode> featureCodes)
+            throws ClavinException {
+        List<Suggestion> suggestions = getSuggestions(prefix, k, featureCodes);
+        List<Integer> ids = new ArrayList<>(suggestions.size());
+        for (Suggestion suggestion : suggestions) {
+            ids.add(suggestion.getGeonameId());
+        }
+        return ids;
+    }
+
+    /**
+     * Suggests locations whose names start with the provided prefix, returning their weights
+     * so suggestions from multiple indexes can be merged.
+     * @param prefix the prefix to complete
+     * @param k the maximum number of suggestions to return
+     * @param featureCodes if not <code>null</code> or empty, the feature codes of the locations to suggest
+     * @return the suggestions, highest weight first
+     * @throws ClavinException if the index has no suggester or an error occurs
+     */
+    List<Suggestion> getSuggestions(final String prefix, final int k, final Set<FeatureCode> featureCodes)
+            throws ClavinException {
+        NameSuggester current = suggester;
+        if (current == null) {
+            throw new ClavinException("The gazetteer index does not include a name suggester; rebuild the index to enable suggestions.");
+        }
+        try {
+            return current.lookup(prefix, k, featureCodes);
+        } catch (IOException ioe) {
+            throw new ClavinException(String.format("Error suggesting locations for: '%s'", prefix), ioe);
+        }
+    }
+
     @Override
     public GeoName getGeoName(final int geonameId) throws ClavinException {
         return getGeoName(geonameId, AncestryMode.LAZY);
@@ -458,7 +1081,9 @@ public class LuceneGazetteer implements Gazetteer {
 
     @Override
     public GeoName getGeoName(final int geonameId, final AncestryMode ancestryMode) throws ClavinException {
+        IndexSearcher indexSearcher = null;
         try {
+            indexSearcher = acquire();
             GeoName geoName = null;
             // Lucene query used to look for exact match on the "geonameID" field
             Query q = IntPoint.newExactQuery(GEONAME_ID.key(), geonameId);
@@ -466,7 +1091,7 @@ public class LuceneGazetteer implements Gazetteer {
             TopDocs results = indexSearcher.search(q, 1);
             if (results.scoreDocs.length > 0) {
                 Document doc = indexSearcher.doc(results.scoreDocs[0].doc);
-                geoName = BasicGeoName.parseFromGeoNamesRecord(doc.get(GEONAME.key()), doc.get(PREFERRED_NAME.key()));
+                geoName = parseGeoName(doc.get(GEONAME.key()), doc.get(PREFERRED_NAME.key()));
                 if (!geoName.isAncestryResolved()) {
                     Integer parentId = PARENT_ID.getValue(doc);
                     if (parentId != null) {
@@ -474,7 +1099,7 @@ public class LuceneGazetteer implements Gazetteer {
                             case ON_CREATE:
                                 Map<Integer, Set<GeoName>> childMap = new HashMap<>();
                                 childMap.put(parentId, Collections.singleton(geoName));
-                                resolveParents(childMap);
+                                resolveParents(indexSearcher, childMap);
                                 break;
                             case LAZY:
                                 // ancestry will be loaded on request
@@ -495,6 +1120,8 @@ public class LuceneGazetteer implements Gazetteer {
             String msg = String.format("Error retrieving geoname with ID : %d", geonameId);
             LOG.error(msg, e);
             throw new ClavinException(msg, e);
+        } finally {
+            releaseQuietly(indexSearcher);
         }
     }
 
@@ -514,10 +1141,14 @@ public class LuceneGazetteer implements Gazetteer {
             }
         }
         if (!parentMap.isEmpty()) {
+            IndexSearcher indexSearcher = null;
             try {
-                resolveParents(parentMap);
+                indexSearcher = acquire();
+                resolveParents(indexSearcher, parentMap);
             } catch (IOException ioe) {
                 throw new ClavinException("Error loading ancestry.", ioe);
+            } finally {
+                releaseQuietly(indexSearcher);
             }
         }
     }
@@ -0,0 +1,120 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * PointRadius.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.gazetteer.query;
+
+/**
+ * A circle, described by a center point and a radius in meters, used
+ * to restrict gazetteer searches to locations found near a point.
+ */
+public class PointRadius {
+    /**
+     * The latitude of the center point in decimal degrees.
+     */
+    private final double latitude;
+
+    /**
+     * The longitude of the center point in decimal degrees.
+     */
+    private final double longitude;
+
+    /**
+     * The radius of the circle in meters.
+     */
+    private final double radiusMeters;
+
+    /**
+     * Create a new PointRadius.
+     * @param latitude the latitude of the center point, in the range [-90, 90]
+     * @param longitude the longitude of the center point, in the range [-180, 180]
+     * @param radiusMeters the radius, in meters; must be positive
+     * @throws IllegalArgumentException if the center point is out of range or the radius is not positive
+     */
+    public PointRadius(final double latitude, final double longitude, final double radiusMeters) {
+        BoundingBox.checkLatitude(latitude);
+        BoundingBox.checkLongitude(longitude);
+        if (Double.isNaN(radiusMeters) || Double.isInfinite(radiusMeters) || radiusMeters <= 0.0d) {
+            throw new IllegalArgumentException(String.format("Invalid radius [%f]; must be a positive number of meters", radiusMeters));
+        }
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radiusMeters = radiusMeters;
+    }
+
+    /**
+     * Get the latitude of the center point.
+     * @return the latitude in decimal degrees
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * Get the longitude of the center point.
+     * @return the longitude in decimal degrees
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Get the radius of the circle.
+     * @return the radius in meters
+     */
+    public double getRadiusMeters() {
+        return radiusMeters;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 31 * hash + Double.hashCode(latitude);
+        hash = 31 * hash + Double.hashCode(longitude);
+        hash = 31 * hash + Double.hashCode(radiusMeters);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final PointRadius other = (PointRadius) obj;
+        return Double.compare(latitude, other.latitude) == 0 &&
+                Double.compare(longitude, other.longitude) == 0 &&
+                Double.compare(radiusMeters, other.radiusMeters) == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%fm around (%f, %f)", radiusMeters, latitude, longitude);
+    }
+}
@@ -30,6 +30,7 @@ package com.novetta.clavin.gazetteer.query;
 
 import com.novetta.clavin.extractor.LocationOccurrence;
 import com.novetta.clavin.gazetteer.FeatureCode;
+import com.novetta.clavin.util.Deadline;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -118,13 +119,17 @@ public class QueryBuilder {
     private boolean filterDupes = DEFAULT_FILTER_DUPES;
     private Set<Integer> parentIds = new HashSet<>();
     private Set<FeatureCode> featureCodes = EnumSet.noneOf(FeatureCode.class);
+    private BoundingBox boundingBox;
+    private PointRadius radius;
+    private Deadline deadline = Deadline.NONE;
 
     /**
      * Constructs a query from the current configuration of this Builder.
      * @return a {@link GazetteerQuery} configuration object
      */
     public GazetteerQuery build() {
-        return new GazetteerQuery(location, maxResults, fuzzyMode, ancestryMode, includeHistorical, filterDupes, parentIds, featureCodes);
+        return new GazetteerQuery(location, maxResults, fuzzyMode, ancestryMode, includeHistorical, filterDupes, parentIds, featureCodes,
+                boundingBox, radius, deadline);
     }
 
     /**
@@ -532,9 +537,110 @@ public class QueryBuilder {
         return removeFeatureCodes(CITY_CODES);
     }
 
+    /**
+     * Get the region that will be used to constrain the query results.
+     * @return the current bounding box or <code>null</code> if results are not restricted by region
+     */
+    public BoundingBox boundingBox() {
+        return boundingBox;
+    }
+
+    /**
+     * Restrict the query results to locations found within the provided region, replacing
+     * any previously configured region.
+     * @param box the region used to constrain the query results or <code>null</code> to remove the restriction
+     * @return this
+     */
+    public QueryBuilder boundingBox(final BoundingBox box) {
+        boundingBox = box;
+        return this;
+    }
+
+    /**
+     * Convenience method to restrict the query results to locations found within the
+     * provided region, replacing any previously configured region.
+     * @param minLat the southern edge of the region
+     * @param maxLat the northern edge of the region
+     * @param minLon the western edge of the region
+     * @param maxLon the eastern edge of the region; if less than minLon, the region crosses the dateline
+     * @return this
+     */
+    public QueryBuilder boundingBox(final double minLat, final double maxLat, final double minLon, final double maxLon) {
+        return boundingBox(new BoundingBox(minLat, maxLat, minLon, maxLon));
+    }
+
+    /**
+     * Convenience method to remove the current region restriction.
+     * @return this
+     */
+    public QueryBuilder clearBoundingBox() {
+        boundingBox = null;
+        return this;
+    }
+
+    /**
+     * Get the circle that will be used to constrain the query results.
+     * @return the current point and radius or <code>null</code> if results are not restricted by distance
+     */
+    public PointRadius radius() {
+        return radius;
+    }
+
+    /**
+     * Restrict the query results to locations found within the provided circle, replacing
+     * any previously configured circle.
+     * @param circle the circle used to constrain the query results or <code>null</code> to remove the restriction
+     * @return this
+     */
+    public QueryBuilder radius(final PointRadius circle) {
+        radius = circle;
+        return this;
+    }
+
+    /**
+     * Convenience method to restrict the query results to locations found within the provided
+     * distance of a point, replacing any previously configured circle.
+     * @param lat the latitude of the center point
+     * @param lon the longitude of the center point
+     * @param radiusMeters the maximum distance from the center point, in meters
+     * @return this
+     */
+    public QueryBuilder radius(final double lat, final double lon, final double radiusMeters) {
+        return radius(new PointRadius(lat, lon, radiusMeters));
+    }
+
+    /**
+     * Convenience method to remove the current distance restriction.
+     * @return this
+     */
+    public QueryBuilder clearRadius() {
+        radius = null;
+        return this;
+    }
+
+    /**
+     * Get the deadline after which the query will be abandoned.
+     * @return the current deadline; {@link Deadline#NONE} if the query may run to completion
+     */
+    public Deadline deadline() {
+        return deadline;
+    }
+
+    /**
+     * Abandon the query with a {@link QueryTimeoutException} if it is still running
+     * once the provided deadline has passed.
+     * @param limit the deadline or <code>null</code> to let the query run to completion
+     * @return this
+     */
+    public QueryBuilder deadline(final Deadline limit) {
+        deadline = Deadline.orNone(limit);
+        return this;
+    }
+
     @Override
     public String toString() {
-        return String.format("loc: %s, maxResults: %s, fuzzyMode: %s, historical? %s, filterDupes? %s, parents: %s, codes: %s",
-                location, maxResults, fuzzyMode, includeHistorical, filterDupes, parentIds, featureCodes);
+        return String.format("loc: %s, maxResults: %s, fuzzyMode: %s, historical? %s, filterDupes? %s, parents: %s, codes: %s, "
+                + "box: %s, radius: %s, deadline: %s", location, maxResults, fuzzyMode, includeHistorical, filterDupes, parentIds,
+                featureCodes, boundingBox, radius, deadline);
     }
 }
@@ -0,0 +1,57 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * QueryTimeoutException.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.gazetteer.query;
+
+import com.novetta.clavin.ClavinException;
+
+/**
+ * Thrown when a gazetteer query is abandoned because the
+ * {@link com.novetta.clavin.util.Deadline} of its {@link GazetteerQuery}
+ * has passed.
+ */
+public class QueryTimeoutException extends ClavinException {
+    private static final long serialVersionUID = -6311934415223380473L;
+
+    /**
+     * Create a new QueryTimeoutException with the given message.
+     * @param message the message
+     */
+    public QueryTimeoutException(final String message) {
+        super(message);
+    }
+
+    /**
+     * Create a new QueryTimeoutException with the given message and cause.
+     * @param message the message
+     * @param cause the cause
+     */
+    public QueryTimeoutException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
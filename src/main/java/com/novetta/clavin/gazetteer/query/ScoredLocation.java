@@ -0,0 +1,99 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ScoredLocation.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.gazetteer.query;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.novetta.clavin.resolver.ResolvedLocation;
+
+/**
+ * A gazetteer match along with the values used to order it in the
+ * search results.  This allows results from multiple indexes to be
+ * merged in the same order a single index would have produced.
+ */
+final class ScoredLocation {
+    /**
+     * Orders locations as the Lucene gazetteer does: exact matches before
+     * fuzzy matches, then by descending match score and finally by descending
+     * sort population.
+     */
+    static final Comparator<ScoredLocation> RESULT_ORDER = Comparator
+            .comparing((ScoredLocation loc) -> loc.getLocation().isFuzzy())
+            .thenComparing(ScoredLocation::getScore, Comparator.reverseOrder())
+            .thenComparing(ScoredLocation::getSortPopulation, Comparator.reverseOrder());
+
+    private final ResolvedLocation location;
+    private final float score;
+    private final long sortPopulation;
+
+    /**
+     * Create a new ScoredLocation.
+     * @param location the matched location
+     * @param score the Lucene match score
+     * @param sortPopulation the sort population of the matched record
+     */
+    ScoredLocation(final ResolvedLocation location, final float score, final long sortPopulation) {
+        this.location = location;
+        this.score = score;
+        this.sortPopulation = sortPopulation;
+    }
+
+    ResolvedLocation getLocation() {
+        return location;
+    }
+
+    float getScore() {
+        return score;
+    }
+
+    long getSortPopulation() {
+        return sortPopulation;
+    }
+
+    /**
+     * Extracts the matched locations from a list of scored locations, preserving order.
+     * @param scored the scored locations
+     * @return the matched locations
+     */
+    static List<ResolvedLocation> toResolvedLocations(final List<ScoredLocation> scored) {
+        List<ResolvedLocation> locations = new ArrayList<>(scored.size());
+        for (ScoredLocation loc : scored) {
+            locations.add(loc.location);
+        }
+        return locations;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, score: %f, sortPop: %d", location, score, sortPopulation);
+    }
+}
@@ -0,0 +1,505 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ShardedGazetteer.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.gazetteer.query;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.util.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.novetta.clavin.ClavinException;
+import com.novetta.clavin.gazetteer.FeatureCode;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.index.IndexDirectoryBuilder;
+import com.novetta.clavin.index.NameSuggester.Suggestion;
+import com.novetta.clavin.metrics.ClavinMetrics;
+import com.novetta.clavin.metrics.RequestTrace;
+import com.novetta.clavin.metrics.RequestTracer;
+import com.novetta.clavin.resolver.ResolvedLocation;
+
+/**
+ * A Gazetteer that spreads the gazetteer across multiple Lucene indexes,
+ * typically one per continent or group of countries, so that each shard
+ * is small enough to stay resident in memory.
+ *
+ * When the parent IDs of a query identify the shard(s) that can contain
+ * matching locations, only those shards are searched.  Otherwise, the query
+ * is executed against all shards concurrently and the results are merged
+ * in the same order a single index would have produced: by Lucene match
+ * score and then by sort population.
+ *
+ * Every location is stored in exactly one shard, along with its full
+ * ancestry, so ancestry resolution never needs to cross shards.
+ */
+public class ShardedGazetteer implements Gazetteer, Closeable {
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedGazetteer.class);
+
+    /**
+     * Marks a GeoName ID that could not be found in any shard.
+     */
+    private static final int NO_SHARD = -1;
+
+    /**
+     * The number of GeoName IDs whose shard is remembered.
+     */
+    private static final int SHARD_LOOKUP_SIZE = 10000;
+
+    /**
+     * The shards, in a fixed order.
+     */
+    private final List<LuceneGazetteer> shards;
+
+    /**
+     * The executor used to search shards concurrently.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Was the executor created by this gazetteer?  If so, it will be shut down when the gazetteer is closed.
+     */
+    private final boolean ownsExecutor;
+
+    /**
+     * The index of the shard containing recently located GeoName IDs, least recently used first.
+     * Routing is based on parent IDs, which are administrative divisions, so most lookups hit.
+     */
+    private final Map<Integer, Integer> shardLookup = Collections.synchronizedMap(
+            new LinkedHashMap<Integer, Integer>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Integer, Integer> eldest) {
+                    return size() > SHARD_LOOKUP_SIZE;
+                }
+            });
+
+    /**
+     * Traces slow calls to {@link #getClosestLocations}; <code>null</code> if tracing is disabled.
+     */
+    private volatile RequestTracer tracer;
+
+    /**
+     * Opens a sharded index written by {@link IndexDirectoryBuilder}, searching the shards
+     * with a dedicated thread pool.
+     *
+     * @param indexDir              the directory containing the shard manifest and shard indexes
+     * @throws ClavinException      if an error occurs opening the shards
+     */
+    public ShardedGazetteer(final File indexDir) throws ClavinException {
+        this(openShards(indexDir), null);
+    }
+
+    /**
+     * Creates a ShardedGazetteer over the provided shards.
+     *
+     * @param shards                the shard gazetteers; each location must be found in only one shard
+     * @param executor              the executor used to search shards concurrently; if <code>null</code>,
+     *                              a fixed thread pool with one thread per shard is created and shut down
+     *                              when this gazetteer is closed
+     */
+    public ShardedGazetteer(final List<LuceneGazetteer> shards, final ExecutorService executor) {
+        if (shards == null || shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard must be provided.");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.ownsExecutor = executor == null;
+        this.executor = executor != null ? executor : Executors.newFixedThreadPool(shards.size(), runnable -> {
+            Thread thread = new Thread(runnable, "clavin-shard-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens each shard listed in the manifest of a sharded index.
+     * @param indexDir the sharded index directory
+     * @return the opened shards, in manifest order
+     * @throws ClavinException if an error occurs reading the manifest or opening a shard
+     */
+    private static List<LuceneGazetteer> openShards(final File indexDir) throws ClavinException {
+        File manifest = new File(indexDir, IndexDirectoryBuilder.SHARD_MANIFEST_FILE);
+        Properties shardSpec = new Properties();
+        try (InputStream in = new FileInputStream(manifest)) {
+            shardSpec.load(in);
+        } catch (IOException ioe) {
+            throw new ClavinException(String.format("Error reading shard manifest [%s].", manifest), ioe);
+        }
+        List<LuceneGazetteer> shards = new ArrayList<>();
+        try {
+            for (String shardName : new TreeSet<>(shardSpec.stringPropertyNames())) {
+                LOG.info("Opening gazetteer shard [{}]", shardName);
+                shards.add(new LuceneGazetteer(new File(indexDir, shardName)));
+            }
+        } catch (ClavinException ce) {
+            IOUtils.closeWhileHandlingException(shards);
+            throw ce;
+        }
+        if (shards.isEmpty()) {
+            throw new ClavinException(String.format("No shards found in manifest [%s].", manifest));
+        }
+        return shards;
+    }
+
+    /**
+     * Configures whether the shards return {@link com.novetta.clavin.gazetteer.CompactGeoName}s.
+     *
+     * @param compact               <code>true</code> to return compact GeoNames
+     * @see LuceneGazetteer#setCompactGeoNames(boolean)
+     */
+    public void setCompactGeoNames(final boolean compact) {
+        for (LuceneGazetteer shard : shards) {
+            shard.setCompactGeoNames(compact);
+        }
+    }
+
+    /**
+     * Configures where the shards record their query and ancestry resolution metrics.
+     *
+     * @param metrics               the metrics to record to; <code>null</code> to discard them
+     * @see LuceneGazetteer#setMetrics(ClavinMetrics)
+     */
+    public void setMetrics(final ClavinMetrics metrics) {
+        for (LuceneGazetteer shard : shards) {
+            shard.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Configures tracing of slow {@link #getClosestLocations} calls; the queries run
+     * against each shard are recorded in the trace of the call.
+     *
+     * @param tracer                the tracer that reports slow calls; <code>null</code> to disable tracing
+     * @see LuceneGazetteer#setTracer(RequestTracer)
+     */
+    public void setTracer(final RequestTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Execute a query against the shards that may contain matching locations,
+     * returning the top matches across all shards as {@link ResolvedLocation}s.
+     *
+     * @param query              the configuration parameters for the query
+     * @return                   the list of ResolvedLocations as potential matches
+     * @throws ClavinException   if an error occurs
+     */
+    @Override
+    public List<ResolvedLocation> getClosestLocations(final GazetteerQuery query) throws ClavinException {
+        RequestTracer requestTracer = tracer;
+        RequestTrace trace = requestTracer != null && query.getOccurrence() != null ?
+                requestTracer.begin("getClosestLocations", query.getOccurrence().getText()) : null;
+        try {
+            return searchShards(query);
+        } finally {
+            if (requestTracer != null) {
+                requestTracer.end(trace);
+            }
+        }
+    }
+
+    private List<ResolvedLocation> searchShards(final GazetteerQuery query) throws ClavinException {
+        List<LuceneGazetteer> targets = route(query.getParentIds());
+        int maxResults = query.getMaxResults() > 0 ? query.getMaxResults() : LuceneGazetteer.DEFAULT_MAX_RESULTS;
+
+        // mirror LuceneGazetteer: decide whether to run a fuzzy query based on the number of
+        // exact matches found across all shards, not the number found in each shard
+        List<ScoredLocation> matches = merge(search(targets, query, false, null), maxResults);
+        if (query.getFuzzyMode().useFuzzyMatching(maxResults, matches.size())) {
+            Set<Integer> seen = new HashSet<>();
+            for (ScoredLocation loc : matches) {
+                seen.add(loc.getLocation().getGeoname().getGeonameID());
+            }
+            // as in LuceneGazetteer, each shard fills after the exact matches, so duplicates
+            // of exact matches do not take the places of other fuzzy matches
+            List<ScoredLocation> exact = Collections.unmodifiableList(new ArrayList<>(matches));
+            Set<ScoredLocation> previous = Collections.newSetFromMap(new IdentityHashMap<>());
+            previous.addAll(exact);
+            List<List<ScoredLocation>> additions = new ArrayList<>();
+            for (List<ScoredLocation> shardResults : search(targets, query, true, exact)) {
+                List<ScoredLocation> added = new ArrayList<>(shardResults);
+                added.removeIf(previous::contains);
+                additions.add(added);
+            }
+            for (ScoredLocation loc : merge(additions, Integer.MAX_VALUE)) {
+                if (matches.size() >= maxResults) {
+                    break;
+                }
+                // duplicates of exact matches are removed when filtering dupes
+                if (!query.isFilterDupes() || seen.add(loc.getLocation().getGeoname().getGeonameID())) {
+                    matches.add(loc);
+                }
+            }
+        }
+        return ScoredLocation.toResolvedLocations(matches);
+    }
+
+    @Override
+    public GeoName getGeoName(final int geonameId) throws ClavinException {
+        return getGeoName(geonameId, AncestryMode.LAZY);
+    }
+
+    @Override
+    public GeoName getGeoName(final int geonameId, final AncestryMode ancestryMode) throws ClavinException {
+        Integer shard = shardLookup.get(geonameId);
+        if (shard != null) {
+            return shard == NO_SHARD ? null : shards.get(shard).getGeoName(geonameId, ancestryMode);
+        }
+        List<GeoName> found = invokeAll(shards, gaz -> gaz.getGeoName(geonameId, ancestryMode));
+        for (GeoName geoName : found) {
+            if (geoName != null) {
+                return geoName;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void loadAncestry(final GeoName... geoNames) throws ClavinException {
+        loadAncestry(Arrays.asList(geoNames));
+    }
+
+    @Override
+    public void loadAncestry(final Collection<GeoName> geoNames) throws ClavinException {
+        // ancestry is always found in the shard containing the GeoName
+        Map<Integer, List<GeoName>> byShard = new HashMap<>();
+        for (GeoName geoName : geoNames) {
+            if (!geoName.isAncestryResolved() && geoName.getParentId() != null) {
+                int shard = locate(geoName.getGeonameID());
+                if (shard != NO_SHARD) {
+                    byShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(geoName);
+                }
+            }
+        }
+        for (Map.Entry<Integer, List<GeoName>> entry : byShard.entrySet()) {
+            shards.get(entry.getKey()).loadAncestry(entry.getValue());
+        }
+    }
+
+    @Override
+    public List<Integer> suggest(final String prefix, final int k, final Set<FeatureCode> featureCodes)
+            throws ClavinException {
+        // each location is in exactly one shard, so the top k overall are among the top k of each shard
+        List<Suggestion> merged = new ArrayList<>();
+        for (List<Suggestion> shardSuggestions : invokeAll(shards, gaz -> gaz.getSuggestions(prefix, k, featureCodes))) {
+            merged.addAll(shardSuggestions);
+        }
+        merged.sort(Comparator.comparingLong(Suggestion::getWeight).reversed());
+        List<Integer> ids = new ArrayList<>(Math.min(k, merged.size()));
+        for (Suggestion suggestion : merged) {
+            if (ids.size() >= k) {
+                break;
+            }
+            ids.add(suggestion.getGeonameId());
+        }
+        return ids;
+    }
+
+    /**
+     * Get the number of shards in this gazetteer.
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Closes all shards and, if it was created by this gazetteer, the executor.
+     * @throws IOException if an error occurs closing a shard
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+        IOUtils.close(shards);
+    }
+
+    /**
+     * Selects the shards that may contain locations descending from the provided parents.
+     * Since every location is indexed in the same shard as its ancestors, only the shards
+     * containing the parents need to be searched.  If no parents are provided or any parent
+     * cannot be found, all shards are searched.
+     * @param parentIds the parent IDs restricting the query
+     * @return the shards to search
+     * @throws ClavinException if an error occurs locating a parent
+     */
+    private List<LuceneGazetteer> route(final Set<Integer> parentIds) throws ClavinException {
+        if (parentIds == null || parentIds.isEmpty() || shards.size() == 1) {
+            return shards;
+        }
+        Set<Integer> targets = new LinkedHashSet<>();
+        for (Integer parentId : parentIds) {
+            int shard = locate(parentId);
+            if (shard == NO_SHARD) {
+                return shards;
+            }
+            targets.add(shard);
+        }
+        List<LuceneGazetteer> routed = new ArrayList<>(targets.size());
+        for (Integer shard : new TreeSet<>(targets)) {
+            routed.add(shards.get(shard));
+        }
+        return routed;
+    }
+
+    /**
+     * Finds the index of the shard containing the provided GeoName ID.
+     * @param geonameId the GeoName ID
+     * @return the index of the shard containing the GeoName or {@link #NO_SHARD} if it was not found
+     * @throws ClavinException if an error occurs searching the shards
+     */
+    private int locate(final int geonameId) throws ClavinException {
+        Integer shard = shardLookup.get(geonameId);
+        if (shard == null) {
+            shard = NO_SHARD;
+            List<GeoName> found = invokeAll(shards, gaz -> gaz.getGeoName(geonameId, AncestryMode.MANUAL));
+            for (int i = 0; i < found.size(); i++) {
+                if (found.get(i) != null) {
+                    shard = i;
+                    break;
+                }
+            }
+            shardLookup.put(geonameId, shard);
+        }
+        return shard;
+    }
+
+    /**
+     * Executes an exact or fuzzy query against each of the target shards.
+     * @param targets the shards to search
+     * @param query the query
+     * @param fuzzy is this a fuzzy query
+     * @param previousResults matches already found across all shards, filled by each shard; may be <code>null</code>
+     * @return the scored matches from each shard, including any previous results
+     * @throws ClavinException if an error occurs searching a shard
+     */
+    private List<List<ScoredLocation>> search(final List<LuceneGazetteer> targets, final GazetteerQuery query,
+            final boolean fuzzy, final List<ScoredLocation> previousResults) throws ClavinException {
+        return invokeAll(targets, gaz -> gaz.getScoredLocations(query, fuzzy, previousResults));
+    }
+
+    /**
+     * Merges the results of multiple shards in result order.
+     * @param results the results from each shard, each already in result order
+     * @param maxResults the maximum number of results to return
+     * @return the merged results
+     */
+    private static List<ScoredLocation> merge(final List<List<ScoredLocation>> results, final int maxResults) {
+        List<ScoredLocation> merged = new ArrayList<>();
+        for (List<ScoredLocation> shardResults : results) {
+            merged.addAll(shardResults);
+        }
+        // stable sort, so ties are broken by shard order
+        merged.sort(ScoredLocation.RESULT_ORDER);
+        return merged.size() > maxResults ? new ArrayList<>(merged.subList(0, maxResults)) : merged;
+    }
+
+    /**
+     * A search against a single shard.
+     * @param <T> the result type
+     */
+    private interface ShardSearch<T> {
+        T search(LuceneGazetteer shard) throws ClavinException;
+    }
+
+    /**
+     * Runs a search against each of the target shards, concurrently if there is more than one,
+     * returning the results in shard order.
+     * @param <T> the result type
+     * @param targets the shards to search
+     * @param shardSearch the search
+     * @return the results from each shard
+     * @throws ClavinException if any search fails
+     */
+    private <T> List<T> invokeAll(final List<LuceneGazetteer> targets, final ShardSearch<T> shardSearch)
+            throws ClavinException {
+        if (targets.size() == 1) {
+            return Collections.singletonList(shardSearch.search(targets.get(0)));
+        }
+        List<Future<T>> futures = new ArrayList<>(targets.size());
+        for (LuceneGazetteer shard : targets) {
+            // queries run on the shard threads are recorded in the caller's trace
+            Callable<T> task = RequestTrace.propagate(() -> shardSearch.search(shard));
+            futures.add(executor.submit(task));
+        }
+        List<T> results = new ArrayList<>(targets.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            cancelAll(futures);
+            throw new ClavinException("Interrupted while searching gazetteer shards.", ie);
+        } catch (ExecutionException ee) {
+            cancelAll(futures);
+            Throwable cause = ee.getCause();
+            if (cause instanceof ClavinException) {
+                throw (ClavinException) cause;
+            }
+            throw new ClavinException("Error searching gazetteer shards.", cause);
+        }
+        return results;
+    }
+
+    private static void cancelAll(final List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
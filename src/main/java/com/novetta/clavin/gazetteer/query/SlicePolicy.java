@@ -0,0 +1,106 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * SlicePolicy.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.gazetteer.query;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher.LeafSlice;
+
+/**
+ * Determines how the segments of the gazetteer index are grouped into
+ * slices when a {@link LuceneGazetteer} is configured with an executor.
+ * Each slice is searched as a single task, so the number of slices bounds
+ * the number of threads a single query can use.
+ */
+public interface SlicePolicy {
+    /**
+     * Groups the segments of an index into slices.
+     * @param leaves the segments of the index
+     * @return the slices; every segment must appear in exactly one slice
+     */
+    LeafSlice[] slices(List<LeafReaderContext> leaves);
+
+    /**
+     * Creates a policy that searches each segment in its own slice.  This
+     * gives the most parallelism and works best when the index has been
+     * merged down to about as many segments as there are cores.
+     * @return the policy
+     */
+    static SlicePolicy perSegment() {
+        return leaves -> {
+            LeafSlice[] slices = new LeafSlice[leaves.size()];
+            for (int i = 0; i < slices.length; i++) {
+                slices[i] = new LeafSlice(leaves.get(i));
+            }
+            return slices;
+        };
+    }
+
+    /**
+     * Creates a policy that groups segments into at most maxSlices slices of
+     * roughly equal document counts, assigning the largest segments first.
+     * @param maxSlices the maximum number of slices, typically the number of available cores
+     * @return the policy
+     */
+    static SlicePolicy balanced(final int maxSlices) {
+        if (maxSlices < 1) {
+            throw new IllegalArgumentException("maxSlices must be positive");
+        }
+        return leaves -> {
+            List<LeafReaderContext> sorted = new ArrayList<>(leaves);
+            sorted.sort(Comparator.comparingInt((LeafReaderContext ctx) -> ctx.reader().maxDoc()).reversed());
+            int sliceCount = Math.min(maxSlices, sorted.size());
+            List<List<LeafReaderContext>> groups = new ArrayList<>(sliceCount);
+            long[] docCounts = new long[sliceCount];
+            for (int i = 0; i < sliceCount; i++) {
+                groups.add(new ArrayList<>());
+            }
+            for (LeafReaderContext ctx : sorted) {
+                // add each segment to the smallest slice
+                int smallest = 0;
+                for (int i = 1; i < sliceCount; i++) {
+                    if (docCounts[i] < docCounts[smallest]) {
+                        smallest = i;
+                    }
+                }
+                groups.get(smallest).add(ctx);
+                docCounts[smallest] += ctx.reader().maxDoc();
+            }
+            LeafSlice[] slices = new LeafSlice[sliceCount];
+            for (int i = 0; i < sliceCount; i++) {
+                slices[i] = new LeafSlice(groups.get(i).toArray(new LeafReaderContext[0]));
+            }
+            return slices;
+        };
+    }
+}
@@ -7,18 +7,24 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.FileOutputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -37,6 +43,7 @@ import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LatLonPoint;
 import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.document.StoredField;
@@ -97,6 +104,20 @@ public class IndexDirectoryBuilder {
     private static final String INDEX_PATH_OPTION = "index-path";
     private static final String REPLACE_INDEX_OPTION = "replace-index";
     private static final String ALTERNATE_NAMES_OPTION = "alt-names-file";
+    private static final String SHARDS_OPTION = "shards";
+    private static final String MAX_SEGMENTS_OPTION = "max-segments";
+
+    /**
+     * The name of the manifest file written to the root of a sharded index.  It maps
+     * each shard name, which is also the name of its index directory, to the
+     * comma-separated list of country codes stored in that shard.
+     */
+    public static final String SHARD_MANIFEST_FILE = "shards.properties";
+
+    /**
+     * The name of the shard holding all locations whose country is not assigned to another shard.
+     */
+    public static final String DEFAULT_SHARD = "other";
 
     private static final String[] DEFAULT_GAZETTEER_FILES = new String[] {
         "./allCountries.txt",
@@ -108,15 +129,24 @@ public class IndexDirectoryBuilder {
     private final Map<String, Set<GeoName>> unresolvedMap;
     private final Map<Integer, AlternateName> alternateNameMap;
     private final boolean fullAncestry;
+    private final int maxSegments;
+
+    private final Map<String, IndexWriter> shardWriters;
+    private final Map<CountryCode, IndexWriter> countryWriters;
+    private final Map<IndexWriter, NameSuggester.Writer> suggestWriters;
 
     private IndexWriter indexWriter;
     private int indexCount;
 
-    private IndexDirectoryBuilder(final boolean fullAncestryIn) {
+    private IndexDirectoryBuilder(final boolean fullAncestryIn, final int maxSegmentsIn) {
         adminMap = new TreeMap<>();
         unresolvedMap = new TreeMap<>();
         alternateNameMap = new HashMap<>();
+        shardWriters = new TreeMap<>();
+        countryWriters = new HashMap<>();
+        suggestWriters = new IdentityHashMap<>();
         this.fullAncestry = fullAncestryIn;
+        this.maxSegments = maxSegmentsIn;
     }
 
     /*
@@ -128,19 +158,37 @@ public class IndexDirectoryBuilder {
      * @throws IOException		throws exception when building index
      */
     public void buildIndex(final File indexDir, final List<File> gazetteerFiles, final File altNamesFile) throws IOException {
+        buildIndex(indexDir, gazetteerFiles, altNamesFile, null);
+    }
+
+    /*
+     * Builds the index using a gazetteer, optionally splitting it into shards by
+     * country.  When shards are configured, each shard is written to a subdirectory
+     * of indexDir named for the shard, locations from countries not assigned to a
+     * shard are written to the DEFAULT_SHARD and a SHARD_MANIFEST_FILE describing
+     * the shards is written to indexDir.  Each location is written to the same shard
+     * as its ancestors.
+     *
+     * @param indexDir     		index directory location
+     * @param gazetteerFiles	list of gazetteer files to process
+     * @param altNamesFile		alternate names file to adjust gazetteer entries
+     * @param shards			the country codes stored in each shard, by shard name; if null or
+     * 							empty, a single index is written
+     * @throws IOException		throws exception when building index
+     */
+    public void buildIndex(final File indexDir, final List<File> gazetteerFiles, final File altNamesFile,
+            final Map<String, Set<CountryCode>> shards) throws IOException {
         LOG.info("Indexing... please wait.");
 
         indexCount = 0;
 
         // Create a new index file on disk, allowing Lucene to choose
         // the best FSDirectory implementation given the environment.
-        FSDirectory index = FSDirectory.open(indexDir.toPath());
-
-        // indexing by lower-casing & tokenizing on whitespace
-        Analyzer indexAnalyzer = new StandardAnalyzer(Reader.nullReader());
-
-        // create the object that will actually build the Lucene index
-        indexWriter = new IndexWriter(index, new IndexWriterConfig(indexAnalyzer));
+        if (shards == null || shards.isEmpty()) {
+            indexWriter = openWriter(indexDir);
+        } else {
+            openShardWriters(indexDir, shards);
+        }
 
         // let's see how long this takes...
         Date start = new Date();
@@ -191,11 +239,10 @@ public class IndexDirectoryBuilder {
         }
 
         LOG.info("[DONE]");
-        LOG.info("{} geonames added to index. ({} records)", indexWriter.getDocStats().maxDoc, indexCount);
+        LOG.info("{} geonames added to index. ({} records)", getDocCount(), indexCount);
         LOG.info("Merging indices... please wait.");
 
-        indexWriter.close();
-        index.close();
+        closeWriters();
 
         LOG.info("[DONE]");
 
@@ -205,6 +252,91 @@ public class IndexDirectoryBuilder {
         		df.format(start), df.format(stop), MILLISECONDS.toSeconds(elapsedTime));
     }
 
+    private IndexWriter openWriter(final File dir) throws IOException {
+        // indexing by lower-casing & tokenizing on whitespace
+        Analyzer indexAnalyzer = new StandardAnalyzer(Reader.nullReader());
+
+        // create the object that will actually build the Lucene index
+        FSDirectory index = FSDirectory.open(dir.toPath());
+        IndexWriter writer = new IndexWriter(index, new IndexWriterConfig(indexAnalyzer));
+        // each index gets its own suggester for the names it contains
+        suggestWriters.put(writer, new NameSuggester.Writer(index));
+        return writer;
+    }
+
+    private void openShardWriters(final File indexDir, final Map<String, Set<CountryCode>> shards) throws IOException {
+        Properties manifest = new Properties();
+        for (Map.Entry<String, Set<CountryCode>> shard : shards.entrySet()) {
+            IndexWriter writer = openWriter(new File(indexDir, shard.getKey()));
+            shardWriters.put(shard.getKey(), writer);
+            for (CountryCode cc : shard.getValue()) {
+                IndexWriter conflict = countryWriters.put(cc, writer);
+                if (conflict != null && conflict != writer) {
+                    throw new IllegalArgumentException(String.format("Country [%s] is assigned to more than one shard.", cc));
+                }
+            }
+            manifest.setProperty(shard.getKey(), StringUtils.join(shard.getValue(), ','));
+        }
+        // everything else goes to the default shard
+        indexWriter = shardWriters.get(DEFAULT_SHARD);
+        if (indexWriter == null) {
+            indexWriter = openWriter(new File(indexDir, DEFAULT_SHARD));
+            shardWriters.put(DEFAULT_SHARD, indexWriter);
+            manifest.setProperty(DEFAULT_SHARD, "");
+        }
+        try (OutputStream out = new FileOutputStream(new File(indexDir, SHARD_MANIFEST_FILE))) {
+            manifest.store(out, "CLAVIN gazetteer shards: shard name = country codes");
+        }
+        LOG.info("Writing {} shards: {}", shardWriters.size(), shardWriters.keySet());
+    }
+
+    /**
+     * Get the writer for the index or shard that should contain the provided GeoName.
+     * Locations are assigned to shards by their primary country, which they share
+     * with all of their ancestors.
+     */
+    private IndexWriter getWriter(final GeoName geoName) {
+        IndexWriter writer = null;
+        if (!countryWriters.isEmpty() && geoName.getPrimaryCountryCode() != null) {
+            writer = countryWriters.get(geoName.getPrimaryCountryCode());
+        }
+        return writer != null ? writer : indexWriter;
+    }
+
+    private int getDocCount() {
+        if (shardWriters.isEmpty()) {
+            return indexWriter.getDocStats().maxDoc;
+        }
+        int count = 0;
+        for (Map.Entry<String, IndexWriter> shard : shardWriters.entrySet()) {
+            int shardCount = shard.getValue().getDocStats().maxDoc;
+            LOG.info("Shard [{}]: {} records", shard.getKey(), shardCount);
+            count += shardCount;
+        }
+        return count;
+    }
+
+    private void closeWriters() throws IOException {
+        Collection<IndexWriter> writers = shardWriters.isEmpty() ? Collections.singleton(indexWriter) : shardWriters.values();
+        for (IndexWriter writer : writers) {
+            // merge down to the requested number of segments so concurrent searches
+            // can split the index into evenly sized slices
+            if (maxSegments > 0) {
+                writer.forceMerge(maxSegments);
+            }
+            try (NameSuggester.Writer suggestWriter = suggestWriters.get(writer)) {
+                LOG.info("Building name suggester from {} names.", suggestWriter.getCount());
+                LOG.info("{} unique suggestions.", suggestWriter.finish());
+            }
+            writer.close();
+            writer.getDirectory().close();
+        }
+        suggestWriters.clear();
+        shardWriters.clear();
+        countryWriters.clear();
+        indexWriter = null;
+    }
+
     private static final int ALT_NAMES_ID_FIELD = 1;
     private static final int ALT_NAMES_LANG_FIELD = 2;
     private static final int ALT_NAMES_NAME_FIELD = 3;
@@ -453,12 +585,24 @@ public class IndexDirectoryBuilder {
         doc.add(new NumericDocValuesField(HISTORICAL.key(), isHistorical));
         doc.add(new StringField(FEATURE_CODE.key(), geoName.getFeatureCode().name(), Field.Store.NO));
 
+        // index the coordinates so searches can be restricted to a region; records
+        // without valid coordinates are simply excluded from spatial searches
+        double lat = geoName.getLatitude();
+        double lon = geoName.getLongitude();
+        if (lat >= -90.0d && lat <= 90.0d && lon >= -180.0d && lon <= 180.0d) {
+            doc.add(new LatLonPoint(LOCATION.key(), lat, lon));
+        }
+
         // create a unique Document for each name of this GeoName
         TextField nameField = new TextField(INDEX_NAME.key(), "", Field.Store.YES);
         doc.add(nameField);
+        IndexWriter writer = getWriter(geoName);
+        NameSuggester.Writer suggestWriter = suggestWriters.get(writer);
         for (String name : names) {
             nameField.setStringValue(name);
-            indexWriter.addDocument(doc);
+            writer.addDocument(doc);
+            // suggestions are ranked by the same boosted population used to sort search results
+            suggestWriter.add(name, geoName.getGeonameID(), geoName.getFeatureCode(), geoName.getPopulation() * populationBoost);
         }
     }
 
@@ -584,7 +728,52 @@ public class IndexDirectoryBuilder {
             System.exit(-1);
         }
 
-        new IndexDirectoryBuilder(fullAncestry).buildIndex(idir, gazetteerFiles, altNamesFile);
+        Map<String, Set<CountryCode>> shards = null;
+        String shardsPath = cmd.getOptionValue(SHARDS_OPTION);
+        if (shardsPath != null) {
+            try {
+                shards = readShards(new File(shardsPath));
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.error("Unable to read shards file: {} ({})", shardsPath, e.getMessage());
+                System.exit(-1);
+            }
+        }
+
+        int maxSegments = 0;
+        String maxSegmentsValue = cmd.getOptionValue(MAX_SEGMENTS_OPTION);
+        if (maxSegmentsValue != null) {
+            try {
+                maxSegments = Integer.parseInt(maxSegmentsValue);
+            } catch (NumberFormatException nfe) {
+                maxSegments = -1;
+            }
+            if (maxSegments < 1) {
+                LOG.error("Invalid maximum segment count: {}", maxSegmentsValue);
+                System.exit(-1);
+            }
+        }
+
+        new IndexDirectoryBuilder(fullAncestry, maxSegments).buildIndex(idir, gazetteerFiles, altNamesFile, shards);
+    }
+
+    /**
+     * Reads a shard specification: a properties file mapping each shard name to a
+     * comma-separated list of two-letter country codes.
+     */
+    private static Map<String, Set<CountryCode>> readShards(final File shardsFile) throws IOException {
+        Properties props = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(shardsFile), "UTF-8")) {
+            props.load(reader);
+        }
+        Map<String, Set<CountryCode>> shards = new TreeMap<>();
+        for (String shardName : props.stringPropertyNames()) {
+            Set<CountryCode> codes = new TreeSet<>();
+            for (String code : StringUtils.split(props.getProperty(shardName), ", ")) {
+                codes.add(CountryCode.valueOf(code.trim().toUpperCase()));
+            }
+            shards.put(shardName, codes);
+        }
+        return shards;
     }
 
     
@@ -623,6 +812,22 @@ public class IndexDirectoryBuilder {
                 .hasArg()
                 .build());
 
+        options.addOption(Option.builder()
+                .longOpt(SHARDS_OPTION)
+                .desc(String.format("When provided, the path to a properties file mapping shard names to comma-separated lists "
+                        + "of country codes. Each shard is written to its own subdirectory of the index path, locations in "
+                        + "unlisted countries are written to the '%s' shard, and the index can be searched with a "
+                        + "ShardedGazetteer.", DEFAULT_SHARD))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(MAX_SEGMENTS_OPTION)
+                .desc("When provided, merge each index down to at most this many segments when indexing completes. "
+                        + "Setting this to the number of search threads gives balanced slices for concurrent searches.")
+                .hasArg()
+                .build());
+
         options.addOption(Option.builder("r")
                 .longOpt(REPLACE_INDEX_OPTION)
                 .desc("Replace an existing index if it exists. If this option is not specified,"
@@ -46,7 +46,8 @@ public enum IndexField {
     SORT_POP("sortPopulation"),
     HISTORICAL("historical"),
     FEATURE_CODE("featureCode"),
-    PREFERRED_NAME("preferredName");
+    PREFERRED_NAME("preferredName"),
+    LOCATION("location");
 
     /**
      * The class logger.
@@ -99,6 +100,7 @@ public enum IndexField {
                     break;
                 case HISTORICAL:
                 case FEATURE_CODE:
+                case LOCATION:
                     // these fields are not stored
                     LOG.warn("Attempting to retrieve value for an unstored field: [{}]", this);
                     break;
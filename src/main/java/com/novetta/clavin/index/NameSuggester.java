@@ -0,0 +1,488 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * NameSuggester.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.OfflineSorter;
+import org.apache.lucene.util.OfflineSorter.ByteSequencesReader;
+import org.apache.lucene.util.OfflineSorter.ByteSequencesWriter;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.BytesRefFSTEnum;
+import org.apache.lucene.util.fst.BytesRefFSTEnum.InputOutput;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+import org.apache.lucene.util.fst.Util.Result;
+import org.apache.lucene.util.fst.Util.TopNSearcher;
+import org.apache.lucene.util.fst.Util.TopResults;
+
+import com.novetta.clavin.gazetteer.FeatureCode;
+
+/**
+ * A prefix suggester over the names in the gazetteer index, ranked by the
+ * same population-based weight used to sort search results.
+ *
+ * Suggestions are stored in a finite state transducer (FST) mapping each
+ * normalized name, followed by the ID and feature code of the location it
+ * names, to a cost that decreases as the weight of the location increases.
+ * The FST pushes the lowest cost of every subtree towards the root, so the
+ * top suggestions for a prefix are found by a best-first walk that visits
+ * little more than the returned paths, regardless of how many names share
+ * the prefix.
+ */
+public class NameSuggester {
+    /**
+     * The name of the suggester file in the index directory.
+     */
+    public static final String SUGGESTER_FILE = "suggest.fst";
+
+    /**
+     * Separates the name from the location ID and feature code in each key.
+     */
+    private static final byte SEPARATOR = 0;
+
+    /**
+     * The number of bytes following the separator: a 4-byte GeoName ID and a 2-byte FeatureCode ordinal.
+     */
+    private static final int SUFFIX_LENGTH = 6;
+
+    /**
+     * The largest queue depth used to search for suggestions when many candidate names are rejected.
+     */
+    private static final int MAX_QUEUE_DEPTH = 1 << 16;
+
+    private static final FeatureCode[] FEATURE_CODES = FeatureCode.values();
+    private static final PositiveIntOutputs OUTPUTS = PositiveIntOutputs.getSingleton();
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final FST<Long> fst;
+
+    private NameSuggester(final FST<Long> fst) {
+        this.fst = fst;
+    }
+
+    /**
+     * Loads the suggester stored in an index directory.
+     * @param indexDir the index directory
+     * @return the suggester or <code>null</code> if the index does not include one
+     * @throws IOException if an error occurs reading the suggester
+     */
+    public static NameSuggester load(final Path indexDir) throws IOException {
+        Path file = indexDir.resolve(SUGGESTER_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        // an empty file is written when the index contains no names
+        return new NameSuggester(Files.size(file) > 0 ? FST.read(file, OUTPUTS) : null);
+    }
+
+    /**
+     * Finds the highest weighted locations with a name starting with the provided prefix.
+     * Each location is returned at most once, even if several of its names match.
+     * @param prefix the prefix, matched case-insensitively
+     * @param k the maximum number of suggestions to return
+     * @param featureCodes if not empty, only locations with one of these feature codes are returned
+     * @return the suggestions, highest weight first
+     * @throws IOException if an error occurs reading the suggester
+     */
+    public List<Suggestion> lookup(final String prefix, final int k, final Set<FeatureCode> featureCodes) throws IOException {
+        String normalized = normalize(prefix);
+        if (fst == null || k < 1 || normalized.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // follow the prefix from the root, accumulating its share of the cost
+        FST.BytesReader reader = fst.getBytesReader();
+        FST.Arc<Long> arc = fst.getFirstArc(new FST.Arc<>());
+        Long prefixCost = OUTPUTS.getNoOutput();
+        BytesRef prefixBytes = new BytesRef(normalized);
+        for (int i = prefixBytes.offset; i < prefixBytes.offset + prefixBytes.length; i++) {
+            if (fst.findTargetArc(prefixBytes.bytes[i] & 0xFF, arc, arc, reader) == null) {
+                return Collections.emptyList();
+            }
+            prefixCost = OUTPUTS.add(prefixCost, arc.output());
+        }
+
+        final boolean filterCodes = featureCodes != null && !featureCodes.isEmpty() && featureCodes.size() < FEATURE_CODES.length;
+        final Set<Integer> seen = new HashSet<>();
+        // rejected paths (duplicate locations or filtered feature codes) consume queue slots, so
+        // retry with a deeper queue if the search could not be completed
+        for (int queueDepth = 2 * k + 16; ; queueDepth *= 4) {
+            seen.clear();
+            TopNSearcher<Long> searcher = new TopNSearcher<Long>(fst, k, queueDepth, Comparator.naturalOrder()) {
+                @Override
+                protected boolean acceptResult(final IntsRef input, final Long output) {
+                    if (filterCodes && !featureCodes.contains(decodeFeatureCode(input))) {
+                        return false;
+                    }
+                    return seen.add(decodeGeonameId(input));
+                }
+            };
+            searcher.addStartPaths(arc, prefixCost, true, new IntsRefBuilder());
+            TopResults<Long> results = searcher.search();
+            if (results.isComplete || queueDepth >= MAX_QUEUE_DEPTH) {
+                List<Suggestion> suggestions = new ArrayList<>(results.topN.size());
+                for (Result<Long> result : results) {
+                    suggestions.add(new Suggestion(decodeGeonameId(result.input), Long.MAX_VALUE - result.output));
+                }
+                return suggestions;
+            }
+        }
+    }
+
+    /**
+     * Iterates over every name in the suggester, in ascending order of the UTF-8
+     * bytes of the normalized name.  All entries for a name are returned
+     * consecutively, one for each location it names.
+     * @return an iterator over the entries of the suggester
+     * @throws UncheckedIOException from the iterator if an error occurs reading the suggester
+     */
+    public Iterator<Entry> entries() {
+        if (fst == null) {
+            return Collections.emptyIterator();
+        }
+        final BytesRefFSTEnum<Long> fstEnum = new BytesRefFSTEnum<>(fst);
+        return new Iterator<Entry>() {
+            private InputOutput<Long> next = advance();
+
+            private InputOutput<Long> advance() {
+                try {
+                    return fstEnum.next();
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                BytesRef key = next.input;
+                int off = key.offset + key.length - SUFFIX_LENGTH;
+                String name = new BytesRef(key.bytes, key.offset, key.length - SUFFIX_LENGTH - 1).utf8ToString();
+                int geonameId = ((key.bytes[off] & 0xFF) << 24) | ((key.bytes[off + 1] & 0xFF) << 16) |
+                        ((key.bytes[off + 2] & 0xFF) << 8) | (key.bytes[off + 3] & 0xFF);
+                FeatureCode code = FEATURE_CODES[((key.bytes[off + 4] & 0xFF) << 8) | (key.bytes[off + 5] & 0xFF)];
+                Entry entry = new Entry(name, geonameId, code, Long.MAX_VALUE - next.output);
+                next = advance();
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * Normalizes a name or prefix for storage in, or lookup from, the suggester.
+     * @param name the name
+     * @return the normalized name
+     */
+    static String normalize(final String name) {
+        if (name == null) {
+            return "";
+        }
+        String trimmed = name.replace('\u0000', ' ').trim();
+        StringBuilder folded = new StringBuilder(trimmed.length());
+        for (int pos = 0; pos < trimmed.length(); ) {
+            int codePoint = trimmed.codePointAt(pos);
+            folded.appendCodePoint(foldCase(codePoint));
+            pos += Character.charCount(codePoint);
+        }
+        return WHITESPACE.matcher(folded).replaceAll(" ");
+    }
+
+    /**
+     * Folds the case of a single code point, as names are folded for storage.
+     * Folding code point by code point, rather than with
+     * {@link String#toLowerCase(java.util.Locale)}, lets text be matched against
+     * stored names one code point at a time (e.g. "İ" folds to "i" either way).
+     * @param codePoint the code point
+     * @return the folded code point
+     */
+    public static int foldCase(final int codePoint) {
+        return Character.toLowerCase(codePoint);
+    }
+
+    private static int decodeGeonameId(final IntsRef input) {
+        int off = input.offset + input.length - SUFFIX_LENGTH;
+        return (input.ints[off] << 24) | (input.ints[off + 1] << 16) | (input.ints[off + 2] << 8) | input.ints[off + 3];
+    }
+
+    private static FeatureCode decodeFeatureCode(final IntsRef input) {
+        int off = input.offset + input.length - 2;
+        return FEATURE_CODES[(input.ints[off] << 8) | input.ints[off + 1]];
+    }
+
+    /**
+     * A suggested location.
+     */
+    public static final class Suggestion {
+        private final int geonameId;
+        private final long weight;
+
+        Suggestion(final int geonameId, final long weight) {
+            this.geonameId = geonameId;
+            this.weight = weight;
+        }
+
+        /**
+         * Get the ID of the suggested location.
+         * @return the GeoName ID
+         */
+        public int getGeonameId() {
+            return geonameId;
+        }
+
+        /**
+         * Get the weight of the suggested location.
+         * @return the weight; higher weights are suggested first
+         */
+        public long getWeight() {
+            return weight;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d (%d)", geonameId, weight);
+        }
+    }
+
+    /**
+     * A single name of a location stored in the suggester.
+     */
+    public static final class Entry {
+        private final String name;
+        private final int geonameId;
+        private final FeatureCode featureCode;
+        private final long weight;
+
+        Entry(final String name, final int geonameId, final FeatureCode featureCode, final long weight) {
+            this.name = name;
+            this.geonameId = geonameId;
+            this.featureCode = featureCode;
+            this.weight = weight;
+        }
+
+        /**
+         * Get the normalized name.
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the ID of the named location.
+         * @return the GeoName ID
+         */
+        public int getGeonameId() {
+            return geonameId;
+        }
+
+        /**
+         * Get the feature code of the named location.
+         * @return the feature code
+         */
+        public FeatureCode getFeatureCode() {
+            return featureCode;
+        }
+
+        /**
+         * Get the weight of the named location.
+         * @return the weight
+         */
+        public long getWeight() {
+            return weight;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d %s (%d)", name, geonameId, featureCode, weight);
+        }
+    }
+
+    /**
+     * Collects names while an index is being built and writes the suggester when the
+     * build completes.  Names are sorted on disk, so the number of names is not limited
+     * by the available heap.
+     */
+    public static final class Writer implements Closeable {
+        private static final String TEMP_PREFIX = "suggest";
+
+        private final FSDirectory dir;
+        private final BytesRefBuilder scratch = new BytesRefBuilder();
+        private IndexOutput tempInput;
+        private ByteSequencesWriter writer;
+        private long count;
+
+        /**
+         * Create a new Writer for the provided index directory.
+         * @param dir the index directory; temporary files are written here while sorting
+         * @throws IOException if an error occurs creating the temporary files
+         */
+        public Writer(final FSDirectory dir) throws IOException {
+            this.dir = dir;
+            tempInput = dir.createTempOutput(TEMP_PREFIX, "input", IOContext.DEFAULT);
+            writer = new ByteSequencesWriter(tempInput);
+        }
+
+        /**
+         * Adds a name of a location.
+         * @param name the name
+         * @param geonameId the ID of the named location
+         * @param featureCode the feature code of the named location
+         * @param weight the weight of the location; must not be negative
+         * @throws IOException if an error occurs writing the name
+         */
+        public void add(final String name, final int geonameId, final FeatureCode featureCode, final long weight)
+                throws IOException {
+            String normalized = normalize(name);
+            if (normalized.isEmpty()) {
+                return;
+            }
+            long cost = Long.MAX_VALUE - Math.max(0L, weight);
+            int code = featureCode.ordinal();
+            scratch.copyChars(normalized);
+            scratch.append(SEPARATOR);
+            scratch.append((byte) (geonameId >>> 24));
+            scratch.append((byte) (geonameId >>> 16));
+            scratch.append((byte) (geonameId >>> 8));
+            scratch.append((byte) geonameId);
+            scratch.append((byte) (code >>> 8));
+            scratch.append((byte) code);
+            // the cost follows the key so duplicate keys sort cheapest first
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                scratch.append((byte) (cost >>> shift));
+            }
+            writer.write(scratch.get());
+            count++;
+        }
+
+        /**
+         * Sorts the collected names and writes the suggester to the index directory.
+         * @return the number of unique keys in the suggester
+         * @throws IOException if an error occurs writing the suggester
+         */
+        public long finish() throws IOException {
+            // OfflineSorter verifies the checksum of its input
+            CodecUtil.writeFooter(tempInput);
+            writer.close();
+            writer = null;
+            String sortedName = new OfflineSorter(dir, TEMP_PREFIX).sort(tempInput.getName());
+            dir.deleteFile(tempInput.getName());
+            tempInput = null;
+
+            Builder<Long> builder = new Builder<>(FST.INPUT_TYPE.BYTE1, OUTPUTS);
+            IntsRefBuilder key = new IntsRefBuilder();
+            BytesRef lastKey = new BytesRef();
+            BytesRefBuilder lastKeyBuilder = new BytesRefBuilder();
+            long keyCount = 0;
+            try (ByteSequencesReader reader = new ByteSequencesReader(dir.openChecksumInput(sortedName, IOContext.READONCE),
+                    sortedName)) {
+                BytesRef entry;
+                while ((entry = reader.next()) != null) {
+                    BytesRef entryKey = new BytesRef(entry.bytes, entry.offset, entry.length - Long.BYTES);
+                    // the same name may be added more than once for a location (e.g. differing only by case)
+                    if (entryKey.equals(lastKey)) {
+                        continue;
+                    }
+                    long cost = 0;
+                    for (int i = entry.offset + entry.length - Long.BYTES; i < entry.offset + entry.length; i++) {
+                        cost = (cost << 8) | (entry.bytes[i] & 0xFF);
+                    }
+                    builder.add(Util.toIntsRef(entryKey, key), cost);
+                    keyCount++;
+                    lastKeyBuilder.copyBytes(entryKey);
+                    lastKey = lastKeyBuilder.get();
+                }
+            } finally {
+                dir.deleteFile(sortedName);
+            }
+            FST<Long> fst = builder.finish();
+            Path file = dir.getDirectory().resolve(SUGGESTER_FILE);
+            if (fst != null) {
+                fst.save(file);
+            } else {
+                Files.createFile(file);
+            }
+            return keyCount;
+        }
+
+        /**
+         * Discards any temporary files if the suggester was not finished.
+         */
+        @Override
+        public void close() throws IOException {
+            if (writer != null) {
+                IOUtils.closeWhileHandlingException(writer);
+                writer = null;
+            }
+            if (tempInput != null) {
+                IOUtils.deleteFilesIgnoringExceptions(dir, tempInput.getName());
+                tempInput = null;
+            }
+        }
+
+        /**
+         * Get the number of names added to this writer.
+         * @return the number of names added
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ClavinMetrics.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.metrics;
+
+/**
+ * Receives measurements from the geoparsing pipeline.  Components record
+ * to {@link #NOOP} unless another implementation is configured, so metrics
+ * cost nothing beyond reading the clock until they are needed;
+ * {@link InMemoryMetrics} keeps a histogram of each metric.
+ *
+ * Implementations must be thread-safe and should return quickly, since
+ * they are called on the request path.
+ */
+@FunctionalInterface
+public interface ClavinMetrics {
+    /**
+     * Discards all measurements.
+     */
+    ClavinMetrics NOOP = (metric, value) -> { };
+
+    /**
+     * Records a single measurement.
+     * @param metric the metric measured
+     * @param value the measurement; nanoseconds for timings and a count otherwise
+     */
+    void record(Metric metric, long value);
+
+    /**
+     * Records a single occurrence of a counted event, such as a cache hit.
+     * @param metric the metric measured
+     */
+    default void increment(final Metric metric) {
+        record(metric, 1L);
+    }
+
+    /**
+     * Records the time elapsed since the provided start time.
+     * @param metric the timing measured
+     * @param startNanos the start time, from {@link System#nanoTime()}
+     */
+    default void recordSince(final Metric metric, final long startNanos) {
+        record(metric, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the provided metrics, or {@link #NOOP} if they are <code>null</code>.
+     * @param metrics the configured metrics
+     * @return metrics that can always be recorded to
+     */
+    static ClavinMetrics orNoop(final ClavinMetrics metrics) {
+        return metrics != null ? metrics : NOOP;
+    }
+}
@@ -0,0 +1,238 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * InMemoryMetrics.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a histogram of every metric in memory so that percentiles, as well
+ * as counts and totals, can be read while the application is running.
+ *
+ * Values are counted in buckets whose width grows with their magnitude,
+ * so each histogram uses a fixed few kilobytes however many values it
+ * records, and reported percentiles are within 12.5% of the recorded
+ * values.  Recording is lock-free.
+ */
+public class InMemoryMetrics implements ClavinMetrics {
+    private final Map<Metric, Histogram> histograms = new EnumMap<>(Metric.class);
+
+    /**
+     * Create a new InMemoryMetrics with empty histograms.
+     */
+    public InMemoryMetrics() {
+        for (Metric metric : Metric.values()) {
+            histograms.put(metric, new Histogram());
+        }
+    }
+
+    @Override
+    public void record(final Metric metric, final long value) {
+        histograms.get(metric).record(value);
+    }
+
+    /**
+     * Get the histogram of a metric.
+     * @param metric the metric
+     * @return the histogram of the values recorded for the metric
+     */
+    public Histogram getHistogram(final Metric metric) {
+        return histograms.get(metric);
+    }
+
+    /**
+     * Get the hit rate of a cache from its hit and miss counters.
+     * @param hits the metric counting cache hits
+     * @param misses the metric counting cache misses
+     * @return the fraction of lookups that were hits, or 0 if there were no lookups
+     */
+    public double getHitRate(final Metric hits, final Metric misses) {
+        long hitCount = getHistogram(hits).getCount();
+        long lookups = hitCount + getHistogram(misses).getCount();
+        return lookups > 0 ? (double) hitCount / lookups : 0.0d;
+    }
+
+    /**
+     * Discards all recorded values.  Values recorded while the histograms are being
+     * reset may or may not be kept.
+     */
+    public void reset() {
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Summarizes every metric that has recorded values; timings are reported in milliseconds.
+     */
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<Metric, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            if (summary.length() > 0) {
+                summary.append('\n');
+            }
+            double scale = entry.getKey().isTiming() ? 1e-6 : 1.0;
+            summary.append(String.format("%s: count=%d, mean=%.3f, p50=%.3f, p90=%.3f, p99=%.3f, max=%.3f%s",
+                    entry.getKey(), histogram.getCount(), histogram.getMean() * scale,
+                    histogram.getPercentile(0.5) * scale, histogram.getPercentile(0.9) * scale,
+                    histogram.getPercentile(0.99) * scale, histogram.getMax() * scale,
+                    entry.getKey().isTiming() ? " ms" : ""));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * A histogram of non-negative values.  Values below 16 are counted exactly; larger
+     * values are counted in 8 buckets for each power of two.
+     */
+    public static final class Histogram {
+        private static final int EXACT_VALUES = 16;
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        // the exponent of the smallest value that is not counted exactly
+        private static final int FIRST_EXPONENT = 4;
+        private static final int BUCKETS = EXACT_VALUES + (Long.SIZE - 1 - FIRST_EXPONENT) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private Histogram() {
+        }
+
+        private void record(final long value) {
+            // negative values can only come from clock adjustments; count them as zero
+            long val = Math.max(value, 0L);
+            buckets.incrementAndGet(bucketIndex(val));
+            count.increment();
+            sum.add(val);
+            max.accumulateAndGet(val, Math::max);
+        }
+
+        private void reset() {
+            for (int idx = 0; idx < BUCKETS; idx++) {
+                buckets.set(idx, 0L);
+            }
+            count.reset();
+            sum.reset();
+            max.set(0L);
+        }
+
+        static int bucketIndex(final long value) {
+            if (value < EXACT_VALUES) {
+                return (int) value;
+            }
+            int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return EXACT_VALUES + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+        }
+
+        static long bucketUpperBound(final int index) {
+            if (index < EXACT_VALUES) {
+                return index;
+            }
+            int exponent = (index - EXACT_VALUES) / SUB_BUCKETS + FIRST_EXPONENT;
+            int subBucket = (index - EXACT_VALUES) % SUB_BUCKETS;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return (SUB_BUCKETS + subBucket) * width + width - 1;
+        }
+
+        /**
+         * Get the number of recorded values.
+         * @return the number of values
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Get the sum of the recorded values.
+         * @return the total, e.g. the total nanoseconds spent in a stage
+         */
+        public long getSum() {
+            return sum.sum();
+        }
+
+        /**
+         * Get the largest recorded value.
+         * @return the maximum, or 0 if nothing has been recorded
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Get the mean of the recorded values.
+         * @return the mean, or 0 if nothing has been recorded
+         */
+        public double getMean() {
+            long values = getCount();
+            return values > 0 ? (double) getSum() / values : 0.0d;
+        }
+
+        /**
+         * Get the value below which the requested fraction of recorded values fall.
+         * @param quantile the fraction of values, in the range [0, 1]; e.g. 0.99 for the 99th percentile
+         * @return the upper bound of the bucket containing the percentile, no larger than the
+         *         maximum recorded value, or 0 if nothing has been recorded
+         */
+        public long getPercentile(final double quantile) {
+            if (quantile < 0.0d || quantile > 1.0d) {
+                throw new IllegalArgumentException(String.format("Invalid quantile [%f]; must be in the range [0, 1]", quantile));
+            }
+            long[] counts = new long[BUCKETS];
+            long total = 0L;
+            for (int idx = 0; idx < BUCKETS; idx++) {
+                counts[idx] = buckets.get(idx);
+                total += counts[idx];
+            }
+            if (total == 0L) {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+            long seen = 0L;
+            for (int idx = 0; idx < BUCKETS; idx++) {
+                seen += counts[idx];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(idx), getMax());
+                }
+            }
+            return getMax();
+        }
+    }
+}
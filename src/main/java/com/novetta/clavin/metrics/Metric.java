@@ -0,0 +1,139 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * Metric.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.metrics;
+
+/**
+ * The measurements recorded by CLAVIN components.  Timings are recorded
+ * in nanoseconds; every other metric is recorded as a count, once per
+ * operation, so its distribution can be examined as well as its total.
+ */
+public enum Metric {
+    /**
+     * Time taken by {@link com.novetta.clavin.GeoParser} to parse a whole document,
+     * including cache lookups.
+     */
+    PARSE(true),
+
+    /**
+     * Time taken to extract location names from a document.
+     */
+    EXTRACTION(true),
+
+    /**
+     * Time taken to resolve the location names extracted from a document.
+     */
+    RESOLUTION(true),
+
+    /**
+     * Time taken to execute a single exact gazetteer query, including any re-queries
+     * needed to replace duplicate results.
+     */
+    EXACT_QUERY(true),
+
+    /**
+     * Time taken to execute a single fuzzy gazetteer query, including any re-queries
+     * needed to replace duplicate results.
+     */
+    FUZZY_QUERY(true),
+
+    /**
+     * The number of times a single gazetteer query was re-executed to replace duplicate results.
+     */
+    DEDUPE_REQUERIES(false),
+
+    /**
+     * Time taken to load the ancestry of a set of gazetteer results.
+     */
+    ANCESTRY_RESOLUTION(true),
+
+    /**
+     * The number of candidate combinations scored for a single context window.
+     */
+    COMBINATIONS_EVALUATED(false),
+
+    /**
+     * A call to resolve locations that returned early because its deadline passed.
+     */
+    RESOLUTION_TRUNCATED(false),
+
+    /**
+     * The {@link com.novetta.clavin.LoadShedder.Level} at which a document was resolved,
+     * recorded as its ordinal; zero is full quality.
+     */
+    RESOLUTION_LEVEL(false),
+
+    /**
+     * The deepest level of recursion reached while resolving a single multipart location.
+     */
+    MULTIPART_RECURSION_DEPTH(false),
+
+    /**
+     * A document found in the document cache.
+     */
+    DOCUMENT_CACHE_HIT(false),
+
+    /**
+     * A document not found in the document cache.
+     */
+    DOCUMENT_CACHE_MISS(false),
+
+    /**
+     * A multipart search answered from the results of an identical search.
+     */
+    MULTIPART_SEARCH_CACHE_HIT(false),
+
+    /**
+     * A multipart search that had to query the gazetteer.
+     */
+    MULTIPART_SEARCH_CACHE_MISS(false),
+
+    /**
+     * A location tuple whose resolution was shared with an identical tuple during bulk resolution.
+     */
+    BULK_TUPLE_CACHE_HIT(false),
+
+    /**
+     * A location tuple that had to be resolved during bulk resolution.
+     */
+    BULK_TUPLE_CACHE_MISS(false);
+
+    private final boolean timing;
+
+    Metric(final boolean timing) {
+        this.timing = timing;
+    }
+
+    /**
+     * Is this metric a timing?
+     * @return <code>true</code> if values are nanoseconds, <code>false</code> if they are counts
+     */
+    public boolean isTiming() {
+        return timing;
+    }
+}
@@ -0,0 +1,354 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * RequestTrace.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The details of a single traced request: each gazetteer query it executed and
+ * each combination search performed while resolving its locations.
+ *
+ * A trace is started by a {@link RequestTracer} and is active on the thread that
+ * started it until it ends.  Components add details to the active trace, if there
+ * is one, so nothing is collected for requests that are not traced.  Details may
+ * be added from several threads at once.
+ */
+public final class RequestTrace {
+    private static final ThreadLocal<RequestTrace> ACTIVE = new ThreadLocal<>();
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final String operation;
+    private final String detail;
+    private final long startMillis;
+    private final long startNanos;
+    private volatile long elapsedNanos = -1L;
+    private final List<QueryTrace> queries = new ArrayList<>();
+    private final List<CombinationSearchTrace> combinationSearches = new ArrayList<>();
+
+    RequestTrace(final String operation, final String detail) {
+        this.operation = operation;
+        this.detail = detail;
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Get the trace active on the current thread.
+     * @return the active trace, or <code>null</code> if the current request is not being traced
+     */
+    public static RequestTrace active() {
+        return ACTIVE.get();
+    }
+
+    /**
+     * Wraps a task so that it runs with the trace active on the current thread, if any,
+     * so work handed off to other threads is included in the trace.
+     * @param task the task
+     * @param <T> the result type of the task
+     * @return the wrapped task
+     */
+    public static <T> Callable<T> propagate(final Callable<T> task) {
+        final RequestTrace trace = active();
+        if (trace == null) {
+            return task;
+        }
+        return () -> {
+            RequestTrace previous = ACTIVE.get();
+            ACTIVE.set(trace);
+            try {
+                return task.call();
+            } finally {
+                ACTIVE.set(previous);
+            }
+        };
+    }
+
+    void activate() {
+        ACTIVE.set(this);
+    }
+
+    void finish() {
+        elapsedNanos = System.nanoTime() - startNanos;
+        if (ACTIVE.get() == this) {
+            ACTIVE.remove();
+        }
+    }
+
+    /**
+     * Adds the details of a gazetteer query to this trace.
+     * @param query the query details
+     */
+    public synchronized void addQuery(final QueryTrace query) {
+        queries.add(query);
+    }
+
+    /**
+     * Adds the details of a combination search to this trace.
+     * @param search the search details
+     */
+    public synchronized void addCombinationSearch(final CombinationSearchTrace search) {
+        combinationSearches.add(search);
+    }
+
+    /**
+     * Get the name of the traced operation.
+     * @return the operation, e.g. "parse"
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Get a short description of the traced request.
+     * @return the description, e.g. the length of the document or the name searched
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+    /**
+     * Get the time the request started.
+     * @return the start time in milliseconds since the epoch
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Get the time taken by the request.
+     * @return the elapsed time in nanoseconds, or -1 if the request has not finished
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Get the gazetteer queries executed by the request.
+     * @return the queries, in the order they completed
+     */
+    public synchronized List<QueryTrace> getQueries() {
+        return Collections.unmodifiableList(new ArrayList<>(queries));
+    }
+
+    /**
+     * Get the combination searches performed by the request.
+     * @return the searches, in the order they completed
+     */
+    public synchronized List<CombinationSearchTrace> getCombinationSearches() {
+        return Collections.unmodifiableList(new ArrayList<>(combinationSearches));
+    }
+
+    /**
+     * Formats this trace as a single-line JSON object.
+     * @return the JSON representation of this trace
+     */
+    public String toJson() {
+        try {
+            return JSON.writeValueAsString(this);
+        } catch (JsonProcessingException e) {
+            // all properties are simple values
+            throw new IllegalStateException("Unable to format request trace", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    /**
+     * The details of a single exact or fuzzy gazetteer query.
+     */
+    public static final class QueryTrace {
+        private final String name;
+        private final boolean fuzzy;
+        private String luceneQuery;
+        private long totalHits;
+        private int iterations;
+        private int results;
+        private long elapsedNanos;
+
+        /**
+         * Create a new QueryTrace.
+         * @param name the sanitized location name searched
+         * @param fuzzy <code>true</code> for a fuzzy query
+         */
+        public QueryTrace(final String name, final boolean fuzzy) {
+            this.name = name;
+            this.fuzzy = fuzzy;
+        }
+
+        /**
+         * Records the Lucene query generated for the search.
+         * @param luceneQuery the query, including its filters
+         */
+        public void setLuceneQuery(final String luceneQuery) {
+            this.luceneQuery = luceneQuery;
+        }
+
+        /**
+         * Records one execution of the query.
+         * @param hits the number of documents matching the query
+         */
+        public void addIteration(final long hits) {
+            iterations++;
+            totalHits = hits;
+        }
+
+        /**
+         * Records the outcome of the query.
+         * @param resultCount the number of results returned
+         * @param elapsed the time taken, in nanoseconds
+         */
+        public void finish(final int resultCount, final long elapsed) {
+            this.results = resultCount;
+            this.elapsedNanos = elapsed;
+        }
+
+        /**
+         * Get the sanitized location name searched for.
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Was this a fuzzy query?
+         * @return <code>true</code> for a fuzzy query, <code>false</code> for an exact query
+         */
+        public boolean isFuzzy() {
+            return fuzzy;
+        }
+
+        /**
+         * Get the Lucene query executed, including its filters.
+         * @return the query, or <code>null</code> if it was not built
+         */
+        public String getLuceneQuery() {
+            return luceneQuery;
+        }
+
+        /**
+         * Get the number of documents matching the query, as reported by its last execution.
+         * @return the number of matching documents
+         */
+        public long getTotalHits() {
+            return totalHits;
+        }
+
+        /**
+         * Get the number of times the query was executed; more than once when duplicate
+         * results had to be replaced.
+         * @return the number of <code>searchAfter</code> calls
+         */
+        public int getIterations() {
+            return iterations;
+        }
+
+        /**
+         * Get the number of results the query returned.
+         * @return the number of results, including any filled from a previous query
+         */
+        public int getResults() {
+            return results;
+        }
+
+        /**
+         * Get the time taken by the query.
+         * @return the elapsed time in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
+    /**
+     * The details of the search for the best combination of candidates in one context window.
+     */
+    public static final class CombinationSearchTrace {
+        private final int locations;
+        private final long combinations;
+        private final int depthReached;
+        private final long elapsedNanos;
+
+        /**
+         * Create a new CombinationSearchTrace.
+         * @param locations the number of location names in the window
+         * @param combinations the number of combinations scored
+         * @param depthReached the deepest candidate depth searched
+         * @param elapsedNanos the time taken, in nanoseconds
+         */
+        public CombinationSearchTrace(final int locations, final long combinations, final int depthReached,
+                final long elapsedNanos) {
+            this.locations = locations;
+            this.combinations = combinations;
+            this.depthReached = depthReached;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Get the number of location names in the context window.
+         * @return the number of location names
+         */
+        public int getLocations() {
+            return locations;
+        }
+
+        /**
+         * Get the number of candidate combinations scored.
+         * @return the number of combinations
+         */
+        public long getCombinations() {
+            return combinations;
+        }
+
+        /**
+         * Get the deepest candidate depth searched.
+         * @return the depth
+         */
+        public int getDepthReached() {
+            return depthReached;
+        }
+
+        /**
+         * Get the time taken by the search.
+         * @return the elapsed time in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+}
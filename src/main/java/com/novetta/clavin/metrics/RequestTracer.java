@@ -0,0 +1,119 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * RequestTracer.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Traces requests and reports those that take longer than a threshold, so the
+ * occasional slow document can be explained after the fact.
+ *
+ * Only the outermost traced operation on a thread starts a trace; a GeoParser
+ * and the gazetteer it queries may share a tracer, or be configured separately,
+ * and gazetteer queries made while parsing a document are included in the
+ * trace of the document.  Slow traces are logged as JSON to the
+ * <code>com.novetta.clavin.SlowRequests</code> logger unless another sink is provided.
+ */
+public class RequestTracer {
+    /**
+     * The logger that receives slow request traces by default.
+     */
+    public static final String SLOW_REQUEST_LOGGER = "com.novetta.clavin.SlowRequests";
+
+    private static final Logger SLOW_LOG = LoggerFactory.getLogger(SLOW_REQUEST_LOGGER);
+
+    private final long thresholdNanos;
+    private final Consumer<RequestTrace> sink;
+
+    /**
+     * Create a new RequestTracer that logs requests taking at least the threshold.
+     * @param thresholdMillis the minimum duration of a reported request, in milliseconds
+     */
+    public RequestTracer(final long thresholdMillis) {
+        this(thresholdMillis, TimeUnit.MILLISECONDS, trace -> SLOW_LOG.warn("{}", trace.toJson()));
+    }
+
+    /**
+     * Create a new RequestTracer that passes requests taking at least the threshold to a sink.
+     * @param threshold the minimum duration of a reported request
+     * @param unit the unit of the threshold
+     * @param sink receives the traces of slow requests, on the thread that made the request
+     */
+    public RequestTracer(final long threshold, final TimeUnit unit, final Consumer<RequestTrace> sink) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException(String.format("Invalid threshold [%d]; must not be negative", threshold));
+        }
+        if (sink == null) {
+            throw new IllegalArgumentException("A trace sink must be provided.");
+        }
+        this.thresholdNanos = unit.toNanos(threshold);
+        this.sink = sink;
+    }
+
+    /**
+     * Get the minimum duration of a reported request.
+     * @return the threshold in nanoseconds
+     */
+    public long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+    /**
+     * Starts tracing a request on the current thread, unless a request is already being traced.
+     * @param operation the name of the operation
+     * @param detail a short description of the request
+     * @return the new trace, or <code>null</code> if the current thread is already tracing a request
+     */
+    public RequestTrace begin(final String operation, final String detail) {
+        if (RequestTrace.active() != null) {
+            return null;
+        }
+        RequestTrace trace = new RequestTrace(operation, detail);
+        trace.activate();
+        return trace;
+    }
+
+    /**
+     * Finishes tracing a request, reporting it if it took at least the threshold.
+     * @param trace the trace returned by {@link #begin}; ignored if <code>null</code>
+     */
+    public void end(final RequestTrace trace) {
+        if (trace == null) {
+            return;
+        }
+        trace.finish();
+        if (trace.getElapsedNanos() >= thresholdNanos) {
+            sink.accept(trace);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * FlowStage.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.pipeline;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * One stage of a {@link GeoParsingPipeline}: a processor that applies a
+ * function to each item on a fixed number of workers.
+ *
+ * Backpressure comes from bounding both sides of the stage.  No more than
+ * <code>bufferSize</code> items are requested from upstream beyond those the
+ * workers have taken, and results are published through a
+ * {@link SubmissionPublisher} with a buffer of the same size, which blocks a
+ * worker when the downstream subscriber falls behind.  A slow stage therefore
+ * stops requesting from the one before it rather than letting items pile up.
+ * A stage has a single subscriber, and requests nothing from upstream until
+ * it has one, since a publisher without subscribers drops what it is offered.
+ *
+ * Results are published in the order they complete, which with more than one
+ * worker need not be the order they arrived in.  The function must not throw.
+ *
+ * @param <I> the type of items received
+ * @param <O> the type of items published
+ */
+final class FlowStage<I, O> implements Flow.Processor<I, O> {
+    /**
+     * Tells a worker that no more items will arrive.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * How long a worker waits for downstream demand before checking whether
+     * the stage has been cancelled.
+     */
+    private static final long OFFER_TIMEOUT_MILLIS = 100L;
+
+    private final int parallelism;
+    private final int bufferSize;
+    private final Function<? super I, ? extends O> function;
+    private final Executor executor;
+    private final SubmissionPublisher<O> output;
+
+    /**
+     * Items received but not yet taken by a worker; never holds more than
+     * bufferSize items plus one END per worker.
+     */
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger running;
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private volatile Flow.Subscription upstream;
+    private volatile Throwable failure;
+
+    /**
+     * Create a new stage.
+     *
+     * @param parallelism   the number of workers
+     * @param bufferSize    the number of items buffered on each side of the stage
+     * @param function      transforms each item
+     * @param executor      runs the workers and delivers results; must be able to run
+     *                      every worker at once
+     */
+    FlowStage(final int parallelism, final int bufferSize, final Function<? super I, ? extends O> function,
+            final Executor executor) {
+        this.parallelism = parallelism;
+        this.bufferSize = bufferSize;
+        this.function = function;
+        this.executor = executor;
+        this.output = new SubmissionPublisher<>(executor, bufferSize);
+        this.running = new AtomicInteger(parallelism);
+    }
+
+    /**
+     * Subscribe the single subscriber of this stage.
+     */
+    @Override
+    public void subscribe(final Flow.Subscriber<? super O> subscriber) {
+        if (subscribed.compareAndSet(false, true)) {
+            output.subscribe(subscriber);
+            start();
+        } else {
+            // a second subscriber could be sent the same item twice when an offer is retried
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+        }
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        start();
+    }
+
+    /**
+     * Starts the workers and requests the first items once the stage has both
+     * an upstream subscription and a subscriber.
+     */
+    private void start() {
+        if (upstream == null || !subscribed.get() || !started.compareAndSet(false, true)) {
+            return;
+        }
+        for (int i = 0; i < parallelism; i++) {
+            executor.execute(this::work);
+        }
+        upstream.request(bufferSize);
+    }
+
+    @Override
+    public void onNext(final I item) {
+        queue.add(item);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        failure = throwable;
+        end();
+    }
+
+    @Override
+    public void onComplete() {
+        end();
+    }
+
+    private void end() {
+        for (int i = 0; i < parallelism; i++) {
+            queue.add(END);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void work() {
+        try {
+            for (Object item = queue.take(); item != END; item = queue.take()) {
+                // make room for the next item before blocking on downstream
+                upstream.request(1);
+                publish(function.apply((I) item));
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            fail(ie);
+        } catch (RuntimeException e) {
+            fail(e);
+        } finally {
+            if (running.decrementAndGet() == 0) {
+                Throwable t = failure;
+                if (t != null) {
+                    output.closeExceptionally(t);
+                } else {
+                    output.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the stage: cancel upstream, release the workers, including any
+     * blocked on downstream, and end the stream with the given error.
+     *
+     * @param reason the error sent to subscribers
+     */
+    void cancel(final Throwable reason) {
+        if (failure == null) {
+            failure = reason;
+        }
+        Flow.Subscription subscription = upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        end();
+        output.closeExceptionally(reason);
+    }
+
+    /**
+     * Blocks until downstream accepts the item.  Unlike
+     * {@link SubmissionPublisher#submit(Object)}, which holds the publisher's
+     * lock while it waits, this gives up periodically so the stage can be
+     * cancelled while downstream is stalled.
+     */
+    private void publish(final O item) {
+        while (output.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS, null) < 0) {
+            if (failure != null) {
+                throw new CancellationException("Stage cancelled");
+            }
+        }
+    }
+
+    private void fail(final Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+        upstream.cancel();
+        // release the other workers
+        end();
+    }
+}
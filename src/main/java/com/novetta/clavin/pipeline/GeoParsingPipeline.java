@@ -0,0 +1,452 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GeoParsingPipeline.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.novetta.clavin.extractor.LocationExtractor;
+import com.novetta.clavin.extractor.LocationOccurrence;
+import com.novetta.clavin.gazetteer.query.AncestryMode;
+import com.novetta.clavin.metrics.ClavinMetrics;
+import com.novetta.clavin.metrics.Metric;
+import com.novetta.clavin.resolver.ClavinLocationResolver;
+import com.novetta.clavin.resolver.ResolvedLocation;
+
+/**
+ * Geoparses a stream of documents in three stages connected by
+ * {@link java.util.concurrent.Flow}: extraction of location names, gazetteer
+ * lookup of the candidate matches for each name, and resolution of the best
+ * candidates.  Each stage has its own workers and bounded buffers, so stages
+ * can be sized to their cost, and a slow stage throttles the stages before it
+ * instead of letting documents accumulate in memory.
+ *
+ * The pipeline is a {@link Flow.Processor}: subscribe the consumer of the
+ * {@link Result}s and subscribe the pipeline to a publisher of
+ * {@link Document}s, in either order; no documents are requested until the
+ * consumer has subscribed.  Results arrive in the order they complete.  A document
+ * that fails in any stage is published with its error rather than ending the
+ * stream; the stream ends when the publisher completes.
+ *
+ * The extractor is shared by the extraction workers and must be thread-safe
+ * when there is more than one; wrap extractors that are not in a
+ * {@link com.novetta.clavin.extractor.PooledExtractor}.
+ *
+ * Resolution follows {@link ClavinLocationResolver#resolveLocations(List, int, int, boolean, AncestryMode)},
+ * so a document resolves the same way it does through
+ * {@link com.novetta.clavin.GeoParser#parse(String)} without a cache or load shedder.
+ */
+public class GeoParsingPipeline implements Flow.Processor<GeoParsingPipeline.Document, GeoParsingPipeline.Result>,
+        AutoCloseable {
+    /**
+     * Default number of workers in each stage.
+     */
+    public static final int DEFAULT_PARALLELISM = 1;
+
+    /**
+     * Default number of documents buffered on each side of a stage.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+
+    private static final Logger LOG = LoggerFactory.getLogger(GeoParsingPipeline.class);
+
+    private final LocationExtractor extractor;
+    private final ClavinLocationResolver resolver;
+    private final int maxHitDepth;
+    private final int maxContextWindow;
+    private final boolean fuzzy;
+    private final AncestryMode ancestryMode;
+    private final ExecutorService executor;
+    private final FlowStage<Document, Work> extraction;
+    private final FlowStage<Work, Work> lookup;
+    private final FlowStage<Work, Result> resolution;
+
+    private volatile ClavinMetrics metrics = ClavinMetrics.NOOP;
+
+    private GeoParsingPipeline(final Builder builder) {
+        this.extractor = builder.extractor;
+        this.resolver = builder.resolver;
+        this.maxHitDepth = builder.maxHitDepth;
+        this.maxContextWindow = builder.maxContextWindow;
+        this.fuzzy = builder.fuzzy;
+        this.ancestryMode = builder.ancestryMode;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "clavin-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.extraction = new FlowStage<>(builder.extractionParallelism, builder.bufferSize,
+                document -> stage(new Work(document), this::extract), executor);
+        this.lookup = new FlowStage<>(builder.lookupParallelism, builder.bufferSize,
+                work -> stage(work, this::lookUp), executor);
+        this.resolution = new FlowStage<>(builder.resolutionParallelism, builder.bufferSize,
+                work -> stage(work, this::resolve).toResult(), executor);
+        extraction.subscribe(lookup);
+        lookup.subscribe(resolution);
+    }
+
+    /**
+     * Start building a pipeline.
+     *
+     * @param extractor the extractor
+     * @param resolver  the resolver, whose gazetteer is used for lookups
+     * @return          a new builder
+     */
+    public static Builder builder(final LocationExtractor extractor, final ClavinLocationResolver resolver) {
+        return new Builder(extractor, resolver);
+    }
+
+    /**
+     * Set the metrics recorded by the extraction and resolution stages.
+     * Gazetteer queries are recorded by the gazetteer.
+     * @param metrics the metrics; <code>null</code> to disable
+     */
+    public void setMetrics(final ClavinMetrics metrics) {
+        this.metrics = ClavinMetrics.orNoop(metrics);
+    }
+
+    /**
+     * Get the metrics recorded by the extraction and resolution stages.
+     * @return the metrics
+     */
+    public ClavinMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super Result> subscriber) {
+        resolution.subscribe(subscriber);
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+        extraction.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(final Document document) {
+        extraction.onNext(document);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        extraction.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        extraction.onComplete();
+    }
+
+    /**
+     * Abandon any documents in progress and stop the workers.  Subscribers
+     * that have not yet been completed receive a {@link CancellationException}.
+     */
+    @Override
+    public void close() {
+        CancellationException closed = new CancellationException("Pipeline closed");
+        extraction.cancel(closed);
+        lookup.cancel(closed);
+        resolution.cancel(closed);
+        // the workers have been released; let the executor deliver the cancellation to subscribers
+        executor.shutdown();
+    }
+
+    /**
+     * Applies one stage to a document that has not already failed.
+     */
+    private static Work stage(final Work work, final StageFunction function) {
+        if (work.error == null) {
+            try {
+                function.apply(work);
+            } catch (Exception e) {
+                LOG.warn("Failed to geoparse document {}", work.document.getId(), e);
+                work.error = e;
+            }
+        }
+        return work;
+    }
+
+    @FunctionalInterface
+    private interface StageFunction {
+        void apply(Work work) throws Exception;
+    }
+
+    private void extract(final Work work) {
+        long start = System.nanoTime();
+        List<LocationOccurrence> occurrences = extractor.extractLocationNames(work.document.getText());
+        metrics.recordSince(Metric.EXTRACTION, start);
+        work.occurrences = occurrences != null ? occurrences : Collections.emptyList();
+    }
+
+    private void lookUp(final Work work) throws Exception {
+        work.candidates = new ArrayList<>(work.occurrences.size());
+        for (LocationOccurrence occurrence : work.occurrences) {
+            work.candidates.add(resolver.findCandidates(occurrence, maxHitDepth, fuzzy, ancestryMode));
+        }
+    }
+
+    private void resolve(final Work work) {
+        long start = System.nanoTime();
+        work.locations = resolver.resolveCandidates(work.candidates, maxHitDepth, maxContextWindow);
+        metrics.recordSince(Metric.RESOLUTION, start);
+    }
+
+    /**
+     * A document moving through the pipeline, filled in by each stage.
+     */
+    private static final class Work {
+        private final Document document;
+        private List<LocationOccurrence> occurrences;
+        private List<List<ResolvedLocation>> candidates;
+        private List<ResolvedLocation> locations;
+        private Exception error;
+
+        private Work(final Document document) {
+            this.document = document;
+        }
+
+        private Result toResult() {
+            return new Result(document, error == null ? locations : Collections.emptyList(), error);
+        }
+    }
+
+    /**
+     * A document to geoparse.
+     */
+    public static final class Document {
+        private final String id;
+        private final String text;
+
+        private Document(final String id, final String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        /**
+         * Create a document.
+         * @param id    identifies the document in its result
+         * @param text  the text to geoparse
+         * @return      the document
+         */
+        public static Document of(final String id, final String text) {
+            return new Document(id, text);
+        }
+
+        /**
+         * Get the identifier of this document.
+         * @return the identifier
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Get the text of this document.
+         * @return the text
+         */
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * The locations resolved for a document, or the error that prevented it
+     * from being geoparsed.
+     */
+    public static final class Result {
+        private final Document document;
+        private final List<ResolvedLocation> locations;
+        private final Exception error;
+
+        private Result(final Document document, final List<ResolvedLocation> locations, final Exception error) {
+            this.document = document;
+            this.locations = locations;
+            this.error = error;
+        }
+
+        /**
+         * Get the document.
+         * @return the document
+         */
+        public Document getDocument() {
+            return document;
+        }
+
+        /**
+         * Get the resolved locations.
+         * @return the locations, in document order; empty if the document failed
+         */
+        public List<ResolvedLocation> getLocations() {
+            return locations;
+        }
+
+        /**
+         * Get the error that prevented the document from being geoparsed.
+         * @return the error, or <code>null</code> if it succeeded
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Result{%s: %s}", document.getId(), error != null ? error : locations);
+        }
+    }
+
+    /**
+     * Configures a {@link GeoParsingPipeline}.
+     */
+    public static final class Builder {
+        private final LocationExtractor extractor;
+        private final ClavinLocationResolver resolver;
+        private int maxHitDepth = ClavinLocationResolver.DEFAULT_MAX_HIT_DEPTH;
+        private int maxContextWindow = ClavinLocationResolver.DEFAULT_MAX_CONTEXT_WINDOW;
+        private boolean fuzzy = false;
+        private AncestryMode ancestryMode = ClavinLocationResolver.DEFAULT_ANCESTRY_MODE;
+        private int extractionParallelism = DEFAULT_PARALLELISM;
+        private int lookupParallelism = DEFAULT_PARALLELISM;
+        private int resolutionParallelism = DEFAULT_PARALLELISM;
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+        private Builder(final LocationExtractor extractor, final ClavinLocationResolver resolver) {
+            this.extractor = extractor;
+            this.resolver = resolver;
+        }
+
+        /**
+         * Set the number of candidate matches to consider for each location name.
+         * @param depth the maximum hit depth
+         * @return      this builder
+         */
+        public Builder maxHitDepth(final int depth) {
+            maxHitDepth = depth;
+            return this;
+        }
+
+        /**
+         * Set the number of location names resolved together.
+         * @param window    the maximum context window
+         * @return          this builder
+         */
+        public Builder maxContextWindow(final int window) {
+            maxContextWindow = window;
+            return this;
+        }
+
+        /**
+         * Set whether to use fuzzy matching.
+         * @param useFuzzy  <code>true</code> to use fuzzy matching
+         * @return          this builder
+         */
+        public Builder fuzzy(final boolean useFuzzy) {
+            fuzzy = useFuzzy;
+            return this;
+        }
+
+        /**
+         * Set the ancestry loading mode.
+         * @param mode  the ancestry mode
+         * @return      this builder
+         */
+        public Builder ancestryMode(final AncestryMode mode) {
+            ancestryMode = mode;
+            return this;
+        }
+
+        /**
+         * Set the number of workers extracting location names.
+         * @param workers   the number of workers
+         * @return          this builder
+         */
+        public Builder extractionParallelism(final int workers) {
+            extractionParallelism = workers;
+            return this;
+        }
+
+        /**
+         * Set the number of workers querying the gazetteer.
+         * @param workers   the number of workers
+         * @return          this builder
+         */
+        public Builder lookupParallelism(final int workers) {
+            lookupParallelism = workers;
+            return this;
+        }
+
+        /**
+         * Set the number of workers resolving candidates.
+         * @param workers   the number of workers
+         * @return          this builder
+         */
+        public Builder resolutionParallelism(final int workers) {
+            resolutionParallelism = workers;
+            return this;
+        }
+
+        /**
+         * Set the number of documents buffered on each side of a stage.
+         * @param size  the buffer size
+         * @return      this builder
+         */
+        public Builder bufferSize(final int size) {
+            bufferSize = size;
+            return this;
+        }
+
+        /**
+         * Create the pipeline.
+         * @return the pipeline
+         */
+        public GeoParsingPipeline build() {
+            if (extractionParallelism < 1 || lookupParallelism < 1 || resolutionParallelism < 1) {
+                throw new IllegalArgumentException("Every stage needs at least one worker");
+            }
+            if (bufferSize < 1) {
+                throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+            }
+            if (maxHitDepth < 1) {
+                throw new IllegalArgumentException("maxHitDepth must be positive: " + maxHitDepth);
+            }
+            if (maxContextWindow < 1) {
+                throw new IllegalArgumentException("maxContextWindow must be positive: " + maxContextWindow);
+            }
+            return new GeoParsingPipeline(this);
+        }
+    }
+}
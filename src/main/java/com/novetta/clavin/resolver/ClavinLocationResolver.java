@@ -31,16 +31,27 @@ package com.novetta.clavin.resolver;
 import com.novetta.clavin.ClavinException;
 import com.novetta.clavin.extractor.LocationOccurrence;
 import com.novetta.clavin.gazetteer.CountryCode;
+import com.novetta.clavin.gazetteer.GeoName;
 import com.novetta.clavin.gazetteer.query.AncestryMode;
+import com.novetta.clavin.gazetteer.query.BoundingBox;
 import com.novetta.clavin.gazetteer.query.FuzzyMode;
 import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.gazetteer.query.PointRadius;
 import com.novetta.clavin.gazetteer.query.QueryBuilder;
+import com.novetta.clavin.gazetteer.query.QueryTimeoutException;
+import com.novetta.clavin.metrics.ClavinMetrics;
+import com.novetta.clavin.metrics.Metric;
+import com.novetta.clavin.metrics.RequestTrace;
+import com.novetta.clavin.metrics.RequestTrace.CombinationSearchTrace;
+import com.novetta.clavin.metrics.RequestTracer;
+import com.novetta.clavin.util.Deadline;
 import com.novetta.clavin.util.ListUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
@@ -76,6 +87,16 @@ public class ClavinLocationResolver {
      */
     private final Gazetteer gazetteer;
 
+    /**
+     * Receives resolution timings and the number of combinations evaluated.
+     */
+    private volatile ClavinMetrics metrics = ClavinMetrics.NOOP;
+
+    /**
+     * Traces slow calls to resolveLocations; <code>null</code> if tracing is disabled.
+     */
+    private volatile RequestTracer tracer;
+
     /**
      * Set of demonyms to filter out from extracted location names.
      */
@@ -97,6 +118,43 @@ public class ClavinLocationResolver {
         return gazetteer;
     }
 
+    /**
+     * Configures where this resolver records its timings and the number of
+     * candidate combinations it evaluates.
+     * @param metrics the metrics to record to; <code>null</code> to discard them
+     */
+    public void setMetrics(final ClavinMetrics metrics) {
+        this.metrics = ClavinMetrics.orNoop(metrics);
+    }
+
+    /**
+     * Get the metrics this resolver records to.
+     * @return the configured metrics; never <code>null</code>
+     */
+    public ClavinMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Configures tracing of slow calls to resolveLocations.  Each traced call records
+     * the gazetteer queries it made and the number of combinations and depth reached
+     * by each combination search; calls made while a
+     * {@link com.novetta.clavin.GeoParser} is tracing a document are recorded in the
+     * trace of the document instead.
+     * @param tracer the tracer that reports slow calls; <code>null</code> to disable tracing
+     */
+    public void setTracer(final RequestTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Get the tracer that reports slow calls.
+     * @return the tracer, or <code>null</code> if tracing is disabled
+     */
+    public RequestTracer getTracer() {
+        return tracer;
+    }
+
     /**
      * Resolves the supplied list of location names into
      * {@link ResolvedLocation}s containing {@link com.novetta.clavin.gazetteer.GeoName} objects
@@ -157,10 +215,88 @@ public class ClavinLocationResolver {
      **/
     public List<ResolvedLocation> resolveLocations(final List<LocationOccurrence> locations, final int maxHitDepth,
             final int maxContextWindow, final boolean fuzzy, final AncestryMode ancestryMode) throws ClavinException {
+        return resolveLocations(locations, maxHitDepth, maxContextWindow, fuzzy, ancestryMode, null, null);
+    }
+
+    /**
+     * Resolves the supplied list of location names into
+     * {@link ResolvedLocation}s containing {@link com.novetta.clavin.gazetteer.GeoName} objects,
+     * considering only candidates found within the provided region and/or distance of a point.
+     * This is useful when the caller already knows the area a document is about.
+     *
+     * Calls {@link Gazetteer#getClosestLocations} on
+     * each location name to find all possible matches, then uses
+     * heuristics to select the best match for each by calling
+     * {@link ClavinLocationResolver#pickBestCandidates}.
+     *
+     * @param locations          list of location names to be resolved
+     * @param maxHitDepth        number of candidate matches to consider
+     * @param maxContextWindow   how much context to consider when resolving
+     * @param fuzzy              switch for turning on/off fuzzy matching
+     * @param ancestryMode       the ancestry loading mode
+     * @param boundingBox        the region candidates must fall within; <code>null</code> for no restriction
+     * @param radius             the circle candidates must fall within; <code>null</code> for no restriction
+     * @return                   list of {@link ResolvedLocation} objects
+     * @throws ClavinException   if an error occurs parsing the search terms
+     **/
+    public List<ResolvedLocation> resolveLocations(final List<LocationOccurrence> locations, final int maxHitDepth,
+            final int maxContextWindow, final boolean fuzzy, final AncestryMode ancestryMode,
+            final BoundingBox boundingBox, final PointRadius radius) throws ClavinException {
+        return resolveLocations(locations, maxHitDepth, maxContextWindow, fuzzy, ancestryMode, boundingBox, radius,
+                Deadline.NONE).getLocations();
+    }
+
+    /**
+     * Resolves the supplied list of location names into
+     * {@link ResolvedLocation}s containing {@link com.novetta.clavin.gazetteer.GeoName} objects,
+     * returning early with the best answer found so far if the deadline passes.
+     *
+     * Gazetteer queries still running when the deadline passes are abandoned, and
+     * location names that have not been queried are left unresolved.  The search
+     * for the best combination of candidates stops at the deadline with the best
+     * combination it has scored, and context windows that have not been searched
+     * yet are resolved to their top-ranked candidates.
+     *
+     * @param locations          list of location names to be resolved
+     * @param maxHitDepth        number of candidate matches to consider
+     * @param maxContextWindow   how much context to consider when resolving
+     * @param fuzzy              switch for turning on/off fuzzy matching
+     * @param ancestryMode       the ancestry loading mode
+     * @param boundingBox        the region candidates must fall within; <code>null</code> for no restriction
+     * @param radius             the circle candidates must fall within; <code>null</code> for no restriction
+     * @param deadline           the deadline; <code>null</code> or {@link Deadline#NONE} to resolve completely
+     * @return                   the resolved locations and whether the deadline cut resolution short
+     * @throws ClavinException   if an error occurs parsing the search terms
+     **/
+    public ResolutionResult resolveLocations(final List<LocationOccurrence> locations, final int maxHitDepth,
+            final int maxContextWindow, final boolean fuzzy, final AncestryMode ancestryMode,
+            final BoundingBox boundingBox, final PointRadius radius, final Deadline deadline) throws ClavinException {
         // are you forgetting something? -- short-circuit if no locations were provided
         if (locations == null || locations.isEmpty()) {
-            return Collections.emptyList();
+            return new ResolutionResult(Collections.emptyList(), false);
         }
+        RequestTracer requestTracer = tracer;
+        RequestTrace trace = requestTracer != null ?
+                requestTracer.begin("resolveLocations", String.format("%d locations", locations.size())) : null;
+        long start = System.nanoTime();
+        try {
+            ResolutionResult result = resolveNonEmpty(locations, maxHitDepth, maxContextWindow, fuzzy, ancestryMode,
+                    boundingBox, radius, Deadline.orNone(deadline));
+            if (result.isTruncated()) {
+                metrics.increment(Metric.RESOLUTION_TRUNCATED);
+            }
+            return result;
+        } finally {
+            metrics.recordSince(Metric.RESOLUTION, start);
+            if (requestTracer != null) {
+                requestTracer.end(trace);
+            }
+        }
+    }
+
+    private ResolutionResult resolveNonEmpty(final List<LocationOccurrence> locations,
+            final int maxHitDepth, final int maxContextWindow, final boolean fuzzy, final AncestryMode ancestryMode,
+            final BoundingBox boundingBox, final PointRadius radius, final Deadline deadline) throws ClavinException {
 
         /* Various named entity recognizers tend to mistakenly extract demonyms
          * (i.e., names for residents of localities (e.g., American, British))
@@ -175,66 +311,153 @@ public class ClavinLocationResolver {
 
         // did we filter *everything* out?
         if (filteredLocations.isEmpty()) {
+            return new ResolutionResult(Collections.emptyList(), false);
+        }
+
+        QueryBuilder builder = candidateQuery(maxHitDepth, fuzzy, ancestryMode, boundingBox, radius, deadline);
+
+        // stores all possible matches for each location name
+        List<List<ResolvedLocation>> allCandidates = new ArrayList<>();
+        // set when the deadline passes before every location name has been queried
+        boolean truncated = false;
+
+        // loop through all the location names
+        for (LocationOccurrence location : filteredLocations) {
+            if (deadline.isExpired()) {
+                truncated = true;
+                break;
+            }
+            List<ResolvedLocation> candidates;
+            try {
+                // get all possible matches
+                candidates = gazetteer.getClosestLocations(builder.location(location).build());
+            } catch (QueryTimeoutException qte) {
+                truncated = true;
+                break;
+            }
+
+            // if we found some possible matches, save them
+            if (!candidates.isEmpty()) {
+                allCandidates.add(candidates);
+            }
+        }
+
+        return selectBestCandidates(allCandidates, maxHitDepth, maxContextWindow, truncated, deadline);
+    }
+
+    /**
+     * Looks up the candidate matches for a single location name, the first half
+     * of {@link #resolveLocations(List, int, int, boolean, AncestryMode)}.
+     * Together with {@link #resolveCandidates(List, int, int)} this lets the
+     * gazetteer lookups and the selection of the best candidates run separately.
+     *
+     * @param location           the location name
+     * @param maxHitDepth        number of candidate matches to consider
+     * @param fuzzy              switch for turning on/off fuzzy matching
+     * @param ancestryMode       the ancestry loading mode
+     * @return                   the candidate matches, best first; empty for demonyms
+     * @throws ClavinException   if an error occurs parsing the search terms
+     */
+    public List<ResolvedLocation> findCandidates(final LocationOccurrence location, final int maxHitDepth,
+            final boolean fuzzy, final AncestryMode ancestryMode) throws ClavinException {
+        if (location == null || isDemonym(location)) {
             return Collections.emptyList();
         }
+        return gazetteer.getClosestLocations(candidateQuery(maxHitDepth, fuzzy, ancestryMode, null, null, Deadline.NONE)
+                .location(location)
+                .build());
+    }
+
+    /**
+     * Selects the best match for each location name from candidates found by
+     * {@link #findCandidates(LocationOccurrence, int, boolean, AncestryMode)},
+     * the second half of {@link #resolveLocations(List, int, int, boolean, AncestryMode)}.
+     *
+     * @param allCandidates      the candidate matches for each location name, in document order;
+     *                           location names without candidates are skipped
+     * @param maxHitDepth        number of candidate matches that were considered
+     * @param maxContextWindow   how much context to consider when resolving
+     * @return                   the resolved locations
+     */
+    public List<ResolvedLocation> resolveCandidates(final List<List<ResolvedLocation>> allCandidates,
+            final int maxHitDepth, final int maxContextWindow) {
+        List<List<ResolvedLocation>> found = new ArrayList<>(allCandidates.size());
+        for (List<ResolvedLocation> candidates : allCandidates) {
+            if (!candidates.isEmpty()) {
+                found.add(candidates);
+            }
+        }
+        return selectBestCandidates(found, maxHitDepth, maxContextWindow, false, Deadline.NONE).getLocations();
+    }
 
-        QueryBuilder builder = new QueryBuilder()
+    private static QueryBuilder candidateQuery(final int maxHitDepth, final boolean fuzzy,
+            final AncestryMode ancestryMode, final BoundingBox boundingBox, final PointRadius radius,
+            final Deadline deadline) {
+        return new QueryBuilder()
                 .maxResults(maxHitDepth)
                 // translate CLAVIN 1.x 'fuzzy' parameter into NO_EXACT or OFF; it isn't
                 // necessary, or desirable to support FILL for the CLAVIN resolution algorithm
                 .fuzzyMode(fuzzy ? FuzzyMode.NO_EXACT : FuzzyMode.OFF)
                 .ancestryMode(ancestryMode)
-                .includeHistorical(true);
-
-        if (maxHitDepth > 1) { // perform context-based heuristic matching
-            // stores all possible matches for each location name
-            List<List<ResolvedLocation>> allCandidates = new ArrayList<>();
-
-            // loop through all the location names
-            for (LocationOccurrence location : filteredLocations) {
-                // get all possible matches
-                List<ResolvedLocation> candidates = gazetteer.getClosestLocations(builder.location(location).build());
-
-                // if we found some possible matches, save them
-                if (!candidates.isEmpty()) {
-                    allCandidates.add(candidates);
-                }
-            }
+                .includeHistorical(true)
+                .boundingBox(boundingBox)
+                .radius(radius)
+                .deadline(deadline);
+    }
 
-            // initialize return object
-            List<ResolvedLocation> bestCandidates = new ArrayList<>();
+    /**
+     * Selects the best match for each location name, a context window at a time.
+     *
+     * @param allCandidates      list of non-empty lists of candidate matches for location names
+     * @param maxHitDepth        number of candidate matches that were considered
+     * @param maxContextWindow   how much context to consider when resolving
+     * @param truncated          whether the deadline has already cut resolution short
+     * @param deadline           stops the search once it has passed
+     * @return                   the best matches and whether resolution was cut short
+     */
+    private ResolutionResult selectBestCandidates(final List<List<ResolvedLocation>> allCandidates,
+            final int maxHitDepth, final int maxContextWindow, final boolean truncated, final Deadline deadline) {
+        // initialize return object
+        List<ResolvedLocation> bestCandidates = new ArrayList<>();
+        // set once the deadline cuts the search short
+        boolean cutShort = truncated;
 
+        if (maxHitDepth > 1) { // perform context-based heuristic matching
             // split-up allCandidates into reasonably-sized chunks to
             // limit computational load when heuristically selecting
             // the best matches
             for (List<List<ResolvedLocation>> theseCandidates : ListUtils.chunkifyList(allCandidates, maxContextWindow)) {
+                if (cutShort) {
+                    // no time left to search this window, fall back to the top-ranked candidates
+                    bestCandidates.addAll(topCandidates(theseCandidates));
+                    continue;
+                }
                 // select the best match for each location name based
                 // based on heuristics
-                bestCandidates.addAll(pickBestCandidates(theseCandidates));
+                CombinationSearch search = pickBestCandidates(theseCandidates, deadline);
+                bestCandidates.addAll(search.best);
+                cutShort = search.truncated;
             }
-
-            return bestCandidates;
         } else { // use no heuristics, simply choose matching location with greatest population
-            // initialize return object
-            List<ResolvedLocation> resolvedLocations = new ArrayList<>();
-
-            // stores possible matches for each location name
-            List<ResolvedLocation> candidateLocations;
-
-            // loop through all the location names
-            for (LocationOccurrence location : filteredLocations) {
-                // choose the top-sorted candidate for each individual
-                // location name
-                candidateLocations = gazetteer.getClosestLocations(builder.location(location).build());
+            // choose the top-sorted candidate for each individual location name
+            bestCandidates.addAll(topCandidates(allCandidates));
+        }
 
-                // if a match was found, add it to the return list
-                if (!candidateLocations.isEmpty()) {
-                    resolvedLocations.add(candidateLocations.get(0));
-                }
-            }
+        return new ResolutionResult(bestCandidates, cutShort);
+    }
 
-            return resolvedLocations;
+    /**
+     * Selects the top-ranked candidate match for each location name.
+     *
+     * @param allCandidates list of non-empty lists of candidate matches for location names
+     * @return              the first candidate for each location name
+     */
+    private static List<ResolvedLocation> topCandidates(final List<List<ResolvedLocation>> allCandidates) {
+        List<ResolvedLocation> top = new ArrayList<>(allCandidates.size());
+        for (List<ResolvedLocation> candidates : allCandidates) {
+            top.add(candidates.get(0));
         }
+        return top;
     }
 
     /**
@@ -253,15 +476,22 @@ public class ClavinLocationResolver {
      * ought to choose Springfield, MA over Springfield, IL or
      * Springfield, MO.
      *
+     * Combinations are enumerated one at a time rather than built up
+     * front, so the search can stop at the deadline with the best
+     * combination scored so far; the top-ranked candidates are the
+     * best combination until another one has been scored.
+     *
      * TODO: consider lat/lon distance in addition to shared
      *       CountryCodes and Admin1Codes.
      *
      * @param allCandidates list of lists of candidate matches for locations names
-     * @return              list of best matches for each location name
+     * @param deadline      stops the search once it has passed
+     * @return              the best matches for each location name and whether the search was cut short
      */
-    private List<ResolvedLocation> pickBestCandidates(final List<List<ResolvedLocation>> allCandidates) {
+    private CombinationSearch pickBestCandidates(final List<List<ResolvedLocation>> allCandidates,
+            final Deadline deadline) {
         // initialize return object
-        List<ResolvedLocation> bestCandidates = new ArrayList<>();
+        List<ResolvedLocation> bestCandidates = topCandidates(allCandidates);
 
         // variables used in heuristic matching
         Set<CountryCode> countries;
@@ -277,21 +507,41 @@ public class ClavinLocationResolver {
         // number" of *3* based on tests of the "Springfield Problem"
         int candidateDepth = 3;
 
+        // the number of combinations scored, for metrics and tracing
+        long combinations = 0L;
+        long start = System.nanoTime();
+        boolean truncated = false;
+
+        // the candidate chosen for each location in the current combination
+        int[] indices = new int[allCandidates.size()];
+        int[] limits = new int[allCandidates.size()];
+
         // keep searching deeper & deeper for better combinations of
         // candidate matches, as long as the scores are improving
+        search:
         do {
             // reset the threshold for recursion
             oldMaxScore = newMaxScore;
 
-            // loop through all combinations up to the specified depth.
-            // first recursive call for each depth starts at index 0
-            for (List<ResolvedLocation> combo : generateAllCombos(allCandidates, 0, candidateDepth)) {
+            // loop through all combinations up to the specified depth,
+            // starting with the first candidate for each location
+            for (int i = 0; i < allCandidates.size(); i++) {
+                limits[i] = Math.min(allCandidates.get(i).size(), candidateDepth);
+            }
+            Arrays.fill(indices, 0);
+            do {
+                if (deadline.isExpired()) {
+                    truncated = true;
+                    break search;
+                }
+                combinations++;
                 // these lists store the country codes & admin1 codes for each candidate
                 countries = EnumSet.noneOf(CountryCode.class);
                 states = new HashSet<>();
-                for (ResolvedLocation location: combo) {
-                    countries.add(location.getGeoname().getPrimaryCountryCode());
-                    states.add(location.getGeoname().getPrimaryCountryCode() + location.getGeoname().getAdmin1Code());
+                for (int i = 0; i < indices.length; i++) {
+                    GeoName geoname = allCandidates.get(i).get(indices[i]).getGeoname();
+                    countries.add(geoname.getPrimaryCountryCode());
+                    states.add(geoname.getPrimaryCountryCode() + geoname.getAdmin1Code());
                 }
 
                 // calculate a score for this particular combination based on commonality
@@ -316,9 +566,12 @@ public class ClavinLocationResolver {
                 // if this is the best we've seen during this loop, update the return value
                 if (score > newMaxScore) {
                     newMaxScore = score;
-                    bestCandidates = combo;
+                    bestCandidates = new ArrayList<>(indices.length);
+                    for (int i = 0; i < indices.length; i++) {
+                        bestCandidates.add(allCandidates.get(i).get(indices[i]));
+                    }
                 }
-            }
+            } while (nextCombination(indices, limits));
 
             // search one level deeper in the next loop
             candidateDepth++;
@@ -326,57 +579,50 @@ public class ClavinLocationResolver {
         } while (newMaxScore > oldMaxScore);
         // keep searching while the scores are monotonically increasing
 
-        return bestCandidates;
+        metrics.record(Metric.COMBINATIONS_EVALUATED, combinations);
+        RequestTrace trace = RequestTrace.active();
+        if (trace != null) {
+            // candidateDepth was advanced past the last depth searched, unless the search was cut short
+            trace.addCombinationSearch(new CombinationSearchTrace(allCandidates.size(), combinations,
+                    truncated ? candidateDepth : candidateDepth - 1, System.nanoTime() - start));
+        }
+        return new CombinationSearch(bestCandidates, truncated);
     }
 
     /**
-     * Recursive helper function for
-     * {@link #pickBestCandidates}.
-     *
-     * Generates all combinations of candidate matches from each
-     * location, down to the specified depth through the lists.
+     * Helper function for {@link #pickBestCandidates}.
      *
-     * Adapted from:
-     * http://www.daniweb.com/software-development/java/threads/177956/generating-all-possible-combinations-from-list-of-sublists#post882553
+     * Advances to the next combination of candidate matches, down to
+     * the specified depth through each list, like an odometer: the
+     * candidate for the last location changes fastest.  This visits
+     * combinations in the same order as enumerating them recursively,
+     * without holding them all in memory.
      *
-     * @param allCandidates list of lists of candidate matches for all location names
-     * @param index         keeps track of which location we're working on for recursive calls
-     * @param depth         max depth into list we're searching during this recursion
-     * @return              all combinations of candidate matches for each location, down to the specified depth
+     * @param indices       the candidate chosen for each location; updated in place
+     * @param limits        the number of candidates to consider for each location
+     * @return              <code>false</code> once every combination has been visited
      */
-    private List<List<ResolvedLocation>> generateAllCombos(final List<List<ResolvedLocation>> allCandidates,
-            final int index, final int depth) {
-        // stopping condition
-        if (index == allCandidates.size()) {
-            // return a list with an empty list
-            List<List<ResolvedLocation>> result = new ArrayList<>();
-            result.add(new ArrayList<>());
-            return result;
-        }
-
-        // initialize return object
-        List<List<ResolvedLocation>> result = new ArrayList<>();
-
-        // recursive call
-        List<List<ResolvedLocation>> recursive = generateAllCombos(allCandidates, index+1, depth);
-
-        // for each element of the first list of input, up to depth or list size
-        for (int j = 0; j < Math.min(allCandidates.get(index).size(), depth); j++) {
-            // add the element to all combinations obtained for the rest of the lists
-            for (List<ResolvedLocation> recList : recursive) {
-                List<ResolvedLocation> newList = new ArrayList<>();
-                // add element of the first list
-                newList.add(allCandidates.get(index).get(j));
-                // copy a combination from recursive
-                for (ResolvedLocation listItem : recList) {
-                    newList.add(listItem);
-                }
-                // add new combination to result
-                result.add(newList);
+    private static boolean nextCombination(final int[] indices, final int[] limits) {
+        for (int i = indices.length - 1; i >= 0; i--) {
+            if (++indices[i] < limits[i]) {
+                return true;
             }
+            indices[i] = 0;
         }
+        return false;
+    }
 
-        return result;
+    /**
+     * The best combination found by {@link #pickBestCandidates}.
+     */
+    private static final class CombinationSearch {
+        private final List<ResolvedLocation> best;
+        private final boolean truncated;
+
+        private CombinationSearch(final List<ResolvedLocation> best, final boolean truncated) {
+            this.best = best;
+            this.truncated = truncated;
+        }
     }
 
     /**
@@ -0,0 +1,84 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ResolutionResult.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.resolver;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The locations resolved within a time budget, along with whether the budget ran
+ * out before resolution was complete.
+ *
+ * When a result is truncated, location names whose gazetteer queries had not
+ * finished are missing from the result, and locations whose best combination was
+ * still being searched for are the best found before the deadline, which may
+ * differ from those an unbounded call would choose.
+ */
+public class ResolutionResult {
+    /**
+     * The resolved locations, in the order of their occurrences.
+     */
+    private final List<ResolvedLocation> locations;
+
+    /**
+     * Did the deadline pass before resolution was complete?
+     */
+    private final boolean truncated;
+
+    /**
+     * Create a new ResolutionResult.
+     * @param locations the resolved locations
+     * @param truncated <code>true</code> if the deadline passed before resolution was complete
+     */
+    public ResolutionResult(final List<ResolvedLocation> locations, final boolean truncated) {
+        this.locations = locations != null ? locations : Collections.emptyList();
+        this.truncated = truncated;
+    }
+
+    /**
+     * Get the resolved locations.
+     * @return the resolved locations; never <code>null</code>
+     */
+    public List<ResolvedLocation> getLocations() {
+        return locations;
+    }
+
+    /**
+     * Did the deadline pass before resolution was complete?
+     * @return <code>true</code> if the locations are the best found before the deadline
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s", locations, truncated ? " (truncated)" : "");
+    }
+}
@@ -0,0 +1,684 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * BulkMultipartResolver.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.resolver.multipart;
+
+import com.novetta.clavin.ClavinException;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.gazetteer.query.LuceneGazetteer;
+import com.novetta.clavin.gazetteer.query.ShardedGazetteer;
+import com.novetta.clavin.index.IndexDirectoryBuilder;
+import com.novetta.clavin.metrics.ClavinMetrics;
+import com.novetta.clavin.metrics.Metric;
+import com.novetta.clavin.resolver.ResolvedLocation;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves large files of structured location records, such as the
+ * "city, state, country" columns of a spreadsheet or database export,
+ * using a {@link MultipartLocationResolver}.
+ *
+ * Records are streamed from a delimited (CSV or TSV) source and written,
+ * in input order, to a delimited sink with the resolved location appended
+ * to each record.  Structured data is typically highly repetitive, so
+ * each distinct tuple of location names is only resolved once; the results
+ * are held in a bounded cache shared by all records and resolution of
+ * uncached tuples is spread across a pool of worker threads.
+ *
+ * Tuples that differ only in case or whitespace share a cache entry, so
+ * they are resolved once, as the first of them seen.  This assumes that the
+ * resolver ignores case and whitespace, as resolvers over the Lucene
+ * gazetteer do; use a cache size of 0 with a case-sensitive gazetteer.
+ *
+ * Quoted fields may contain delimiters and escaped ("") quotes but may
+ * not span multiple lines.
+ */
+public class BulkMultipartResolver {
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(BulkMultipartResolver.class);
+
+    /**
+     * The default number of distinct location tuples whose results are cached.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+
+    /**
+     * The names of the columns appended to each record.
+     */
+    public static final List<String> RESULT_COLUMNS = Arrays.asList("geonameid", "name", "country_code",
+            "admin1_code", "latitude", "longitude");
+
+    /**
+     * The number of records that may be awaiting resolution for each worker thread.
+     */
+    private static final int PENDING_RECORDS_PER_THREAD = 64;
+
+    /**
+     * The number of records between progress reports.
+     */
+    private static final long PROGRESS_INTERVAL = 100000L;
+
+    private static final String HELP_OPTION = "help";
+    private static final String INPUT_OPTION = "input";
+    private static final String OUTPUT_OPTION = "output";
+    private static final String INDEX_PATH_OPTION = "index-path";
+    private static final String DELIMITER_OPTION = "delimiter";
+    private static final String COLUMNS_OPTION = "columns";
+    private static final String HEADER_OPTION = "header";
+    private static final String THREADS_OPTION = "threads";
+    private static final String CACHE_SIZE_OPTION = "cache-size";
+    private static final String FUZZY_OPTION = "fuzzy";
+    private static final String DEFAULT_INDEX_DIRECTORY = "./IndexDirectory";
+
+    /**
+     * The resolver for individual location tuples.
+     */
+    private final MultipartLocationResolver resolver;
+
+    /**
+     * Should fuzzy matching be used?
+     */
+    private final boolean fuzzy;
+
+    /**
+     * The number of worker threads.
+     */
+    private final int threads;
+
+    /**
+     * The maximum number of distinct tuples whose results are cached.
+     */
+    private final int cacheSize;
+
+    /**
+     * Create a new BulkMultipartResolver.
+     * @param resolver the resolver used for each distinct location tuple
+     * @param fuzzy <code>true</code> to use fuzzy matching if an exact match for any location could not be found
+     * @param threads the number of worker threads used for resolution
+     * @param cacheSize the maximum number of distinct location tuples whose results are cached; the
+     *                  least recently used results are discarded once this limit is reached
+     */
+    public BulkMultipartResolver(final MultipartLocationResolver resolver, final boolean fuzzy, final int threads,
+            final int cacheSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException(String.format("Invalid thread count [%d]; must be at least 1", threads));
+        }
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException(String.format("Invalid cache size [%d]; must not be negative", cacheSize));
+        }
+        this.resolver = resolver;
+        this.fuzzy = fuzzy;
+        this.threads = threads;
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Checks whether a tuple's resolution has completed with an error.
+     * @param result the pending or completed resolution
+     * @return <code>true</code> if the resolution is done and failed
+     */
+    private static boolean isFailed(final Future<ResolvedLocation> result) {
+        if (!result.isDone()) {
+            return false;
+        }
+        try {
+            result.get();
+            return false;
+        } catch (ExecutionException | CancellationException e) {
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Resolves each record read from the input and writes it, followed by the
+     * {@link #RESULT_COLUMNS} describing its resolved location, to the output.
+     * Records that could not be resolved are written with empty result columns.
+     * Neither the input nor the output is closed.
+     *
+     * @param input the source of delimited records
+     * @param output the destination for resolved records
+     * @param delimiter the field delimiter; typically ',' or '\t'
+     * @param columns the indexes of the fields containing location names, ordered from
+     *                most to least specific (e.g. city, state, country); if <code>null</code>,
+     *                all fields are treated as location names in that order
+     * @param header <code>true</code> if the first line of the input is a header
+     * @return statistics describing the run
+     * @throws ClavinException if resolution is interrupted
+     * @throws IOException if an error occurs while reading or writing records
+     */
+    public Statistics resolve(final Reader input, final Writer output, final char delimiter, final int[] columns,
+            final boolean header) throws ClavinException, IOException {
+        long start = System.nanoTime();
+        Statistics stats = new Statistics();
+        // tuple cache counters are recorded with the metrics of the underlying resolver
+        ClavinMetrics metrics = ClavinMetrics.orNoop(resolver.getMetrics());
+        BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input);
+
+        String line = header ? reader.readLine() : null;
+        if (line != null) {
+            List<String> headerFields = splitRecord(line, delimiter);
+            headerFields.addAll(RESULT_COLUMNS);
+            output.write(formatRecord(headerFields, delimiter));
+            output.write('\n');
+        }
+
+        // results are cached by their futures so identical tuples that are still being
+        // resolved share a single resolution; only this thread touches the cache, and
+        // failed resolutions are dropped from it so later records retry the tuple
+        Map<List<String>, Future<ResolvedLocation>> cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<List<String>, Future<ResolvedLocation>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        Deque<PendingRecord> pending = new ArrayDeque<>();
+        int maxPending = threads * PENDING_RECORDS_PER_THREAD;
+        long nextProgress = PROGRESS_INTERVAL;
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "clavin-bulk-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                List<String> fields = splitRecord(line, delimiter);
+                final String[] parts = getLocationParts(fields, columns);
+                List<String> key = getTupleKey(parts);
+                Future<ResolvedLocation> result = cache.get(key);
+                if (result != null && isFailed(result)) {
+                    cache.remove(key);
+                    result = null;
+                }
+                if (result != null) {
+                    stats.cacheHits++;
+                    metrics.increment(Metric.BULK_TUPLE_CACHE_HIT);
+                } else {
+                    stats.cacheMisses++;
+                    metrics.increment(Metric.BULK_TUPLE_CACHE_MISS);
+                    result = executor.submit(() -> resolver.resolveLocation(fuzzy, parts));
+                    if (cacheSize > 0) {
+                        cache.put(key, result);
+                    }
+                }
+                pending.add(new PendingRecord(fields, result));
+                // write completed records in input order, blocking on the oldest
+                // record once enough are waiting
+                while (!pending.isEmpty() && (pending.size() >= maxPending || pending.peek().result.isDone())) {
+                    writeRecord(pending.poll(), output, delimiter, stats);
+                }
+                // several records may be written at once, or none at all
+                if (stats.records >= nextProgress) {
+                    stats.elapsedNanos = System.nanoTime() - start;
+                    LOG.info("Progress: {}", stats);
+                    nextProgress = (stats.records / PROGRESS_INTERVAL + 1) * PROGRESS_INTERVAL;
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeRecord(pending.poll(), output, delimiter, stats);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        output.flush();
+        stats.elapsedNanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    private void writeRecord(final PendingRecord record, final Writer output, final char delimiter,
+            final Statistics stats) throws ClavinException, IOException {
+        ResolvedLocation location = null;
+        try {
+            location = record.result.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ClavinException("Interrupted while resolving locations.", ie);
+        } catch (ExecutionException ee) {
+            LOG.warn(String.format("Error resolving record %s", record.fields), ee.getCause());
+            stats.failed++;
+        }
+        List<String> fields = record.fields;
+        if (location != null) {
+            GeoName geo = location.getGeoname();
+            fields.add(String.valueOf(geo.getGeonameID()));
+            fields.add(geo.getName());
+            fields.add(geo.getPrimaryCountryCode() != null ? geo.getPrimaryCountryCode().name() : "");
+            fields.add(geo.getAdmin1Code() != null ? geo.getAdmin1Code() : "");
+            fields.add(String.valueOf(geo.getLatitude()));
+            fields.add(String.valueOf(geo.getLongitude()));
+            stats.resolved++;
+        } else {
+            for (int i = 0; i < RESULT_COLUMNS.size(); i++) {
+                fields.add("");
+            }
+        }
+        stats.records++;
+        output.write(formatRecord(fields, delimiter));
+        output.write('\n');
+    }
+
+    private static String[] getLocationParts(final List<String> fields, final int[] columns) {
+        if (columns == null) {
+            return fields.toArray(new String[0]);
+        }
+        String[] parts = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            parts[i] = columns[i] < fields.size() ? fields.get(columns[i]) : null;
+        }
+        return parts;
+    }
+
+    /**
+     * Builds the cache key for a tuple of location names.  Tuples differing only in
+     * case or whitespace share a key, which assumes resolution ignores both; see the
+     * class documentation.
+     */
+    static List<String> getTupleKey(final String[] parts) {
+        List<String> key = new ArrayList<>(parts.length);
+        for (String part : parts) {
+            key.add(part != null ? part.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT) : "");
+        }
+        return key;
+    }
+
+    /**
+     * Splits a single line into its fields.  Fields beginning with a double
+     * quote may contain the delimiter and escaped ("") double quotes.
+     * @param line the line to split
+     * @param delimiter the field delimiter
+     * @return the fields of the record
+     */
+    static List<String> splitRecord(final String line, final char delimiter) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean fieldStart = true;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+                fieldStart = true;
+                continue;
+            } else if (c == '"' && fieldStart) {
+                quoted = true;
+            } else if (c != '\r' || i + 1 < line.length()) {
+                field.append(c);
+            }
+            fieldStart = false;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Joins fields into a single line, quoting any field that contains the
+     * delimiter, a double quote or a line break.
+     * @param fields the fields to join
+     * @param delimiter the field delimiter
+     * @return the formatted record, without a line terminator
+     */
+    static String formatRecord(final List<String> fields, final char delimiter) {
+        StringBuilder record = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                record.append(delimiter);
+            }
+            String field = fields.get(i);
+            if (field.indexOf(delimiter) >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0 ||
+                    field.indexOf('\r') >= 0) {
+                record.append('"').append(field.replace("\"", "\"\"")).append('"');
+            } else {
+                record.append(field);
+            }
+        }
+        return record.toString();
+    }
+
+    /**
+     * A record waiting for its location tuple to be resolved.
+     */
+    private static final class PendingRecord {
+        private final List<String> fields;
+        private final Future<ResolvedLocation> result;
+
+        private PendingRecord(final List<String> fields, final Future<ResolvedLocation> result) {
+            this.fields = fields;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Throughput and cache statistics for a bulk resolution run.
+     */
+    public static final class Statistics {
+        private long records;
+        private long resolved;
+        private long failed;
+        private long cacheHits;
+        private long cacheMisses;
+        private long elapsedNanos;
+
+        Statistics() {
+        }
+
+        /**
+         * Get the number of records processed.
+         * @return the number of records written to the output
+         */
+        public long getRecords() {
+            return records;
+        }
+
+        /**
+         * Get the number of records that were resolved to a location.
+         * @return the number of resolved records
+         */
+        public long getResolved() {
+            return resolved;
+        }
+
+        /**
+         * Get the number of records that could not be resolved to a location.
+         * @return the number of unresolved records, including failures
+         */
+        public long getUnresolved() {
+            return records - resolved;
+        }
+
+        /**
+         * Get the number of records whose resolution failed with an error.
+         * @return the number of failed records
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * Get the number of records whose location tuple was found in the cache.
+         * @return the number of cache hits
+         */
+        public long getCacheHits() {
+            return cacheHits;
+        }
+
+        /**
+         * Get the number of records whose location tuple had to be resolved.
+         * @return the number of cache misses, i.e. calls to the resolver
+         */
+        public long getCacheMisses() {
+            return cacheMisses;
+        }
+
+        /**
+         * Get the fraction of records whose location tuple was found in the cache.
+         * @return the cache hit rate in the range [0.0, 1.0]
+         */
+        public double getCacheHitRate() {
+            long lookups = cacheHits + cacheMisses;
+            return lookups > 0 ? (double) cacheHits / lookups : 0.0d;
+        }
+
+        /**
+         * Get the elapsed time of the run.
+         * @return the elapsed time in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Get the throughput of the run.
+         * @return the number of records processed per second
+         */
+        public double getRecordsPerSecond() {
+            return elapsedNanos > 0 ? records * 1e9d / elapsedNanos : 0.0d;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d records (%d resolved, %d unresolved, %d failed) in %.3f seconds; %.1f records/sec; "
+                    + "%d resolutions, cache hit rate %.1f%%", records, resolved, getUnresolved(), failed,
+                    elapsedNanos / 1e9d, getRecordsPerSecond(), cacheMisses, getCacheHitRate() * 100.0d);
+        }
+    }
+
+    /**
+     * Resolves the structured location records in a delimited file.
+     *
+     * @param args the command line arguments; run with --help for details
+     * @throws Exception if an error occurs while resolving records
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = getOptions();
+        CommandLine cmd = null;
+        CommandLineParser parser = new DefaultParser();
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException pe) {
+            LOG.error(pe.getMessage());
+            printHelp(options);
+            System.exit(-1);
+        }
+
+        if (cmd.hasOption(HELP_OPTION)) {
+            printHelp(options);
+            System.exit(0);
+        }
+
+        String inputPath = cmd.getOptionValue(INPUT_OPTION);
+        String outputPath = cmd.getOptionValue(OUTPUT_OPTION);
+        File indexDir = new File(cmd.getOptionValue(INDEX_PATH_OPTION, DEFAULT_INDEX_DIRECTORY));
+
+        char delimiter = inputPath != null && inputPath.toLowerCase(Locale.ROOT).endsWith(".csv") ? ',' : '\t';
+        String delimiterValue = cmd.getOptionValue(DELIMITER_OPTION);
+        if (delimiterValue != null) {
+            if ("tab".equalsIgnoreCase(delimiterValue) || "\\t".equals(delimiterValue)) {
+                delimiter = '\t';
+            } else if ("comma".equalsIgnoreCase(delimiterValue)) {
+                delimiter = ',';
+            } else if (delimiterValue.length() == 1) {
+                delimiter = delimiterValue.charAt(0);
+            } else {
+                LOG.error("Invalid delimiter: {}", delimiterValue);
+                System.exit(-1);
+            }
+        }
+
+        int[] columns = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int cacheSize = DEFAULT_CACHE_SIZE;
+        try {
+            String columnsValue = cmd.getOptionValue(COLUMNS_OPTION);
+            if (columnsValue != null) {
+                String[] columnValues = columnsValue.split(",");
+                columns = new int[columnValues.length];
+                for (int i = 0; i < columnValues.length; i++) {
+                    columns[i] = Integer.parseInt(columnValues[i].trim());
+                    if (columns[i] < 0) {
+                        throw new NumberFormatException(columnValues[i]);
+                    }
+                }
+            }
+            threads = Integer.parseInt(cmd.getOptionValue(THREADS_OPTION, String.valueOf(threads)));
+            cacheSize = Integer.parseInt(cmd.getOptionValue(CACHE_SIZE_OPTION, String.valueOf(cacheSize)));
+        } catch (NumberFormatException nfe) {
+            LOG.error("Invalid numeric option: {}", nfe.getMessage());
+            printHelp(options);
+            System.exit(-1);
+        }
+        if (threads < 1) {
+            LOG.error("Invalid value for {}: {} (must be an integer of at least 1)", THREADS_OPTION, threads);
+            printHelp(options);
+            System.exit(-1);
+        }
+        if (cacheSize < 0) {
+            LOG.error("Invalid value for {}: {} (must be an integer of at least 0)", CACHE_SIZE_OPTION, cacheSize);
+            printHelp(options);
+            System.exit(-1);
+        }
+
+        Gazetteer gazetteer = new File(indexDir, IndexDirectoryBuilder.SHARD_MANIFEST_FILE).isFile() ?
+                new ShardedGazetteer(indexDir) : new LuceneGazetteer(indexDir);
+        BulkMultipartResolver bulkResolver = new BulkMultipartResolver(new MultipartLocationResolver(gazetteer),
+                cmd.hasOption(FUZZY_OPTION), threads, cacheSize);
+        try (Reader input = new InputStreamReader(inputPath != null ? new FileInputStream(inputPath) : System.in,
+                     StandardCharsets.UTF_8);
+             Writer output = new BufferedWriter(new OutputStreamWriter(outputPath != null ?
+                     new FileOutputStream(outputPath) : System.out, StandardCharsets.UTF_8))) {
+            Statistics stats = bulkResolver.resolve(input, output, delimiter, columns, cmd.hasOption(HEADER_OPTION));
+            LOG.info("[DONE] {}", stats);
+        } finally {
+            ((Closeable) gazetteer).close();
+        }
+    }
+
+    private static Options getOptions() {
+        Options options = new Options();
+
+        options.addOption(Option.builder("?")
+                .longOpt(HELP_OPTION)
+                .desc("Print help")
+                .build());
+
+        options.addOption(Option.builder("i")
+                .longOpt(INPUT_OPTION)
+                .desc("The delimited file of location records to resolve. Default: standard input")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder("o")
+                .longOpt(OUTPUT_OPTION)
+                .desc("The file that resolved records are written to. Default: standard output")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder("x")
+                .longOpt(INDEX_PATH_OPTION)
+                .desc(String.format("The path to the gazetteer index directory. Default: %s", DEFAULT_INDEX_DIRECTORY))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder("d")
+                .longOpt(DELIMITER_OPTION)
+                .desc("The field delimiter: 'tab', 'comma' or any single character. Default: comma for .csv files, "
+                        + "tab otherwise")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder("c")
+                .longOpt(COLUMNS_OPTION)
+                .desc("The comma-separated, 0-based indexes of the columns containing location names, ordered from "
+                        + "most to least specific (e.g. city,state,country). Default: all columns")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(HEADER_OPTION)
+                .desc("The first line of the input is a header.")
+                .build());
+
+        options.addOption(Option.builder("t")
+                .longOpt(THREADS_OPTION)
+                .desc("The number of resolution threads. Default: the number of available processors")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(CACHE_SIZE_OPTION)
+                .desc(String.format("The number of distinct location tuples whose results are cached. Default: %d",
+                        DEFAULT_CACHE_SIZE))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(FUZZY_OPTION)
+                .desc("Use fuzzy matching when an exact match for a location cannot be found.")
+                .build());
+
+        return options;
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("run", options, true);
+    }
+}
@@ -29,8 +29,6 @@
 
 package com.novetta.clavin.resolver.multipart;
 
-import static com.novetta.clavin.util.DamerauLevenshtein.damerauLevenshteinDistanceCaseInsensitive;
-
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.List;
@@ -109,6 +107,11 @@ public class DefaultScorer implements Scorer {
 
     @Override
     public double score(final List<String> terms, final MatchedLocation candidate) {
+        return score(candidate, new ScoringContext(terms));
+    }
+
+    @Override
+    public double score(final MatchedLocation candidate, final ScoringContext context) {
         int matchCount = candidate.getMatchCount();
 
         double totalDL = 0.0d;
@@ -116,7 +119,7 @@ public class DefaultScorer implements Scorer {
         double totalDepth = 0.0d;
         for (Match match : candidate.getMatches()) {
             // calculate inverse DL distance
-            int dl = damerauLevenshteinDistanceCaseInsensitive(match.getLocation().getLocation().getText(),
+            int dl = context.getDistance(match.getLocation().getLocation().getText(),
                     match.getLocation().getMatchedName());
             totalDL += dl > 0 ? 1.0d / dl : 1.0d;
 
@@ -128,7 +131,7 @@ public class DefaultScorer implements Scorer {
             totalDepth += 1.0d / (match.getDepth() + 1);
         }
 
-        double matchRatio = (double) matchCount / terms.size();
+        double matchRatio = (double) matchCount / context.getTerms().size();
         double avgDL = totalDL / matchCount;
         double compScore = (double) compWeight / (matchCount > 1 ? MAX_COMPONENT_WEIGHT : MAX_SINGLE_COMPONENT_WEIGHT);
         double avgDepth = totalDepth / matchCount;
@@ -139,6 +142,14 @@ public class DefaultScorer implements Scorer {
                 (SEARCH_DEPTH_WEIGHT * avgDepth);
     }
 
+    @Override
+    public double getMaximumScore(final List<String> terms, final int maxMatchCount) {
+        // only the match ratio depends on the number of matches; assume
+        // every other component is perfect
+        double matchRatio = terms.isEmpty() ? 0.0d : (double) Math.min(maxMatchCount, terms.size()) / terms.size();
+        return (MATCH_RATIO_WEIGHT * matchRatio) + DL_DISTANCE_WEIGHT + COMPONENT_SCORE_WEIGHT + SEARCH_DEPTH_WEIGHT;
+    }
+
     @Override
     public double getMinimumScore() {
         return 0.0d;
@@ -35,6 +35,8 @@ import com.novetta.clavin.gazetteer.query.AncestryMode;
 import com.novetta.clavin.gazetteer.query.FuzzyMode;
 import com.novetta.clavin.gazetteer.query.Gazetteer;
 import com.novetta.clavin.gazetteer.query.QueryBuilder;
+import com.novetta.clavin.metrics.ClavinMetrics;
+import com.novetta.clavin.metrics.Metric;
 import com.novetta.clavin.resolver.ResolvedLocation;
 
 import java.util.ArrayList;
@@ -42,10 +44,13 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,9 +85,61 @@ public class MultipartLocationResolver {
      */
     private final Scorer scorer;
 
+    /**
+     * Should repeated searches be memoized and unpromising branches
+     * pruned during multi-level resolution?
+     */
+    private final boolean optimizeSearch;
+
+    /**
+     * Receives the recursion depth and search cache counters of multi-level resolution.
+     */
+    private volatile ClavinMetrics metrics = ClavinMetrics.NOOP;
+
     public MultipartLocationResolver(final Gazetteer gaz) {
+        this(gaz, new DefaultScorer());
+    }
+
+    /**
+     * Create a new MultipartLocationResolver that selects the best match
+     * for multi-level searches using the provided scorer.
+     * @param gaz the gazetteer for searches
+     * @param scorer the scorer used to rank candidate matches
+     */
+    public MultipartLocationResolver(final Gazetteer gaz, final Scorer scorer) {
+        this(gaz, scorer, true);
+    }
+
+    /**
+     * Create a new MultipartLocationResolver, optionally disabling search
+     * memoization and pruning.  Unoptimized resolution visits every branch
+     * of the search tree and is only useful for verifying the results of
+     * the optimized search.
+     * @param gaz the gazetteer for searches
+     * @param scorer the scorer used to rank candidate matches
+     * @param optimizeSearch <code>true</code> to memoize searches and prune unpromising branches
+     */
+    MultipartLocationResolver(final Gazetteer gaz, final Scorer scorer, final boolean optimizeSearch) {
         this.gazetteer = gaz;
-        scorer = new DefaultScorer();
+        this.scorer = scorer;
+        this.optimizeSearch = optimizeSearch;
+    }
+
+    /**
+     * Configures where this resolver records the recursion depth of multi-level
+     * resolution and the hits and misses of its search cache.
+     * @param metrics the metrics to record to; <code>null</code> to discard them
+     */
+    public void setMetrics(final ClavinMetrics metrics) {
+        this.metrics = ClavinMetrics.orNoop(metrics);
+    }
+
+    /**
+     * Get the metrics this resolver records to.
+     * @return the configured metrics; never <code>null</code>
+     */
+    public ClavinMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -244,7 +301,6 @@ public class MultipartLocationResolver {
             return null;
         }
 
-        Set<MatchedLocation> candidates = new HashSet<>();
         Deque<SearchResult> matches = new LinkedList<>();
         QueryBuilder query = new QueryBuilder()
                 .maxResults(MAX_RESULTS)
@@ -253,28 +309,29 @@ public class MultipartLocationResolver {
                 .fuzzyMode(fuzzy ? FuzzyMode.NO_EXACT : FuzzyMode.OFF)
                 .ancestryMode(AncestryMode.ON_CREATE)
                 .includeHistorical(true);
-        findCandidates(candidates, terms, SearchLevel.COUNTRY, matches, query);
+        SearchContext context = new SearchContext(terms);
+        findCandidates(context, terms, SearchLevel.COUNTRY, matches, query, 1);
+        metrics.record(Metric.MULTIPART_RECURSION_DEPTH, context.maxDepth);
 
         // Using post-processing sort instead of SortedSet implementation (TreeSet) because
         // TreeSet uses compareTo instead of equals/hashCode to eliminate duplicates and
-        // incorrectly excludes elements that evaluate to the same sort score
-        List<MatchedLocation> candidateList = new ArrayList<>(candidates);
-        Collections.sort(candidateList, new Comparator<>() {
-            @Override
-            public int compare(final MatchedLocation loc1, final MatchedLocation loc2) {
-                double score1 = scorer.score(terms, loc1);
-                double score2 = scorer.score(terms, loc2);
-                // sort candidates in descending order by score
-                return Double.compare(score2, score1);
-            }
-        });
+        // incorrectly excludes elements that evaluate to the same sort score; each candidate
+        // is scored once, up front, rather than on every comparison
+        List<MatchedLocation> candidateList = new ArrayList<>(context.candidates);
+        double[] scores = scorer.score(candidateList, context.scoringContext);
+        List<RankedCandidate> ranked = new ArrayList<>(candidateList.size());
+        for (int i = 0; i < scores.length; i++) {
+            ranked.add(new RankedCandidate(candidateList.get(i), scores[i]));
+        }
+        // sort candidates in descending order by score
+        ranked.sort(RankedCandidate.BY_SCORE_DESCENDING);
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Found {} candidates", candidateList.size());
-            for (MatchedLocation candidate : candidateList) {
-                LOG.debug(String.format("[%.3f] %s", scorer.score(terms, candidate), candidate.toString()));
+            LOG.debug("Found {} candidates", ranked.size());
+            for (RankedCandidate candidate : ranked) {
+                LOG.debug(String.format("[%.3f] %s", candidate.score, candidate.candidate.toString()));
             }
         }
-        MatchedLocation bestMatch = candidateList.isEmpty() ? null : candidateList.get(0);
+        MatchedLocation bestMatch = ranked.isEmpty() ? null : ranked.get(0).candidate;
         ResolvedLocation location = null;
         if (bestMatch != null && (bestMatch.isFullySpecified() || bestMatch.getMatchCount() == terms.size())) {
             location = bestMatch.getMostSpecificMatch().getLocation();
@@ -282,8 +339,9 @@ public class MultipartLocationResolver {
         return location;
     }
 
-    private void findCandidates(final Set<MatchedLocation> candidates, final List<String> terms, final SearchLevel level,
-            final Deque<SearchResult> matches, final QueryBuilder query) throws ClavinException {
+    private void findCandidates(final SearchContext context, final List<String> terms, final SearchLevel level,
+            final Deque<SearchResult> matches, final QueryBuilder query, final int depth) throws ClavinException {
+        context.maxDepth = Math.max(context.maxDepth, depth);
         // if there are no more terms or level is null, add a candidate to the list
         // if there are any prior matches
         if (terms.isEmpty() || level == null) {
@@ -294,24 +352,48 @@ public class MultipartLocationResolver {
                         LOG.debug(res.toString());
                     }
                 }
-                candidates.add(new MatchedLocation(matches));
+                MatchedLocation candidate = new MatchedLocation(matches);
+                if (context.candidates.add(candidate) && optimizeSearch) {
+                    context.bestScore = Math.max(context.bestScore, scorer.score(candidate, context.scoringContext));
+                }
             }
             return;
         }
 
+        // each remaining term can add at most one match at this level or narrower; if
+        // no candidate reachable from this branch can beat the best one found so far,
+        // there is no need to search any further
+        if (optimizeSearch) {
+            int maxMatches = matches.size() + Math.min(terms.size(), SearchLevel.values().length - level.ordinal());
+            if (scorer.getMaximumScore(context.terms, maxMatches) < context.bestScore) {
+                return;
+            }
+        }
+
         String term = terms.get(0);
         List<String> nextTerms = terms.size() > 1 ? terms.subList(1, terms.size()) : Collections.emptyList();
         SearchResult lastMatch = matches.peek();
-        level.apply(query).location(term).clearParentIds();
-        if (lastMatch != null) {
-            query.parentIds(lastMatch.parentIds);
+        Set<Integer> lastParentIds = lastMatch != null ? lastMatch.parentIds : Collections.emptySet();
+        List<ResolvedLocation> results;
+        // the same term is frequently searched at the same level with the same parents
+        // from several branches of the search; only query the gazetteer once for each
+        SearchKey key = optimizeSearch ? new SearchKey(term, level, lastParentIds) : null;
+        if (key != null && context.searchCache.containsKey(key)) {
+            results = context.searchCache.get(key);
+            metrics.increment(Metric.MULTIPART_SEARCH_CACHE_HIT);
+        } else {
+            level.apply(query).location(term).parentIds(lastParentIds);
+            results = gazetteer.getClosestLocations(query.build());
+            if (key != null) {
+                context.searchCache.put(key, results);
+                metrics.increment(Metric.MULTIPART_SEARCH_CACHE_MISS);
+            }
         }
-        List<ResolvedLocation> results = gazetteer.getClosestLocations(query.build());
         // no results for this term at this level; search for this term at the
         // next level, then search for subsequent terms at this level
         if (results.isEmpty()) {
-            findCandidates(candidates, terms, level.narrow(), matches, query);
-            findCandidates(candidates, nextTerms, level, matches, query);
+            findCandidates(context, terms, level.narrow(), matches, query, depth + 1);
+            findCandidates(context, nextTerms, level, matches, query, depth + 1);
         } else {
             // we found results, process them to configure the filters for the next
             // level of the search and add them to the matches stack
@@ -338,10 +420,78 @@ public class MultipartLocationResolver {
             matches.push(new SearchResult(level, results, parentIds, parentCodes));
             // continue search for additional terms after adding these results to the
             // match stack
-            findCandidates(candidates, nextTerms, level.narrow(), matches, query);
+            findCandidates(context, nextTerms, level.narrow(), matches, query, depth + 1);
             // pop this match off the stack, then search for this term at the next level
             matches.pop();
-            findCandidates(candidates, terms, level.narrow(), matches, query);
+            findCandidates(context, terms, level.narrow(), matches, query, depth + 1);
+        }
+    }
+
+    /**
+     * The state of a single multi-level resolution: the candidates found so far,
+     * the score of the best of them, the results of every search performed and
+     * the values cached while scoring candidates.
+     */
+    private static final class SearchContext {
+        private final List<String> terms;
+        private final Set<MatchedLocation> candidates = new HashSet<>();
+        private final Map<SearchKey, List<ResolvedLocation>> searchCache = new HashMap<>();
+        private final ScoringContext scoringContext;
+        private double bestScore = Double.NEGATIVE_INFINITY;
+        private int maxDepth = 0;
+
+        private SearchContext(final List<String> terms) {
+            this.terms = terms;
+            this.scoringContext = new ScoringContext(terms);
+        }
+    }
+
+    /**
+     * A candidate and its precomputed score.
+     */
+    private static final class RankedCandidate {
+        private static final Comparator<RankedCandidate> BY_SCORE_DESCENDING =
+                (c1, c2) -> Double.compare(c2.score, c1.score);
+
+        private final MatchedLocation candidate;
+        private final double score;
+
+        private RankedCandidate(final MatchedLocation candidate, final double score) {
+            this.candidate = candidate;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Identifies a gazetteer search for a term at a particular level, restricted
+     * to descendants of a set of parent locations.
+     */
+    private static final class SearchKey {
+        private final String term;
+        private final SearchLevel level;
+        private final Set<Integer> parentIds;
+
+        private SearchKey(final String term, final SearchLevel level, final Set<Integer> parentIds) {
+            this.term = term;
+            this.level = level;
+            this.parentIds = parentIds;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(term, level, parentIds);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final SearchKey other = (SearchKey) obj;
+            return level == other.level && term.equals(other.term) && parentIds.equals(other.parentIds);
         }
     }
 }
@@ -47,6 +47,36 @@ public interface Scorer {
      */
     double score(final List<String> terms, final MatchedLocation candidate);
 
+    /**
+     * Generate a score for the candidate using a context shared by all
+     * candidates of a single search.  Implementations may use the context
+     * to avoid recomputing values common to several candidates.  The
+     * default implementation ignores the context.
+     * @param candidate the candidate match
+     * @param context the scoring context for the current search
+     * @return a numeric score indicating the quality of this candidate,
+     *         higher scores are better
+     */
+    default double score(final MatchedLocation candidate, final ScoringContext context) {
+        return score(context.getTerms(), candidate);
+    }
+
+    /**
+     * Generate scores for a batch of candidates.  The default implementation
+     * scores each candidate individually with
+     * {@link #score(MatchedLocation, ScoringContext)}.
+     * @param candidates the candidate matches
+     * @param context the scoring context for the current search
+     * @return the score of each candidate, in the order of <code>candidates</code>
+     */
+    default double[] score(final List<MatchedLocation> candidates, final ScoringContext context) {
+        double[] scores = new double[candidates.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = score(candidates.get(i), context);
+        }
+        return scores;
+    }
+
     /**
      * Get the minimum score returned by this scorer.
      * @return the minimum score for a candidate
@@ -58,4 +88,20 @@ public interface Scorer {
      * @return the maximum score for a candidate
      */
     double getMaximumScore();
+
+    /**
+     * Get an upper bound for the score of any candidate matching at
+     * most <code>maxMatchCount</code> of the provided search terms.
+     * The resolver uses this bound to abandon search branches that
+     * cannot produce a better candidate than one it has already found,
+     * so it must never be lower than the score {@link #score(List, MatchedLocation)}
+     * would return for such a candidate.  The default implementation
+     * returns {@link #getMaximumScore()}, which disables pruning.
+     * @param terms the original search terms
+     * @param maxMatchCount the maximum number of terms the candidate could match
+     * @return the highest score a candidate matching at most <code>maxMatchCount</code> terms could receive
+     */
+    default double getMaximumScore(final List<String> terms, final int maxMatchCount) {
+        return getMaximumScore();
+    }
 }
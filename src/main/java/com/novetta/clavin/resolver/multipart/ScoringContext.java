@@ -0,0 +1,100 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ScoringContext.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.resolver.multipart;
+
+import static com.novetta.clavin.util.DamerauLevenshtein.damerauLevenshteinDistance;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches intermediate values computed while scoring the candidates of a
+ * single multi-level search.  The same search terms and matched names
+ * appear in many candidates, so their lower-case forms and the edit
+ * distances between them are only computed once.
+ *
+ * A ScoringContext is not thread-safe and should not be shared between
+ * searches.
+ */
+public class ScoringContext {
+    /**
+     * The original search terms.
+     */
+    private final List<String> terms;
+
+    /**
+     * The lower-case form of each string seen by this context.
+     */
+    private final Map<String, String> lowerCaseForms = new HashMap<>();
+
+    /**
+     * The case-insensitive edit distance between each pair of strings
+     * compared by this context, keyed by their lower-case forms.
+     */
+    private final Map<String, Map<String, Integer>> distances = new HashMap<>();
+
+    /**
+     * Create a new ScoringContext.
+     * @param terms the original search terms
+     */
+    public ScoringContext(final List<String> terms) {
+        this.terms = terms;
+    }
+
+    /**
+     * Get the original search terms.
+     * @return the search terms
+     */
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    /**
+     * Get the lower-case form of a string.
+     * @param str the string
+     * @return the lower-case form of <code>str</code>
+     */
+    public String toLowerCase(final String str) {
+        return lowerCaseForms.computeIfAbsent(str, String::toLowerCase);
+    }
+
+    /**
+     * Get the case-insensitive Damerau-Levenshtein distance between two strings.
+     * @param str1 the first string
+     * @param str2 the second string
+     * @return the edit distance between the strings, ignoring case
+     */
+    public int getDistance(final String str1, final String str2) {
+        final String lower1 = toLowerCase(str1);
+        final String lower2 = toLowerCase(str2);
+        return distances.computeIfAbsent(lower1, key -> new HashMap<>())
+                .computeIfAbsent(lower2, key -> damerauLevenshteinDistance(lower1, lower2));
+    }
+}
@@ -0,0 +1,752 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ClavinServer.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.novetta.clavin.GeoParser;
+import com.novetta.clavin.Warmup;
+import com.novetta.clavin.extractor.ApacheExtractor;
+import com.novetta.clavin.extractor.PooledExtractor;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.gazetteer.query.FuzzyMode;
+import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.gazetteer.query.LuceneGazetteer;
+import com.novetta.clavin.gazetteer.query.QueryBuilder;
+import com.novetta.clavin.gazetteer.query.QueryTimeoutException;
+import com.novetta.clavin.resolver.ClavinLocationResolver;
+import com.novetta.clavin.resolver.ResolutionResult;
+import com.novetta.clavin.resolver.ResolvedLocation;
+import com.novetta.clavin.resolver.multipart.MultipartLocationName;
+import com.novetta.clavin.resolver.multipart.MultipartLocationResolver;
+import com.novetta.clavin.resolver.multipart.ResolvedMultipartLocation;
+import com.novetta.clavin.util.Deadline;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a single shared {@link GeoParser} and {@link Gazetteer} over HTTP
+ * using the JDK's built-in server.  All responses are JSON.
+ *
+ * <ul>
+ * <li><code>POST /parse</code> geoparses the request body.  Optional parameters:
+ * <code>deadline</code>, the time budget in milliseconds, and <code>stream=true</code>,
+ * which resolves the body a block at a time and writes each location as it is
+ * found, for documents too large to hold in memory.  Deadlines do not apply to
+ * streamed documents.</li>
+ * <li><code>GET /query?q=</code> returns the closest gazetteer matches for a name.
+ * Optional parameters: <code>max</code>, <code>fuzzy</code> (a {@link FuzzyMode})
+ * and <code>deadline</code>.</li>
+ * <li><code>GET /multipart?city=&amp;state=&amp;country=</code> resolves a multipart
+ * location name.  Optional parameter: <code>fuzzy=true</code>.</li>
+ * <li><code>GET /health</code> reports whether the server is ready and how long
+ * it took to warm up; it answers 503 until the warmup task, if any, has
+ * completed, so orchestration can hold back traffic until then.</li>
+ * </ul>
+ *
+ * Requests are handled on a virtual thread each when the JDK supports them, and
+ * on a cached thread pool otherwise.  The parser's extractor must be thread-safe;
+ * wrap extractors that are not in a {@link PooledExtractor}.
+ */
+public class ClavinServer implements Closeable {
+    /**
+     * The progress of the warmup task.
+     */
+    public enum WarmupState {
+        /** The server has not been started. */
+        PENDING,
+        /** The warmup task is running. */
+        RUNNING,
+        /** The warmup task finished, or there is none. */
+        COMPLETE,
+        /** The warmup task threw an exception; the server still serves requests. */
+        FAILED
+    }
+
+    /**
+     * Default port.
+     */
+    public static final int DEFAULT_PORT = 8080;
+
+    /**
+     * Default maximum number of results returned by the query endpoint.
+     */
+    public static final int DEFAULT_MAX_RESULTS = 10;
+
+    /**
+     * Largest number of results the query endpoint will return.
+     */
+    public static final int MAX_RESULTS_LIMIT = 1000;
+
+    /**
+     * Default limit on the warmup, in seconds, after which the server reports itself ready.
+     */
+    public static final int DEFAULT_WARMUP_TIMEOUT_SECONDS = 300;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClavinServer.class);
+
+    /**
+     * Leaves a response that failed part way through unterminated, so clients
+     * can't mistake it for a complete one.
+     */
+    private static final JsonFactory JSON = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+
+    private static final String HELP_OPTION = "help";
+    private static final String INDEX_OPTION = "index";
+    private static final String HOST_OPTION = "host";
+    private static final String PORT_OPTION = "port";
+    private static final String EXTRACTORS_OPTION = "extractors";
+    private static final String MAX_HIT_DEPTH_OPTION = "max-hit-depth";
+    private static final String MAX_CONTEXT_WINDOW_OPTION = "max-context-window";
+    private static final String FUZZY_OPTION = "fuzzy";
+    private static final String PRELOAD_OPTION = "preload";
+    private static final String WARMUP_NAMES_OPTION = "warmup-names";
+    private static final String WARMUP_DOCUMENTS_OPTION = "warmup-documents";
+    private static final String WARMUP_ITERATIONS_OPTION = "warmup-iterations";
+    private static final String WARMUP_TIMEOUT_OPTION = "warmup-timeout";
+    private static final String DEFAULT_INDEX_DIRECTORY = "./IndexDirectory";
+
+    /**
+     * A sample document parsed when no warmup documents are configured.
+     */
+    private static final String WARMUP_TEXT = "The meeting in Boston was moved to Reston, Virginia, "
+            + "after flights from London and Paris were cancelled.";
+
+    private final GeoParser parser;
+    private final Gazetteer gazetteer;
+    private final MultipartLocationResolver multipartResolver;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private volatile Callable<?> warmup = null;
+    private volatile WarmupState warmupState = WarmupState.PENDING;
+    private volatile long warmupNanos = -1L;
+
+    /**
+     * Create a new ClavinServer.  The server accepts connections once
+     * {@link #start()} is called.
+     *
+     * @param address       the address to listen on; port 0 picks a free port
+     * @param parser        the parser, with a thread-safe extractor
+     * @param gazetteer     the gazetteer used by the parser
+     * @throws IOException  if the address cannot be bound
+     */
+    public ClavinServer(final InetSocketAddress address, final GeoParser parser, final Gazetteer gazetteer)
+            throws IOException {
+        this.parser = parser;
+        this.gazetteer = gazetteer;
+        this.multipartResolver = new MultipartLocationResolver(gazetteer);
+        this.server = HttpServer.create(address, 0);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/parse", exchange -> handle(exchange, "POST", this::parse));
+        server.createContext("/query", exchange -> handle(exchange, "GET", this::query));
+        server.createContext("/multipart", exchange -> handle(exchange, "GET", this::multipart));
+        server.createContext("/health", exchange -> handle(exchange, "GET", this::health));
+    }
+
+    /**
+     * Sets a task run in the background when the server starts, such as
+     * parsing sample documents to load models and page in the index.  The
+     * health endpoint reports the server as not ready until it completes.
+     * Must be called before {@link #start()}.
+     *
+     * @param warmup the warmup task, or <code>null</code> for none
+     */
+    public void setWarmup(final Callable<?> warmup) {
+        this.warmup = warmup;
+    }
+
+    /**
+     * Get the progress of the warmup task.
+     * @return the warmup state
+     */
+    public WarmupState getWarmupState() {
+        return warmupState;
+    }
+
+    /**
+     * Get how long the warmup task took.
+     * @param unit  the unit of the result
+     * @return      the duration, or -1 if the warmup task has not finished or there is none
+     */
+    public long getWarmupDuration(final TimeUnit unit) {
+        long nanos = warmupNanos;
+        return nanos < 0 ? -1L : unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Whether the server is ready to serve requests at full speed.
+     * @return <code>true</code> once warmup has finished, successfully or not
+     */
+    public boolean isReady() {
+        WarmupState state = warmupState;
+        return state == WarmupState.COMPLETE || state == WarmupState.FAILED;
+    }
+
+    /**
+     * Get the port the server is listening on.
+     * @return the port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Start accepting requests and run the warmup task, if any.
+     */
+    public void start() {
+        Callable<?> task = warmup;
+        warmupState = task == null ? WarmupState.COMPLETE : WarmupState.RUNNING;
+        server.start();
+        LOG.info("Listening on {}", server.getAddress());
+        if (task != null) {
+            Thread thread = new Thread(() -> runWarmup(task), "clavin-warmup");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void runWarmup(final Callable<?> task) {
+        long start = System.nanoTime();
+        try {
+            task.call();
+            warmupNanos = System.nanoTime() - start;
+            warmupState = WarmupState.COMPLETE;
+            LOG.info("Warmup completed in {} ms", TimeUnit.NANOSECONDS.toMillis(warmupNanos));
+        } catch (Exception e) {
+            warmupNanos = System.nanoTime() - start;
+            warmupState = WarmupState.FAILED;
+            LOG.warn("Warmup failed", e);
+        }
+    }
+
+    /**
+     * Stop accepting requests, waiting briefly for those in progress to finish.
+     * The parser and gazetteer are not closed.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Create an executor that runs each request on its own virtual thread
+     * when the JDK supports them, and on a cached thread pool otherwise.
+     * The method is looked up reflectively so the project still builds for
+     * older JDKs.
+     *
+     * @return the request executor
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService virtual = (ExecutorService) factory.invoke(null);
+            LOG.debug("Handling requests on virtual threads");
+            return virtual;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // not available, or a preview feature that has not been enabled
+            LOG.debug("Virtual threads are not available; handling requests on a thread pool");
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "clavin-http");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Handles a request for one endpoint.
+     */
+    @FunctionalInterface
+    private interface Endpoint {
+        void handle(HttpExchange exchange, Map<String, String> params) throws Exception;
+    }
+
+    /**
+     * Thrown for requests with missing or malformed parameters.
+     */
+    private static class BadRequestException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        BadRequestException(final String message) {
+            super(message);
+        }
+    }
+
+    private static void handle(final HttpExchange exchange, final String method, final Endpoint endpoint) {
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", method);
+                sendError(exchange, 405, "Method not allowed: " + exchange.getRequestMethod());
+                return;
+            }
+            endpoint.handle(exchange, queryParameters(exchange));
+        } catch (BadRequestException bre) {
+            sendErrorIfPossible(exchange, 400, bre.getMessage());
+        } catch (QueryTimeoutException qte) {
+            sendErrorIfPossible(exchange, 503, qte.getMessage());
+        } catch (Exception e) {
+            LOG.warn("Failed to handle {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            sendErrorIfPossible(exchange, 500, String.valueOf(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void parse(final HttpExchange exchange, final Map<String, String> params) throws Exception {
+        Reader body = new InputStreamReader(exchange.getRequestBody(), requestCharset(exchange));
+        if (Boolean.parseBoolean(params.get("stream"))) {
+            // the response is committed before the body is read, so failures can only end the document early
+            sendJson(exchange, 200, json -> {
+                json.writeArrayFieldStart("locations");
+                try {
+                    parser.parse(body, location -> {
+                        try {
+                            writeLocation(json, location);
+                        } catch (IOException ioe) {
+                            throw new UncheckedIOException(ioe);
+                        }
+                    });
+                } catch (UncheckedIOException uioe) {
+                    throw uioe.getCause();
+                }
+                json.writeEndArray();
+            });
+            return;
+        }
+        ResolutionResult result = parser.parse(IOUtils.toString(body), deadline(params));
+        sendJson(exchange, 200, json -> {
+            json.writeArrayFieldStart("locations");
+            for (ResolvedLocation location : result.getLocations()) {
+                writeLocation(json, location);
+            }
+            json.writeEndArray();
+            json.writeBooleanField("truncated", result.isTruncated());
+        });
+    }
+
+    private void query(final HttpExchange exchange, final Map<String, String> params) throws Exception {
+        String name = params.get("q");
+        if (name == null || name.trim().isEmpty()) {
+            throw new BadRequestException("Missing parameter: q");
+        }
+        FuzzyMode fuzzyMode;
+        try {
+            fuzzyMode = FuzzyMode.valueOf(params.getOrDefault("fuzzy", FuzzyMode.OFF.name()).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException iae) {
+            throw new BadRequestException("Invalid fuzzy mode: " + params.get("fuzzy"));
+        }
+        int maxResults = intParameter(params, "max", DEFAULT_MAX_RESULTS);
+        if (maxResults < 1 || maxResults > MAX_RESULTS_LIMIT) {
+            throw new BadRequestException(String.format("Invalid value for max: %d (must be between 1 and %d)",
+                    maxResults, MAX_RESULTS_LIMIT));
+        }
+        List<ResolvedLocation> locations = gazetteer.getClosestLocations(new QueryBuilder()
+                .location(name)
+                .maxResults(maxResults)
+                .fuzzyMode(fuzzyMode)
+                .deadline(deadline(params))
+                .build());
+        sendJson(exchange, 200, json -> {
+            json.writeArrayFieldStart("locations");
+            for (ResolvedLocation location : locations) {
+                writeLocation(json, location);
+            }
+            json.writeEndArray();
+        });
+    }
+
+    private void multipart(final HttpExchange exchange, final Map<String, String> params) throws Exception {
+        MultipartLocationName name = new MultipartLocationName(params.get("city"), params.get("state"),
+                params.get("country"));
+        ResolvedMultipartLocation resolved = multipartResolver.resolveMultipartLocation(name,
+                Boolean.parseBoolean(params.get("fuzzy")));
+        sendJson(exchange, 200, json -> {
+            writeLocationField(json, "city", resolved.getCity());
+            writeLocationField(json, "state", resolved.getState());
+            writeLocationField(json, "country", resolved.getCountry());
+        });
+    }
+
+    private void health(final HttpExchange exchange, final Map<String, String> params) throws Exception {
+        boolean ready = isReady();
+        WarmupState state = warmupState;
+        long warmupMillis = getWarmupDuration(TimeUnit.MILLISECONDS);
+        sendJson(exchange, ready ? 200 : 503, json -> {
+            json.writeStringField("status", "UP");
+            json.writeBooleanField("ready", ready);
+            json.writeStringField("warmup", state.name());
+            if (warmupMillis >= 0) {
+                json.writeNumberField("warmupMillis", warmupMillis);
+            }
+        });
+    }
+
+    /**
+     * Writes the fields of a JSON object.
+     */
+    @FunctionalInterface
+    private interface JsonBody {
+        void write(JsonGenerator json) throws Exception;
+    }
+
+    /**
+     * Sends a JSON object, streaming it to the client as it is generated.
+     */
+    private static void sendJson(final HttpExchange exchange, final int status, final JsonBody body)
+            throws Exception {
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        // a length of zero selects chunked encoding
+        exchange.sendResponseHeaders(status, 0);
+        try (JsonGenerator json = JSON.createGenerator(exchange.getResponseBody(), JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            body.write(json);
+            json.writeEndObject();
+        }
+    }
+
+    private static void sendError(final HttpExchange exchange, final int status, final String message)
+            throws Exception {
+        sendJson(exchange, status, json -> json.writeStringField("error", message));
+    }
+
+    private static void sendErrorIfPossible(final HttpExchange exchange, final int status, final String message) {
+        // once the status has been sent all that can be done is to end the response
+        if (exchange.getResponseCode() == -1) {
+            try {
+                sendError(exchange, status, message);
+            } catch (Exception e) {
+                LOG.debug("Unable to send error response", e);
+            }
+        }
+    }
+
+    private static void writeLocationField(final JsonGenerator json, final String field,
+            final ResolvedLocation location) throws IOException {
+        json.writeFieldName(field);
+        if (location == null) {
+            json.writeNull();
+        } else {
+            writeLocation(json, location);
+        }
+    }
+
+    private static void writeLocation(final JsonGenerator json, final ResolvedLocation location) throws IOException {
+        GeoName geoname = location.getGeoname();
+        json.writeStartObject();
+        json.writeStringField("text", location.getLocation().getText());
+        json.writeNumberField("offset", location.getLocation().getPosition());
+        json.writeNumberField("geonameId", geoname.getGeonameID());
+        json.writeStringField("name", geoname.getName());
+        json.writeStringField("countryCode",
+                geoname.getPrimaryCountryCode() != null ? geoname.getPrimaryCountryCode().name() : null);
+        json.writeNumberField("latitude", geoname.getLatitude());
+        json.writeNumberField("longitude", geoname.getLongitude());
+        json.writeNumberField("confidence", location.getConfidence());
+        json.writeBooleanField("fuzzy", location.isFuzzy());
+        json.writeEndObject();
+        // let streamed locations reach the client as soon as they are resolved
+        json.flush();
+    }
+
+    private static Deadline deadline(final Map<String, String> params) {
+        int millis = intParameter(params, "deadline", 0);
+        return millis > 0 ? Deadline.afterMillis(millis) : Deadline.NONE;
+    }
+
+    private static int intParameter(final Map<String, String> params, final String name, final int defaultValue) {
+        String value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException nfe) {
+            // reported below
+        }
+        throw new BadRequestException("Invalid value for " + name + ": " + value);
+    }
+
+    private static Map<String, String> queryParameters(final HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int split = pair.indexOf('=');
+            String name = split < 0 ? pair : pair.substring(0, split);
+            String value = split < 0 ? "" : pair.substring(split + 1);
+            try {
+                params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                throw new BadRequestException("Malformed query string");
+            }
+        }
+        return params;
+    }
+
+    private static Charset requestCharset(final HttpExchange exchange) {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null) {
+            for (String part : contentType.split(";")) {
+                part = part.trim();
+                if (part.regionMatches(true, 0, "charset=", 0, 8)) {
+                    try {
+                        return Charset.forName(part.substring(8).replace("\"", "").trim());
+                    } catch (IllegalArgumentException iae) {
+                        throw new BadRequestException("Unsupported charset: " + part.substring(8));
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Starts a server over a Lucene gazetteer.
+     *
+     * @param args          command line arguments
+     * @throws Exception    if the server cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = getOptions();
+        CommandLine cmd = null;
+        CommandLineParser cliParser = new DefaultParser();
+        try {
+            cmd = cliParser.parse(options, args);
+        } catch (ParseException pe) {
+            LOG.error(pe.getMessage());
+            printHelp(options);
+            System.exit(-1);
+        }
+
+        if (cmd.hasOption(HELP_OPTION)) {
+            printHelp(options);
+            System.exit(0);
+        }
+
+        // port 0 listens on any free port
+        int port = intOption(cmd, PORT_OPTION, DEFAULT_PORT, 0);
+        int extractors = intOption(cmd, EXTRACTORS_OPTION, Runtime.getRuntime().availableProcessors(), 1);
+        int maxHitDepth = intOption(cmd, MAX_HIT_DEPTH_OPTION, ClavinLocationResolver.DEFAULT_MAX_HIT_DEPTH, 1);
+        int maxContextWindow = intOption(cmd, MAX_CONTEXT_WINDOW_OPTION, ClavinLocationResolver.DEFAULT_MAX_CONTEXT_WINDOW, 1);
+        boolean fuzzy = cmd.hasOption(FUZZY_OPTION);
+        String host = cmd.getOptionValue(HOST_OPTION);
+        InetSocketAddress address = host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port);
+
+        int warmupIterations = intOption(cmd, WARMUP_ITERATIONS_OPTION, Warmup.DEFAULT_ITERATIONS, 1);
+        int warmupTimeout = intOption(cmd, WARMUP_TIMEOUT_OPTION, DEFAULT_WARMUP_TIMEOUT_SECONDS, 0);
+
+        LuceneGazetteer gazetteer = new LuceneGazetteer(new File(cmd.getOptionValue(INDEX_OPTION, DEFAULT_INDEX_DIRECTORY)),
+                null, null, cmd.hasOption(PRELOAD_OPTION) ? LuceneGazetteer.DEFAULT_PRELOAD_EXTENSIONS : null);
+        // the pooled extractors share one copy of the models
+        ApacheExtractor.Models models = ApacheExtractor.Models.load();
+        GeoParser parser = new GeoParser(new PooledExtractor(extractors, () -> new ApacheExtractor(models)), gazetteer,
+                maxHitDepth, maxContextWindow, fuzzy);
+        Warmup warmup = new Warmup(gazetteer, parser)
+                .setIterations(warmupIterations)
+                .setMaxDuration(warmupTimeout, TimeUnit.SECONDS)
+                .setDocuments(Collections.singletonList(WARMUP_TEXT));
+        if (cmd.hasOption(WARMUP_NAMES_OPTION)) {
+            warmup.setNames(Warmup.readCorpus(Paths.get(cmd.getOptionValue(WARMUP_NAMES_OPTION))));
+        }
+        if (cmd.hasOption(WARMUP_DOCUMENTS_OPTION)) {
+            warmup.setDocuments(Warmup.readCorpus(Paths.get(cmd.getOptionValue(WARMUP_DOCUMENTS_OPTION))));
+        }
+        ClavinServer server = new ClavinServer(address, parser, gazetteer);
+        server.setWarmup(warmup);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            try {
+                gazetteer.close();
+            } catch (IOException ioe) {
+                LOG.warn("Unable to close gazetteer", ioe);
+            }
+        }, "clavin-shutdown"));
+        server.start();
+    }
+
+    private static int intOption(final CommandLine cmd, final String option, final int defaultValue, final int minimum) {
+        String value = cmd.getOptionValue(option);
+        if (value == null) {
+            return defaultValue;
+        }
+        int parsed = minimum - 1;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+            // reported below
+        }
+        if (parsed < minimum) {
+            LOG.error("Invalid value for {}: {} (must be an integer of at least {})", option, value, minimum);
+            printHelp(getOptions());
+            System.exit(-1);
+        }
+        return parsed;
+    }
+
+    private static Options getOptions() {
+        Options options = new Options();
+
+        options.addOption(Option.builder("?")
+                .longOpt(HELP_OPTION)
+                .desc("Print help")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(INDEX_OPTION)
+                .desc(String.format("The path to the gazetteer index directory. Default: %s", DEFAULT_INDEX_DIRECTORY))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(HOST_OPTION)
+                .desc("The address to listen on. Default: all addresses")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder("p")
+                .longOpt(PORT_OPTION)
+                .desc(String.format("The port to listen on. Default: %d", DEFAULT_PORT))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(EXTRACTORS_OPTION)
+                .desc("The number of extractors shared between requests. Default: the number of processors")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(MAX_HIT_DEPTH_OPTION)
+                .desc(String.format("The number of candidate matches to consider for each location name. Default: %d",
+                        ClavinLocationResolver.DEFAULT_MAX_HIT_DEPTH))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(MAX_CONTEXT_WINDOW_OPTION)
+                .desc(String.format("The number of location names resolved together. Default: %d",
+                        ClavinLocationResolver.DEFAULT_MAX_CONTEXT_WINDOW))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(FUZZY_OPTION)
+                .desc("Use fuzzy matching.")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(PRELOAD_OPTION)
+                .desc(String.format("Load the index files read by every query into memory at startup: %s",
+                        String.join(", ", new TreeSet<>(LuceneGazetteer.DEFAULT_PRELOAD_EXTENSIONS))))
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(WARMUP_NAMES_OPTION)
+                .desc("A file of location names, one per line, looked up before the server reports itself ready. "
+                        + "Default: a list of well-known places")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(WARMUP_DOCUMENTS_OPTION)
+                .desc("A file of documents, one per line, parsed before the server reports itself ready. "
+                        + "Default: a short sample document")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(WARMUP_ITERATIONS_OPTION)
+                .desc(String.format("The number of times the warmup names and documents are replayed. Default: %d",
+                        Warmup.DEFAULT_ITERATIONS))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt(WARMUP_TIMEOUT_OPTION)
+                .desc(String.format("The number of seconds after which the warmup stops and the server reports itself "
+                        + "ready; 0 for no limit. Default: %d", DEFAULT_WARMUP_TIMEOUT_SECONDS))
+                .hasArg()
+                .build());
+
+        return options;
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("run", options, true);
+    }
+}
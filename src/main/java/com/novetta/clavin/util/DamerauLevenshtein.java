@@ -1,8 +1,6 @@
 package com.novetta.clavin.util;
 
 import java.util.Arrays;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 /*#####################################################################
  * 
@@ -45,6 +43,19 @@ public class DamerauLevenshtein {
     // sentinel value for the end of contents in an "infinite" array
     final static Null endMarker = new Null();
 
+    /**
+     * The largest working buffer, in ints, retained between calls on
+     * each thread.  Comparisons of longer strings allocate temporary
+     * buffers instead.
+     */
+    private static final int MAX_RETAINED_BUFFER = 1 << 16;
+
+    /**
+     * Per-thread working storage, reused across calls so comparisons
+     * of typical location names allocate nothing.
+     */
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
     /**
      * Computes the true Damerau–Levenshtein edit distance
      * (with adjacent transpositions) between two given strings.<br><br>
@@ -56,76 +67,169 @@ public class DamerauLevenshtein {
      * @return      Edit distance between strings
      */
     public static int damerauLevenshteinDistance(String str1, String str2) {
-        // return fast if one or both strings is empty or null
-        if ((str1 == null) || str1.isEmpty()) {
-            if ((str2 == null) || str2.isEmpty()) {
-                return 0;
-            } else {
-                return str2.length();
-            }
-        } else if ((str2 == null) || str2.isEmpty()) {
-            return str1.length();
+        return distance(str1, str2, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Computes the true Damerau–Levenshtein edit distance between two
+     * given strings, giving up as soon as it is certain to exceed
+     * <code>maxDistance</code>.
+     * 
+     * @param str1          First string being compared
+     * @param str2          Second string being compared
+     * @param maxDistance   The largest edit distance of interest
+     * @return              Edit distance between strings, or <code>maxDistance + 1</code>
+     *                      if it is greater than <code>maxDistance</code>
+     */
+    public static int damerauLevenshteinDistance(String str1, String str2, int maxDistance) {
+        return distance(str1, str2, maxDistance, false);
+    }
+    
+    /**
+     * Convenience method for calling {@link #damerauLevenshteinDistance(String str1, String str2)}
+     * when you don't care about case sensitivity.
+     * 
+     * @param str1  First string being compared
+     * @param str2  Second string being compared
+     * @return      Case-insensitive edit distance between strings
+     */
+    public static int damerauLevenshteinDistanceCaseInsensitive(String str1, String str2) {
+        return distance(str1, str2, Integer.MAX_VALUE, true);
+    }
+
+    /**
+     * Convenience method for calling {@link #damerauLevenshteinDistance(String str1, String str2, int maxDistance)}
+     * when you don't care about case sensitivity.
+     * 
+     * @param str1          First string being compared
+     * @param str2          Second string being compared
+     * @param maxDistance   The largest edit distance of interest
+     * @return              Case-insensitive edit distance between strings, or
+     *                      <code>maxDistance + 1</code> if it is greater than <code>maxDistance</code>
+     */
+    public static int damerauLevenshteinDistanceCaseInsensitive(String str1, String str2, int maxDistance) {
+        return distance(str1, str2, maxDistance, true);
+    }
+
+    /**
+     * Computes the edit distance over the code points of both strings,
+     * lower-casing each code point when case is ignored.
+     *
+     * The classic algorithm tracks the last row in which each character of
+     * the alphabet was seen.  Rather than a map keyed by character, each
+     * code point is given the index of its first occurrence in the first
+     * string, which is used to index a plain array.  Code points of the
+     * second string that never occur in the first string have no entry and
+     * always refer to row 0, just as the unseen characters of a map-based
+     * alphabet do.
+     */
+    private static int distance(String str1, String str2, int maxDistance, boolean ignoreCase) {
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("maxDistance must not be negative: " + maxDistance);
         }
-        
-        // split strings into string arrays
-        String[] stringArray1 = str1.split("");
-        String[] stringArray2 = str2.split("");
-        
-        // initialize matrix values
-        int[][] matrix = new int[stringArray1.length + 2][stringArray2.length + 2];
-        int bound = stringArray1.length + stringArray2.length;
-        matrix[0][0] = bound;
-        for (int i = 0; i <= stringArray1.length; i++) {
-            matrix[i + 1][1] = i;
-            matrix[i + 1][0] = bound;
+        int exceeded = maxDistance == Integer.MAX_VALUE ? maxDistance : maxDistance + 1;
+        Buffers buffers = BUFFERS.get();
+        int[] chars1 = buffers.get(Buffers.CHARS1, str1 != null ? str1.length() : 0);
+        int[] chars2 = buffers.get(Buffers.CHARS2, str2 != null ? str2.length() : 0);
+        int len1 = toCodePoints(str1, chars1, ignoreCase);
+        int len2 = toCodePoints(str2, chars2, ignoreCase);
+
+        // return fast if one or both strings is empty or the lengths are too different
+        if (len1 == 0 || len2 == 0 || Math.abs(len1 - len2) > maxDistance) {
+            int dist = Math.max(len1, len2);
+            return len1 == 0 || len2 == 0 ? (dist <= maxDistance ? dist : exceeded) : exceeded;
         }
-        for (int j = 0; j <= stringArray2.length; j++) {
-            matrix[1][j + 1] = j;
-            matrix[0][j + 1] = bound;
+
+        // assign each code point the index of its first occurrence in the first string
+        int[] ids1 = buffers.get(Buffers.IDS1, len1);
+        int[] ids2 = buffers.get(Buffers.IDS2, len2);
+        int[] lastRow = buffers.get(Buffers.LAST_ROW, len1);
+        for (int i = 0; i < len1; i++) {
+            int id = i;
+            for (int k = 0; k < i; k++) {
+                if (chars1[k] == chars1[i]) {
+                    id = ids1[k];
+                    break;
+                }
+            }
+            ids1[i] = id;
+            lastRow[i] = 0;
         }
-        
-        // initialize dictionary
-        SortedMap<String, Integer> dictionary = new TreeMap<String, Integer>();
-        for (String letter : (str1 + str2).split("")) {
-            if (!dictionary.containsKey(letter)) {
-                dictionary.put(letter, 0);
+        for (int j = 0; j < len2; j++) {
+            int id = -1;
+            for (int k = 0; k < len1; k++) {
+                if (chars1[k] == chars2[j]) {
+                    id = ids1[k];
+                    break;
+                }
             }
+            ids2[j] = id;
         }
-        
+
+        // initialize matrix values; the matrix is stored in a single array, row by row
+        int width = len2 + 2;
+        int[] matrix = buffers.get(Buffers.MATRIX, (len1 + 2) * width);
+        int bound = len1 + len2;
+        matrix[0] = bound;
+        for (int i = 0; i <= len1; i++) {
+            matrix[(i + 1) * width + 1] = i;
+            matrix[(i + 1) * width] = bound;
+        }
+        for (int j = 0; j <= len2; j++) {
+            matrix[width + j + 1] = j;
+            matrix[j + 1] = bound;
+        }
+
         // compute edit distance between strings
-        for (int i = 1; i <= stringArray1.length; i++) {
+        for (int i = 1; i <= len1; i++) {
             int index = 0;
-            for (int j = 1; j <= stringArray2.length; j++) {
-                int i1 = dictionary.get(stringArray2[j - 1]);
+            int row = i * width;
+            int nextRow = row + width;
+            int rowMin = matrix[nextRow + 1];
+            for (int j = 1; j <= len2; j++) {
+                int i1 = ids2[j - 1] >= 0 ? lastRow[ids2[j - 1]] : 0;
                 int j1 = index;
-                if (stringArray1[i - 1].equals(stringArray2[j - 1])) {
-                    matrix[i + 1][j + 1] = matrix[i][j];
+                int cell;
+                if (chars1[i - 1] == chars2[j - 1]) {
+                    cell = matrix[row + j];
                     index = j;
                 } else {
-                    matrix[i + 1][j + 1] = Math.min(matrix[i][j], Math.min(matrix[i + 1][j], matrix[i][j + 1])) + 1;
+                    cell = Math.min(matrix[row + j], Math.min(matrix[nextRow + j], matrix[row + j + 1])) + 1;
                 }
-                
-                matrix[i + 1][j + 1] = Math.min(matrix[i + 1][j + 1], matrix[i1][j1] + (i - i1 - 1) + 1 + (j - j1 - 1));
+                cell = Math.min(cell, matrix[i1 * width + j1] + (i - i1 - 1) + 1 + (j - j1 - 1));
+                matrix[nextRow + j + 1] = cell;
+                rowMin = Math.min(rowMin, cell);
+            }
+            lastRow[ids1[i - 1]] = i;
+            // every path to the final cell crosses each row, so once an entire
+            // row exceeds the limit the distance must too
+            if (rowMin > maxDistance) {
+                return exceeded;
             }
-            
-            dictionary.put(stringArray1[i - 1], i);
         }
-        
-        return matrix[stringArray1.length + 1][stringArray2.length + 1];
+
+        int dist = matrix[(len1 + 1) * width + len2 + 1];
+        return dist <= maxDistance ? dist : exceeded;
     }
-    
+
     /**
-     * Convenience method for calling {@link #damerauLevenshteinDistance(String str1, String str2)}
-     * when you don't care about case sensitivity.
-     * 
-     * @param str1  First string being compared
-     * @param str2  Second string being compared
-     * @return      Case-insensitive edit distance between strings
+     * Copies the code points of a string into the provided buffer, which
+     * must be at least as long as the string.
+     * @return the number of code points copied
      */
-    public static int damerauLevenshteinDistanceCaseInsensitive(String str1, String str2) {
-        return damerauLevenshteinDistance(str1.toLowerCase(), str2.toLowerCase());
+    private static int toCodePoints(String str, int[] buffer, boolean ignoreCase) {
+        if (str == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = 0; i < str.length(); ) {
+            int codePoint = str.codePointAt(i);
+            i += Character.charCount(codePoint);
+            buffer[count++] = ignoreCase ? Character.toLowerCase(codePoint) : codePoint;
+        }
+        return count;
     }
-    
+
     /**
      * Fast method for determining whether the Damerau-Levenshtein edit
      * distance between two strings is less than 2.
@@ -183,6 +287,40 @@ public class DamerauLevenshtein {
         
         return true;
     }
+
+    /**
+     * The working storage used to compute edit distances on a single thread.
+     */
+    private static final class Buffers {
+        private static final int CHARS1 = 0;
+        private static final int CHARS2 = 1;
+        private static final int IDS1 = 2;
+        private static final int IDS2 = 3;
+        private static final int LAST_ROW = 4;
+        private static final int MATRIX = 5;
+
+        private final int[][] buffers = {
+            new int[32], new int[32], new int[32], new int[32], new int[32], new int[34 * 34]
+        };
+
+        /**
+         * Get a buffer of at least the requested size, reusing the retained
+         * buffer if it is large enough.  A larger buffer is retained in its
+         * place only if it does not exceed {@link #MAX_RETAINED_BUFFER}.
+         */
+        private int[] get(int buffer, int size) {
+            int[] current = buffers[buffer];
+            if (current.length >= size) {
+                return current;
+            }
+            int[] grown = new int[Math.max(size, Math.min(current.length * 2, MAX_RETAINED_BUFFER))];
+            if (grown.length <= MAX_RETAINED_BUFFER) {
+                buffers[buffer] = grown;
+            }
+            return grown;
+        }
+    }
+
 }
 
 /**
@@ -0,0 +1,122 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * Deadline.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which a call should return.  Long-running operations
+ * check their deadline as they work and, once it has passed, stop early
+ * with the best answer they have found so far.
+ *
+ * Deadlines are measured against {@link System#nanoTime()}, so they are
+ * unaffected by changes to the wall clock.
+ */
+public final class Deadline {
+    /**
+     * A deadline that never expires.
+     */
+    public static final Deadline NONE = new Deadline(0L, false);
+
+    /**
+     * The value of {@link System#nanoTime()} at which this deadline expires.
+     */
+    private final long expiresAtNanos;
+
+    /**
+     * <code>false</code> for {@link #NONE}.
+     */
+    private final boolean bounded;
+
+    private Deadline(final long expiresAtNanos, final boolean bounded) {
+        this.expiresAtNanos = expiresAtNanos;
+        this.bounded = bounded;
+    }
+
+    /**
+     * Create a deadline that expires once the provided time budget has been spent.
+     * @param budget the time budget; zero or negative budgets have already expired
+     * @param unit the unit of the budget
+     * @return the deadline
+     */
+    public static Deadline after(final long budget, final TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(budget), true);
+    }
+
+    /**
+     * Create a deadline that expires after the provided number of milliseconds.
+     * @param budgetMillis the time budget, in milliseconds
+     * @return the deadline
+     */
+    public static Deadline afterMillis(final long budgetMillis) {
+        return after(budgetMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the deadline to use in place of a possibly <code>null</code> one.
+     * @param deadline the deadline, or <code>null</code>
+     * @return the provided deadline, or {@link #NONE} if it was <code>null</code>
+     */
+    public static Deadline orNone(final Deadline deadline) {
+        return deadline != null ? deadline : NONE;
+    }
+
+    /**
+     * Does this deadline ever expire?
+     * @return <code>false</code> if this is {@link #NONE}
+     */
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    /**
+     * Has this deadline passed?
+     * @return <code>true</code> if the time budget has been spent
+     */
+    public boolean isExpired() {
+        return bounded && System.nanoTime() - expiresAtNanos >= 0L;
+    }
+
+    /**
+     * Get the time left before this deadline expires.
+     * @param unit the unit of the result
+     * @return the time remaining, zero if it has expired, or {@link Long#MAX_VALUE} if it is unbounded
+     */
+    public long remaining(final TimeUnit unit) {
+        if (!bounded) {
+            return Long.MAX_VALUE;
+        }
+        return unit.convert(Math.max(0L, expiresAtNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return bounded ? String.format("%d ms remaining", remaining(TimeUnit.MILLISECONDS)) : "no deadline";
+    }
+}
@@ -0,0 +1,261 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * SentenceBlockReader.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.BreakIterator;
+import java.text.CharacterIterator;
+import java.util.Locale;
+
+/**
+ * Reads a character stream as a series of blocks of whole sentences,
+ * each no larger than a fixed size, so that very large documents can
+ * be processed without holding them in memory.
+ *
+ * Sentence boundaries are found with a {@link BreakIterator} over the
+ * characters buffered so far; the trailing, possibly incomplete,
+ * sentence is carried over into the next block.  A single sentence
+ * longer than the maximum block size is split at its last whitespace
+ * (or, failing that, at the end of the buffer).
+ *
+ * Usage:
+ * <pre>
+ * SentenceBlockReader blocks = new SentenceBlockReader(reader, 65536);
+ * while (blocks.next()) {
+ *     process(blocks.getText(), blocks.getOffset());
+ * }
+ * </pre>
+ */
+public class SentenceBlockReader {
+    /**
+     * The default maximum block size, in characters.
+     */
+    public static final int DEFAULT_MAX_BLOCK_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final char[] buffer;
+    private final BreakIterator sentences;
+
+    /**
+     * The number of characters currently held in the buffer.
+     */
+    private int length;
+
+    /**
+     * The position in the document of the first character in the buffer.
+     */
+    private long bufferOffset;
+
+    /**
+     * Has the end of the stream been reached?
+     */
+    private boolean eof;
+
+    private String text;
+    private int offset;
+
+    /**
+     * Creates a new SentenceBlockReader using {@link #DEFAULT_MAX_BLOCK_SIZE}.
+     * @param reader the document to read; it is not closed by this class
+     */
+    public SentenceBlockReader(final Reader reader) {
+        this(reader, DEFAULT_MAX_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a new SentenceBlockReader.
+     * @param reader the document to read; it is not closed by this class
+     * @param maxBlockSize the maximum number of characters in a block
+     */
+    public SentenceBlockReader(final Reader reader, final int maxBlockSize) {
+        if (maxBlockSize < 2) {
+            throw new IllegalArgumentException("maxBlockSize must be at least 2: " + maxBlockSize);
+        }
+        this.reader = reader;
+        this.buffer = new char[maxBlockSize];
+        this.sentences = BreakIterator.getSentenceInstance(Locale.US);
+    }
+
+    /**
+     * Advances to the next block of the document.
+     * @return <code>true</code> if a block was read, <code>false</code> at the end of the document
+     * @throws IOException if an error occurs reading the document, or it is longer than
+     *                     {@link Integer#MAX_VALUE} characters
+     */
+    public boolean next() throws IOException {
+        fill();
+        if (length == 0) {
+            text = null;
+            return false;
+        }
+        int end = eof ? length : findBreak();
+        if (bufferOffset + end > Integer.MAX_VALUE) {
+            throw new IOException("Document offsets exceed " + Integer.MAX_VALUE + " characters");
+        }
+        text = new String(buffer, 0, end);
+        offset = (int) bufferOffset;
+
+        // carry the remainder over to the start of the buffer
+        System.arraycopy(buffer, end, buffer, 0, length - end);
+        length -= end;
+        bufferOffset += end;
+        return true;
+    }
+
+    /**
+     * Gets the text of the current block.
+     * @return the current block, or <code>null</code> if there is none
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Gets the position of the current block within the document.
+     * @return the offset, in characters, of the first character of the current block
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Reads from the stream until the buffer is full or the stream is exhausted.
+     */
+    private void fill() throws IOException {
+        while (!eof && length < buffer.length) {
+            int read = reader.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                eof = true;
+            } else {
+                length += read;
+            }
+        }
+    }
+
+    /**
+     * Finds the end of the last complete sentence in a full buffer.
+     */
+    private int findBreak() {
+        sentences.setText(new CharArrayIterator(buffer, length));
+        int end = sentences.preceding(length);
+        if (end > 0) {
+            return end;
+        }
+        // no sentence boundary; split the sentence at its last whitespace
+        for (int i = length - 1; i > 0; i--) {
+            if (Character.isWhitespace(buffer[i])) {
+                return i + 1;
+            }
+        }
+        // never split a surrogate pair
+        return Character.isHighSurrogate(buffer[length - 1]) ? length - 1 : length;
+    }
+
+    /**
+     * A {@link CharacterIterator} over the filled part of the buffer,
+     * avoiding a copy of the buffer for each block.
+     */
+    private static final class CharArrayIterator implements CharacterIterator {
+        private final char[] chars;
+        private final int end;
+        private int index;
+
+        CharArrayIterator(final char[] chars, final int end) {
+            this.chars = chars;
+            this.end = end;
+        }
+
+        @Override
+        public char first() {
+            index = 0;
+            return current();
+        }
+
+        @Override
+        public char last() {
+            index = end > 0 ? end - 1 : 0;
+            return current();
+        }
+
+        @Override
+        public char current() {
+            return index < end ? chars[index] : DONE;
+        }
+
+        @Override
+        public char next() {
+            if (index < end) {
+                index++;
+            }
+            return current();
+        }
+
+        @Override
+        public char previous() {
+            if (index == 0) {
+                return DONE;
+            }
+            index--;
+            return current();
+        }
+
+        @Override
+        public char setIndex(final int position) {
+            if (position < 0 || position > end) {
+                throw new IllegalArgumentException("Invalid index: " + position);
+            }
+            index = position;
+            return current();
+        }
+
+        @Override
+        public int getBeginIndex() {
+            return 0;
+        }
+
+        @Override
+        public int getEndIndex() {
+            return end;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public Object clone() {
+            CharArrayIterator copy = new CharArrayIterator(chars, end);
+            copy.index = index;
+            return copy;
+        }
+    }
+}
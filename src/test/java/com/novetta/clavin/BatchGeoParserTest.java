@@ -0,0 +1,168 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * BatchGeoParserTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.novetta.clavin.BatchGeoParser.Document;
+import com.novetta.clavin.BatchGeoParser.Summary;
+import com.novetta.clavin.extractor.DictionaryExtractor;
+import com.novetta.clavin.gazetteer.CountryCode;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.gazetteer.query.GazetteerQuery;
+import com.novetta.clavin.metrics.Metric;
+import com.novetta.clavin.resolver.ResolvedLocation;
+
+/**
+ * Runs small batches through {@link BatchGeoParser} with a dictionary extractor
+ * and a gazetteer that resolves every name to the same record.
+ */
+public class BatchGeoParserTest {
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testNdjson() throws Exception {
+        String input = "{\"id\":\"a\",\"text\":\"He was born in Vermont and died in Massachusetts.\"}\n"
+                + "\n"
+                + "{\"body\":\"Vermont\"}\n"
+                + "not json\n"
+                + "{\"text\":\"Nowhere in particular.\"}\n";
+        StringWriter output = new StringWriter();
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+        BatchGeoParser batch = new BatchGeoParser(BatchGeoParserTest::newParser, 3);
+        batch.setProgress(new PrintStream(progress, true, "UTF-8"), 60);
+
+        Summary summary = batch.run(BatchGeoParser.fromNdjson(new StringReader(input), "id", "text"), output);
+
+        assertEquals(4, summary.getDocuments());
+        assertEquals(2, summary.getMentions());
+        assertEquals(2, summary.getFailures());
+        Map<String, JsonNode> records = readRecords(output.toString());
+        assertEquals(4, records.size());
+        JsonNode a = records.get("a");
+        assertEquals(2, a.get("locations").size());
+        assertEquals("Vermont", a.get("locations").get(0).get("text").asText());
+        assertEquals(15, a.get("locations").get(0).get("offset").asInt());
+        assertEquals(42, a.get("locations").get(0).get("geonameId").asInt());
+        assertEquals("US", a.get("locations").get(0).get("countryCode").asText());
+        assertTrue(records.get("line 3").get("error").asText().contains("text"));
+        assertTrue(records.get("line 4").get("error").asText().startsWith("Malformed JSON"));
+        assertEquals(0, records.get("line 5").get("locations").size());
+        assertFalse(records.get("line 5").has("error"));
+        assertEquals(2, batch.getMetrics().getHistogram(Metric.PARSE).getCount());
+        assertTrue(new String(progress.toByteArray(), StandardCharsets.UTF_8).contains("4 documents, 2 mentions"));
+    }
+
+    @Test
+    public void testDirectory() throws Exception {
+        File dir = folder.newFolder("docs");
+        Files.write(new File(dir, "small.txt").toPath(),
+                "Vermont is small.".getBytes(StandardCharsets.UTF_8));
+        File nested = new File(dir, "nested");
+        nested.mkdir();
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            large.append("Massachusetts is a state. ");
+        }
+        Files.write(new File(nested, "large.txt").toPath(), large.toString().getBytes(StandardCharsets.UTF_8));
+        StringWriter output = new StringWriter();
+        BatchGeoParser batch = new BatchGeoParser(BatchGeoParserTest::newParser, 2);
+        // stream the large file
+        batch.setStreamingThreshold(1024);
+
+        Iterator<Document> documents = BatchGeoParser.fromDirectory(dir.toPath());
+        Summary summary = batch.run(documents, output);
+
+        assertEquals(2, summary.getDocuments());
+        assertEquals(0, summary.getFailures());
+        assertEquals(201, summary.getMentions());
+        Map<String, JsonNode> records = readRecords(output.toString());
+        assertEquals(1, records.get(new File(dir, "small.txt").getPath()).get("locations").size());
+        JsonNode streamed = records.get(new File(nested, "large.txt").getPath()).get("locations");
+        assertEquals(200, streamed.size());
+        assertEquals(26 * 199, streamed.get(199).get("offset").asInt());
+        // only the small file was parsed whole
+        assertEquals(1, batch.getMetrics().getHistogram(Metric.PARSE).getCount());
+    }
+
+    private static Map<String, JsonNode> readRecords(final String output) throws Exception {
+        Map<String, JsonNode> records = new HashMap<>();
+        for (String line : output.split("\n")) {
+            JsonNode record = JSON.readTree(line);
+            records.put(record.get("id").asText(), record);
+        }
+        return records;
+    }
+
+    private static GeoParser newParser() {
+        try {
+            Gazetteer gazetteer = mock(Gazetteer.class);
+            GeoName geoname = mock(GeoName.class);
+            when(geoname.getGeonameID()).thenReturn(42);
+            when(geoname.getPrimaryCountryCode()).thenReturn(CountryCode.US);
+            when(gazetteer.getClosestLocations(any(GazetteerQuery.class))).thenAnswer(invocation -> {
+                GazetteerQuery query = invocation.getArgument(0);
+                return Collections.singletonList(new ResolvedLocation(query.getOccurrence(), geoname,
+                        query.getOccurrence().getText(), false));
+            });
+            return new GeoParser(new DictionaryExtractor(Arrays.asList("Vermont", "Massachusetts"), null),
+                    gazetteer, 5, 5, false);
+        } catch (ClavinException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
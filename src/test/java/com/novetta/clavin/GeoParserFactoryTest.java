@@ -1,9 +1,15 @@
 package com.novetta.clavin;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
 
 import org.junit.Test;
 
+import com.novetta.clavin.extractor.DictionaryExtractor;
+import com.novetta.clavin.extractor.LocationExtractor;
+
 /*#####################################################################
  *
  * CLAVIN (Cartographic Location And Vicinity INdexer)
@@ -48,4 +54,46 @@ public class GeoParserFactoryTest {
         assertEquals("factory fuzzy", GeoParser.class, GeoParserFactory.getDefault("./IndexDirectory", true).getClass());
         assertEquals("factory parameters", GeoParser.class, GeoParserFactory.getDefault("./IndexDirectory", 1, 1).getClass());
     }
+
+    /**
+     * Ensures parsers share the gazetteer and extraction models, which are
+     * released once the last parser using them is closed.
+     */
+    @Test
+    public void testSharedResources() throws Exception {
+        GeoParserFactory.closeShared();
+        GeoParser first = GeoParserFactory.getDefault("./IndexDirectory", 1, 1, false);
+        GeoParser second = GeoParserFactory.getDefault("./IndexDirectory/../IndexDirectory", 5, 5, true);
+        GeoParser custom = GeoParserFactory.getDefault("./IndexDirectory",
+                new DictionaryExtractor(Collections.singletonList("Reston"), null), 3, 3, false);
+        assertEquals("gazetteer references", 3, GeoParserFactory.getReferenceCount("./IndexDirectory"));
+        assertEquals("model references", 2, GeoParserFactory.getModelReferenceCount());
+
+        first.close();
+        first.close();
+        assertEquals("gazetteer references", 2, GeoParserFactory.getReferenceCount("./IndexDirectory"));
+        assertEquals("model references", 1, GeoParserFactory.getModelReferenceCount());
+        assertEquals("shared gazetteer still open", 1, custom.parse("Reston").size());
+
+        second.close();
+        custom.close();
+        assertEquals("gazetteer released", 0, GeoParserFactory.getReferenceCount("./IndexDirectory"));
+        assertEquals("models released", 0, GeoParserFactory.getModelReferenceCount());
+    }
+
+    /**
+     * Ensures a gazetteer that fails to open is not kept for later parsers.
+     */
+    @Test
+    public void testFailedOpen() throws Exception {
+        LocationExtractor extractor = new DictionaryExtractor(Collections.singletonList("Reston"), null);
+        for (int i = 0; i < 2; i++) {
+            try {
+                GeoParserFactory.getDefault("./NoSuchIndexDirectory", extractor, 1, 1, false);
+                fail("Expected ClavinException");
+            } catch (ClavinException expected) {
+                assertEquals("failed gazetteer dropped", 0, GeoParserFactory.getReferenceCount("./NoSuchIndexDirectory"));
+            }
+        }
+    }
 }
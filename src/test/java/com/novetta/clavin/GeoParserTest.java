@@ -1,12 +1,48 @@
 package com.novetta.clavin;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import com.novetta.clavin.cache.DocumentCache;
+import com.novetta.clavin.extractor.DictionaryExtractor;
+import com.novetta.clavin.gazetteer.CountryCode;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.gazetteer.query.AncestryMode;
+import com.novetta.clavin.gazetteer.query.FuzzyMode;
+import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.gazetteer.query.GazetteerQuery;
+import com.novetta.clavin.gazetteer.query.QueryTimeoutException;
+import com.novetta.clavin.metrics.ClavinMetrics;
+import com.novetta.clavin.metrics.InMemoryMetrics;
+import com.novetta.clavin.metrics.Metric;
+import com.novetta.clavin.metrics.RequestTrace;
+import com.novetta.clavin.metrics.RequestTracer;
+import com.novetta.clavin.resolver.ResolutionResult;
 import com.novetta.clavin.resolver.ResolvedLocation;
+import com.novetta.clavin.util.Deadline;
 
 /*#####################################################################
  *
@@ -76,4 +112,251 @@ public class GeoParserTest {
         assertEquals("Incorrect position of LocationOccurance", inputText.indexOf("Massachusetts"), resolvedLocations.get(2).getLocation().getPosition());
     }
 
+    /**
+     * Ensures streamed parsing delivers every location, with document
+     * positions, while the document is still being read.
+     * @throws Exception
+     */
+    @Test
+    public void testStreamingParse() throws Exception {
+        Gazetteer gazetteer = mockGazetteer();
+        GeoParser parser = new GeoParser(new DictionaryExtractor(Arrays.asList("Vermont", "Massachusetts"), null),
+                gazetteer, 1, 5, false);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append("He was born in Vermont and died in Massachusetts. ");
+        }
+        final String inputText = text.toString();
+        final int[] charsRead = new int[1];
+        Reader reader = new StringReader(inputText) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                int read = super.read(cbuf, off, len);
+                charsRead[0] += Math.max(read, 0);
+                return read;
+            }
+        };
+        final List<ResolvedLocation> resolved = new ArrayList<>();
+        final int[] charsReadAtFirstResult = {-1};
+        parser.parse(reader, location -> {
+            if (resolved.isEmpty()) {
+                charsReadAtFirstResult[0] = charsRead[0];
+            }
+            resolved.add(location);
+        });
+
+        assertEquals("Wrong number of ResolvedLocations", 10000, resolved.size());
+        assertTrue("Results should arrive before the whole document is read",
+                charsReadAtFirstResult[0] < inputText.length());
+        for (int i = 0; i < resolved.size(); i++) {
+            ResolvedLocation location = resolved.get(i);
+            assertEquals("Incorrect position of LocationOccurance", location.getMatchedName(),
+                    inputText.substring(location.getLocation().getPosition(),
+                            location.getLocation().getPosition() + location.getMatchedName().length()));
+            if (i > 0) {
+                assertTrue("Locations out of order",
+                        location.getLocation().getPosition() > resolved.get(i - 1).getLocation().getPosition());
+            }
+        }
+    }
+
+    /**
+     * Ensures repeated copies of a document are served from the document
+     * cache, and that differently-parsed documents are not.
+     * @throws Exception
+     */
+    @Test
+    public void testDocumentCache() throws Exception {
+        Gazetteer gazetteer = mockGazetteer();
+        DocumentCache cache = DocumentCache.inMemory(10, DocumentCache.DEFAULT_TTL_MILLIS);
+        GeoParser parser = new GeoParser(new DictionaryExtractor(Arrays.asList("Vermont", "Massachusetts"), null),
+                gazetteer, 1, 5, false, cache);
+        String inputText = "He was born in Vermont and died in Massachusetts.";
+
+        List<ResolvedLocation> first = parser.parse(inputText);
+        assertEquals(2, first.size());
+        verify(gazetteer, times(2)).getClosestLocations(any(GazetteerQuery.class));
+
+        // identical text is a cache hit
+        assertEquals(first, parser.parse(inputText));
+        verify(gazetteer, times(2)).getClosestLocations(any(GazetteerQuery.class));
+        assertEquals(1, cache.getHitCount());
+
+        // text differing only in whitespace is resolved again, against its own text
+        parser.parse(inputText.replace(' ', '\t'));
+        verify(gazetteer, times(4)).getClosestLocations(any(GazetteerQuery.class));
+        assertEquals(2, cache.getMissCount());
+
+        // a different ancestry mode must be resolved again
+        parser.parse(inputText, AncestryMode.ON_CREATE);
+        verify(gazetteer, times(6)).getClosestLocations(any(GazetteerQuery.class));
+        assertEquals(3, cache.getMissCount());
+    }
+
+    /**
+     * Ensures stage timings, combination counts and cache counters are recorded
+     * once metrics are configured.
+     * @throws Exception
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        GeoParser parser = new GeoParser(new DictionaryExtractor(Arrays.asList("Vermont", "Massachusetts"), null),
+                mockGazetteer(), 5, 5, false, DocumentCache.inMemory(10, DocumentCache.DEFAULT_TTL_MILLIS));
+        assertSame(ClavinMetrics.NOOP, parser.getMetrics());
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        parser.setMetrics(metrics);
+        String inputText = "He was born in Vermont and died in Massachusetts.";
+
+        parser.parse(inputText);
+        parser.parse(inputText);
+
+        assertEquals(2, metrics.getHistogram(Metric.PARSE).getCount());
+        assertEquals(1, metrics.getHistogram(Metric.EXTRACTION).getCount());
+        assertEquals(1, metrics.getHistogram(Metric.RESOLUTION).getCount());
+        assertTrue(metrics.getHistogram(Metric.RESOLUTION).getSum() > 0);
+        // one candidate for each of two names, at each of the two depths searched
+        assertEquals(2, metrics.getHistogram(Metric.COMBINATIONS_EVALUATED).getSum());
+        assertEquals(1, metrics.getHistogram(Metric.DOCUMENT_CACHE_HIT).getCount());
+        assertEquals(1, metrics.getHistogram(Metric.DOCUMENT_CACHE_MISS).getCount());
+        assertEquals(0.5, metrics.getHitRate(Metric.DOCUMENT_CACHE_HIT, Metric.DOCUMENT_CACHE_MISS), 0.0);
+    }
+
+    /**
+     * Ensures slow documents are reported with the details of their combination
+     * searches, and fast documents are not reported.
+     * @throws Exception
+     */
+    @Test
+    public void testTracing() throws Exception {
+        GeoParser parser = new GeoParser(new DictionaryExtractor(Arrays.asList("Vermont", "Massachusetts"), null),
+                mockGazetteer(), 5, 5, false);
+        String inputText = "He was born in Vermont and died in Massachusetts.";
+        List<RequestTrace> reported = new ArrayList<>();
+
+        parser.setTracer(new RequestTracer(1, TimeUnit.HOURS, reported::add));
+        parser.parse(inputText);
+        assertTrue(reported.isEmpty());
+
+        parser.setTracer(new RequestTracer(0, TimeUnit.NANOSECONDS, reported::add));
+        parser.parse(inputText);
+        assertEquals(1, reported.size());
+        RequestTrace trace = reported.get(0);
+        assertEquals("parse", trace.getOperation());
+        assertEquals(1, trace.getCombinationSearches().size());
+        assertEquals(2, trace.getCombinationSearches().get(0).getLocations());
+        assertEquals(2, trace.getCombinationSearches().get(0).getCombinations());
+        assertEquals(4, trace.getCombinationSearches().get(0).getDepthReached());
+
+        // null input is rejected by the extractor, as it is without a tracer
+        try {
+            parser.parse((String) null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("0 characters", reported.get(reported.size() - 1).getDetail());
+        }
+    }
+
+    /**
+     * Ensures a parse returns what it has resolved when its deadline passes, says
+     * that it was cut short, and keeps truncated results out of the document cache.
+     * @throws Exception
+     */
+    @Test
+    public void testDeadline() throws Exception {
+        Gazetteer gazetteer = mockGazetteer();
+        DocumentCache cache = DocumentCache.inMemory(10, DocumentCache.DEFAULT_TTL_MILLIS);
+        GeoParser parser = new GeoParser(new DictionaryExtractor(Arrays.asList("Vermont", "Massachusetts"), null),
+                gazetteer, 5, 5, false, cache);
+        String inputText = "He was born in Vermont and died in Massachusetts.";
+
+        ResolutionResult expired = parser.parse(inputText, Deadline.afterMillis(0L));
+        assertTrue(expired.isTruncated());
+        assertTrue(expired.getLocations().isEmpty());
+        verify(gazetteer, never()).getClosestLocations(any(GazetteerQuery.class));
+
+        ResolutionResult complete = parser.parse(inputText, Deadline.after(1L, TimeUnit.MINUTES));
+        assertFalse(complete.isTruncated());
+        assertEquals(2, complete.getLocations().size());
+        // only the complete result was cached
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        // the second query times out, leaving the first location resolved to its top candidate
+        Gazetteer slowGazetteer = mockGazetteer();
+        when(slowGazetteer.getClosestLocations(argThat(query -> "Massachusetts".equals(query.getOccurrence().getText()))))
+                .thenThrow(new QueryTimeoutException("timed out"));
+        GeoParser slowParser = new GeoParser(new DictionaryExtractor(Arrays.asList("Vermont", "Massachusetts"), null),
+                slowGazetteer, 5, 5, false);
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        slowParser.setMetrics(metrics);
+        ResolutionResult partial = slowParser.parse(inputText, Deadline.after(1L, TimeUnit.MINUTES));
+        assertTrue(partial.isTruncated());
+        assertEquals(1, partial.getLocations().size());
+        assertEquals("Vermont", partial.getLocations().get(0).getLocation().getText());
+        assertEquals(1, metrics.getHistogram(Metric.RESOLUTION_TRUNCATED).getCount());
+        // the unbounded API is unchanged
+        assertEquals(1, slowParser.parse(inputText).size());
+    }
+
+    /**
+     * Ensures documents are resolved with degraded settings while the load shedder
+     * reports pressure, and with the configured settings once it has passed.
+     * @throws Exception
+     */
+    @Test
+    public void testLoadShedding() throws Exception {
+        Gazetteer gazetteer = mockGazetteer();
+        GeoParser parser = new GeoParser(new DictionaryExtractor(Arrays.asList("Vermont", "Massachusetts"), null),
+                gazetteer, 5, 5, true);
+        AtomicLong backlog = new AtomicLong();
+        parser.setLoadShedder(LoadShedder.forQueueDepth(backlog::get, 10, 100));
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        parser.setMetrics(metrics);
+        String inputText = "He was born in Vermont and died in Massachusetts.";
+        ArgumentCaptor<GazetteerQuery> queries = ArgumentCaptor.forClass(GazetteerQuery.class);
+
+        backlog.set(500);
+        assertEquals(2, parser.parse(inputText).size());
+        verify(gazetteer, times(2)).getClosestLocations(queries.capture());
+        assertEquals(1, queries.getValue().getMaxResults());
+        assertEquals(FuzzyMode.OFF, queries.getValue().getFuzzyMode());
+
+        // still above 3/4 of the threshold that raised the level
+        backlog.set(80);
+        parser.parse(inputText);
+        verify(gazetteer, times(4)).getClosestLocations(queries.capture());
+        assertEquals(1, queries.getValue().getMaxResults());
+
+        backlog.set(0);
+        parser.parse(inputText);
+        verify(gazetteer, times(6)).getClosestLocations(queries.capture());
+        assertEquals(3, queries.getValue().getMaxResults());
+        assertEquals(FuzzyMode.OFF, queries.getValue().getFuzzyMode());
+
+        parser.parse(inputText);
+        verify(gazetteer, times(8)).getClosestLocations(queries.capture());
+        assertEquals(5, queries.getValue().getMaxResults());
+        assertEquals(FuzzyMode.NO_EXACT, queries.getValue().getFuzzyMode());
+
+        // levels 2, 2, 1 and 0
+        assertEquals(4, metrics.getHistogram(Metric.RESOLUTION_LEVEL).getCount());
+        assertEquals(5, metrics.getHistogram(Metric.RESOLUTION_LEVEL).getSum());
+    }
+
+    /**
+     * Creates a gazetteer that resolves every location name to a single record.
+     */
+    private static Gazetteer mockGazetteer() throws ClavinException {
+        Gazetteer gazetteer = mock(Gazetteer.class);
+        GeoName geoname = mock(GeoName.class);
+        when(geoname.getPrimaryCountryCode()).thenReturn(CountryCode.US);
+        when(gazetteer.getClosestLocations(any(GazetteerQuery.class))).thenAnswer(invocation -> {
+            GazetteerQuery query = invocation.getArgument(0);
+            return Collections.singletonList(new ResolvedLocation(query.getOccurrence(), geoname,
+                    query.getOccurrence().getText(), false));
+        });
+        return gazetteer;
+    }
+
 }
@@ -0,0 +1,110 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * LoadShedderTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.novetta.clavin.LoadShedder.Level;
+
+/**
+ * Checks how {@link LoadShedder} moves between levels as pressure changes.
+ */
+public class LoadShedderTest {
+    @Test
+    public void testQueueDepth() {
+        AtomicLong depth = new AtomicLong();
+        LoadShedder shedder = LoadShedder.forQueueDepth(depth::get, 100, 1000);
+        assertEquals(Level.FULL, shedder.currentLevel());
+
+        // rising pressure can skip levels
+        depth.set(5000);
+        assertEquals(Level.POPULATION_ONLY, shedder.currentLevel());
+
+        // still above 3/4 of the threshold that raised the level
+        depth.set(800);
+        assertEquals(Level.POPULATION_ONLY, shedder.currentLevel());
+
+        depth.set(700);
+        assertEquals(Level.REDUCED, shedder.currentLevel());
+        depth.set(90);
+        assertEquals(Level.REDUCED, shedder.currentLevel());
+
+        // falling pressure restores one level at a time
+        shedder = LoadShedder.forQueueDepth(depth::get, 100, 1000);
+        depth.set(2000);
+        shedder.currentLevel();
+        depth.set(0);
+        assertEquals(Level.REDUCED, shedder.currentLevel());
+        assertEquals(Level.FULL, shedder.currentLevel());
+        assertEquals(Level.FULL, shedder.getLevel());
+    }
+
+    @Test
+    public void testLatency() {
+        LoadShedder shedder = LoadShedder.forLatency(10, 100, TimeUnit.MILLISECONDS);
+        // ignored by queue-driven shedders, averaged by latency-driven ones
+        for (int i = 0; i < 50; i++) {
+            shedder.recordLatency(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        assertEquals(Level.REDUCED, shedder.currentLevel());
+        for (int i = 0; i < 50; i++) {
+            shedder.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertEquals(Level.FULL, shedder.currentLevel());
+
+        LoadShedder queueShedder = LoadShedder.forQueueDepth(() -> 0L, 1, 2);
+        queueShedder.recordLatency(TimeUnit.HOURS.toNanos(1));
+        assertEquals(0L, queueShedder.getPressure());
+    }
+
+    @Test
+    public void testSettings() {
+        assertEquals(5, Level.FULL.maxHitDepth(5));
+        assertEquals(3, Level.REDUCED.maxHitDepth(5));
+        assertEquals(1, Level.REDUCED.maxHitDepth(1));
+        assertEquals(1, Level.POPULATION_ONLY.maxHitDepth(5));
+        assertEquals(3, Level.REDUCED.maxContextWindow(5));
+        assertTrue(Level.FULL.fuzzy(true));
+        assertFalse(Level.FULL.fuzzy(false));
+        assertFalse(Level.REDUCED.fuzzy(true));
+        assertFalse(Level.POPULATION_ONLY.fuzzy(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThresholds() {
+        LoadShedder.forQueueDepth(() -> 0L, 10, 5);
+    }
+}
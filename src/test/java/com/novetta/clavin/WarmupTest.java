@@ -0,0 +1,121 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * WarmupTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.novetta.clavin.extractor.DictionaryExtractor;
+import com.novetta.clavin.gazetteer.CountryCode;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.gazetteer.query.GazetteerQuery;
+import com.novetta.clavin.gazetteer.query.QueryTimeoutException;
+import com.novetta.clavin.resolver.ResolvedLocation;
+
+/**
+ * Replays small corpora through {@link Warmup} with a gazetteer that resolves
+ * every name to the same record, except "Nowhere", which fails.
+ */
+public class WarmupTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWarmup() throws Exception {
+        Gazetteer gazetteer = newGazetteer();
+        GeoParser parser = new GeoParser(new DictionaryExtractor(Arrays.asList("Vermont"), null), gazetteer,
+                5, 5, false);
+        File names = folder.newFile("names.txt");
+        Files.write(names.toPath(), "# places\nVermont\n\nNowhere\n".getBytes(StandardCharsets.UTF_8));
+        Warmup warmup = new Warmup(gazetteer, parser)
+                .setNames(Warmup.readCorpus(names.toPath()))
+                .setDocuments(Collections.singletonList("Vermont is cold."))
+                .setIterations(3);
+        assertFalse(warmup.isReady());
+        assertEquals(-1L, warmup.getDuration(TimeUnit.NANOSECONDS));
+
+        assertTrue(warmup.call().isReady());
+        // exact and fuzzy queries for each name
+        assertEquals(6, warmup.getQueries());
+        assertEquals(3, warmup.getDocuments());
+        // the queries for Nowhere; the resolver treats a timeout as the end of its time budget
+        assertEquals(6, warmup.getFailures());
+        assertTrue(warmup.getDuration(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    @Test
+    public void testMaxDuration() throws Exception {
+        Warmup warmup = new Warmup(newGazetteer())
+                .setIterations(1000000)
+                .setMaxDuration(100, TimeUnit.MILLISECONDS);
+        warmup.call();
+        assertTrue(warmup.isReady());
+        assertTrue(warmup.getDuration(TimeUnit.MILLISECONDS) < 10000);
+        assertTrue(warmup.getQueries() > 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRunOnce() throws Exception {
+        Warmup warmup = new Warmup(newGazetteer()).setNames(null);
+        warmup.call();
+        warmup.call();
+    }
+
+    private static Gazetteer newGazetteer() throws ClavinException {
+        Gazetteer gazetteer = mock(Gazetteer.class);
+        GeoName geoname = mock(GeoName.class);
+        when(geoname.getGeonameID()).thenReturn(42);
+        when(geoname.getPrimaryCountryCode()).thenReturn(CountryCode.US);
+        when(gazetteer.getClosestLocations(any(GazetteerQuery.class))).thenAnswer(invocation -> {
+            GazetteerQuery query = invocation.getArgument(0);
+            if ("Nowhere".equals(query.getOccurrence().getText())) {
+                throw new QueryTimeoutException("too slow");
+            }
+            return Collections.singletonList(new ResolvedLocation(query.getOccurrence(), geoname,
+                    query.getOccurrence().getText(), false));
+        });
+        return gazetteer;
+    }
+}
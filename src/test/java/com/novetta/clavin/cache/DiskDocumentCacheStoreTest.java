@@ -0,0 +1,127 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DiskDocumentCacheStoreTest.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.novetta.clavin.extractor.LocationOccurrence;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.gazetteer.query.AncestryMode;
+import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.resolver.ResolvedLocation;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiskDocumentCacheStoreTest {
+    private static final int VERMONT = 5242283;
+    private static final int MASSACHUSETTS = 6254926;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Gazetteer gazetteer;
+    private GeoName vermont;
+    private GeoName massachusetts;
+
+    @Before
+    public void setUp() throws Exception {
+        gazetteer = mock(Gazetteer.class);
+        vermont = mock(GeoName.class);
+        massachusetts = mock(GeoName.class);
+        when(vermont.getGeonameID()).thenReturn(VERMONT);
+        when(massachusetts.getGeonameID()).thenReturn(MASSACHUSETTS);
+        when(gazetteer.getGeoName(eq(VERMONT), eq(AncestryMode.ON_CREATE))).thenReturn(vermont);
+        when(gazetteer.getGeoName(eq(MASSACHUSETTS), eq(AncestryMode.ON_CREATE))).thenReturn(massachusetts);
+    }
+
+    private List<ResolvedLocation> locations() {
+        return Arrays.asList(
+                new ResolvedLocation(new LocationOccurrence("Vermont", 15), vermont, "Vermont", false),
+                new ResolvedLocation(new LocationOccurrence("Masachusetts", 35), massachusetts, "Massachusetts", true));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File dir = folder.newFolder("cache");
+        DiskDocumentCacheStore store = new DiskDocumentCacheStore(dir, 10, gazetteer);
+        store.put("doc1", new CachedDocument(1234L, AncestryMode.ON_CREATE, locations()));
+        assertEquals(1, store.size());
+
+        // a new store over the same directory sees the cached document
+        DiskDocumentCacheStore reopened = new DiskDocumentCacheStore(dir, 10, gazetteer);
+        assertEquals(1, reopened.size());
+        CachedDocument document = reopened.get("doc1");
+        assertEquals(1234L, document.getCreatedMillis());
+        assertEquals(AncestryMode.ON_CREATE, document.getAncestryMode());
+        assertEquals(locations(), document.getLocations());
+        assertSame(massachusetts, document.getLocations().get(1).getGeoname());
+        assertEquals(locations().get(1).getConfidence(), document.getLocations().get(1).getConfidence(), 0.0001f);
+
+        reopened.remove("doc1");
+        assertNull(reopened.get("doc1"));
+        assertEquals(0, reopened.size());
+    }
+
+    @Test
+    public void testMissingGeoName() throws Exception {
+        DiskDocumentCacheStore store = new DiskDocumentCacheStore(folder.newFolder("cache"), 10, gazetteer);
+        store.put("doc1", new CachedDocument(1234L, AncestryMode.ON_CREATE, locations()));
+        when(gazetteer.getGeoName(anyInt(), eq(AncestryMode.ON_CREATE))).thenReturn(null);
+        assertNull("Stale documents should be discarded", store.get("doc1"));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        DiskDocumentCacheStore store = new DiskDocumentCacheStore(folder.newFolder("cache"), 10, gazetteer);
+        for (int i = 0; i < 25; i++) {
+            store.put("doc" + i, new CachedDocument(i, AncestryMode.ON_CREATE, locations()));
+        }
+        assertEquals(true, store.size() <= 10);
+        store.clear();
+        assertEquals(0, store.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidKey() throws Exception {
+        new DiskDocumentCacheStore(folder.newFolder("cache"), 10, gazetteer).get("../escape");
+    }
+}
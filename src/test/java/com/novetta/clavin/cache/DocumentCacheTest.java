@@ -0,0 +1,107 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DocumentCacheTest.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+import com.novetta.clavin.extractor.LocationOccurrence;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.gazetteer.query.AncestryMode;
+import com.novetta.clavin.resolver.ResolvedLocation;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class DocumentCacheTest {
+    private static final String TEXT = "He was born in Vermont\nand died in Massachusetts.";
+
+    private static String key(String text) {
+        return DocumentCache.key(text, 5, 5, false, AncestryMode.LAZY, "extractor");
+    }
+
+    private static final GeoName GEONAME = mock(GeoName.class);
+
+    private static List<ResolvedLocation> locations() {
+        return Collections.singletonList(new ResolvedLocation(new LocationOccurrence("Vermont", 15), GEONAME,
+                "Vermont", false));
+    }
+
+    @Test
+    public void testKey() {
+        assertEquals(32, key(TEXT).length());
+        assertNotEquals("Matched text would change", key(TEXT), key(TEXT.replace('\n', ' ')));
+        assertNotEquals(key(TEXT), key(TEXT.replace('\n', '\u00a0')));
+        assertNotEquals("Offsets would change", key(TEXT), key(TEXT.replace("\n", "\r\n")));
+        assertNotEquals(key(TEXT), key(TEXT.replace("Vermont", "Vermonu")));
+        assertNotEquals(key(TEXT), DocumentCache.key(TEXT, 5, 5, true, AncestryMode.LAZY, "extractor"));
+        assertNotEquals(key(TEXT), DocumentCache.key(TEXT, 5, 4, false, AncestryMode.LAZY, "extractor"));
+        assertNotEquals(key(TEXT), DocumentCache.key(TEXT, 1, 5, false, AncestryMode.LAZY, "extractor"));
+        assertNotEquals(key(TEXT), DocumentCache.key(TEXT, 5, 5, false, AncestryMode.ON_CREATE, "extractor"));
+        assertNotEquals(key(TEXT), DocumentCache.key(TEXT, 5, 5, false, AncestryMode.LAZY, "other"));
+    }
+
+    @Test
+    public void testHitsMissesAndExpiry() {
+        AtomicLong now = new AtomicLong(1000L);
+        DocumentCache cache = new DocumentCache(new InMemoryDocumentCacheStore(10), 500L, now::get);
+        String key = key(TEXT);
+
+        assertNull(cache.get(key));
+        cache.put(key, AncestryMode.LAZY, locations());
+        now.addAndGet(499L);
+        assertEquals(locations(), cache.get(key));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5d, cache.getHitRate(), 0.0001d);
+
+        now.addAndGet(1L);
+        assertNull("Document should have expired", cache.get(key));
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBoundedSize() {
+        DocumentCache cache = DocumentCache.inMemory(2, DocumentCache.DEFAULT_TTL_MILLIS);
+        cache.put("a", AncestryMode.LAZY, locations());
+        cache.put("b", AncestryMode.LAZY, locations());
+        // reading "a" makes "b" the least recently used
+        cache.get("a");
+        cache.put("c", AncestryMode.LAZY, locations());
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(locations(), cache.get("a"));
+        assertEquals(locations(), cache.get("c"));
+    }
+}
@@ -3,18 +3,144 @@ package com.novetta.clavin.extractor;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.novetta.clavin.util.TextUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 
 public class AdaptNlpExtractorTest {
+	private static final Pattern PLACE = Pattern.compile("Paris|Berlin|Tokyo|Lima");
+
+	private static final String TEXT = "I flew to Paris. Then Berlin was next. The weather was fine. "
+			+ "Tokyo was crowded. We ate well. Lima came last.";
+
+	private HttpServer server;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+	private final AtomicInteger failuresToInject = new AtomicInteger();
+	private volatile long responseDelayMillis;
+
+	/**
+	 * Starts a stub token tagger that reports every place name from PLACE as a GPE,
+	 * positioned relative to the text it was sent.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/api/token_tagger", this::tag);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	private void tag(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+		try {
+			String text = new ObjectMapper().readTree(exchange.getRequestBody()).get("text").asText();
+			if (failuresToInject.getAndDecrement() > 0) {
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+			Thread.sleep(responseDelayMillis);
+			StringBuilder json = new StringBuilder("[{\"tokens\":[{\"text\":\"ignored\"}],\"entities\":[");
+			Matcher matcher = PLACE.matcher(text);
+			String separator = "";
+			while (matcher.find()) {
+				json.append(separator).append(String.format(
+						"{\"text\":\"%s\",\"start_pos\":%d,\"end_pos\":%d,\"type\":\"GPE\",\"confidence\":0.9}",
+						matcher.group(), matcher.start(), matcher.end()));
+				separator = ",";
+			}
+			json.append("]}]");
+			byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			inFlight.decrementAndGet();
+			exchange.close();
+		}
+	}
+
+	private AdaptNlpExtractor newExtractor(int chunkSize, int maxConcurrentRequests, int maxRetries) {
+		return new AdaptNlpExtractor("http://localhost", server.getAddress().getPort(), chunkSize,
+				maxConcurrentRequests, 5000, maxRetries);
+	}
+
+	private static List<LocationOccurrence> expectedLocations() {
+		List<LocationOccurrence> expected = new ArrayList<>();
+		for (String place : Arrays.asList("Paris", "Berlin", "Tokyo", "Lima")) {
+			expected.add(new LocationOccurrence(place, TEXT.indexOf(place)));
+		}
+		return expected;
+	}
+
+	/**
+	 * Entity offsets must be translated to document positions, and the sentences left over
+	 * after the last full chunk must still be tagged.
+	 */
+	@Test
+	public void testChunkedOffsetsAndFinalPartialChunk() throws IOException {
+		try (AdaptNlpExtractor extractor = newExtractor(4, 1, 0)) {
+			assertEquals(expectedLocations(), extractor.extractLocationNames(TEXT));
+			assertEquals("six sentences in chunks of four should take two requests", 2, requests.get());
+		}
+	}
+
+	@Test
+	public void testConcurrentRequestsPreserveDocumentOrder() throws IOException {
+		responseDelayMillis = 100;
+		try (AdaptNlpExtractor extractor = newExtractor(1, 3, 0)) {
+			assertEquals(expectedLocations(), extractor.extractLocationNames(TEXT));
+			assertEquals(6, requests.get());
+			assertTrue("chunks should be tagged concurrently", maxInFlight.get() > 1);
+			assertTrue("in-flight requests should be limited", maxInFlight.get() <= 3);
+		}
+	}
+
+	@Test
+	public void testRetryOnServerError() throws IOException {
+		failuresToInject.set(2);
+		try (AdaptNlpExtractor extractor = newExtractor(10, 1, 2)) {
+			assertEquals(expectedLocations(), extractor.extractLocationNames(TEXT));
+			assertEquals(3, requests.get());
+		}
+		failuresToInject.set(1);
+		try (AdaptNlpExtractor extractor = newExtractor(10, 1, 0)) {
+			assertNull("exhausted retries should fail the document", extractor.extractLocationNames(TEXT));
+		}
+	}
+
 	/**
 	 * Exact same unit test as the one in ApacheExtractorTest but using AdaptNlpExtractor instead.
 	 * At the level this kind of unit test is concerned about, behavior should be the same.
@@ -0,0 +1,103 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ApacheExtractorBenchmark.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.novetta.clavin.util.TextUtils;
+
+/**
+ * Compares the original sentence-by-sentence extraction, which copied
+ * each sentence and tokenized it twice, with {@link ApacheExtractor} on
+ * the sample documents.  This is not run as part of the unit tests; run
+ * it directly:
+ *
+ * <pre>
+ * java -cp ... com.novetta.clavin.extractor.ApacheExtractorBenchmark [sampleDocDir] [iterations]
+ * </pre>
+ */
+public class ApacheExtractorBenchmark {
+    public static void main(String[] args) throws Exception {
+        File docDir = new File(args.length > 0 ? args[0] : "src/test/resources/sample-docs");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        List<String> docs = new ArrayList<>();
+        long chars = 0L;
+        File[] files = docDir.listFiles();
+        if (files == null) {
+            throw new IOException("Not a directory: " + docDir);
+        }
+        for (File file : files) {
+            String doc = TextUtils.fileToString(file);
+            docs.add(doc);
+            chars += doc.length();
+        }
+        System.out.printf("%d documents, %d characters, %d iterations%n", docs.size(), chars, iterations);
+
+        ApacheExtractorTest.LegacyExtractor legacy = new ApacheExtractorTest.LegacyExtractor();
+        ApacheExtractor extractor = new ApacheExtractor();
+        for (String doc : docs) {
+            if (!legacy.extractLocationNames(doc).equals(extractor.extractLocationNames(doc))) {
+                System.out.println("WARNING: results differ from the legacy extractor");
+            }
+        }
+
+        Object[][] variants = {
+            { "legacy", legacy },
+            { "single-pass", extractor }
+        };
+        for (Object[] variant : variants) {
+            LocationExtractor current = (LocationExtractor) variant[1];
+            // warm up
+            run(current, docs, Math.max(1, iterations / 4));
+            long start = System.nanoTime();
+            long checksum = run(current, docs, iterations);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-12s %8.1f us/doc %8.2f MB/s (checksum %d)%n", variant[0],
+                    elapsed / 1000.0 / ((long) docs.size() * iterations),
+                    (double) chars * iterations * 1000.0 / elapsed, checksum);
+        }
+    }
+
+    private static long run(final LocationExtractor extractor, final List<String> docs, final int iterations) {
+        long checksum = 0L;
+        for (int i = 0; i < iterations; i++) {
+            for (String doc : docs) {
+                for (LocationOccurrence occurrence : extractor.extractLocationNames(doc)) {
+                    checksum += occurrence.getPosition();
+                }
+            }
+        }
+        return checksum;
+    }
+}
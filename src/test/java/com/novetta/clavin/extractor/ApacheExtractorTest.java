@@ -7,12 +7,22 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
 import com.novetta.clavin.util.TextUtils;
 
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.sentdetect.SentenceDetectorME;
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.tokenize.TokenizerME;
+import opennlp.tools.tokenize.TokenizerModel;
+import opennlp.tools.util.Span;
+
 /*#####################################################################
  * 
  * CLAVIN (Cartographic Location And Vicinity INdexer)
@@ -90,5 +100,95 @@ public class ApacheExtractorTest {
         ApacheExtractor extractor = new ApacheExtractor();
         extractor.extractLocationNames(null);
     }
-    
-}
\ No newline at end of file
+
+    /**
+     * Ensures batched, concurrent extraction finds names at valid
+     * document positions, in document order, and that its results do
+     * not depend on thread scheduling.
+     * @throws IOException
+     */
+    @Test
+    public void testParallelExtraction() throws IOException {
+        String inputString = TextUtils.fileToString(new File("src/test/resources/sample-docs/Somalia-doc.txt"));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // a single batch covering the document behaves like sequential extraction
+            ApacheExtractor singleBatch = new ApacheExtractor(pool, Integer.MAX_VALUE);
+            assertEquals("Single batch should match sequential extraction.",
+                    new ApacheExtractor().extractLocationNames(inputString), singleBatch.extractLocationNames(inputString));
+
+            ApacheExtractor extractor = new ApacheExtractor(pool, 3);
+            List<LocationOccurrence> locationNames1 = extractor.extractLocationNames(inputString);
+            assertFalse("Empty location name list received from extractor.", locationNames1.isEmpty());
+            int lastPosition = -1;
+            for (LocationOccurrence location : locationNames1) {
+                assertTrue("Locations out of document order.", location.getPosition() > lastPosition);
+                assertEquals("Incorrect position of LocationOccurrence.", location.getText(), inputString.substring(
+                        location.getPosition(), location.getPosition() + location.getText().length()));
+                lastPosition = location.getPosition();
+            }
+            for (int i = 0; i < 5; i++) {
+                assertEquals("Different extractor results for subsequent identical document.", locationNames1,
+                        extractor.extractLocationNames(inputString));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Ensures single-pass tokenization finds the same names at the same
+     * positions as tokenizing each sentence on its own, including when
+     * sentences are not separated by whitespace.
+     * @throws IOException
+     */
+    @Test
+    public void testMatchesPerSentenceTokenization() throws IOException {
+        ApacheExtractor extractor = new ApacheExtractor();
+        LegacyExtractor legacy = new LegacyExtractor();
+        for (File inputFile : new File("src/test/resources/sample-docs").listFiles()) {
+            String inputString = TextUtils.fileToString(inputFile);
+            assertEquals("Different results for " + inputFile, legacy.extractLocationNames(inputString),
+                    extractor.extractLocationNames(inputString));
+        }
+        String crowded = "  Troops entered Mogadishu.Refugees fled to Kenya and Ethiopia!\"Officials in Nairobi denied it.\"  ";
+        assertEquals(legacy.extractLocationNames(crowded), extractor.extractLocationNames(crowded));
+    }
+
+    /**
+     * The original implementation of {@link ApacheExtractor#extractLocationNames(String)},
+     * retained as a reference for these tests and as a baseline for {@link ApacheExtractorBenchmark}.
+     */
+    static class LegacyExtractor implements LocationExtractor {
+        private final NameFinderME nameFinder;
+        private final TokenizerME tokenizer;
+        private final SentenceDetectorME sentenceDetector;
+
+        LegacyExtractor() throws IOException {
+            nameFinder = new NameFinderME(new TokenNameFinderModel(ApacheExtractor.class.getResourceAsStream("/en-ner-location.bin")));
+            tokenizer = new TokenizerME(new TokenizerModel(ApacheExtractor.class.getResourceAsStream("/en-token.bin")));
+            sentenceDetector = new SentenceDetectorME(new SentenceModel(ApacheExtractor.class.getResourceAsStream("/en-sent.bin")));
+        }
+
+        @Override
+        public List<LocationOccurrence> extractLocationNames(String plainText) {
+            List<LocationOccurrence> nerResults = new ArrayList<>();
+            Span[] sentenceSpans = sentenceDetector.sentPosDetect(plainText);
+            for (Span sentenceSpan : sentenceSpans) {
+                String sentence = plainText.substring(sentenceSpan.getStart(), sentenceSpan.getEnd());
+                String[] tokens = tokenizer.tokenize(sentence);
+                Span[] tokenPositionsWithinSentence = tokenizer.tokenizePos(sentence);
+                Span[] names = nameFinder.find(tokens);
+                for (Span name : names) {
+                    int beginningOfFirstWord = tokenPositionsWithinSentence[name.getStart()].getStart();
+                    int endOfLastWord = tokenPositionsWithinSentence[name.getEnd() - 1].getEnd();
+                    int startOffsetInDoc = sentenceSpan.getStart() + beginningOfFirstWord;
+                    int endOffsetInDoc = sentenceSpan.getStart() + endOfLastWord;
+                    nerResults.add(new LocationOccurrence(plainText.substring(startOffsetInDoc, endOffsetInDoc), startOffsetInDoc));
+                }
+            }
+            nameFinder.clearAdaptiveData();
+            return nerResults;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DictionaryExtractorTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.novetta.clavin.gazetteer.FeatureCode;
+import com.novetta.clavin.index.NameSuggester;
+
+/**
+ * Checks the matching rules of the {@link DictionaryExtractor} and its use
+ * of a fallback extractor for ambiguous sentences.
+ */
+public class DictionaryExtractorTest {
+    private static final List<String> NAMES = Arrays.asList("New York", "New York City", "York", "Boston",
+            "Isle of Man", "Zürich", "US", "Reading", "Washington");
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testExtractLocationNames() {
+        DictionaryExtractor extractor = new DictionaryExtractor(NAMES, null);
+        assertEquals(9, extractor.getNameCount());
+
+        String text = "I flew from New  York City to Boston, then to Zürich and the Isle of Man.";
+        assertEquals(Arrays.asList(
+                new LocationOccurrence("New  York City", 12),
+                new LocationOccurrence("Boston", 30),
+                new LocationOccurrence("Zürich", 46),
+                new LocationOccurrence("Isle of Man", 61)),
+                extractor.extractLocationNames(text));
+    }
+
+    @Test
+    public void testMatchingRules() {
+        DictionaryExtractor extractor = new DictionaryExtractor(NAMES, null);
+        // names must start and end on word boundaries
+        assertEquals(Collections.emptyList(), extractor.extractLocationNames("Bostonian Yorkshire NewYork"));
+        // names must be capitalized; short names must be upper case
+        assertEquals(Collections.singletonList(new LocationOccurrence("US", 23)),
+                extractor.extractLocationNames("I was reading about us US boston."));
+        // the longest name wins, and hyphenated names are split
+        assertEquals(Arrays.asList(new LocationOccurrence("New York", 0), new LocationOccurrence("York", 13),
+                new LocationOccurrence("Washington", 18)), extractor.extractLocationNames("New York and York-Washington"));
+    }
+
+    @Test
+    public void testFallback() {
+        LocationExtractor fallback = mock(LocationExtractor.class);
+        when(fallback.extractLocationNames(anyString())).thenReturn(Arrays.asList(
+                new LocationOccurrence("Springfield", 10), new LocationOccurrence("Boston", 26)));
+        DictionaryExtractor extractor = new DictionaryExtractor(NAMES, fallback);
+
+        // no unexplained capitalized words: the fallback is not used
+        String text = "Boston is near New York.";
+        assertEquals(Arrays.asList(new LocationOccurrence("Boston", 0), new LocationOccurrence("New York", 15)),
+                extractor.extractLocationNames(text));
+        verify(fallback, never()).extractLocationNames(anyString());
+
+        // only the ambiguous sentence is sent to the fallback; its offsets are translated
+        text = "Boston is big. I visited Springfield and Boston.";
+        assertEquals(Arrays.asList(new LocationOccurrence("Boston", 0), new LocationOccurrence("Springfield", 25),
+                new LocationOccurrence("Boston", 41)), extractor.extractLocationNames(text));
+        verify(fallback).extractLocationNames("I visited Springfield and Boston.");
+    }
+
+    /**
+     * Names stored by the index's name suggester must be folded the same way
+     * as the text they are matched against, even where lower-casing a whole
+     * String would expand a character (e.g. the dotted capital I).
+     */
+    @Test
+    public void testIndexCaseFolding() throws Exception {
+        File dir = tempFolder.newFolder("index");
+        try (FSDirectory index = FSDirectory.open(dir.toPath());
+             NameSuggester.Writer writer = new NameSuggester.Writer(index)) {
+            writer.add("İstanbul", 745044, FeatureCode.PPLA, 14804116L);
+            writer.add("İzmir", 311046, FeatureCode.PPLA, 2500603L);
+            writer.finish();
+        }
+        DictionaryExtractor extractor = new DictionaryExtractor(dir, 0L, EnumSet.noneOf(FeatureCode.class), null);
+        assertEquals(2, extractor.getNameCount());
+        assertEquals(Arrays.asList(new LocationOccurrence("İstanbul", 0), new LocationOccurrence("İzmir", 13)),
+                extractor.extractLocationNames("İstanbul and İzmir"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullText() {
+        new DictionaryExtractor(NAMES, null).extractLocationNames(null);
+    }
+
+    /**
+     * Extracting from a stream in small blocks must find the same names, at
+     * the same document positions, as extracting from the whole String.
+     */
+    @Test
+    public void testStreamingExtraction() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            text.append("Trip ").append(i).append(" went from Boston to New York City. ");
+        }
+        DictionaryExtractor extractor = new DictionaryExtractor(NAMES, null);
+        List<LocationOccurrence> streamed = new ArrayList<>();
+        extractor.extractLocationNames(new StringReader(text.toString()), 200, streamed::add);
+        assertEquals(100, streamed.size());
+        assertEquals(extractor.extractLocationNames(text.toString()), streamed);
+    }
+}
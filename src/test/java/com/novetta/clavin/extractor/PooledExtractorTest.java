@@ -0,0 +1,97 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * PooledExtractorTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link PooledExtractor} never lends an extractor to two
+ * callers at once and creates no more than its maximum.
+ */
+public class PooledExtractorTest {
+    @Test
+    public void testConcurrentUse() throws Exception {
+        AtomicInteger inUse = new AtomicInteger();
+        AtomicInteger maxInUse = new AtomicInteger();
+        PooledExtractor pool = new PooledExtractor(2, () -> {
+            LocationExtractor dictionary = new DictionaryExtractor(Arrays.asList("Vermont"), null);
+            AtomicInteger callers = new AtomicInteger();
+            return plainText -> {
+                assertEquals("extractor shared between threads", 1, callers.incrementAndGet());
+                maxInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(2);
+                    return dictionary.extractLocationNames(plainText);
+                } catch (InterruptedException ie) {
+                    throw new IllegalStateException(ie);
+                } finally {
+                    inUse.decrementAndGet();
+                    callers.decrementAndGet();
+                }
+            };
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<List<LocationOccurrence>>> results = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                results.add(executor.submit(() -> pool.extractLocationNames("Vermont and Vermont")));
+            }
+            for (Future<List<LocationOccurrence>> result : results) {
+                assertEquals(2, result.get().size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, pool.getSize());
+        assertTrue(maxInUse.get() <= 2);
+
+        List<LocationOccurrence> streamed = new ArrayList<>();
+        pool.extractLocationNames(new StringReader("Vermont is cold. Vermont is green."), 20, streamed::add);
+        assertEquals(2, streamed.size());
+        assertEquals(17, streamed.get(1).getPosition());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new PooledExtractor(0, ApacheExtractor::new);
+    }
+}
@@ -0,0 +1,192 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * CompactGeoNameTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.gazetteer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.novetta.clavin.gazetteer.query.AncestryMode;
+import com.novetta.clavin.gazetteer.query.Gazetteer;
+
+/**
+ * Tests to make sure {@link CompactGeoName} reports the same values
+ * as the {@link BasicGeoName} it was created from.
+ */
+public class CompactGeoNameTest {
+    private static final int RESTON = 0;
+    private static final int STRASSENHAUS = 2;
+    private static final int UNITED_STATES = 9;
+    private static final int FAIRFAX_COUNTY = 10;
+    private static final int VIRGINIA = 11;
+
+    private List<String> records;
+
+    @Before
+    public void setUp() throws IOException {
+        records = Files.readAllLines(Paths.get("./src/test/resources/gazetteers/GeoNamesSampleSet.txt"),
+                StandardCharsets.UTF_8);
+    }
+
+    private static void assertSameValues(final GeoName expected, final GeoName actual) {
+        String id = expected.getName();
+        assertEquals("incorrect geonameID for " + id, expected.getGeonameID(), actual.getGeonameID());
+        assertEquals("incorrect name for " + id, expected.getName(), actual.getName());
+        assertEquals("incorrect asciiName for " + id, expected.getAsciiName(), actual.getAsciiName());
+        assertEquals("incorrect alternateNames for " + id, expected.getAlternateNames(), actual.getAlternateNames());
+        assertEquals("incorrect preferredName for " + id, expected.getPreferredName(), actual.getPreferredName());
+        assertEquals("incorrect latitude for " + id, expected.getLatitude(), actual.getLatitude(), 0.0);
+        assertEquals("incorrect longitude for " + id, expected.getLongitude(), actual.getLongitude(), 0.0);
+        assertEquals("incorrect featureClass for " + id, expected.getFeatureClass(), actual.getFeatureClass());
+        assertEquals("incorrect featureCode for " + id, expected.getFeatureCode(), actual.getFeatureCode());
+        assertEquals("incorrect primaryCountryCode for " + id, expected.getPrimaryCountryCode(), actual.getPrimaryCountryCode());
+        assertEquals("incorrect alternateCountryCodes for " + id, expected.getAlternateCountryCodes(), actual.getAlternateCountryCodes());
+        assertEquals("incorrect adminCode1 for " + id, expected.getAdmin1Code(), actual.getAdmin1Code());
+        assertEquals("incorrect adminCode2 for " + id, expected.getAdmin2Code(), actual.getAdmin2Code());
+        assertEquals("incorrect adminCode3 for " + id, expected.getAdmin3Code(), actual.getAdmin3Code());
+        assertEquals("incorrect adminCode4 for " + id, expected.getAdmin4Code(), actual.getAdmin4Code());
+        assertEquals("incorrect population for " + id, expected.getPopulation(), actual.getPopulation());
+        assertEquals("incorrect elevation for " + id, expected.getElevation(), actual.getElevation());
+        assertEquals("incorrect DEM for " + id, expected.getDigitalElevationModel(), actual.getDigitalElevationModel());
+        assertEquals("incorrect timezone for " + id, expected.getTimezone(), actual.getTimezone());
+        assertEquals("incorrect modificationDate for " + id, expected.getModificationDate(), actual.getModificationDate());
+        assertEquals("incorrect ancestryKey for " + id, expected.getAncestryKey(), actual.getAncestryKey());
+        assertEquals("incorrect parentAncestryKey for " + id, expected.getParentAncestryKey(), actual.getParentAncestryKey());
+        assertEquals("incorrect isTopLevelAdminDivision for " + id, expected.isTopLevelAdminDivision(), actual.isTopLevelAdminDivision());
+        assertEquals("incorrect isTopLevelTerritory for " + id, expected.isTopLevelTerritory(), actual.isTopLevelTerritory());
+        assertEquals("incorrect isAncestryResolved for " + id, expected.isAncestryResolved(), actual.isAncestryResolved());
+        assertEquals("incorrect toString for " + id, expected.toString(), actual.toString());
+    }
+
+    /**
+     * Test that every attribute of every sample record matches the BasicGeoName.
+     */
+    @Test
+    public void testMatchesBasicGeoName() {
+        for (String record : records) {
+            GeoName basic = BasicGeoName.parseFromGeoNamesRecord(record, "Preferred");
+            assertSameValues(basic, CompactGeoName.from(basic, false));
+            assertSameValues(basic, CompactGeoName.parseFromGeoNamesRecord(record, "Preferred", true));
+        }
+    }
+
+    /**
+     * Test that a retained record is returned as is and a discarded record is rebuilt
+     * so that it parses to the same values.
+     */
+    @Test
+    public void testGazetteerRecord() {
+        for (String record : records) {
+            CompactGeoName retained = CompactGeoName.parseFromGeoNamesRecord(record, null, true);
+            assertTrue("record should be retained", retained.isGazetteerRecordRetained());
+            assertEquals("incorrect retained record", record, retained.getGazetteerRecord());
+
+            CompactGeoName discarded = CompactGeoName.parseFromGeoNamesRecord(record, null, false);
+            assertFalse("record should be discarded", discarded.isGazetteerRecordRetained());
+            assertSameValues(BasicGeoName.parseFromGeoNamesRecord(record),
+                    BasicGeoName.parseFromGeoNamesRecord(discarded.getGazetteerRecord()));
+        }
+    }
+
+    /**
+     * Test that ancestry parsed with the record is converted along with the GeoName.
+     */
+    @Test
+    public void testAncestry() {
+        String record = String.format("%s\n%s\n%s\n%s", records.get(RESTON), records.get(FAIRFAX_COUNTY),
+                records.get(VIRGINIA), records.get(UNITED_STATES));
+        GeoName basic = BasicGeoName.parseFromGeoNamesRecord(record);
+        CompactGeoName compact = CompactGeoName.parseFromGeoNamesRecord(record, null, true);
+
+        assertTrue("[reston] should be fully resolved", compact.isAncestryResolved());
+        assertEquals("incorrect gazetteer records with ancestry", record, compact.getGazetteerRecordWithAncestry());
+        GeoName expected = basic;
+        for (GeoName actual = compact; actual != null; actual = actual.getParent()) {
+            assertTrue("parents should be compact", actual instanceof CompactGeoName);
+            assertSameValues(expected, actual);
+            assertEquals("incorrect parent ID", expected.getParentId(), actual.getParentId());
+            expected = expected.getParent();
+        }
+        assertNull("ancestry should end at the same level", expected);
+        assertTrue("[reston] should descend from [united states]",
+                compact.isDescendantOf(compact.getParent().getParent().getParent()));
+        assertFalse("cannot set parent to self", compact.setParent(compact));
+    }
+
+    /**
+     * Test that administrative codes and time zones are shared and mutable values are copied.
+     */
+    @Test
+    public void testSharedValues() {
+        CompactGeoName.SharedValues shared = new CompactGeoName.SharedValues();
+        CompactGeoName first = CompactGeoName.parseFromGeoNamesRecord(records.get(STRASSENHAUS), null, false, shared);
+        CompactGeoName second = CompactGeoName.parseFromGeoNamesRecord(records.get(STRASSENHAUS), null, false, shared);
+        assertSame("admin codes should be shared", first.getAdmin3Code(), second.getAdmin3Code());
+        assertNotSame("time zones should be copied", first.getTimezone(), first.getTimezone());
+        assertNotSame("dates should be copied", first.getModificationDate(), first.getModificationDate());
+        assertEquals("compact GeoNames with the same ID should be equal", first, second);
+        assertEquals("hash codes should match", first.hashCode(), second.hashCode());
+        assertSame("compact GeoNames should not be copied", first, CompactGeoName.from(first, false));
+    }
+
+    /**
+     * Test that compacting a LazyAncestryGeoName keeps its ancestry lazy.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testCompactLazyAncestry() throws Exception {
+        GeoName reston = BasicGeoName.parseFromGeoNamesRecord(records.get(RESTON));
+        GeoName fairfax = BasicGeoName.parseFromGeoNamesRecord(records.get(FAIRFAX_COUNTY));
+        Gazetteer gazetteer = mock(Gazetteer.class);
+        when(gazetteer.getGeoName(fairfax.getGeonameID(), AncestryMode.ON_CREATE)).thenReturn(fairfax);
+
+        LazyAncestryGeoName compact = new LazyAncestryGeoName(reston, fairfax.getGeonameID(), gazetteer).compact(false);
+        assertEquals("incorrect parent ID", Integer.valueOf(fairfax.getGeonameID()), compact.getParentId());
+        assertEquals("incorrect geonameID", reston.getGeonameID(), compact.getGeonameID());
+        assertEquals("incorrect alternateNames", reston.getAlternateNames(), compact.getAlternateNames());
+        assertEquals("incorrect ancestryKey", reston.getParentAncestryKey(), compact.getParentAncestryKey());
+        assertEquals("parent should be loaded on request", fairfax, compact.getParent());
+        verify(gazetteer).getGeoName(fairfax.getGeonameID(), AncestryMode.ON_CREATE);
+    }
+}
@@ -0,0 +1,118 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GeoNameFootprintBenchmark.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.gazetteer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap retained by {@link BasicGeoName} and {@link CompactGeoName}
+ * instances parsed from a GeoNames gazetteer file.  This is not run as part of
+ * the unit tests; run it directly with a fixed heap so the measurements are stable:
+ *
+ * <pre>
+ * java -Xms1g -Xmx1g -cp ... com.novetta.clavin.gazetteer.GeoNameFootprintBenchmark [gazetteerFile] [instances]
+ * </pre>
+ */
+public class GeoNameFootprintBenchmark {
+    private interface Factory {
+        GeoName create(String record);
+    }
+
+    public static void main(String[] args) throws Exception {
+        File gazetteer = new File(args.length > 0 ? args[0] : "src/test/resources/gazetteers/GeoNamesSampleSet.txt");
+        int instances = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        List<String> records = new ArrayList<>();
+        for (String line : Files.readAllLines(gazetteer.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                records.add(line);
+            }
+        }
+        if (records.isEmpty()) {
+            throw new IOException("No records found in " + gazetteer);
+        }
+        System.out.printf("%d records, %d instances%n", records.size(), instances);
+
+        // run each once to load classes and fill the shared code and time zone pools, as a gazetteer would
+        CompactGeoName.SharedValues shared = new CompactGeoName.SharedValues();
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;
+            measure("BasicGeoName", BasicGeoName::parseFromGeoNamesRecord, records, instances, report);
+            measure("CompactGeoName", rec -> CompactGeoName.parseFromGeoNamesRecord(rec, null, false, shared),
+                    records, instances, report);
+            measure("CompactGeoName (record retained)",
+                    rec -> CompactGeoName.parseFromGeoNamesRecord(rec, null, true, shared), records, instances, report);
+        }
+    }
+
+    private static void measure(final String label, final Factory factory, final List<String> records,
+            final int instances, final boolean report) {
+        long before = usedMemory();
+        // copy the records so retained records are not shared with the input
+        List<String> input = new ArrayList<>(instances);
+        for (int idx = 0; idx < instances; idx++) {
+            input.add(new String(records.get(idx % records.size()).toCharArray()));
+        }
+        GeoName[] retained = new GeoName[instances];
+        for (int idx = 0; idx < instances; idx++) {
+            retained[idx] = factory.create(input.get(idx));
+        }
+        input = null;
+        long after = usedMemory();
+        if (report) {
+            System.out.printf("%-35s %8.1f bytes/instance%n", label, (after - before) / (double) instances);
+        }
+        // keep the instances reachable until they have been measured
+        if (retained[instances - 1] == null) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // collect until the measurement settles
+        for (int idx = 0; idx < 5; idx++) {
+            System.gc();
+            try {
+                Thread.sleep(50L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
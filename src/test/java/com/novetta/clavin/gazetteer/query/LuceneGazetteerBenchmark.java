@@ -0,0 +1,120 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * LuceneGazetteerBenchmark.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.gazetteer.query;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the latency and throughput of serial and concurrent segment search
+ * in {@link LuceneGazetteer}, at low and high request concurrency.  This is not
+ * run as part of the unit tests; run it directly against a built index:
+ *
+ * <pre>
+ * java -cp ... com.novetta.clavin.gazetteer.query.LuceneGazetteerBenchmark [indexDir] [iterations]
+ * </pre>
+ */
+public class LuceneGazetteerBenchmark {
+    private static final String[] NAMES = {
+        "Boston", "Reston", "Springfield", "Washington", "London", "Paris", "Straßenhaus",
+        "Bostn", "Springfeld", "Virgina", "Massachusets", "Gun Barrel City"
+    };
+
+    public static void main(String[] args) throws Exception {
+        File indexDir = new File(args.length > 0 ? args[0] : "./IndexDirectory");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        ExecutorService searchPool = Executors.newFixedThreadPool(cores);
+        try {
+            Object[][] configs = {
+                { "serial", null, null },
+                { "executor/default slices", searchPool, null },
+                { "executor/per segment", searchPool, SlicePolicy.perSegment() },
+                { "executor/balanced(" + cores + ")", searchPool, SlicePolicy.balanced(cores) }
+            };
+            for (Object[] config : configs) {
+                try (LuceneGazetteer gazetteer = new LuceneGazetteer(indexDir, (ExecutorService) config[1],
+                        (SlicePolicy) config[2])) {
+                    // warm up
+                    run(gazetteer, 1, Math.max(1, iterations / 5));
+                    for (int clients : cores > 1 ? new int[] { 1, cores } : new int[] { 1 }) {
+                        long start = System.nanoTime();
+                        int queries = run(gazetteer, clients, iterations);
+                        long elapsed = System.nanoTime() - start;
+                        System.out.printf("%-28s clients=%-3d queries=%-6d mean latency=%8.3f ms throughput=%8.1f q/s%n",
+                                config[0], clients, queries, elapsed / 1e6 * clients / queries,
+                                queries / (elapsed / 1e9));
+                    }
+                }
+            }
+        } finally {
+            searchPool.shutdown();
+        }
+    }
+
+    /**
+     * Runs the query mix the requested number of times on each client thread.
+     * @return the total number of queries executed
+     */
+    private static int run(final LuceneGazetteer gazetteer, final int clients, final int iterations) throws Exception {
+        ExecutorService clientPool = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                results.add(clientPool.submit(() -> {
+                    int count = 0;
+                    // mirror the resolver (small, non-fuzzy) and multipart resolver (large, fuzzy) queries
+                    QueryBuilder resolverQuery = new QueryBuilder().maxResults(5).fuzzyMode(FuzzyMode.NO_EXACT);
+                    QueryBuilder multipartQuery = new QueryBuilder().maxResults(200).fuzzyMode(FuzzyMode.FILL);
+                    for (int i = 0; i < iterations; i++) {
+                        for (String name : NAMES) {
+                            gazetteer.getClosestLocations(resolverQuery.location(name).build());
+                            gazetteer.getClosestLocations(multipartQuery.location(name).build());
+                            count += 2;
+                        }
+                    }
+                    return count;
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get();
+            }
+            return total;
+        } finally {
+            clientPool.shutdown();
+        }
+    }
+}
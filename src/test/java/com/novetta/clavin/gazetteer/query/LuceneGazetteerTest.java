@@ -40,9 +40,11 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -52,6 +54,7 @@ import com.novetta.clavin.extractor.LocationOccurrence;
 import com.novetta.clavin.gazetteer.FeatureCode;
 import com.novetta.clavin.gazetteer.GeoName;
 import com.novetta.clavin.resolver.ResolvedLocation;
+import com.novetta.clavin.util.Deadline;
 
 /**
  * Ensures non-heuristic matching and fuzzy matching features are working properly in {@link com.novetta.clavin.gazetteer.query.LuceneGazetteer}.
@@ -155,6 +158,38 @@ public class LuceneGazetteerTest {
         assertEquals("Expected ancestry path of Reston, Fairfax County, Virginia, United States", expectedAncestryPath, ancestryPath);
     }
 
+    /**
+     * Verify that queries are abandoned once their deadline has passed, and run
+     * normally while time remains.
+     */
+    @Test
+    public void testDeadline() throws ClavinException {
+        try {
+            instance.getClosestLocations(queryBuilder.location("Bostonn").fuzzyMode(FuzzyMode.FILL)
+                    .deadline(Deadline.afterMillis(0L)).build());
+            fail("Expected query to time out");
+        } catch (QueryTimeoutException expected) {
+            // expected
+        }
+        List<ResolvedLocation> locs = instance.getClosestLocations(queryBuilder.location("Reston")
+                .deadline(Deadline.after(1L, TimeUnit.MINUTES)).build());
+        assertEquals("Expected single result from Gazetteer", 1, locs.size());
+        assertEquals(RESTON_VA, locs.get(0).getGeoname().getGeonameID());
+    }
+
+    /**
+     * Verify that a gazetteer preloading the default index files answers queries.
+     */
+    @Test
+    public void testPreload() throws Exception {
+        try (LuceneGazetteer preloaded = new LuceneGazetteer(INDEX_DIRECTORY, null, null,
+                LuceneGazetteer.DEFAULT_PRELOAD_EXTENSIONS)) {
+            List<ResolvedLocation> locs = preloaded.getClosestLocations(queryBuilder.location("Reston").build());
+            assertEquals("Expected single result from Gazetteer", 1, locs.size());
+            assertEquals(RESTON_VA, locs.get(0).getGeoname().getGeonameID());
+        }
+    }
+
     @Test
     public void testResolveLocations_EmptyInput() throws ClavinException {
         List<ResolvedLocation> locs = instance.getClosestLocations(queryBuilder.location("").build());
@@ -463,4 +498,82 @@ public class LuceneGazetteerTest {
         assertEquals("Country should be United States", UNITED_STATES, usa.getGeonameID());
         assertNull("USA has no parent", usa.getParent());
     }
+
+    /**
+     * Ensure searches can be restricted to a geographic region.
+     */
+    @Test
+    public void testBoundingBox() throws ClavinException {
+        // without a region, Boston, MA is the most prominent Boston
+        List<ResolvedLocation> locs = instance.getClosestLocations(queryBuilder.location("Boston").build());
+        assertEquals("Expected Boston, MA", BOSTON_MA, locs.get(0).getGeoname().getGeonameID());
+
+        // restricted to Great Britain, we should find a different Boston
+        BoundingBox britain = new BoundingBox(49.9, 58.7, -8.2, 1.8);
+        locs = instance.getClosestLocations(queryBuilder.location("Boston").boundingBox(britain).build());
+        assertEquals("Expected a single result from Gazetteer", 1, locs.size());
+        GeoName geo = locs.get(0).getGeoname();
+        assertNotEquals("Boston, MA is not in Great Britain", BOSTON_MA, geo.getGeonameID());
+        assertTrue("Result should fall within the bounding box", britain.contains(geo.getLatitude(), geo.getLongitude()));
+
+        // a region containing no Reston should produce no results
+        locs = instance.getClosestLocations(queryBuilder.location("Reston").boundingBox(-10.0, -5.0, 100.0, 105.0).build());
+        assertTrue("Expected no results outside of the bounding box", locs.isEmpty());
+    }
+
+    /**
+     * Ensure searches can be restricted to a distance from a point.
+     */
+    @Test
+    public void testRadius() throws ClavinException {
+        // 50km around Washington, DC includes Reston, VA
+        List<ResolvedLocation> locs = instance.getClosestLocations(queryBuilder.location("Reston")
+                .radius(38.895, -77.036, 50000.0).build());
+        assertEquals("Expected a single result from Gazetteer", 1, locs.size());
+        assertEquals("Expected Reston, VA", RESTON_VA, locs.get(0).getGeoname().getGeonameID());
+
+        // 50km around Boston, MA does not
+        locs = instance.getClosestLocations(queryBuilder.location("Reston").radius(42.358, -71.060, 50000.0).build());
+        for (ResolvedLocation loc : locs) {
+            assertNotEquals("Reston, VA is not near Boston", RESTON_VA, loc.getGeoname().getGeonameID());
+        }
+    }
+
+    /**
+     * Ensure the index can be switched while the gazetteer is in use and that
+     * queries fail once the gazetteer has been closed.
+     */
+    @Test
+    public void testSwitchIndexAndClose() throws Exception {
+        GeoName before = instance.getGeoName(RESTON_VA);
+        instance.switchIndex(INDEX_DIRECTORY);
+        GeoName after = instance.getGeoName(RESTON_VA);
+        assertEquals("Expected the same GeoName after switching indexes", before, after);
+        assertTrue("Searcher should be current", instance.refresh());
+
+        instance.close();
+        try {
+            instance.getGeoName(RESTON_VA);
+            fail("Expected ClavinException after close");
+        } catch (ClavinException expected) {
+            // expected
+        }
+        // closing twice is a no-op
+        instance.close();
+    }
+
+    /**
+     * Ensure names are suggested by prefix, ranked by population.
+     */
+    @Test
+    public void testSuggest() throws ClavinException {
+        List<Integer> ids = instance.suggest("Resto", 5, null);
+        assertTrue("Expected Reston, VA to be suggested", ids.contains(RESTON_VA));
+        assertEquals("Expected no duplicate suggestions", new HashSet<>(ids).size(), ids.size());
+
+        ids = instance.suggest("bost", 1, EnumSet.of(FeatureCode.PPL, FeatureCode.PPLA, FeatureCode.PPLA2, FeatureCode.PPLC));
+        assertEquals("Expected Boston, MA as the top suggestion", Collections.singletonList(BOSTON_MA), ids);
+
+        assertTrue("Expected no suggestions", instance.suggest("qqqqqqqq", 5, null).isEmpty());
+    }
 }
@@ -0,0 +1,188 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ShardedGazetteerTest.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.gazetteer.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.novetta.clavin.extractor.LocationOccurrence;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.resolver.ResolvedLocation;
+
+/**
+ * Ensures {@link ShardedGazetteer} routes queries and merges results in the same
+ * order as a single {@link LuceneGazetteer}.
+ */
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class ShardedGazetteerTest {
+    private static final LocationOccurrence OCCURRENCE = new LocationOccurrence("Springfield", 0);
+    private static final int PARENT_ID = 42;
+
+    @Mock
+    private LuceneGazetteer shardA;
+    @Mock
+    private LuceneGazetteer shardB;
+
+    private ShardedGazetteer instance;
+
+    @Before
+    public void setUp() throws Exception {
+        when(shardA.getScoredLocations(any(GazetteerQuery.class), anyBoolean(), any())).thenReturn(Collections.emptyList());
+        when(shardB.getScoredLocations(any(GazetteerQuery.class), anyBoolean(), any())).thenReturn(Collections.emptyList());
+        instance = new ShardedGazetteer(Arrays.asList(shardA, shardB), null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        instance.close();
+    }
+
+    private static ScoredLocation scored(final int geonameId, final float score, final long sortPop, final boolean fuzzy) {
+        GeoName geoName = mock(GeoName.class);
+        when(geoName.getGeonameID()).thenReturn(geonameId);
+        return new ScoredLocation(new ResolvedLocation(OCCURRENCE, geoName, OCCURRENCE.getText(), fuzzy), score, sortPop);
+    }
+
+    private static List<Integer> ids(final List<ResolvedLocation> locations) {
+        List<Integer> ids = new ArrayList<>();
+        for (ResolvedLocation loc : locations) {
+            ids.add(loc.getGeoname().getGeonameID());
+        }
+        return ids;
+    }
+
+    /**
+     * Results should be ordered by score, then by sort population, across shards.
+     */
+    @Test
+    public void testMergeOrder() throws Exception {
+        List<ScoredLocation> resultsA = Arrays.asList(scored(1, 2.0f, 10L, false), scored(2, 1.0f, 500L, false));
+        List<ScoredLocation> resultsB = Arrays.asList(scored(3, 2.0f, 100L, false), scored(4, 1.0f, 50L, false));
+        when(shardA.getScoredLocations(any(GazetteerQuery.class), eq(false), any())).thenReturn(resultsA);
+        when(shardB.getScoredLocations(any(GazetteerQuery.class), eq(false), any())).thenReturn(resultsB);
+
+        GazetteerQuery query = new QueryBuilder().location(OCCURRENCE).maxResults(3).fuzzyMode(FuzzyMode.OFF).build();
+        assertEquals("Unexpected merge order", Arrays.asList(3, 1, 2), ids(instance.getClosestLocations(query)));
+    }
+
+    /**
+     * The decision to run a fuzzy query should be based on the exact matches from all shards.
+     */
+    @Test
+    public void testFuzzyModeUsesAllShards() throws Exception {
+        List<ScoredLocation> exact = Collections.singletonList(scored(1, 1.0f, 10L, false));
+        List<ScoredLocation> fuzzy = Arrays.asList(scored(1, 0.5f, 10L, true), scored(2, 0.5f, 20L, true));
+        when(shardA.getScoredLocations(any(GazetteerQuery.class), eq(false), any())).thenReturn(exact);
+        when(shardB.getScoredLocations(any(GazetteerQuery.class), eq(true), any())).thenReturn(fuzzy);
+
+        // an exact match in one shard suppresses fuzzy matching in all shards
+        GazetteerQuery query = new QueryBuilder().location(OCCURRENCE).maxResults(3).fuzzyMode(FuzzyMode.NO_EXACT).build();
+        assertEquals(Collections.singletonList(1), ids(instance.getClosestLocations(query)));
+        verify(shardB, never()).getScoredLocations(any(GazetteerQuery.class), eq(true), any());
+
+        // fuzzy matches fill after exact matches, skipping duplicates
+        query = new QueryBuilder().location(OCCURRENCE).maxResults(3).fuzzyMode(FuzzyMode.FILL).filterDupes(true).build();
+        List<ResolvedLocation> results = instance.getClosestLocations(query);
+        assertEquals(Arrays.asList(1, 2), ids(results));
+        assertFalse("Exact match should come first", results.get(0).isFuzzy());
+        assertTrue("Fuzzy match should fill", results.get(1).isFuzzy());
+    }
+
+    /**
+     * Each shard's fuzzy search should fill after the exact matches from all shards, so
+     * duplicates of exact matches do not crowd other fuzzy matches out of the results.
+     */
+    @Test
+    public void testFuzzyFillsAfterExactMatches() throws Exception {
+        ScoredLocation exact = scored(1, 1.0f, 10L, false);
+        when(shardA.getScoredLocations(any(GazetteerQuery.class), eq(false), any()))
+                .thenReturn(Collections.singletonList(exact));
+        when(shardA.getScoredLocations(any(GazetteerQuery.class), eq(true), any())).thenAnswer(invocation -> {
+            List<ScoredLocation> filled = new ArrayList<>(invocation.<List<ScoredLocation>>getArgument(2));
+            filled.add(scored(2, 0.6f, 10L, true));
+            return filled;
+        });
+        when(shardB.getScoredLocations(any(GazetteerQuery.class), eq(true), any())).thenAnswer(invocation -> {
+            List<ScoredLocation> filled = new ArrayList<>(invocation.<List<ScoredLocation>>getArgument(2));
+            filled.add(scored(3, 0.5f, 10L, true));
+            return filled;
+        });
+
+        GazetteerQuery query = new QueryBuilder().location(OCCURRENCE).maxResults(3).fuzzyMode(FuzzyMode.FILL).filterDupes(true).build();
+        assertEquals(Arrays.asList(1, 2, 3), ids(instance.getClosestLocations(query)));
+        verify(shardB).getScoredLocations(any(GazetteerQuery.class), eq(true), eq(Collections.singletonList(exact)));
+    }
+
+    /**
+     * Queries restricted to a parent found in one shard should only search that shard.
+     */
+    @Test
+    public void testRouteByParent() throws Exception {
+        GeoName parent = mock(GeoName.class);
+        when(shardB.getGeoName(PARENT_ID, AncestryMode.MANUAL)).thenReturn(parent);
+        List<ScoredLocation> results = Collections.singletonList(scored(5, 1.0f, 10L, false));
+        when(shardB.getScoredLocations(any(GazetteerQuery.class), eq(false), any())).thenReturn(results);
+
+        GazetteerQuery query = new QueryBuilder().location(OCCURRENCE).fuzzyMode(FuzzyMode.OFF).addParentIds(PARENT_ID).build();
+        assertEquals(Collections.singletonList(5), ids(instance.getClosestLocations(query)));
+        verify(shardA, never()).getScoredLocations(any(GazetteerQuery.class), anyBoolean(), any());
+    }
+
+    /**
+     * Queries restricted to an unknown parent should search all shards.
+     */
+    @Test
+    public void testRouteUnknownParent() throws Exception {
+        GazetteerQuery query = new QueryBuilder().location(OCCURRENCE).fuzzyMode(FuzzyMode.OFF).addParentIds(PARENT_ID).build();
+        instance.getClosestLocations(query);
+        verify(shardA).getScoredLocations(any(GazetteerQuery.class), eq(false), any());
+        verify(shardB).getScoredLocations(any(GazetteerQuery.class), eq(false), any());
+    }
+}
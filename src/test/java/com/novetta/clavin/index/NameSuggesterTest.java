@@ -0,0 +1,110 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * NameSuggesterTest.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.novetta.clavin.gazetteer.FeatureCode;
+import com.novetta.clavin.index.NameSuggester.Suggestion;
+
+/**
+ * Ensures the name suggester ranks and filters suggestions correctly.
+ */
+public class NameSuggesterTest {
+    private static final int BOSTON_MA = 4930956;
+    private static final int BOSTON_UK = 2655138;
+    private static final int BOSNIA = 3277605;
+    private static final int BOSTON_HARBOR = 4930963;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private NameSuggester instance;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = tempFolder.newFolder("index");
+        try (FSDirectory index = FSDirectory.open(dir.toPath());
+             NameSuggester.Writer writer = new NameSuggester.Writer(index)) {
+            writer.add("Boston", BOSTON_MA, FeatureCode.PPLA, 617594L * 11);
+            writer.add("BOSTON", BOSTON_MA, FeatureCode.PPLA, 617594L * 11);
+            writer.add("Beantown", BOSTON_MA, FeatureCode.PPLA, 617594L * 11);
+            writer.add("Boston", BOSTON_UK, FeatureCode.PPL, 35124L * 11);
+            writer.add("Bosnia and Herzegovina", BOSNIA, FeatureCode.PCLI, 4590000L * 11);
+            writer.add("Boston Harbor", BOSTON_HARBOR, FeatureCode.BAY, 0L);
+            writer.finish();
+        }
+        instance = NameSuggester.load(dir.toPath());
+    }
+
+    private static List<Integer> ids(final List<Suggestion> suggestions) {
+        Integer[] ids = new Integer[suggestions.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = suggestions.get(i).getGeonameId();
+        }
+        return Arrays.asList(ids);
+    }
+
+    @Test
+    public void testRankedByWeight() throws Exception {
+        assertEquals(Arrays.asList(BOSNIA, BOSTON_MA, BOSTON_UK, BOSTON_HARBOR), ids(instance.lookup("bo", 10, null)));
+        assertEquals(Arrays.asList(BOSNIA, BOSTON_MA), ids(instance.lookup("Bo", 2, null)));
+        assertEquals(Arrays.asList(BOSTON_MA, BOSTON_UK, BOSTON_HARBOR), ids(instance.lookup("  BOSTON ", 10, null)));
+        assertEquals(Collections.singletonList(BOSTON_HARBOR), ids(instance.lookup("boston h", 10, null)));
+    }
+
+    @Test
+    public void testFeatureCodes() throws Exception {
+        assertEquals(Arrays.asList(BOSTON_MA, BOSTON_UK),
+                ids(instance.lookup("bo", 10, EnumSet.of(FeatureCode.PPL, FeatureCode.PPLA))));
+        assertTrue(instance.lookup("bo", 10, EnumSet.of(FeatureCode.ADM1)).isEmpty());
+    }
+
+    @Test
+    public void testNoMatch() throws Exception {
+        assertTrue(instance.lookup("xyz", 10, null).isEmpty());
+        assertTrue(instance.lookup("", 10, null).isEmpty());
+        assertTrue(instance.lookup(null, 10, null).isEmpty());
+        assertTrue(instance.lookup("bo", 0, null).isEmpty());
+    }
+}
@@ -0,0 +1,124 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * InMemoryMetricsTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.novetta.clavin.metrics.InMemoryMetrics.Histogram;
+
+/**
+ * Tests the histograms kept by {@link InMemoryMetrics}.
+ */
+public class InMemoryMetricsTest {
+    @Test
+    public void testBuckets() {
+        long previousUpperBound = -1L;
+        for (long value = 0L; value < 100000L; value++) {
+            int index = Histogram.bucketIndex(value);
+            long upperBound = Histogram.bucketUpperBound(index);
+            assertTrue("value above its bucket: " + value, value <= upperBound);
+            assertTrue("bucket too wide for: " + value, upperBound - value <= value / 8);
+            if (upperBound != previousUpperBound) {
+                assertEquals("buckets should be contiguous", previousUpperBound + 1, value);
+                previousUpperBound = upperBound;
+            }
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.bucketUpperBound(Histogram.bucketIndex(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        for (long value = 1L; value <= 1000L; value++) {
+            metrics.record(Metric.EXACT_QUERY, value * 1000L);
+        }
+        Histogram histogram = metrics.getHistogram(Metric.EXACT_QUERY);
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500000L, histogram.getSum());
+        assertEquals(500500.0, histogram.getMean(), 0.0);
+        assertEquals(1000000L, histogram.getMax());
+        assertEquals(1000000L, histogram.getPercentile(1.0));
+        assertEquals(500000.0, histogram.getPercentile(0.5), 500000 / 8);
+        assertEquals(990000.0, histogram.getPercentile(0.99), 990000 / 8);
+        assertEquals(1000.0, histogram.getPercentile(0.0), 1000 / 8);
+        assertEquals(0L, metrics.getHistogram(Metric.FUZZY_QUERY).getPercentile(0.99));
+    }
+
+    @Test
+    public void testCountersAndReset() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        metrics.increment(Metric.DOCUMENT_CACHE_HIT);
+        metrics.increment(Metric.DOCUMENT_CACHE_HIT);
+        metrics.increment(Metric.DOCUMENT_CACHE_HIT);
+        metrics.increment(Metric.DOCUMENT_CACHE_MISS);
+        metrics.record(Metric.PARSE, -5L);
+        assertEquals(0.75, metrics.getHitRate(Metric.DOCUMENT_CACHE_HIT, Metric.DOCUMENT_CACHE_MISS), 0.0);
+        assertEquals(0L, metrics.getHistogram(Metric.PARSE).getMax());
+        assertTrue(metrics.toString().contains("DOCUMENT_CACHE_HIT: count=3"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getHistogram(Metric.DOCUMENT_CACHE_HIT).getCount());
+        assertEquals(0.0, metrics.getHitRate(Metric.DOCUMENT_CACHE_HIT, Metric.DOCUMENT_CACHE_MISS), 0.0);
+        assertEquals("", metrics.toString());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int idx = 0; idx < 10000; idx++) {
+                        metrics.record(Metric.RESOLUTION, idx);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Histogram histogram = metrics.getHistogram(Metric.RESOLUTION);
+        assertEquals(40000, histogram.getCount());
+        assertEquals(4L * 49995000L, histogram.getSum());
+        assertEquals(9999L, histogram.getMax());
+    }
+}
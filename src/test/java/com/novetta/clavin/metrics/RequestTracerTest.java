@@ -0,0 +1,131 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * RequestTracerTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.novetta.clavin.metrics.RequestTrace.CombinationSearchTrace;
+import com.novetta.clavin.metrics.RequestTrace.QueryTrace;
+
+/**
+ * Tests threshold-based reporting of {@link RequestTrace}s.
+ */
+public class RequestTracerTest {
+    @Test
+    public void testThreshold() {
+        List<RequestTrace> reported = new ArrayList<>();
+        RequestTracer fast = new RequestTracer(0, TimeUnit.MILLISECONDS, reported::add);
+        RequestTracer slow = new RequestTracer(1, TimeUnit.HOURS, reported::add);
+
+        RequestTrace trace = slow.begin("parse", "slow");
+        assertSame(trace, RequestTrace.active());
+        slow.end(trace);
+        assertNull("trace should end with the request", RequestTrace.active());
+        assertTrue("fast requests should not be reported", reported.isEmpty());
+
+        trace = fast.begin("parse", "fast");
+        fast.end(trace);
+        assertEquals(1, reported.size());
+        assertTrue(reported.get(0).getElapsedNanos() >= 0);
+        assertEquals("fast", reported.get(0).getDetail());
+    }
+
+    @Test
+    public void testNestedRequests() {
+        List<RequestTrace> reported = new ArrayList<>();
+        RequestTracer tracer = new RequestTracer(0, TimeUnit.MILLISECONDS, reported::add);
+
+        RequestTrace outer = tracer.begin("parse", "document");
+        RequestTrace inner = tracer.begin("getClosestLocations", "boston");
+        assertNull("nested requests should be recorded in the outer trace", inner);
+        RequestTrace.active().addQuery(new QueryTrace("boston", false));
+        tracer.end(inner);
+        assertTrue(reported.isEmpty());
+        assertSame(outer, RequestTrace.active());
+
+        tracer.end(outer);
+        assertEquals(1, reported.size());
+        assertEquals(1, reported.get(0).getQueries().size());
+        assertNull(RequestTrace.active());
+    }
+
+    @Test
+    public void testPropagate() throws Exception {
+        RequestTracer tracer = new RequestTracer(0, TimeUnit.MILLISECONDS, trace -> { });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertNull(executor.submit(RequestTrace.propagate(RequestTrace::active)).get());
+            RequestTrace trace = tracer.begin("getClosestLocations", "boston");
+            assertSame(trace, executor.submit(RequestTrace.propagate(RequestTrace::active)).get());
+            assertNull("worker should not keep the trace", executor.submit(RequestTrace::active).get());
+            tracer.end(trace);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        RequestTrace trace = new RequestTrace("parse", "42 characters");
+        QueryTrace query = new QueryTrace("bostn", true);
+        query.setLuceneQuery("+indexName:bostn~2");
+        query.addIteration(17);
+        query.addIteration(17);
+        query.finish(3, 1000L);
+        trace.addQuery(query);
+        trace.addCombinationSearch(new CombinationSearchTrace(5, 243, 4, 2000L));
+        trace.finish();
+
+        JsonNode json = new ObjectMapper().readTree(trace.toJson());
+        assertEquals("parse", json.get("operation").asText());
+        JsonNode queryJson = json.get("queries").get(0);
+        assertEquals("+indexName:bostn~2", queryJson.get("luceneQuery").asText());
+        assertEquals(2, queryJson.get("iterations").asInt());
+        assertEquals(17, queryJson.get("totalHits").asLong());
+        assertTrue(queryJson.get("fuzzy").asBoolean());
+        JsonNode searchJson = json.get("combinationSearches").get(0);
+        assertEquals(243, searchJson.get("combinations").asLong());
+        assertEquals(4, searchJson.get("depthReached").asInt());
+        assertNotNull(json.get("elapsedNanos"));
+    }
+}
@@ -0,0 +1,268 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GeoParsingPipelineTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.novetta.clavin.GeoParser;
+import com.novetta.clavin.extractor.DictionaryExtractor;
+import com.novetta.clavin.extractor.LocationExtractor;
+import com.novetta.clavin.gazetteer.CountryCode;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.gazetteer.query.GazetteerQuery;
+import com.novetta.clavin.pipeline.GeoParsingPipeline.Document;
+import com.novetta.clavin.pipeline.GeoParsingPipeline.Result;
+import com.novetta.clavin.resolver.ClavinLocationResolver;
+import com.novetta.clavin.resolver.ResolvedLocation;
+
+/**
+ * Runs documents through a {@link GeoParsingPipeline} with a dictionary
+ * extractor and a gazetteer offering two candidates for every name.
+ */
+public class GeoParsingPipelineTest {
+    private static final String[] TEXTS = {
+        "Springfield is near Boston.",
+        "He left Springfield for Chicago and Boston.",
+        "Nothing to see here.",
+        "fail in Boston",
+    };
+
+    private Gazetteer gazetteer;
+    private LocationExtractor extractor;
+    private AtomicInteger extractions;
+
+    @Before
+    public void setUp() throws Exception {
+        gazetteer = mock(Gazetteer.class);
+        GeoName illinois = geoname(1, "IL");
+        GeoName massachusetts = geoname(2, "MA");
+        when(gazetteer.getClosestLocations(any(GazetteerQuery.class))).thenAnswer(invocation -> {
+            GazetteerQuery query = invocation.getArgument(0);
+            String name = query.getOccurrence().getText();
+            // Boston only exists in Massachusetts, which should pull Springfield there too
+            return "Boston".equals(name)
+                    ? Arrays.asList(new ResolvedLocation(query.getOccurrence(), massachusetts, name, false))
+                    : Arrays.asList(new ResolvedLocation(query.getOccurrence(), illinois, name, false),
+                            new ResolvedLocation(query.getOccurrence(), massachusetts, name, false));
+        });
+        LocationExtractor dictionary = new DictionaryExtractor(Arrays.asList("Springfield", "Boston", "Chicago"), null);
+        extractions = new AtomicInteger();
+        extractor = text -> {
+            extractions.incrementAndGet();
+            if (text.startsWith("fail")) {
+                throw new IllegalStateException("extractor failed");
+            }
+            return dictionary.extractLocationNames(text);
+        };
+    }
+
+    @Test
+    public void testMatchesGeoParser() throws Exception {
+        GeoParser parser = new GeoParser(extractor, gazetteer, 5, 5, false);
+        Collector collector = new Collector(Long.MAX_VALUE);
+        SubmissionPublisher<Document> source = new SubmissionPublisher<>();
+        try (GeoParsingPipeline pipeline = GeoParsingPipeline.builder(extractor, new ClavinLocationResolver(gazetteer))
+                .extractionParallelism(2)
+                .lookupParallelism(3)
+                .resolutionParallelism(2)
+                .bufferSize(2)
+                .build()) {
+            pipeline.subscribe(collector);
+            source.subscribe(pipeline);
+            for (int i = 0; i < 40; i++) {
+                source.submit(Document.of(String.valueOf(i), TEXTS[i % TEXTS.length]));
+            }
+            source.close();
+            assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        }
+
+        assertNull(collector.error);
+        assertEquals(40, collector.results.size());
+        for (Map.Entry<String, Result> entry : collector.results.entrySet()) {
+            String text = TEXTS[Integer.parseInt(entry.getKey()) % TEXTS.length];
+            Result result = entry.getValue();
+            if (text.startsWith("fail")) {
+                assertEquals("extractor failed", result.getError().getMessage());
+                assertTrue(result.getLocations().isEmpty());
+            } else {
+                assertNull(result.getError());
+                assertEquals(parser.parse(text), result.getLocations());
+            }
+        }
+        List<ResolvedLocation> springfield = collector.results.get("0").getLocations();
+        assertEquals(2, springfield.get(0).getGeoname().getGeonameID());
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        Collector collector = new Collector(0);
+        SubmissionPublisher<Document> source = new SubmissionPublisher<>();
+        try (GeoParsingPipeline pipeline = GeoParsingPipeline.builder(extractor, new ClavinLocationResolver(gazetteer))
+                .bufferSize(4)
+                .build()) {
+            pipeline.subscribe(collector);
+            source.subscribe(pipeline);
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    source.submit(Document.of(String.valueOf(i), TEXTS[0]));
+                }
+                source.close();
+            });
+            producer.start();
+            Thread.sleep(500);
+            // nothing has been requested, so only the buffers between the stages fill
+            int extracted = extractions.get();
+            assertTrue("extracted " + extracted, extracted > 0 && extracted < 40);
+            assertTrue(collector.results.isEmpty());
+
+            collector.subscription.request(Long.MAX_VALUE);
+            assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+            producer.join();
+        }
+        assertEquals(200, collector.results.size());
+        assertEquals(200, extractions.get());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        Collector collector = new Collector(0);
+        GeoParsingPipeline pipeline = GeoParsingPipeline.builder(extractor, new ClavinLocationResolver(gazetteer))
+                .bufferSize(1)
+                .build();
+        SubmissionPublisher<Document> source = new SubmissionPublisher<>();
+        pipeline.subscribe(collector);
+        source.subscribe(pipeline);
+        for (int i = 0; i < 5; i++) {
+            source.offer(Document.of(String.valueOf(i), TEXTS[0]), null);
+        }
+        Thread.sleep(200);
+        pipeline.close();
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        assertTrue(collector.error instanceof CancellationException);
+        source.close();
+    }
+
+    @Test
+    public void testLateSubscriber() throws Exception {
+        Collector collector = new Collector(Long.MAX_VALUE);
+        SubmissionPublisher<Document> source = new SubmissionPublisher<>();
+        try (GeoParsingPipeline pipeline = GeoParsingPipeline.builder(extractor, new ClavinLocationResolver(gazetteer))
+                .bufferSize(2)
+                .build()) {
+            source.subscribe(pipeline);
+            for (int i = 0; i < 10; i++) {
+                source.submit(Document.of(String.valueOf(i), TEXTS[0]));
+            }
+            source.close();
+            // the earlier stages fill their buffers, but the last must hold its results for the consumer
+            Thread.sleep(200);
+            pipeline.subscribe(collector);
+            assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        }
+        assertNull(collector.error);
+        assertEquals(10, collector.results.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidContextWindow() {
+        GeoParsingPipeline.builder(extractor, new ClavinLocationResolver(gazetteer)).maxContextWindow(0).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidHitDepth() {
+        GeoParsingPipeline.builder(extractor, new ClavinLocationResolver(gazetteer)).maxHitDepth(0).build();
+    }
+
+    private static GeoName geoname(final int id, final String admin1) {
+        GeoName geoname = mock(GeoName.class);
+        when(geoname.getGeonameID()).thenReturn(id);
+        when(geoname.getPrimaryCountryCode()).thenReturn(CountryCode.US);
+        when(geoname.getAdmin1Code()).thenReturn(admin1);
+        return geoname;
+    }
+
+    /**
+     * Collects results, initially requesting only the given number.
+     */
+    private static final class Collector implements Flow.Subscriber<Result> {
+        private final long initialRequest;
+        private final Map<String, Result> results = new HashMap<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        private Collector(final long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription s) {
+            subscription = s;
+            if (initialRequest > 0) {
+                s.request(initialRequest);
+            }
+        }
+
+        @Override
+        public synchronized void onNext(final Result item) {
+            results.put(item.getDocument().getId(), item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * BulkMultipartResolverTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.resolver.multipart;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.novetta.clavin.ClavinException;
+import com.novetta.clavin.extractor.LocationOccurrence;
+import com.novetta.clavin.gazetteer.CountryCode;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.metrics.InMemoryMetrics;
+import com.novetta.clavin.metrics.Metric;
+import com.novetta.clavin.resolver.ResolvedLocation;
+
+/**
+ * Ensures {@link BulkMultipartResolver} resolves each distinct location tuple
+ * once and writes records in input order.
+ */
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class BulkMultipartResolverTest {
+    @Mock
+    private MultipartLocationResolver resolver;
+
+    @Before
+    public void setUp() throws ClavinException {
+        ResolvedLocation reston = resolvedLocation(4781530, "Reston", CountryCode.US, "VA", 38.96872, -77.3411);
+        ResolvedLocation london = resolvedLocation(6058560, "London", CountryCode.CA, "08", 42.98339, -81.23304);
+        when(resolver.resolveLocation(anyBoolean(), eq("Reston"), eq("Virginia"), eq("US"))).thenReturn(reston);
+        when(resolver.resolveLocation(anyBoolean(), eq("London"), eq("Ontario"), eq("CA"))).thenReturn(london);
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        String input = String.join("\n",
+                "id,city,state,country",
+                "1,Reston,Virginia,US",
+                "2,London,Ontario,CA",
+                "3,Reston,Virginia,US",
+                "4,\"Nowhere, Really\",,US",
+                "5, reston ,VIRGINIA,US",
+                "6,London,Ontario,CA");
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        when(resolver.getMetrics()).thenReturn(metrics);
+        StringWriter output = new StringWriter();
+        BulkMultipartResolver instance = new BulkMultipartResolver(resolver, false, 4, 100);
+        BulkMultipartResolver.Statistics stats = instance.resolve(new StringReader(input), output, ',',
+                new int[] { 1, 2, 3 }, true);
+
+        String[] lines = output.toString().split("\n");
+        assertEquals(7, lines.length);
+        assertEquals("id,city,state,country,geonameid,name,country_code,admin1_code,latitude,longitude", lines[0]);
+        assertEquals("1,Reston,Virginia,US,4781530,Reston,US,VA,38.96872,-77.3411", lines[1]);
+        assertEquals("2,London,Ontario,CA,6058560,London,CA,08,42.98339,-81.23304", lines[2]);
+        assertEquals("3,Reston,Virginia,US,4781530,Reston,US,VA,38.96872,-77.3411", lines[3]);
+        assertEquals("4,\"Nowhere, Really\",,US,,,,,,", lines[4]);
+        assertEquals("5, reston ,VIRGINIA,US,4781530,Reston,US,VA,38.96872,-77.3411", lines[5]);
+        assertEquals("6,London,Ontario,CA,6058560,London,CA,08,42.98339,-81.23304", lines[6]);
+
+        verify(resolver, times(1)).resolveLocation(false, "Reston", "Virginia", "US");
+        verify(resolver, times(1)).resolveLocation(false, "London", "Ontario", "CA");
+        verify(resolver, times(1)).resolveLocation(false, "Nowhere, Really", "", "US");
+        assertEquals(6, stats.getRecords());
+        assertEquals(5, stats.getResolved());
+        assertEquals(1, stats.getUnresolved());
+        assertEquals(0, stats.getFailed());
+        assertEquals(3, stats.getCacheMisses());
+        assertEquals(3, stats.getCacheHits());
+        assertEquals(3, metrics.getHistogram(Metric.BULK_TUPLE_CACHE_MISS).getCount());
+        assertEquals(3, metrics.getHistogram(Metric.BULK_TUPLE_CACHE_HIT).getCount());
+    }
+
+    @Test
+    public void testResolveWithoutCache() throws Exception {
+        String input = "Reston\tVirginia\tUS\nReston\tVirginia\tUS\n";
+        StringWriter output = new StringWriter();
+        BulkMultipartResolver instance = new BulkMultipartResolver(resolver, true, 2, 0);
+        BulkMultipartResolver.Statistics stats = instance.resolve(new StringReader(input), output, '\t', null, false);
+
+        assertEquals(2, output.toString().split("\n").length);
+        verify(resolver, times(2)).resolveLocation(true, "Reston", "Virginia", "US");
+        assertEquals(2, stats.getResolved());
+        assertEquals(0, stats.getCacheHits());
+    }
+
+    @Test
+    public void testResolveFailure() throws Exception {
+        when(resolver.resolveLocation(anyBoolean(), eq("Error"))).thenThrow(new ClavinException("test"));
+        StringWriter output = new StringWriter();
+        BulkMultipartResolver instance = new BulkMultipartResolver(resolver, false, 1, 10);
+        BulkMultipartResolver.Statistics stats = instance.resolve(new StringReader("Error\n"), output, ',', null,
+                false);
+
+        assertEquals("Error,,,,,,\n", output.toString());
+        assertEquals(1, stats.getFailed());
+        assertEquals(1, stats.getUnresolved());
+    }
+
+    @Test
+    public void testFailedTupleIsRetried() throws Exception {
+        ResolvedLocation reston = resolvedLocation(4781530, "Reston", CountryCode.US, "VA", 38.96872, -77.3411);
+        CountDownLatch failed = new CountDownLatch(1);
+        when(resolver.resolveLocation(anyBoolean(), eq("Flaky"))).thenAnswer(invocation -> {
+            failed.countDown();
+            throw new ClavinException("test");
+        }).thenReturn(reston);
+        // the second record is only read once the first resolution has failed
+        Reader input = new Reader() {
+            private final String[] lines = { "Flaky\n", "Flaky\n" };
+            private int next = 0;
+
+            @Override
+            public int read(final char[] buffer, final int offset, final int length) throws IOException {
+                if (next == lines.length) {
+                    return -1;
+                }
+                if (next > 0) {
+                    try {
+                        failed.await(10, TimeUnit.SECONDS);
+                        Thread.sleep(100);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                String line = lines[next++];
+                line.getChars(0, line.length(), buffer, offset);
+                return line.length();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        StringWriter output = new StringWriter();
+        BulkMultipartResolver instance = new BulkMultipartResolver(resolver, false, 1, 10);
+        BulkMultipartResolver.Statistics stats = instance.resolve(input, output, ',', null, false);
+
+        assertEquals("Flaky,,,,,,\nFlaky,4781530,Reston,US,VA,38.96872,-77.3411\n", output.toString());
+        verify(resolver, times(2)).resolveLocation(false, "Flaky");
+        assertEquals(1, stats.getFailed());
+        assertEquals(1, stats.getResolved());
+        assertEquals(2, stats.getCacheMisses());
+        assertEquals(0, stats.getCacheHits());
+    }
+
+    @Test
+    public void testSplitAndFormatRecord() {
+        assertEquals(Arrays.asList("a", "b,c", "d\"e", ""), BulkMultipartResolver.splitRecord("a,\"b,c\",\"d\"\"e\",", ','));
+        assertEquals(Arrays.asList("a", "b c"), BulkMultipartResolver.splitRecord("a\tb c\r", '\t'));
+        assertEquals("a,\"b,c\",\"d\"\"e\",", BulkMultipartResolver.formatRecord(Arrays.asList("a", "b,c", "d\"e", ""), ','));
+    }
+
+    private static ResolvedLocation resolvedLocation(final int id, final String name, final CountryCode country,
+            final String admin1, final double lat, final double lon) {
+        GeoName geo = mock(GeoName.class);
+        when(geo.getGeonameID()).thenReturn(id);
+        when(geo.getName()).thenReturn(name);
+        when(geo.getPrimaryCountryCode()).thenReturn(country);
+        when(geo.getAdmin1Code()).thenReturn(admin1);
+        when(geo.getLatitude()).thenReturn(lat);
+        when(geo.getLongitude()).thenReturn(lon);
+        return new ResolvedLocation(new LocationOccurrence(name, 0), geo, name, false);
+    }
+}
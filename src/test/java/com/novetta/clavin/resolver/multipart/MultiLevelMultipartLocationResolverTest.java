@@ -5,15 +5,22 @@ package com.novetta.clavin.resolver.multipart;
 import static org.junit.Assert.*;
 
 import com.novetta.clavin.ClavinException;
+import com.novetta.clavin.gazetteer.FeatureCode;
 import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.gazetteer.query.AncestryMode;
+import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.gazetteer.query.GazetteerQuery;
 import com.novetta.clavin.gazetteer.query.LuceneGazetteer;
 import com.novetta.clavin.resolver.ResolvedLocation;
 import com.novetta.clavin.resolver.multipart.MultipartLocationResolver;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -154,10 +161,19 @@ public class MultiLevelMultipartLocationResolverTest {
     }
 
     private static MultipartLocationResolver resolver;
+    private static CountingGazetteer optimizedGazetteer;
+    private static CountingGazetteer exhaustiveGazetteer;
+    private static MultipartLocationResolver optimizedResolver;
+    private static MultipartLocationResolver exhaustiveResolver;
 
     @BeforeClass
     public static void setUpClass() throws ClavinException {
-        resolver = new MultipartLocationResolver(new LuceneGazetteer(new File("./IndexDirectory")));
+        Gazetteer gazetteer = new LuceneGazetteer(new File("./IndexDirectory"));
+        resolver = new MultipartLocationResolver(gazetteer);
+        optimizedGazetteer = new CountingGazetteer(gazetteer);
+        exhaustiveGazetteer = new CountingGazetteer(gazetteer);
+        optimizedResolver = new MultipartLocationResolver(optimizedGazetteer, new DefaultScorer(), true);
+        exhaustiveResolver = new MultipartLocationResolver(exhaustiveGazetteer, new DefaultScorer(), false);
     }
 
     private final String[] parts;
@@ -179,4 +195,69 @@ public class MultiLevelMultipartLocationResolverTest {
             assertEquals(String.format("Incorrect Location [%s]", geo), expectedId.intValue(), geo.getGeonameID());
         }
     }
+
+    @Test
+    public void testMemoizedSearch() throws ClavinException {
+        optimizedGazetteer.reset();
+        exhaustiveGazetteer.reset();
+        ResolvedLocation optimized = optimizedResolver.resolveLocation(false, parts);
+        ResolvedLocation exhaustive = exhaustiveResolver.resolveLocation(false, parts);
+        assertEquals("memoized and pruned search should select the same location", exhaustive, optimized);
+        assertEquals("each distinct search should only be executed once", optimizedGazetteer.distinctQueries.size(),
+                optimizedGazetteer.queryCount);
+        assertTrue(String.format("expected no more than %d queries, found %d", exhaustiveGazetteer.queryCount,
+                optimizedGazetteer.queryCount), optimizedGazetteer.queryCount <= exhaustiveGazetteer.queryCount);
+    }
+
+    /**
+     * Counts the searches issued against a delegate gazetteer.
+     */
+    private static class CountingGazetteer implements Gazetteer {
+        private final Gazetteer delegate;
+        private final Set<String> distinctQueries = new HashSet<>();
+        private int queryCount;
+
+        CountingGazetteer(final Gazetteer delegate) {
+            this.delegate = delegate;
+        }
+
+        void reset() {
+            distinctQueries.clear();
+            queryCount = 0;
+        }
+
+        @Override
+        public List<ResolvedLocation> getClosestLocations(final GazetteerQuery query) throws ClavinException {
+            queryCount++;
+            distinctQueries.add(String.format("%s|%s|%s", query.getOccurrence().getText(), query.getFeatureCodes(),
+                    query.getParentIds()));
+            return delegate.getClosestLocations(query);
+        }
+
+        @Override
+        public GeoName getGeoName(final int geonameId) throws ClavinException {
+            return delegate.getGeoName(geonameId);
+        }
+
+        @Override
+        public GeoName getGeoName(final int geonameId, final AncestryMode ancestryMode) throws ClavinException {
+            return delegate.getGeoName(geonameId, ancestryMode);
+        }
+
+        @Override
+        public void loadAncestry(final GeoName... geoNames) throws ClavinException {
+            delegate.loadAncestry(geoNames);
+        }
+
+        @Override
+        public void loadAncestry(final Collection<GeoName> geoNames) throws ClavinException {
+            delegate.loadAncestry(geoNames);
+        }
+
+        @Override
+        public List<Integer> suggest(final String prefix, final int k, final Set<FeatureCode> featureCodes)
+                throws ClavinException {
+            return delegate.suggest(prefix, k, featureCodes);
+        }
+    }
 }
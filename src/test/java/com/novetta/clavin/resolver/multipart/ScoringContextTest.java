@@ -0,0 +1,89 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ScoringContextTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.resolver.multipart;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.novetta.clavin.extractor.LocationOccurrence;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.resolver.ResolvedLocation;
+import com.novetta.clavin.resolver.multipart.MatchedLocation.Match;
+
+/**
+ * Verifies the values cached by {@link ScoringContext} and the batch
+ * scoring performed by {@link DefaultScorer}.
+ */
+public class ScoringContextTest {
+    private static final List<String> TERMS = Arrays.asList("United States", "Virginia", "Reston");
+
+    @Test
+    public void testDistance() {
+        ScoringContext context = new ScoringContext(TERMS);
+        assertSame(TERMS, context.getTerms());
+        assertEquals(0, context.getDistance("Reston", "RESTON"));
+        assertEquals(1, context.getDistance("Restn", "reston"));
+        assertEquals(1, context.getDistance("RESTN", "Reston"));
+        assertEquals(2, context.getDistance("Virgina", "virginia "));
+        assertSame(context.toLowerCase("Reston"), context.toLowerCase("Reston"));
+    }
+
+    @Test
+    public void testBatchScore() {
+        MatchedLocation exact = candidate(match(SearchLevel.CITY, "Reston", "Reston", 0),
+                match(SearchLevel.ADMIN1, "Virginia", "Virginia", 0));
+        MatchedLocation fuzzy = candidate(match(SearchLevel.CITY, "Reston", "Restin", 2));
+        List<MatchedLocation> candidates = Arrays.asList(exact, fuzzy);
+
+        DefaultScorer scorer = new DefaultScorer();
+        double[] scores = scorer.score(candidates, new ScoringContext(TERMS));
+        assertArrayEquals(new double[] { scorer.score(TERMS, exact), scorer.score(TERMS, fuzzy) }, scores, 0.0d);
+    }
+
+    private static Match match(final SearchLevel level, final String text, final String matchedName, final int depth) {
+        ResolvedLocation location = new ResolvedLocation(new LocationOccurrence(text, 0), mock(GeoName.class),
+                matchedName, false);
+        return new Match(level, location, depth);
+    }
+
+    private static MatchedLocation candidate(final Match... matches) {
+        MatchedLocation candidate = mock(MatchedLocation.class);
+        when(candidate.getMatches()).thenReturn(Arrays.asList(matches));
+        when(candidate.getMatchCount()).thenReturn(matches.length);
+        return candidate;
+    }
+}
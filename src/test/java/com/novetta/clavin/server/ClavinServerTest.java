@@ -0,0 +1,195 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ClavinServerTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.novetta.clavin.GeoParser;
+import com.novetta.clavin.extractor.DictionaryExtractor;
+import com.novetta.clavin.gazetteer.CountryCode;
+import com.novetta.clavin.gazetteer.GeoName;
+import com.novetta.clavin.gazetteer.query.Gazetteer;
+import com.novetta.clavin.gazetteer.query.GazetteerQuery;
+import com.novetta.clavin.resolver.ResolvedLocation;
+import com.novetta.clavin.server.ClavinServer.WarmupState;
+
+/**
+ * Exercises the {@link ClavinServer} endpoints with a dictionary extractor
+ * and a gazetteer that resolves every name to the same record.
+ */
+public class ClavinServerTest {
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private ClavinServer server;
+    private CountDownLatch warmupStarted;
+    private CountDownLatch finishWarmup;
+
+    @Before
+    public void setUp() throws Exception {
+        Gazetteer gazetteer = mock(Gazetteer.class);
+        GeoName geoname = mock(GeoName.class);
+        when(geoname.getGeonameID()).thenReturn(42);
+        when(geoname.getName()).thenReturn("Somewhere");
+        when(geoname.getPrimaryCountryCode()).thenReturn(CountryCode.US);
+        when(gazetteer.getClosestLocations(any(GazetteerQuery.class))).thenAnswer(invocation -> {
+            GazetteerQuery query = invocation.getArgument(0);
+            return Collections.singletonList(new ResolvedLocation(query.getOccurrence(), geoname,
+                    query.getOccurrence().getText(), false));
+        });
+        GeoParser parser = new GeoParser(new DictionaryExtractor(Arrays.asList("Vermont", "Massachusetts"), null),
+                gazetteer, 5, 5, false);
+        server = new ClavinServer(new InetSocketAddress("localhost", 0), parser, gazetteer);
+        warmupStarted = new CountDownLatch(1);
+        finishWarmup = new CountDownLatch(1);
+        server.setWarmup(() -> {
+            warmupStarted.countDown();
+            return finishWarmup.await(10, TimeUnit.SECONDS);
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testHealth() throws Exception {
+        assertTrue(warmupStarted.await(10, TimeUnit.SECONDS));
+        HttpURLConnection connection = open("/health");
+        assertEquals(503, connection.getResponseCode());
+        JsonNode health = JSON.readTree(connection.getErrorStream());
+        assertFalse(health.get("ready").asBoolean());
+        assertEquals("RUNNING", health.get("warmup").asText());
+
+        finishWarmup.countDown();
+        for (int i = 0; i < 100 && !server.isReady(); i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(WarmupState.COMPLETE, server.getWarmupState());
+        health = get("/health");
+        assertTrue(health.get("ready").asBoolean());
+        assertEquals("UP", health.get("status").asText());
+        assertTrue(health.get("warmupMillis").asLong() >= 0);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        JsonNode response = post("/parse", "He was born in Vermont and died in Massachusetts.");
+        assertFalse(response.get("truncated").asBoolean());
+        JsonNode locations = response.get("locations");
+        assertEquals(2, locations.size());
+        assertEquals("Vermont", locations.get(0).get("text").asText());
+        assertEquals(15, locations.get(0).get("offset").asInt());
+        assertEquals(42, locations.get(0).get("geonameId").asInt());
+        assertEquals("US", locations.get(0).get("countryCode").asText());
+        assertEquals("Massachusetts", locations.get(1).get("text").asText());
+    }
+
+    @Test
+    public void testParseStream() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("Vermont is a state. ");
+        }
+        JsonNode locations = post("/parse?stream=true", text.toString()).get("locations");
+        assertEquals(500, locations.size());
+        assertEquals(20 * 499, locations.get(499).get("offset").asInt());
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        JsonNode locations = get("/query?q=New%20York&max=3&fuzzy=fill").get("locations");
+        assertEquals(1, locations.size());
+        assertEquals("New York", locations.get(0).get("text").asText());
+        assertEquals("Somewhere", locations.get(0).get("name").asText());
+    }
+
+    @Test
+    public void testBadRequests() throws Exception {
+        assertEquals(400, open("/query").getResponseCode());
+        assertEquals(400, open("/query?q=Vermont&max=lots").getResponseCode());
+        assertEquals(400, open("/query?q=Vermont&max=0").getResponseCode());
+        assertEquals(400, open("/query?q=Vermont&max=2147483647").getResponseCode());
+        assertEquals(400, open("/query?q=Vermont&fuzzy=sometimes").getResponseCode());
+        HttpURLConnection connection = open("/parse");
+        assertEquals(405, connection.getResponseCode());
+        assertTrue(JSON.readTree(connection.getErrorStream()).get("error").asText().contains("GET"));
+    }
+
+    private HttpURLConnection open(final String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+    }
+
+    private JsonNode get(final String path) throws IOException {
+        HttpURLConnection connection = open(path);
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("application/json"));
+        try (InputStream in = connection.getInputStream()) {
+            return JSON.readTree(in);
+        }
+    }
+
+    private JsonNode post(final String path, final String body) throws IOException {
+        HttpURLConnection connection = open(path);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(200, connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+            return JSON.readTree(in);
+        }
+    }
+}
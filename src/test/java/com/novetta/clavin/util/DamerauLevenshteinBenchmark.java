@@ -0,0 +1,131 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DamerauLevenshteinBenchmark.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.util;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the original String-splitting Damerau-Levenshtein implementation
+ * with {@link DamerauLevenshtein} on pairs of location names and lightly
+ * misspelled variants, with and without a distance limit.  This is not run
+ * as part of the unit tests; run it directly:
+ *
+ * <pre>
+ * java -cp ... com.novetta.clavin.util.DamerauLevenshteinBenchmark [gazetteerFile] [iterations]
+ * </pre>
+ */
+public class DamerauLevenshteinBenchmark {
+    public static void main(String[] args) throws Exception {
+        String gazetteer = args.length > 0 ? args[0] : "src/main/resources/SupplementaryGazetteer.txt";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        List<String> names = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(gazetteer),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length > 2) {
+                    names.add(fields[1]);
+                }
+            }
+        }
+        Random random = new Random(42L);
+        String[][] pairs = new String[names.size()][];
+        for (int i = 0; i < pairs.length; i++) {
+            String name = names.get(i);
+            // half exact-length variants with a single edit, half unrelated names
+            pairs[i] = new String[] { name, i % 2 == 0 ? mutate(name, random) : names.get(random.nextInt(names.size())) };
+        }
+        System.out.printf("%d name pairs, %d iterations%n", pairs.length, iterations);
+
+        Object[][] variants = {
+            { "legacy", (Distance) DamerauLevenshteinTest::legacyDistance },
+            { "buffered", (Distance) DamerauLevenshtein::damerauLevenshteinDistance },
+            { "buffered, max 2", (Distance) (a, b) -> DamerauLevenshtein.damerauLevenshteinDistance(a, b, 2) },
+            { "legacy case-insensitive", (Distance) (a, b) -> DamerauLevenshteinTest.legacyDistance(a.toLowerCase(),
+                    b.toLowerCase()) },
+            { "buffered case-insensitive", (Distance) DamerauLevenshtein::damerauLevenshteinDistanceCaseInsensitive }
+        };
+        for (Object[] variant : variants) {
+            Distance distance = (Distance) variant[1];
+            // warm up
+            run(distance, pairs, Math.max(1, iterations / 4));
+            long start = System.nanoTime();
+            long checksum = run(distance, pairs, iterations);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-26s %8.1f ns/pair (checksum %d)%n", variant[0],
+                    (double) elapsed / ((long) pairs.length * iterations), checksum);
+        }
+    }
+
+    private static long run(final Distance distance, final String[][] pairs, final int iterations) {
+        long checksum = 0L;
+        for (int i = 0; i < iterations; i++) {
+            for (String[] pair : pairs) {
+                checksum += distance.between(pair[0], pair[1]);
+            }
+        }
+        return checksum;
+    }
+
+    private static String mutate(final String name, final Random random) {
+        if (name.length() < 2) {
+            return name + "x";
+        }
+        StringBuilder builder = new StringBuilder(name);
+        int pos = random.nextInt(name.length() - 1);
+        switch (random.nextInt(4)) {
+            case 0:
+                builder.setCharAt(pos, 'q');
+                break;
+            case 1:
+                builder.deleteCharAt(pos);
+                break;
+            case 2:
+                builder.insert(pos, 'e');
+                break;
+            default:
+                builder.setCharAt(pos, name.charAt(pos + 1));
+                builder.setCharAt(pos + 1, name.charAt(pos));
+        }
+        return builder.toString();
+    }
+
+    @FunctionalInterface
+    private interface Distance {
+        int between(String str1, String str2);
+    }
+}
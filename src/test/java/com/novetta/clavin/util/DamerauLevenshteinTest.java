@@ -9,6 +9,8 @@ import static org.junit.Assert.assertTrue;
 
 import java.math.BigInteger;
 import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.junit.Test;
 
@@ -102,6 +104,64 @@ public class DamerauLevenshteinTest {
         }
     }
     
+    /**
+     * Ensure the buffered implementation agrees with the original implementation
+     * on random and mutated strings, and that bounded distances are exact up to
+     * the limit.
+     */
+    @Test
+    public void testMatchesLegacyDistance() {
+        Random random = new Random();
+        StringMutator mutator = new StringMutator();
+        for (int i = 0; i < 20000; i++) {
+            String a = new BigInteger(60 + random.nextInt(70), random).toString(32);
+            String b = i % 2 == 0 ? mutator.mutateString(a, 3) : new BigInteger(60, random).toString(32);
+            int expected = legacyDistance(a, b);
+            assertEquals(a + " vs " + b, expected, damerauLevenshteinDistance(a, b));
+            for (int max = 0; max <= 4; max++) {
+                assertEquals(a + " vs " + b + " (max " + max + ")", Math.min(expected, max + 1),
+                        damerauLevenshteinDistance(a, b, max));
+            }
+        }
+    }
+
+    /**
+     * Bounded distances return maxDistance + 1 once the distance exceeds the limit.
+     */
+    @Test
+    public void testBoundedDistance() {
+        assertEquals(0, damerauLevenshteinDistance(null, "", 0));
+        assertEquals(1, damerauLevenshteinDistance("", "xyz", 0));
+        assertEquals(3, damerauLevenshteinDistance("", "xyz", 3));
+        assertEquals(2, damerauLevenshteinDistance("xyz", "zx", 2));
+        assertEquals(2, damerauLevenshteinDistance("xyz", "zx", 1));
+        assertEquals(4, damerauLevenshteinDistance("Springfield", "Spr", 3));
+        assertEquals(1, damerauLevenshteinDistanceCaseInsensitive("BOSTN", "boston", 1));
+        assertEquals(1, damerauLevenshteinDistance("Zürich", "Zurich"));
+        assertEquals(1, damerauLevenshteinDistance("\uD83C\uDF0D", "\uD83C\uDF0E"));
+    }
+
+    /**
+     * Strings too long for the retained working buffers use temporary ones
+     * and leave later comparisons unaffected.
+     */
+    @Test
+    public void testLongStrings() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        String longString = builder.toString();
+        assertEquals(69998, damerauLevenshteinDistance(longString, "ab"));
+        assertEquals(69998, damerauLevenshteinDistance("ab", longString));
+        assertEquals(1, damerauLevenshteinDistance("xy", "yx"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMaxDistance() {
+        damerauLevenshteinDistance("x", "y", -1);
+    }
+
     /**
      * Ensure the case-insensitive version of DamerauLevenshteinDistance() maintains
      * "triangle equality" between strings that are identical except for case.
@@ -327,4 +387,66 @@ public class DamerauLevenshteinTest {
         }
     }
 
+    /**
+     * The original implementation of {@link DamerauLevenshtein#damerauLevenshteinDistance(String, String)},
+     * retained as a reference for these tests and as a baseline for {@link DamerauLevenshteinBenchmark}.
+     */
+    static int legacyDistance(String str1, String str2) {
+        // return fast if one or both strings is empty or null
+        if ((str1 == null) || str1.isEmpty()) {
+            if ((str2 == null) || str2.isEmpty()) {
+                return 0;
+            } else {
+                return str2.length();
+            }
+        } else if ((str2 == null) || str2.isEmpty()) {
+            return str1.length();
+        }
+
+        // split strings into string arrays
+        String[] stringArray1 = str1.split("");
+        String[] stringArray2 = str2.split("");
+
+        // initialize matrix values
+        int[][] matrix = new int[stringArray1.length + 2][stringArray2.length + 2];
+        int bound = stringArray1.length + stringArray2.length;
+        matrix[0][0] = bound;
+        for (int i = 0; i <= stringArray1.length; i++) {
+            matrix[i + 1][1] = i;
+            matrix[i + 1][0] = bound;
+        }
+        for (int j = 0; j <= stringArray2.length; j++) {
+            matrix[1][j + 1] = j;
+            matrix[0][j + 1] = bound;
+        }
+
+        // initialize dictionary
+        SortedMap<String, Integer> dictionary = new TreeMap<String, Integer>();
+        for (String letter : (str1 + str2).split("")) {
+            if (!dictionary.containsKey(letter)) {
+                dictionary.put(letter, 0);
+            }
+        }
+
+        // compute edit distance between strings
+        for (int i = 1; i <= stringArray1.length; i++) {
+            int index = 0;
+            for (int j = 1; j <= stringArray2.length; j++) {
+                int i1 = dictionary.get(stringArray2[j - 1]);
+                int j1 = index;
+                if (stringArray1[i - 1].equals(stringArray2[j - 1])) {
+                    matrix[i + 1][j + 1] = matrix[i][j];
+                    index = j;
+                } else {
+                    matrix[i + 1][j + 1] = Math.min(matrix[i][j], Math.min(matrix[i + 1][j], matrix[i][j + 1])) + 1;
+                }
+
+                matrix[i + 1][j + 1] = Math.min(matrix[i + 1][j + 1], matrix[i1][j1] + (i - i1 - 1) + 1 + (j - j1 - 1));
+            }
+
+            dictionary.put(stringArray1[i - 1], i);
+        }
+
+        return matrix[stringArray1.length + 1][stringArray2.length + 1];
+    }
 }
@@ -0,0 +1,70 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DeadlineTest.java
+ *
+ *###################################################################*/
+
+package com.novetta.clavin.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Checks expiry and the remaining time of {@link Deadline}s.
+ */
+public class DeadlineTest {
+    @Test
+    public void testNone() {
+        assertFalse(Deadline.NONE.isBounded());
+        assertFalse(Deadline.NONE.isExpired());
+        assertEquals(Long.MAX_VALUE, Deadline.NONE.remaining(TimeUnit.MILLISECONDS));
+        assertSame(Deadline.NONE, Deadline.orNone(null));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        Deadline expired = Deadline.afterMillis(0L);
+        assertTrue(expired.isBounded());
+        assertTrue(expired.isExpired());
+        assertEquals(0L, expired.remaining(TimeUnit.NANOSECONDS));
+        assertTrue(Deadline.after(-1L, TimeUnit.SECONDS).isExpired());
+
+        Deadline later = Deadline.after(1L, TimeUnit.HOURS);
+        assertFalse(later.isExpired());
+        long remaining = later.remaining(TimeUnit.MINUTES);
+        assertTrue("unexpected remaining time: " + remaining, remaining >= 59L && remaining <= 60L);
+        assertSame(later, Deadline.orNone(later));
+
+        Deadline soon = Deadline.afterMillis(5L);
+        Thread.sleep(20L);
+        assertTrue(soon.isExpired());
+    }
+}
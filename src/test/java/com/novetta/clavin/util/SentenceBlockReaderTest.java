@@ -0,0 +1,99 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * SentenceBlockReaderTest.java
+ *
+ *###################################################################*/
+
+
+package com.novetta.clavin.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class SentenceBlockReaderTest {
+
+    private static String sampleText(int sentences) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < sentences; i++) {
+            text.append("Sentence number ").append(i).append(" mentions Springfield and Boston. ");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Blocks must be bounded, cover the whole document in order, report
+     * their document offsets, and end at sentence boundaries.
+     */
+    @Test
+    public void testBlocks() throws IOException {
+        String text = sampleText(200);
+        SentenceBlockReader blocks = new SentenceBlockReader(new StringReader(text), 500);
+        StringBuilder rebuilt = new StringBuilder();
+        int count = 0;
+        while (blocks.next()) {
+            String block = blocks.getText();
+            assertTrue("Block too large", block.length() <= 500);
+            assertEquals("Wrong block offset", rebuilt.length(), blocks.getOffset());
+            assertTrue("Block should end with a whole sentence: " + block, block.endsWith(". "));
+            rebuilt.append(block);
+            count++;
+        }
+        assertEquals(text, rebuilt.toString());
+        assertTrue("Expected several blocks", count > 1);
+        assertFalse(blocks.next());
+    }
+
+    /**
+     * A sentence longer than a block must be split without losing text.
+     */
+    @Test
+    public void testLongSentence() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("word").append(i).append(' ');
+        }
+        text.append("unbroken").append(new String(new char[300]).replace('\0', 'x'));
+        SentenceBlockReader blocks = new SentenceBlockReader(new StringReader(text.toString()), 128);
+        StringBuilder rebuilt = new StringBuilder();
+        while (blocks.next()) {
+            assertTrue(blocks.getText().length() <= 128);
+            assertEquals(rebuilt.length(), blocks.getOffset());
+            rebuilt.append(blocks.getText());
+        }
+        assertEquals(text.toString(), rebuilt.toString());
+    }
+
+    @Test
+    public void testEmptyDocument() throws IOException {
+        SentenceBlockReader blocks = new SentenceBlockReader(new StringReader(""));
+        assertFalse(blocks.next());
+    }
+}